@@ -36,6 +36,7 @@ import org.apache.directory.server.core.api.administrative.AccessControlAdminist
 import org.apache.directory.server.core.api.administrative.CollectiveAttributeAdministrativePoint;
 import org.apache.directory.server.core.api.administrative.SubschemaAdministrativePoint;
 import org.apache.directory.server.core.api.administrative.TriggerExecutionAdministrativePoint;
+import org.apache.directory.server.core.api.authn.PasswordHashingExecutor;
 import org.apache.directory.server.core.api.changelog.ChangeLog;
 import org.apache.directory.server.core.api.entry.ServerEntryFactory;
 import org.apache.directory.server.core.api.event.EventService;
@@ -638,6 +639,20 @@ public interface DirectoryService extends ServerEntryFactory
     void setCacheService( CacheService cacheService );
 
 
+    /**
+     * @return The executor used to compute the expensive password hashes
+     */
+    PasswordHashingExecutor getPasswordHashingExecutor();
+
+
+    /**
+     * Sets the executor used to compute the expensive password hashes
+     * 
+     * @param passwordHashingExecutor The password hashing executor
+     */
+    void setPasswordHashingExecutor( PasswordHashingExecutor passwordHashingExecutor );
+
+
     /**
      * Gets the {@link AttributeTypeProvider}.
      * 
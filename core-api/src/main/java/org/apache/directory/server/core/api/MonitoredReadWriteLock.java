@@ -0,0 +1,393 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * A fair {@link ReadWriteLock} which records how many times its read and write locks
+ * have been acquired, and how long the threads had to wait for them. It is used to
+ * monitor the contention on the locks protecting the partitions.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MonitoredReadWriteLock implements ReadWriteLock
+{
+    /** The name of this lock, used for monitoring */
+    private final String name;
+
+    /** The wrapped lock */
+    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock( true );
+
+    /** The monitored read lock */
+    private final MonitoredLock readLock;
+
+    /** The monitored write lock */
+    private final MonitoredLock writeLock;
+
+
+    /**
+     * Creates a new instance of MonitoredReadWriteLock.
+     *
+     * @param name The lock name
+     */
+    public MonitoredReadWriteLock( String name )
+    {
+        this.name = name;
+        readLock = new MonitoredLock( rwLock.readLock() );
+        writeLock = new MonitoredLock( rwLock.writeLock() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Lock readLock()
+    {
+        return readLock;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Lock writeLock()
+    {
+        return writeLock;
+    }
+
+
+    /**
+     * @return The lock name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the current thread holds the read or the write lock
+     */
+    public boolean isHeldByCurrentThread()
+    {
+        return rwLock.isWriteLockedByCurrentThread() || ( rwLock.getReadHoldCount() > 0 );
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the current thread holds the write lock
+     */
+    public boolean isWriteLockedByCurrentThread()
+    {
+        return rwLock.isWriteLockedByCurrentThread();
+    }
+
+
+    /**
+     * @return The number of times the read lock has been acquired
+     */
+    public long getReadLockCount()
+    {
+        return readLock.count.get();
+    }
+
+
+    /**
+     * @return The number of times a thread had to wait for the read lock
+     */
+    public long getReadLockContendedCount()
+    {
+        return readLock.contended.get();
+    }
+
+
+    /**
+     * @return The total time spent waiting for the read lock, in nanoseconds
+     */
+    public long getReadLockWaitTime()
+    {
+        return readLock.waitTime.get();
+    }
+
+
+    /**
+     * @return The longest time spent waiting for the read lock, in nanoseconds
+     */
+    public long getReadLockMaxWaitTime()
+    {
+        return readLock.maxWaitTime.get();
+    }
+
+
+    /**
+     * @return The number of times the write lock has been acquired
+     */
+    public long getWriteLockCount()
+    {
+        return writeLock.count.get();
+    }
+
+
+    /**
+     * @return The number of times a thread had to wait for the write lock
+     */
+    public long getWriteLockContendedCount()
+    {
+        return writeLock.contended.get();
+    }
+
+
+    /**
+     * @return The total time spent waiting for the write lock, in nanoseconds
+     */
+    public long getWriteLockWaitTime()
+    {
+        return writeLock.waitTime.get();
+    }
+
+
+    /**
+     * @return The longest time spent waiting for the write lock, in nanoseconds
+     */
+    public long getWriteLockMaxWaitTime()
+    {
+        return writeLock.maxWaitTime.get();
+    }
+
+
+    /**
+     * @return The number of threads currently waiting for the read or the write lock
+     */
+    public int getQueueLength()
+    {
+        return rwLock.getQueueLength();
+    }
+
+
+    /**
+     * Resets the statistics
+     */
+    public void resetStatistics()
+    {
+        readLock.reset();
+        writeLock.reset();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "Lock[" ).append( name ).append( "] " );
+        sb.append( "read : " ).append( getReadLockCount() );
+        sb.append( " (contended " ).append( getReadLockContendedCount() );
+        sb.append( ", wait " ).append( TimeUnit.NANOSECONDS.toMicros( getReadLockWaitTime() ) ).append( "us" );
+        sb.append( ", max " ).append( TimeUnit.NANOSECONDS.toMicros( getReadLockMaxWaitTime() ) ).append( "us)" );
+        sb.append( ", write : " ).append( getWriteLockCount() );
+        sb.append( " (contended " ).append( getWriteLockContendedCount() );
+        sb.append( ", wait " ).append( TimeUnit.NANOSECONDS.toMicros( getWriteLockWaitTime() ) ).append( "us" );
+        sb.append( ", max " ).append( TimeUnit.NANOSECONDS.toMicros( getWriteLockMaxWaitTime() ) ).append( "us)" );
+
+        return sb.toString();
+    }
+
+
+    /**
+     * A Lock wrapper recording the time spent waiting for the wrapped lock. We first try
+     * to get the lock without waiting (respecting the fairness policy), and only measure
+     * the time if we had to wait.
+     */
+    private static final class MonitoredLock implements Lock
+    {
+        /** The wrapped lock */
+        private final Lock lock;
+
+        /** The number of acquisitions */
+        private final AtomicLong count = new AtomicLong();
+
+        /** The number of acquisitions which had to wait */
+        private final AtomicLong contended = new AtomicLong();
+
+        /** The total wait time, in nanoseconds */
+        private final AtomicLong waitTime = new AtomicLong();
+
+        /** The longest wait time, in nanoseconds */
+        private final AtomicLong maxWaitTime = new AtomicLong();
+
+
+        private MonitoredLock( Lock lock )
+        {
+            this.lock = lock;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void lock()
+        {
+            if ( !tryAcquire() )
+            {
+                long start = System.nanoTime();
+                lock.lock();
+                recordWait( System.nanoTime() - start );
+            }
+
+            count.incrementAndGet();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void lockInterruptibly() throws InterruptedException
+        {
+            if ( !tryAcquire() )
+            {
+                long start = System.nanoTime();
+                lock.lockInterruptibly();
+                recordWait( System.nanoTime() - start );
+            }
+
+            count.incrementAndGet();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean tryLock()
+        {
+            if ( lock.tryLock() )
+            {
+                count.incrementAndGet();
+
+                return true;
+            }
+
+            return false;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean tryLock( long time, TimeUnit unit ) throws InterruptedException
+        {
+            if ( tryAcquire() )
+            {
+                count.incrementAndGet();
+
+                return true;
+            }
+
+            long start = System.nanoTime();
+            boolean acquired = lock.tryLock( time, unit );
+            recordWait( System.nanoTime() - start );
+
+            if ( acquired )
+            {
+                count.incrementAndGet();
+            }
+
+            return acquired;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void unlock()
+        {
+            lock.unlock();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Condition newCondition()
+        {
+            return lock.newCondition();
+        }
+
+
+        /**
+         * Tries to get the lock without waiting. Using a 0 timeout, the fairness
+         * policy is respected, unlike with {@link Lock#tryLock()}.
+         */
+        private boolean tryAcquire()
+        {
+            try
+            {
+                return lock.tryLock( 0L, TimeUnit.NANOSECONDS );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+
+                return false;
+            }
+        }
+
+
+        private void recordWait( long elapsed )
+        {
+            contended.incrementAndGet();
+            waitTime.addAndGet( elapsed );
+
+            long max = maxWaitTime.get();
+
+            while ( ( elapsed > max ) && !maxWaitTime.compareAndSet( max, elapsed ) )
+            {
+                max = maxWaitTime.get();
+            }
+        }
+
+
+        private void reset()
+        {
+            count.set( 0L );
+            contended.set( 0L );
+            waitTime.set( 0L );
+            maxWaitTime.set( 0L );
+        }
+    }
+}
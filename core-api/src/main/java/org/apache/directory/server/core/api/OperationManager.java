@@ -38,6 +38,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
 
 
 /**
@@ -198,4 +199,15 @@ public interface OperationManager
      * @return the OperationManager R/W lock
      */
     ReadWriteLock getRWLock();
+
+
+    /**
+     * Gets the R/W lock protecting a partition against concurrent operations. Each
+     * partition has its own lock, so that writes on one naming context don't block
+     * the operations done on the others.
+     * 
+     * @param partition The partition
+     * @return the R/W lock associated with the partition
+     */
+    ReadWriteLock getRWLock( Partition partition );
 }
@@ -0,0 +1,686 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.authn;
+
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.constants.LdapSecurityConstants;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOperationException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.password.PasswordUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A bounded executor dedicated to the password hashing and verification. Some
+ * password schemes (PKCS5S2, SSHA512, CRYPT...) are deliberately slow, and running
+ * them on the threads processing the LDAP requests lets a bind storm stall all the
+ * other operations. The expensive hashes are computed by a fixed number of threads,
+ * fed by a bounded queue. The calling thread waits for its hash, so the number of
+ * pending hashes (queued or being computed) is also bounded, and should be kept below
+ * the number of request threads (see {@link #limitPending(int)}) : when this limit is
+ * reached, the caller waits for a pending hash to complete. If none completes within the
+ * maximum wait, the operation fails with a BUSY result code, unless the rejection policy
+ * is {@link RejectionPolicy#CALLER_RUNS}. A hash which has not been computed in time fails
+ * the same way, but it still counts as pending until its thread is done with it. The
+ * cheap schemes are still computed by the calling thread.
+ * <p>
+ * The queue depth, the number of rejected hashes and the hash latency are exposed so
+ * that they can be monitored.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PasswordHashingExecutor
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( PasswordHashingExecutor.class );
+
+    /** The default number of hashing threads */
+    public static final int DEFAULT_NB_THREADS = Math.max( 1, Runtime.getRuntime().availableProcessors() / 2 );
+
+    /** The default number of hashes waiting for a thread */
+    public static final int DEFAULT_QUEUE_SIZE = 256;
+
+    /** The default maximum time a caller waits for a hash, in milliseconds */
+    public static final long DEFAULT_MAX_WAIT = 1000L;
+
+    /**
+     * What to do with a hash when too many hashes are pending.
+     */
+    public enum RejectionPolicy
+    {
+        /** The operation fails with a BUSY result code */
+        REJECT,
+
+        /** The hash is computed by the calling thread */
+        CALLER_RUNS
+    }
+
+    /** The hashing threads */
+    private final ThreadPoolExecutor executor;
+
+    /** The maximum time a caller waits for a hash, in milliseconds */
+    private final long maxWait;
+
+    /** What to do when too many hashes are pending */
+    private final RejectionPolicy rejectionPolicy;
+
+    /** The maximum number of pending hashes, queued or being computed */
+    private volatile int maxPending;
+
+    /** The number of pending hashes, guarded by pendingLock */
+    private int pendingCount;
+
+    /** The lock the callers wait on for a pending hash to complete */
+    private final Object pendingLock = new Object();
+
+    /** The number of hashes computed by the executor */
+    private final AtomicLong completedCount = new AtomicLong();
+
+    /** The number of hashes rejected because too many hashes were pending */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /** The number of hashes abandoned because they took too long */
+    private final AtomicLong timedOutCount = new AtomicLong();
+
+    /** The cumulated time spent in the queue, in nanoseconds */
+    private final AtomicLong totalWaitTime = new AtomicLong();
+
+    /** The cumulated hashing time, in nanoseconds */
+    private final AtomicLong totalHashTime = new AtomicLong();
+
+    /** The longest hashing time, in nanoseconds */
+    private final AtomicLong maxHashTime = new AtomicLong();
+
+
+    /**
+     * Creates a new instance of PasswordHashingExecutor, with the default configuration.
+     */
+    public PasswordHashingExecutor()
+    {
+        this( DEFAULT_NB_THREADS, DEFAULT_QUEUE_SIZE, DEFAULT_MAX_WAIT, RejectionPolicy.REJECT );
+    }
+
+
+    /**
+     * Creates a new instance of PasswordHashingExecutor.
+     *
+     * @param nbThreads The number of hashing threads
+     * @param queueSize The number of hashes that can wait for a thread
+     * @param maxWait The maximum time a caller waits for a hash, in milliseconds
+     * @param rejectionPolicy What to do when too many hashes are pending
+     */
+    public PasswordHashingExecutor( int nbThreads, int queueSize, long maxWait, RejectionPolicy rejectionPolicy )
+    {
+        if ( ( nbThreads <= 0 ) || ( queueSize <= 0 ) || ( maxWait <= 0L ) )
+        {
+            throw new IllegalArgumentException( "The number of threads, the queue size and the maximum wait must be positive" );
+        }
+
+        this.maxWait = maxWait;
+        this.rejectionPolicy = rejectionPolicy;
+        maxPending = nbThreads + queueSize;
+
+        executor = new ThreadPoolExecutor( nbThreads, nbThreads, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>( queueSize ), new ThreadFactory()
+            {
+                private final AtomicInteger threadNumber = new AtomicInteger();
+
+
+                @Override
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread thread = new Thread( runnable, "PasswordHashing-" + threadNumber.incrementAndGet() );
+                    thread.setDaemon( true );
+
+                    return thread;
+                }
+            }, new ThreadPoolExecutor.AbortPolicy() );
+
+        executor.allowCoreThreadTimeOut( true );
+    }
+
+
+    /**
+     * Lowers the maximum number of pending hashes. As each pending hash holds the thread
+     * which has requested it, this limit should be lower than the number of threads
+     * processing the requests, so that the other operations can still be processed
+     * when many expensive hashes are requested at the same time.
+     *
+     * @param limit The maximum number of pending hashes, at least 1
+     */
+    public void limitPending( int limit )
+    {
+        if ( limit <= 0 )
+        {
+            throw new IllegalArgumentException( "The maximum number of pending hashes must be positive" );
+        }
+
+        synchronized ( pendingLock )
+        {
+            if ( limit < maxPending )
+            {
+                maxPending = limit;
+            }
+        }
+    }
+
+
+    /**
+     * @return The maximum number of pending hashes, queued or being computed
+     */
+    public int getMaxPending()
+    {
+        return maxPending;
+    }
+
+
+    /**
+     * Tells if an algorithm is expensive enough to be computed by the hashing threads.
+     *
+     * @param algorithm The algorithm, null for a plain text password
+     * @return <tt>true</tt> if the algorithm is a slow one
+     */
+    public static boolean isExpensive( LdapSecurityConstants algorithm )
+    {
+        if ( algorithm == null )
+        {
+            return false;
+        }
+
+        switch ( algorithm )
+        {
+            case HASH_METHOD_PKCS5S2:
+            case HASH_METHOD_SSHA512:
+            case HASH_METHOD_CRYPT:
+                return true;
+
+            default:
+                // The crypt variants (MD5, SHA-256, SHA-512, BCrypt...)
+                return algorithm.name().startsWith( "HASH_METHOD_CRYPT" );
+        }
+    }
+
+
+    /**
+     * Hashes a password with the given algorithm, using the hashing threads if the
+     * algorithm is an expensive one.
+     *
+     * @param credentials The password
+     * @param algorithm The algorithm to use
+     * @return The hashed password, in its storage format
+     * @throws LdapException If the hashing threads are too busy
+     */
+    public byte[] createStoragePassword( final byte[] credentials, final LdapSecurityConstants algorithm )
+        throws LdapException
+    {
+        if ( !isExpensive( algorithm ) )
+        {
+            return PasswordUtil.createStoragePassword( credentials, algorithm );
+        }
+
+        return execute( new Callable<byte[]>()
+        {
+            @Override
+            public byte[] call()
+            {
+                return PasswordUtil.createStoragePassword( credentials, algorithm );
+            }
+        } );
+    }
+
+
+    /**
+     * Compares some credentials with the stored passwords, using the hashing threads if
+     * one of the stored passwords has been hashed with an expensive algorithm.
+     *
+     * @param credentials The credentials
+     * @param storedPasswords The stored passwords
+     * @return <tt>true</tt> if the credentials match one of the stored passwords
+     * @throws LdapException If the hashing threads are too busy
+     */
+    public boolean compareCredentials( final byte[] credentials, final byte[][] storedPasswords )
+        throws LdapException
+    {
+        boolean expensive = false;
+
+        for ( byte[] storedPassword : storedPasswords )
+        {
+            if ( isExpensive( PasswordUtil.findAlgorithm( storedPassword ) ) )
+            {
+                expensive = true;
+                break;
+            }
+        }
+
+        Callable<Boolean> comparison = new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                for ( byte[] storedPassword : storedPasswords )
+                {
+                    if ( PasswordUtil.compareCredentials( credentials, storedPassword ) )
+                    {
+                        return Boolean.TRUE;
+                    }
+                }
+
+                return Boolean.FALSE;
+            }
+        };
+
+        if ( !expensive )
+        {
+            return runInline( comparison );
+        }
+
+        return execute( comparison );
+    }
+
+
+    /**
+     * Executes a hashing task using the hashing threads, and waits for its result.
+     *
+     * @param task The task
+     * @return The task's result
+     * @throws LdapException If the task has been rejected, has taken too long or has failed
+     */
+    public <T> T execute( Callable<T> task ) throws LdapException
+    {
+        if ( executor.isShutdown() )
+        {
+            return runInline( task );
+        }
+
+        // The whole operation, including the wait for a room, is bounded by the maximum wait
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( maxWait );
+
+        if ( !acquirePending( deadline ) )
+        {
+            return reject( task );
+        }
+
+        PendingTask<T> pendingTask = new PendingTask<>( task );
+        Future<T> future;
+
+        try
+        {
+            future = executor.submit( pendingTask );
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            releasePending();
+
+            return reject( task );
+        }
+
+        try
+        {
+            return future.get( Math.max( 0L, deadline - System.nanoTime() ), TimeUnit.NANOSECONDS );
+        }
+        catch ( TimeoutException te )
+        {
+            // A hash which has not started yet won't be computed. Otherwise, it keeps its
+            // room until its thread is done with it, which may not be interrupted
+            if ( pendingTask.skip() )
+            {
+                releasePending();
+            }
+
+            future.cancel( true );
+            timedOutCount.incrementAndGet();
+            LOG.warn( "A password hash has not been computed within {} ms", maxWait );
+
+            throw new LdapOperationException( ResultCodeEnum.BUSY, "The password hash has taken too long" );
+        }
+        catch ( InterruptedException ie )
+        {
+            if ( pendingTask.skip() )
+            {
+                releasePending();
+            }
+
+            future.cancel( true );
+            Thread.currentThread().interrupt();
+
+            throw new LdapOtherException( ie.getMessage(), ie );
+        }
+        catch ( ExecutionException ee )
+        {
+            Throwable cause = ee.getCause();
+
+            if ( cause instanceof LdapException )
+            {
+                throw ( LdapException ) cause;
+            }
+
+            throw new LdapOtherException( cause.getMessage(), cause );
+        }
+    }
+
+
+    /**
+     * Reserves a room for a pending hash, waiting until the deadline for a pending hash
+     * to complete if the limit is reached.
+     *
+     * @param deadline The time we stop waiting, as given by {@link System#nanoTime()}
+     * @return <tt>true</tt> if a room has been reserved
+     */
+    private boolean acquirePending( long deadline ) throws LdapException
+    {
+        synchronized ( pendingLock )
+        {
+            while ( pendingCount >= maxPending )
+            {
+                long remaining = deadline - System.nanoTime();
+
+                if ( remaining <= 0L )
+                {
+                    return false;
+                }
+
+                try
+                {
+                    TimeUnit.NANOSECONDS.timedWait( pendingLock, remaining );
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+
+                    throw new LdapOtherException( ie.getMessage(), ie );
+                }
+            }
+
+            pendingCount++;
+
+            return true;
+        }
+    }
+
+
+    /**
+     * Releases the room of a pending hash, and wakes up a caller waiting for it.
+     */
+    private void releasePending()
+    {
+        synchronized ( pendingLock )
+        {
+            pendingCount--;
+            pendingLock.notify();
+        }
+    }
+
+
+    /**
+     * Handles a hash which can't be submitted, depending on the rejection policy.
+     */
+    private <T> T reject( Callable<T> task ) throws LdapException
+    {
+        if ( ( rejectionPolicy == RejectionPolicy.CALLER_RUNS ) || executor.isShutdown() )
+        {
+            return runInline( task );
+        }
+
+        rejectedCount.incrementAndGet();
+        LOG.warn( "Too many pending password hashes ({}), rejecting the request", getPendingCount() );
+
+        throw new LdapOperationException( ResultCodeEnum.BUSY, "Too many pending password hashes" );
+    }
+
+
+    /**
+     * Runs a task in the calling thread, recording its latency.
+     */
+    private <T> T runInline( Callable<T> task ) throws LdapException
+    {
+        try
+        {
+            return new TimedTask<T>( task ).call();
+        }
+        catch ( LdapException le )
+        {
+            throw le;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Stops the hashing threads. The hashes submitted afterward are computed by the
+     * calling thread.
+     */
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * @return The number of hashes waiting for a thread
+     */
+    public int getQueueDepth()
+    {
+        return executor.getQueue().size();
+    }
+
+
+    /**
+     * @return The number of pending hashes, queued or being computed
+     */
+    public int getPendingCount()
+    {
+        synchronized ( pendingLock )
+        {
+            return pendingCount;
+        }
+    }
+
+
+    /**
+     * @return The number of hashes being computed
+     */
+    public int getActiveCount()
+    {
+        return executor.getActiveCount();
+    }
+
+
+    /**
+     * @return The number of hashes computed so far
+     */
+    public long getCompletedCount()
+    {
+        return completedCount.get();
+    }
+
+
+    /**
+     * @return The number of hashes rejected because too many hashes were pending
+     */
+    public long getRejectedCount()
+    {
+        return rejectedCount.get();
+    }
+
+
+    /**
+     * @return The number of hashes abandoned because they took too long
+     */
+    public long getTimedOutCount()
+    {
+        return timedOutCount.get();
+    }
+
+
+    /**
+     * @return The average time a hash has waited for a thread, in microseconds
+     */
+    public long getAverageWaitTime()
+    {
+        long completed = completedCount.get();
+
+        return ( completed == 0L ) ? 0L : TimeUnit.NANOSECONDS.toMicros( totalWaitTime.get() / completed );
+    }
+
+
+    /**
+     * @return The average hashing time, in microseconds
+     */
+    public long getAverageHashTime()
+    {
+        long completed = completedCount.get();
+
+        return ( completed == 0L ) ? 0L : TimeUnit.NANOSECONDS.toMicros( totalHashTime.get() / completed );
+    }
+
+
+    /**
+     * @return The longest hashing time, in microseconds
+     */
+    public long getMaxHashTime()
+    {
+        return TimeUnit.NANOSECONDS.toMicros( maxHashTime.get() );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "PasswordHashingExecutor[threads=" + executor.getMaximumPoolSize() + ", pending=" + getPendingCount()
+            + ", queued=" + getQueueDepth() + ", completed=" + completedCount.get() + ", rejected=" + rejectedCount.get() + ", timedOut="
+            + timedOutCount.get() + ", avgHash=" + getAverageHashTime() + "us]";
+    }
+
+
+    /**
+     * A task submitted to the hashing threads. Its room is released when it's done, or
+     * when it's skipped because its caller has stopped waiting before it was started.
+     */
+    private class PendingTask<T> extends TimedTask<T>
+    {
+        /** Set when the task is started or skipped */
+        private final AtomicBoolean started = new AtomicBoolean();
+
+
+        private PendingTask( Callable<T> task )
+        {
+            super( task );
+        }
+
+
+        /**
+         * Prevents the task from being started.
+         *
+         * @return <tt>true</tt> if the task had not been started
+         */
+        private boolean skip()
+        {
+            return started.compareAndSet( false, true );
+        }
+
+
+        @Override
+        public T call() throws Exception
+        {
+            if ( !started.compareAndSet( false, true ) )
+            {
+                // The caller has given up, and has released the room
+                return null;
+            }
+
+            try
+            {
+                return super.call();
+            }
+            finally
+            {
+                releasePending();
+            }
+        }
+    }
+
+
+    /**
+     * A task recording the time it has waited and the time it has taken.
+     */
+    private class TimedTask<T> implements Callable<T>
+    {
+        /** The wrapped task */
+        private final Callable<T> task;
+
+        /** When the task has been created */
+        private final long creationTime = System.nanoTime();
+
+
+        private TimedTask( Callable<T> task )
+        {
+            this.task = task;
+        }
+
+
+        @Override
+        public T call() throws Exception
+        {
+            long start = System.nanoTime();
+            totalWaitTime.addAndGet( start - creationTime );
+
+            try
+            {
+                return task.call();
+            }
+            finally
+            {
+                long duration = System.nanoTime() - start;
+
+                totalHashTime.addAndGet( duration );
+                completedCount.incrementAndGet();
+
+                long max = maxHashTime.get();
+
+                while ( ( duration > max ) && !maxHashTime.compareAndSet( max, duration ) )
+                {
+                    max = maxHashTime.get();
+                }
+            }
+        }
+    }
+}
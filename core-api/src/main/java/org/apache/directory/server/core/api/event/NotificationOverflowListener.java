@@ -17,39 +17,22 @@
  *   under the License.
  *
  */
-
-package org.apache.directory.server.core.shared;
-
-
-import java.io.IOException;
-
-import org.apache.directory.api.util.Strings;
-
-import jdbm.helper.Serializer;
+package org.apache.directory.server.core.api.event;
 
 
 /**
- * A JDBM Serializer that serializes null or empty strings and always deserializes them as empty string values.
+ * Implemented by the asynchronous {@link DirectoryListener}s which want to be told when
+ * they have missed some notifications. When a listener does not process its notifications
+ * fast enough, its queue fills up : the listener is then unregistered, its pending
+ * notifications are discarded, and this method is called instead.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-public class NullStringSerializer implements Serializer
+public interface NotificationOverflowListener
 {
-
-    public static final NullStringSerializer INSTANCE = new NullStringSerializer();
-
-
-    @Override
-    public Object deserialize( byte[] data ) throws IOException
-    {
-        return "";
-    }
-
-
-    @Override
-    public byte[] serialize( Object nullStr ) throws IOException
-    {
-        return Strings.EMPTY_BYTES;
-    }
-
+    /**
+     * Called once the listener has been unregistered, because it could not keep up
+     * with the notifications. It won't receive any other notification.
+     */
+    void notificationsOverflowed();
 }
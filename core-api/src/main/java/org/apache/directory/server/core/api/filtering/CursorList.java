@@ -47,7 +47,7 @@ import org.slf4j.LoggerFactory;
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-public class CursorList extends AbstractCursor<Entry> implements EntryFilteringCursor
+public class CursorList extends AbstractCursor<Entry> implements EntryFilteringCursor, SizedCursor
 {
     /** A dedicated log for cursors */
     private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
@@ -381,6 +381,26 @@ public class CursorList extends AbstractCursor<Entry> implements EntryFilteringC
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getEstimatedSize()
+    {
+        long size = 0L;
+
+        for ( EntryFilteringCursor cursor : list )
+        {
+            if ( cursor instanceof SizedCursor )
+            {
+                size += ( ( SizedCursor ) cursor ).getEstimatedSize();
+            }
+        }
+
+        return size;
+    }
+
+
     public boolean isAbandoned()
     {
         return searchContext.isAbandoned();
@@ -50,7 +50,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements EntryFilteringCursor
+public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements EntryFilteringCursor, SizedCursor
 {
     /** the logger used by this class */
     private static final Logger LOG = LoggerFactory.getLogger( EntryFilteringCursorImpl.class );
@@ -210,6 +210,21 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getEstimatedSize()
+    {
+        if ( wrapped instanceof SizedCursor )
+        {
+            return ( ( SizedCursor ) wrapped ).getEstimatedSize();
+        }
+
+        return 0L;
+    }
+
+
     // ------------------------------------------------------------------------
     // Cursor Interface Methods
     // ------------------------------------------------------------------------
@@ -218,7 +233,8 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
      */
     public void after( Entry element ) throws LdapException, CursorException
     {
-        throw new UnsupportedOperationException();
+        wrapped.after( element );
+        prefetched = null;
     }
 
 
@@ -246,7 +262,8 @@ public class EntryFilteringCursorImpl extends AbstractCursor<Entry> implements E
      */
     public void before( Entry element ) throws LdapException, CursorException
     {
-        throw new UnsupportedOperationException();
+        wrapped.before( element );
+        prefetched = null;
     }
 
 
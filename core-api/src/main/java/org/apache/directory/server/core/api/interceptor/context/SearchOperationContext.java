@@ -65,6 +65,9 @@ public class SearchOperationContext extends FilteringOperationContext
 
     /** flag to indicate if this search is done for replication */
     private boolean syncreplSearch;
+
+    /** flag to indicate if the returned entries must contain all their attributes */
+    private boolean fullEntryRequired;
     
     /**
      * Creates a new instance of SearchOperationContext.
@@ -221,6 +224,31 @@ public class SearchOperationContext extends FilteringOperationContext
     }
 
 
+    /**
+     * @return true if the partitions must return entries containing all their attributes,
+     * and not only the requested ones
+     */
+    public boolean isFullEntryRequired()
+    {
+        return fullEntryRequired;
+    }
+
+
+    /**
+     * Tells the partitions that the returned entries must contain all their attributes. By
+     * default, a partition may only read the requested attributes, the attributes used in
+     * the filter and the operational attributes. An interceptor which needs the other
+     * attributes of the returned entries must set this flag before calling the next
+     * interceptor.
+     * 
+     * @param fullEntryRequired The flag indicating the full entries are required
+     */
+    public void setFullEntryRequired( boolean fullEntryRequired )
+    {
+        this.fullEntryRequired = fullEntryRequired;
+    }
+
+
     /**
      * @return The alias dereferencing mode
      */
@@ -0,0 +1,39 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.partition;
+
+
+/**
+ * Implemented by the {@link Partition}s which protect their entries against concurrent
+ * modifications on their own. The OperationManager takes the lock of such a partition
+ * in shared mode when one of its entries is modified, so that the modifications of
+ * distinct entries are processed concurrently. The operations changing the tree
+ * (add, delete, move and rename) still take this lock in exclusive mode.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public interface EntryLockingPartition
+{
+    /**
+     * @return <tt>true</tt> if an entry can be modified while the other entries of the
+     * partition are read or modified
+     */
+    boolean isConcurrentModifySupported();
+}
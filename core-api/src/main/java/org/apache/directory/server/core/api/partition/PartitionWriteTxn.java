@@ -20,20 +20,71 @@
 package org.apache.directory.server.core.api.partition;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * The Write Transaction interface
+ * The Write Transaction interface. Some actions can be registered, to be run once the
+ * transaction is committed : they are discarded if the transaction is aborted.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class PartitionWriteTxn implements PartitionTxn
 {
+    /** The actions to run when the transaction is committed */
+    private List<Runnable> commitActions;
+
+
+    /**
+     * Registers an action to run when the transaction is committed.
+     *
+     * @param action The action to run
+     */
+    public void addCommitAction( Runnable action )
+    {
+        if ( commitActions == null )
+        {
+            commitActions = new ArrayList<>();
+        }
+
+        commitActions.add( action );
+    }
+
+
+    /**
+     * Runs the registered actions, once the transaction has been committed.
+     */
+    protected void runCommitActions()
+    {
+        List<Runnable> actions = commitActions;
+        commitActions = null;
+
+        if ( actions != null )
+        {
+            for ( Runnable action : actions )
+            {
+                action.run();
+            }
+        }
+    }
+
+
+    /**
+     * Discards the registered actions, once the transaction has been aborted.
+     */
+    protected void discardCommitActions()
+    {
+        commitActions = null;
+    }
+
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void commit() throws IOException
     {
+        runCommitActions();
     }
 
 
@@ -43,6 +94,9 @@ public class PartitionWriteTxn implements PartitionTxn
     @Override
     public void abort() throws IOException
     {
+        // This transaction does not roll the changes back : they are kept, and so are
+        // their side effects
+        runCommitActions();
     }
 
 
@@ -40,6 +40,7 @@ import org.apache.directory.server.core.api.administrative.AccessControlAdminist
 import org.apache.directory.server.core.api.administrative.CollectiveAttributeAdministrativePoint;
 import org.apache.directory.server.core.api.administrative.SubschemaAdministrativePoint;
 import org.apache.directory.server.core.api.administrative.TriggerExecutionAdministrativePoint;
+import org.apache.directory.server.core.api.authn.PasswordHashingExecutor;
 import org.apache.directory.server.core.api.changelog.ChangeLog;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
@@ -623,6 +624,24 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public PasswordHashingExecutor getPasswordHashingExecutor()
+    {
+        return null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setPasswordHashingExecutor( PasswordHashingExecutor passwordHashingExecutor )
+    {
+        // nothing
+    }
+
+
     @Override
     public AttributeTypeProvider getAtProvider()
     {
@@ -0,0 +1,138 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link MonitoredReadWriteLock} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MonitoredReadWriteLockTest
+{
+    @Test
+    public void testUncontendedLocks()
+    {
+        MonitoredReadWriteLock lock = new MonitoredReadWriteLock( "test" );
+
+        assertFalse( lock.isHeldByCurrentThread() );
+
+        lock.readLock().lock();
+        assertTrue( lock.isHeldByCurrentThread() );
+        lock.readLock().unlock();
+
+        lock.writeLock().lock();
+        assertTrue( lock.isHeldByCurrentThread() );
+
+        // Reentrant
+        lock.writeLock().lock();
+        lock.writeLock().unlock();
+        lock.writeLock().unlock();
+
+        assertFalse( lock.isHeldByCurrentThread() );
+        assertEquals( 1L, lock.getReadLockCount() );
+        assertEquals( 2L, lock.getWriteLockCount() );
+        assertEquals( 0L, lock.getReadLockContendedCount() );
+        assertEquals( 0L, lock.getWriteLockContendedCount() );
+        assertEquals( 0L, lock.getWriteLockWaitTime() );
+    }
+
+
+    @Test
+    public void testContendedLock() throws Exception
+    {
+        final MonitoredReadWriteLock lock = new MonitoredReadWriteLock( "test" );
+        final CountDownLatch acquired = new CountDownLatch( 1 );
+
+        lock.writeLock().lock();
+
+        Thread reader = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                lock.readLock().lock();
+                acquired.countDown();
+                lock.readLock().unlock();
+            }
+        };
+
+        reader.start();
+
+        assertFalse( acquired.await( 100, TimeUnit.MILLISECONDS ) );
+        lock.writeLock().unlock();
+        assertTrue( acquired.await( 10, TimeUnit.SECONDS ) );
+        reader.join();
+
+        assertEquals( 1L, lock.getReadLockCount() );
+        assertEquals( 1L, lock.getReadLockContendedCount() );
+        assertTrue( lock.getReadLockWaitTime() >= TimeUnit.MILLISECONDS.toNanos( 100 ) );
+        assertEquals( lock.getReadLockWaitTime(), lock.getReadLockMaxWaitTime() );
+
+        lock.resetStatistics();
+
+        assertEquals( 0L, lock.getReadLockCount() );
+        assertEquals( 0L, lock.getReadLockWaitTime() );
+    }
+
+
+    @Test
+    public void testTryLockTimeout() throws Exception
+    {
+        final MonitoredReadWriteLock lock = new MonitoredReadWriteLock( "test" );
+        final boolean[] result = new boolean[1];
+
+        lock.readLock().lock();
+
+        Thread writer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    result[0] = lock.writeLock().tryLock( 50, TimeUnit.MILLISECONDS );
+                }
+                catch ( InterruptedException ie )
+                {
+                    result[0] = true;
+                }
+            }
+        };
+
+        writer.start();
+        writer.join();
+        lock.readLock().unlock();
+
+        assertFalse( result[0] );
+        assertEquals( 0L, lock.getWriteLockCount() );
+        assertEquals( 1L, lock.getWriteLockContendedCount() );
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.authn;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.directory.api.ldap.model.constants.LdapSecurityConstants;
+import org.apache.directory.api.ldap.model.exception.LdapOperationException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.password.PasswordUtil;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.authn.PasswordHashingExecutor.RejectionPolicy;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link PasswordHashingExecutor} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PasswordHashingExecutorTest
+{
+    @Test
+    public void testIsExpensive()
+    {
+        assertTrue( PasswordHashingExecutor.isExpensive( LdapSecurityConstants.HASH_METHOD_PKCS5S2 ) );
+        assertTrue( PasswordHashingExecutor.isExpensive( LdapSecurityConstants.HASH_METHOD_SSHA512 ) );
+        assertTrue( PasswordHashingExecutor.isExpensive( LdapSecurityConstants.HASH_METHOD_CRYPT ) );
+        assertFalse( PasswordHashingExecutor.isExpensive( LdapSecurityConstants.HASH_METHOD_SSHA ) );
+        assertFalse( PasswordHashingExecutor.isExpensive( null ) );
+    }
+
+
+    @Test
+    public void testHashAndCompare() throws Exception
+    {
+        PasswordHashingExecutor executor = new PasswordHashingExecutor();
+        byte[] password = Strings.getBytesUtf8( "secret" );
+
+        try
+        {
+            byte[] hashed = executor.createStoragePassword( password, LdapSecurityConstants.HASH_METHOD_PKCS5S2 );
+
+            assertEquals( LdapSecurityConstants.HASH_METHOD_PKCS5S2, PasswordUtil.findAlgorithm( hashed ) );
+            assertTrue( executor.compareCredentials( password, new byte[][] { hashed } ) );
+            assertFalse( executor.compareCredentials( Strings.getBytesUtf8( "wrong" ), new byte[][] { hashed } ) );
+
+            // A cheap hash is computed inline, but still accounted for
+            byte[] cheap = executor.createStoragePassword( password, LdapSecurityConstants.HASH_METHOD_SSHA );
+            assertTrue( executor.compareCredentials( password, new byte[][] { cheap, hashed } ) );
+
+            assertEquals( 0L, executor.getRejectedCount() );
+            assertTrue( executor.getCompletedCount() >= 4L );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+
+    /**
+     * When too many hashes are pending, a request waits for one of them to complete
+     */
+    @Test
+    public void testWaitForRoom() throws Exception
+    {
+        final PasswordHashingExecutor executor = new PasswordHashingExecutor( 1, 1, 10000L, RejectionPolicy.REJECT );
+        final CountDownLatch started = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        final Callable<Boolean> blocking = new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                started.countDown();
+                release.await();
+
+                return Boolean.TRUE;
+            }
+        };
+
+        // One task running, one task queued
+        Thread[] callers = new Thread[2];
+
+        for ( int i = 0; i < callers.length; i++ )
+        {
+            callers[i] = new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        executor.execute( blocking );
+                    }
+                    catch ( Exception e )
+                    {
+                        // Not expected
+                    }
+                }
+            } );
+
+            callers[i].start();
+
+            if ( i == 0 )
+            {
+                assertTrue( started.await( 10, TimeUnit.SECONDS ) );
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + 10000L;
+
+        while ( ( executor.getQueueDepth() == 0 ) && ( System.currentTimeMillis() < deadline ) )
+        {
+            Thread.sleep( 10L );
+        }
+
+        assertEquals( 1, executor.getQueueDepth() );
+        assertEquals( 2, executor.getPendingCount() );
+
+        // The third request waits for a room
+        final AtomicBoolean result = new AtomicBoolean();
+        Thread waiting = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    result.set( executor.execute( blocking ) );
+                }
+                catch ( Exception e )
+                {
+                    // Not expected
+                }
+            }
+        } );
+
+        waiting.start();
+        Thread.sleep( 200L );
+        assertTrue( waiting.isAlive() );
+
+        release.countDown();
+
+        for ( Thread caller : callers )
+        {
+            caller.join( 10000L );
+        }
+
+        waiting.join( 10000L );
+
+        assertTrue( result.get() );
+        assertEquals( 0L, executor.getRejectedCount() );
+        assertEquals( 0, executor.getQueueDepth() );
+        assertEquals( 0, executor.getPendingCount() );
+        assertEquals( 3L, executor.getCompletedCount() );
+
+        executor.shutdown();
+    }
+
+
+    /**
+     * Once the pending hashes limit is reached, a request fails after the maximum wait,
+     * even if the queue has some room left. A hash which has timed out keeps its room
+     * until it's completed.
+     */
+    @Test
+    public void testLimitPending() throws Exception
+    {
+        final PasswordHashingExecutor executor = new PasswordHashingExecutor( 1, 10, 200L, RejectionPolicy.REJECT );
+        final CountDownLatch started = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        assertEquals( 11, executor.getMaxPending() );
+        executor.limitPending( 1 );
+        assertEquals( 1, executor.getMaxPending() );
+
+        // The limit can only be lowered
+        executor.limitPending( 5 );
+        assertEquals( 1, executor.getMaxPending() );
+
+        Thread caller = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    executor.execute( new Callable<Boolean>()
+                    {
+                        @Override
+                        public Boolean call() throws Exception
+                        {
+                            started.countDown();
+
+                            // Like a PBKDF2 computation, this task can't be interrupted
+                            while ( !release.await( 10L, TimeUnit.SECONDS ) )
+                            {
+                                // Keep waiting
+                            }
+
+                            return Boolean.TRUE;
+                        }
+                    } );
+                }
+                catch ( Exception e )
+                {
+                    // Expected : the hash takes too long
+                }
+            }
+        } );
+
+        caller.start();
+        assertTrue( started.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( 1, executor.getPendingCount() );
+
+        try
+        {
+            executor.execute( new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call()
+                {
+                    return Boolean.TRUE;
+                }
+            } );
+            fail();
+        }
+        catch ( LdapOperationException loe )
+        {
+            assertEquals( ResultCodeEnum.BUSY, loe.getResultCode() );
+        }
+
+        assertEquals( 0, executor.getQueueDepth() );
+        assertEquals( 1L, executor.getRejectedCount() );
+
+        // The first caller has given up, but its hash is still being computed
+        caller.join( 10000L );
+        assertEquals( 1L, executor.getTimedOutCount() );
+        assertEquals( 1, executor.getPendingCount() );
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 10000L;
+
+        while ( ( executor.getPendingCount() != 0 ) && ( System.currentTimeMillis() < deadline ) )
+        {
+            Thread.sleep( 10L );
+        }
+
+        assertEquals( 0, executor.getPendingCount() );
+        executor.shutdown();
+    }
+
+
+    @Test
+    public void testShutdown() throws Exception
+    {
+        PasswordHashingExecutor executor = new PasswordHashingExecutor( 1, 1, 10000L, RejectionPolicy.CALLER_RUNS );
+        executor.shutdown();
+
+        // Once shutdown, the hashes are computed by the caller
+        assertEquals( "done", executor.execute( new Callable<String>()
+        {
+            @Override
+            public String call()
+            {
+                return "done";
+            }
+        } ) );
+    }
+}
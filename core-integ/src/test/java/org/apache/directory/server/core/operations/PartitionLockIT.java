@@ -0,0 +1,322 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.operations;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOperationErrorException;
+import org.apache.directory.api.ldap.model.exception.LdapOperationException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.DefaultOperationManager;
+import org.apache.directory.server.core.annotations.ContextEntry;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Test that the OperationManager locks are scoped per partition
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(
+    name = "PartitionLockDS",
+    partitions =
+    {
+        @CreatePartition(
+            name = "example",
+            suffix = "dc=example,dc=com",
+            contextEntry = @ContextEntry(entryLdif = "dn: dc=example,dc=com\n"
+                + "dc: example\n" + "objectClass: top\n" + "objectClass: domain\n\n")),
+        @CreatePartition(
+            name = "other",
+            suffix = "dc=other,dc=com",
+            contextEntry = @ContextEntry(entryLdif = "dn: dc=other,dc=com\n"
+                + "dc: other\n" + "objectClass: top\n" + "objectClass: domain\n\n"))
+    }, enableChangeLog = false)
+public class PartitionLockIT extends AbstractLdapTestUnit
+{
+    private static final String BLOCKING_INTERCEPTOR = "BlockingInterceptor";
+
+    private BlockingInterceptor blockingInterceptor;
+
+    private DefaultOperationManager operationManager;
+
+    private ExecutorService executor;
+
+
+    /**
+     * An interceptor blocking the addition of a given entry, while it holds the lock of its
+     * partition, until it's released. It can also look up an entry while another entry is added,
+     * to get a nested operation.
+     */
+    private static class BlockingInterceptor extends BaseInterceptor
+    {
+        private Dn blockedDn;
+        private Dn triggerDn;
+        private Dn nestedLookupDn;
+        private final CountDownLatch blocked = new CountDownLatch( 1 );
+        private final CountDownLatch release = new CountDownLatch( 1 );
+
+
+        BlockingInterceptor()
+        {
+            super( BLOCKING_INTERCEPTOR );
+        }
+
+
+        @Override
+        public void add( AddOperationContext addContext ) throws LdapException
+        {
+            if ( addContext.getDn().equals( blockedDn ) )
+            {
+                blocked.countDown();
+
+                try
+                {
+                    release.await( 30, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException ie )
+                {
+                    throw new LdapOperationErrorException( ie.getMessage() );
+                }
+            }
+            else if ( addContext.getDn().equals( triggerDn ) )
+            {
+                addContext.getSession().lookup( nestedLookupDn );
+            }
+
+            next( addContext );
+        }
+    }
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        blockingInterceptor = new BlockingInterceptor();
+        getService().addLast( blockingInterceptor );
+        operationManager = ( DefaultOperationManager ) getService().getOperationManager();
+        executor = Executors.newFixedThreadPool( 3 );
+    }
+
+
+    @After
+    public void shutdown() throws Exception
+    {
+        blockingInterceptor.release.countDown();
+        executor.shutdown();
+        executor.awaitTermination( 30, TimeUnit.SECONDS );
+        getService().remove( BLOCKING_INTERCEPTOR );
+        operationManager.setNestedLockTimeout( DefaultOperationManager.DEFAULT_NESTED_LOCK_TIMEOUT );
+    }
+
+
+    private Dn dn( String name ) throws Exception
+    {
+        return new Dn( getService().getSchemaManager(), name );
+    }
+
+
+    private Future<Void> add( final String name )
+    {
+        final CoreSession session = getService().getAdminSession();
+
+        return executor.submit( new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                Entry entry = new DefaultEntry( getService().getSchemaManager(), name,
+                    "objectClass: top",
+                    "objectClass: organizationalUnit",
+                    "ou: " + dn( name ).getRdn().getValue() );
+
+                session.add( entry );
+
+                return null;
+            }
+        } );
+    }
+
+
+    private Future<Entry> lookup( final String name )
+    {
+        final CoreSession session = getService().getAdminSession();
+
+        return executor.submit( new Callable<Entry>()
+        {
+            @Override
+            public Entry call() throws Exception
+            {
+                return session.lookup( dn( name ) );
+            }
+        } );
+    }
+
+
+    private Future<Void> move( final String name, final String newSuperior )
+    {
+        final CoreSession session = getService().getAdminSession();
+
+        return executor.submit( new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                session.move( dn( name ), dn( newSuperior ) );
+
+                return null;
+            }
+        } );
+    }
+
+
+    /**
+     * Blocks the addition of an entry, which holds the write lock of its partition
+     */
+    private Future<Void> blockAdd( String name ) throws Exception
+    {
+        blockingInterceptor.blockedDn = dn( name );
+        Future<Void> blockedAdd = add( name );
+        assertTrue( blockingInterceptor.blocked.await( 10, TimeUnit.SECONDS ) );
+
+        return blockedAdd;
+    }
+
+
+    /**
+     * While an entry is added in a partition, the other partitions can be read and written
+     */
+    @Test
+    public void testWriteDoesNotBlockOtherPartition() throws Exception
+    {
+        Future<Void> blockedAdd = blockAdd( "ou=blocked,dc=example,dc=com" );
+
+        add( "ou=free,dc=other,dc=com" ).get( 10, TimeUnit.SECONDS );
+        assertNotNull( lookup( "ou=free,dc=other,dc=com" ).get( 10, TimeUnit.SECONDS ) );
+
+        // The partition being written is still locked
+        Future<Entry> blockedLookup = lookup( "dc=example,dc=com" );
+        Thread.sleep( 200L );
+        assertFalse( blockedLookup.isDone() );
+        assertFalse( blockedAdd.isDone() );
+
+        blockingInterceptor.release.countDown();
+        blockedAdd.get( 10, TimeUnit.SECONDS );
+        assertNotNull( blockedLookup.get( 10, TimeUnit.SECONDS ) );
+        assertTrue( getService().getAdminSession().exists( dn( "ou=blocked,dc=example,dc=com" ) ) );
+    }
+
+
+    /**
+     * An operation holding a partition lock does not wait forever for the lock of another
+     * partition : it fails with a BUSY error, and releases its own lock
+     */
+    @Test
+    public void testNestedLockTimeout() throws Exception
+    {
+        operationManager.setNestedLockTimeout( 500L );
+        Future<Void> blockedAdd = blockAdd( "ou=blocked,dc=other,dc=com" );
+
+        // Adding this entry looks up an entry of the locked partition
+        blockingInterceptor.triggerDn = dn( "ou=trigger,dc=example,dc=com" );
+        blockingInterceptor.nestedLookupDn = dn( "dc=other,dc=com" );
+
+        try
+        {
+            add( "ou=trigger,dc=example,dc=com" ).get( 10, TimeUnit.SECONDS );
+            fail();
+        }
+        catch ( ExecutionException ee )
+        {
+            assertTrue( ee.getCause() instanceof LdapOperationException );
+            assertEquals( ResultCodeEnum.BUSY, ( ( LdapOperationException ) ee.getCause() ).getResultCode() );
+        }
+
+        assertFalse( blockedAdd.isDone() );
+        assertFalse( getService().getAdminSession().exists( dn( "ou=trigger,dc=example,dc=com" ) ) );
+
+        // The lock of the first partition has been released
+        add( "ou=after,dc=example,dc=com" ).get( 10, TimeUnit.SECONDS );
+
+        blockingInterceptor.release.countDown();
+        blockedAdd.get( 10, TimeUnit.SECONDS );
+    }
+
+
+    /**
+     * An entry can't be moved to another partition. The move fails without waiting for
+     * the destination partition, and does not leave any lock behind
+     */
+    @Test
+    public void testMoveToOtherPartition() throws Exception
+    {
+        operationManager.setNestedLockTimeout( 500L );
+        add( "ou=moved,dc=example,dc=com" ).get( 10, TimeUnit.SECONDS );
+        Future<Void> blockedAdd = blockAdd( "ou=blocked,dc=other,dc=com" );
+
+        try
+        {
+            move( "ou=moved,dc=example,dc=com", "dc=other,dc=com" ).get( 10, TimeUnit.SECONDS );
+            fail();
+        }
+        catch ( ExecutionException ee )
+        {
+            assertTrue( ee.getCause() instanceof LdapException );
+        }
+
+        assertFalse( blockedAdd.isDone() );
+        blockingInterceptor.release.countDown();
+        blockedAdd.get( 10, TimeUnit.SECONDS );
+
+        // The entry has not moved, and both partitions can still be written
+        assertTrue( getService().getAdminSession().exists( dn( "ou=moved,dc=example,dc=com" ) ) );
+        assertFalse( getService().getAdminSession().exists( dn( "ou=moved,dc=other,dc=com" ) ) );
+        add( "ou=afterMove,dc=example,dc=com" ).get( 10, TimeUnit.SECONDS );
+        add( "ou=afterMove,dc=other,dc=com" ).get( 10, TimeUnit.SECONDS );
+    }
+}
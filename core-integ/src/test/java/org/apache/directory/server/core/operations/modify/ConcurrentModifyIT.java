@@ -0,0 +1,228 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.operations.modify;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOperationErrorException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.annotations.ContextEntry;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreateIndex;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Test that the modifications of the entries of a partition are serialized, as the JDBM
+ * partition does not isolate its write transactions from each other
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(
+    name = "ConcurrentModifyDS",
+    partitions =
+    {
+        @CreatePartition(
+            name = "example",
+            suffix = "dc=example,dc=com",
+            contextEntry = @ContextEntry(entryLdif = "dn: dc=example,dc=com\n"
+        + "dc: example\n" + "objectClass: top\n" + "objectClass: domain\n\n"), indexes =
+        {
+                @CreateIndex(attribute = "objectClass"),
+                @CreateIndex(attribute = "sn"),
+                @CreateIndex(attribute = "cn") })
+
+    }, enableChangeLog = false)
+public class ConcurrentModifyIT extends AbstractLdapTestUnit
+{
+    private static final String BLOCKING_INTERCEPTOR = "BlockingInterceptor";
+
+    private Dn firstDn;
+    private Dn secondDn;
+
+    private BlockingInterceptor blockingInterceptor;
+
+    private ExecutorService executor;
+
+
+    /**
+     * An interceptor blocking the modifications of a given entry, while it holds the
+     * OperationManager locks, until it's released
+     */
+    private static class BlockingInterceptor extends BaseInterceptor
+    {
+        private Dn blockedDn;
+        private final CountDownLatch blocked = new CountDownLatch( 1 );
+        private final CountDownLatch release = new CountDownLatch( 1 );
+
+
+        BlockingInterceptor( Dn blockedDn )
+        {
+            super( BLOCKING_INTERCEPTOR );
+            this.blockedDn = blockedDn;
+        }
+
+
+        @Override
+        public void modify( ModifyOperationContext modifyContext ) throws LdapException
+        {
+            if ( modifyContext.getDn().equals( blockedDn ) )
+            {
+                blocked.countDown();
+
+                try
+                {
+                    release.await( 30, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException ie )
+                {
+                    throw new LdapOperationErrorException( ie.getMessage() );
+                }
+            }
+
+            next( modifyContext );
+        }
+    }
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        firstDn = new Dn( getService().getSchemaManager(), "cn=first,dc=example,dc=com" );
+        secondDn = new Dn( getService().getSchemaManager(), "cn=second,dc=example,dc=com" );
+
+        for ( String name : new String[] { "first", "second" } )
+        {
+            Dn dn = new Dn( getService().getSchemaManager(), "cn=" + name + ",dc=example,dc=com" );
+
+            if ( !getService().getAdminSession().exists( dn ) )
+            {
+                Entry entry = new DefaultEntry( getService().getSchemaManager(), dn,
+                    "objectClass: top",
+                    "objectClass: person",
+                    "cn: " + name,
+                    "sn: init" );
+
+                getService().getAdminSession().add( entry );
+            }
+        }
+
+        blockingInterceptor = new BlockingInterceptor( firstDn );
+        getService().addLast( blockingInterceptor );
+        executor = Executors.newFixedThreadPool( 2 );
+    }
+
+
+    @After
+    public void shutdown() throws Exception
+    {
+        blockingInterceptor.release.countDown();
+        executor.shutdown();
+        executor.awaitTermination( 30, TimeUnit.SECONDS );
+        getService().remove( BLOCKING_INTERCEPTOR );
+    }
+
+
+    private Future<Void> modify( final Dn dn, final String sn )
+    {
+        final CoreSession session = getService().getAdminSession();
+
+        return executor.submit( new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                session.modify( dn, new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "sn", sn ) );
+
+                return null;
+            }
+        } );
+    }
+
+
+    /**
+     * While the modification of an entry is in progress, the modification of another entry
+     * of the same partition waits
+     */
+    @Test
+    public void testModifyDistinctEntries() throws Exception
+    {
+        Future<Void> first = modify( firstDn, "first" );
+        assertTrue( blockingInterceptor.blocked.await( 10, TimeUnit.SECONDS ) );
+
+        // The first modification holds the partition lock in exclusive mode
+        Future<Void> second = modify( secondDn, "second" );
+        Thread.sleep( 200L );
+        assertFalse( second.isDone() );
+
+        blockingInterceptor.release.countDown();
+        first.get( 10, TimeUnit.SECONDS );
+        second.get( 10, TimeUnit.SECONDS );
+
+        assertEquals( "first", getService().getAdminSession().lookup( firstDn ).get( "sn" ).getString() );
+        assertEquals( "second", getService().getAdminSession().lookup( secondDn ).get( "sn" ).getString() );
+    }
+
+
+    /**
+     * Two modifications of the same entry are still serialized
+     */
+    @Test
+    public void testModifySameEntry() throws Exception
+    {
+        Future<Void> first = modify( firstDn, "first" );
+        assertTrue( blockingInterceptor.blocked.await( 10, TimeUnit.SECONDS ) );
+
+        Future<Void> second = modify( firstDn, "second" );
+        Thread.sleep( 200L );
+        assertFalse( second.isDone() );
+
+        blockingInterceptor.release.countDown();
+        first.get( 10, TimeUnit.SECONDS );
+        second.get( 10, TimeUnit.SECONDS );
+
+        assertEquals( "second", getService().getAdminSession().lookup( firstDn ).get( "sn" ).getString() );
+    }
+}
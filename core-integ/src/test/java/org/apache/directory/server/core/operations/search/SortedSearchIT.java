@@ -361,6 +361,54 @@ public class SortedSearchIT extends AbstractLdapTestUnit
     }
 
 
+    @Test
+    public void testSortByMultipleKeys() throws Exception
+    {
+        // user0 and user2 share the same uid : they are sorted on sn, in reverse order
+        sk.setAttributeTypeDesc( "uid" );
+        SortKey snKey = new SortKey( "sn" );
+        snKey.setReverseOrder( true );
+        ctrl.addSortKey( snKey );
+        SearchCursor cursor = connection.search( req );
+
+        List<String> expectedOrder = new ArrayList<String>();
+        expectedOrder.add( "uid=person1,ou=parent,ou=system" );
+        expectedOrder.add( "uid=person2,ou=parent,ou=system" );
+        expectedOrder.add( "uid=person3,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user2,ou=children,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user0,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user1,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user3,ou=children,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user4,ou=grandchildren,ou=children,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user5,ou=grandchildren,ou=children,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user6,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user7,ou=parent,ou=system" );
+
+        List<String> actualOrder = new ArrayList<String>();
+
+        while ( cursor.next() )
+        {
+            SearchResultEntry se = ( SearchResultEntry ) cursor.get();
+            Entry entry = se.getEntry();
+            actualOrder.add( entry.getDn().getName() );
+        }
+
+        SearchResultDone sd = cursor.getSearchResultDone();
+        cursor.close();
+
+        SortResponse resp = ( SortResponse ) sd.getControl( SortResponse.OID );
+        assertNotNull( resp );
+        assertEquals( SortResultCode.SUCCESS, resp.getSortResult() );
+
+        // remove the LAST 3 entries present in the actualOrder list, they don't have the "uid" attribute
+        actualOrder.remove( actualOrder.size() - 1 );
+        actualOrder.remove( actualOrder.size() - 1 );
+        actualOrder.remove( actualOrder.size() - 1 );
+
+        assertEquals( expectedOrder, actualOrder );
+    }
+
+
     @Test
     public void testSortByDn() throws Exception
     {
@@ -20,7 +20,6 @@
 package org.apache.directory.server.core.shared;
 
 
-import java.io.File;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.text.ParseException;
@@ -32,7 +31,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
-import jdbm.recman.BaseRecordManager;
 
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
@@ -1208,7 +1206,8 @@ public class DefaultCoreSession implements CoreSession
 
             if ( ( sortRespCtrl != null ) && ( sortRespCtrl.getSortResult() == SortResultCode.SUCCESS ) )
             {
-                cursor = sortResults( cursor, sortControl, getDirectoryService().getSchemaManager() );
+                cursor = sortResults( cursor, sortControl, searchRequest.getSizeLimit(),
+                    getDirectoryService().getSchemaManager() );
             }
 
             // the below condition is to satisfy the scenario 6 in section 2 of rfc2891
@@ -1292,18 +1291,32 @@ public class DefaultCoreSession implements CoreSession
     {
         SortResponse resp = new SortResponseImpl();
 
-        List<SortKey> keys = sortControl.getSortKeys();
-
-        // only ONE key is supported by the server for now
-        if ( keys.size() > 1 )
+        // Each key must be usable
+        for ( SortKey sk : sortControl.getSortKeys() )
         {
-            ldapResult.setDiagnosticMessage( "Cannot sort results based on more than one attribute" );
-            resp.setSortResult( SortResultCode.UNWILLINGTOPERFORM );
-            return resp;
+            if ( !canSort( sk, resp, ldapResult, schemaManager ) )
+            {
+                return resp;
+            }
         }
 
-        SortKey sk = keys.get( 0 );
+        resp.setSortResult( SortResultCode.SUCCESS );
+
+        return resp;
+    }
 
+
+    /**
+     * Checks if the requested search results can be sorted on a sort key
+     * 
+     * @param sk the sort key
+     * @param resp the sort response control, updated if the key can't be used
+     * @param ldapResult the refrence to the LDAP result of the ongoing search operation
+     * @param schemaManager schema manager
+     * @return <tt>true</tt> if the key can be used
+     */
+    private boolean canSort( SortKey sk, SortResponse resp, LdapResult ldapResult, SchemaManager schemaManager )
+    {
         AttributeType at = schemaManager.getAttributeType( sk.getAttributeTypeDesc() );
 
         if ( at == null )
@@ -1312,7 +1325,7 @@ public class DefaultCoreSession implements CoreSession
                 + " exists in the server's schema" );
             resp.setSortResult( SortResultCode.NOSUCHATTRIBUTE );
             resp.setAttributeName( sk.getAttributeTypeDesc() );
-            return resp;
+            return false;
         }
 
         String mrOid = sk.getMatchingRuleId();
@@ -1327,7 +1340,7 @@ public class DefaultCoreSession implements CoreSession
                     + " is not applicable for the attribute " + sk.getAttributeTypeDesc() );
                 resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
                 resp.setAttributeName( sk.getAttributeTypeDesc() );
-                return resp;
+                return false;
             }
 
             try
@@ -1339,7 +1352,7 @@ public class DefaultCoreSession implements CoreSession
                 ldapResult.setDiagnosticMessage( "Given matchingrule " + mrOid + " is not supported" );
                 resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
                 resp.setAttributeName( sk.getAttributeTypeDesc() );
-                return resp;
+                return false;
             }
         }
         else
@@ -1351,106 +1364,60 @@ public class DefaultCoreSession implements CoreSession
                 mr = at.getEquality();
             }
 
-            ldapResult.setDiagnosticMessage( "Matchingrule is required for sorting by the attribute "
-                + sk.getAttributeTypeDesc() );
-            resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
-            resp.setAttributeName( sk.getAttributeTypeDesc() );
+            boolean hasComparator = mr != null;
 
-            if ( mr == null )
+            if ( hasComparator )
             {
-                return resp;
+                try
+                {
+                    schemaManager.lookupComparatorRegistry( mr.getOid() );
+                }
+                catch ( LdapException e )
+                {
+                    hasComparator = false;
+                }
             }
 
-            try
+            if ( !hasComparator )
             {
-                schemaManager.lookupComparatorRegistry( mr.getOid() );
-            }
-            catch ( LdapException e )
-            {
-                return resp;
+                ldapResult.setDiagnosticMessage( "Matchingrule is required for sorting by the attribute "
+                    + sk.getAttributeTypeDesc() );
+                resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
+                resp.setAttributeName( sk.getAttributeTypeDesc() );
+                return false;
             }
         }
 
-        resp.setSortResult( SortResultCode.SUCCESS );
-
-        return resp;
+        return true;
     }
 
 
     /**
-     * Sorts the entries based on the given sortkey and returns the cursor
+     * Sorts the entries based on the given sort keys and returns the cursor
      * 
      * @param unsortedEntries the cursor containing un-sorted entries
      * @param control the sort control
+     * @param sizeLimit the maximum number of entries to return, 0 if there is no limit
      * @param schemaManager schema manager
      * @return a cursor containing sorted entries
      * @throws CursorException
      * @throws LdapException
      * @throws IOException
-     * @throws KeyNotFoundException 
      */
-    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control, SchemaManager schemaManager )
-        throws CursorException, LdapException, IOException
+    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control, long sizeLimit,
+        SchemaManager schemaManager ) throws CursorException, LdapException, IOException
     {
-        unsortedEntries.beforeFirst();
-
-        Entry first = null;
-
-        if ( unsortedEntries.next() )
-        {
-            first = unsortedEntries.get();
-        }
-
-        if ( !unsortedEntries.next() )
-        {
-            unsortedEntries.beforeFirst();
-
-            return unsortedEntries;
-        }
-
-        SortKey sk = control.getSortKeys().get( 0 );
-
-        AttributeType at = schemaManager.getAttributeType( sk.getAttributeTypeDesc() );
-
-        SortedEntryComparator comparator = new SortedEntryComparator( at, sk.getMatchingRuleId(), sk.isReverseOrder(),
-            schemaManager );
+        SortedEntryComparator comparator = new SortedEntryComparator( control.getSortKeys(), schemaManager );
 
-        SortedEntrySerializer keySerializer = new SortedEntrySerializer();
+        SortedEntrySerializer serializer = new SortedEntrySerializer();
         SortedEntrySerializer.setSchemaManager( schemaManager );
-        
-        File file = null;
-        
-        try 
-        {
-            file = File.createTempFile( "replica", ".sorted-data" );    // see DIRSERVER-2007
-        } 
-        catch ( IOException e ) 
-        {
-            // see DIRSERVER-2091
-            LOG.error( "Error creating temp file in directory {} for sorting: {}",  
-                System.getProperty( "java.io.tmpdir" ),  e.getMessage(), e );
-            throw e;
-        }
 
-        BaseRecordManager recMan = new BaseRecordManager( file.getAbsolutePath() );
-
-        jdbm.btree.BTree<Entry, String> btree = new jdbm.btree.BTree<>( recMan, comparator, keySerializer, NullStringSerializer.INSTANCE );
-        
-
-        btree.insert( first, "", false );
-
-        // at this stage the cursor will be _on_ the next element, so read it
-        btree.insert( unsortedEntries.get(), "", false );
-
-        while ( unsortedEntries.next() )
-        {
-            Entry entry = unsortedEntries.get();
-            btree.insert( entry, "", false );
-        }
+        EntrySorter sorter = new EntrySorter( comparator, serializer, EntrySorter.DEFAULT_MAX_IN_MEMORY );
 
-        unsortedEntries.close();
+        // Keep one more entry than the limit, so that the limit is known to be exceeded
+        long limit = ( sizeLimit > 0 ) && ( sizeLimit < Long.MAX_VALUE ) ? sizeLimit + 1 : 0L;
 
-        return new SortedEntryCursor( btree, recMan, file );
+        return sorter.sort( unsortedEntries, limit );
     }
 
 
@@ -0,0 +1,531 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Sorts the entries returned by a search, for the server side sort control.
+ * <p>
+ * The sort values of each entry are extracted once, when the entry is read. Then :
+ * <ul>
+ *   <li>when the number of entries to return is bounded by a size limit small enough, we only
+ *   keep the best entries in a heap, which is sorted at the end.</li>
+ *   <li>otherwise, the entries are sorted in memory, by runs of at most <code>maxInMemory</code>
+ *   entries. If there is more than one run, the runs are written in temporary files, and merged
+ *   in a single data file, which is read by the returned cursor.</li>
+ * </ul>
+ * The sort is stable : entries which are equal on all the sort keys are returned in the order
+ * they were read.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class EntrySorter
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( EntrySorter.class );
+
+    /** The default maximum number of entries sorted in memory */
+    static final int DEFAULT_MAX_IN_MEMORY = 10000;
+
+    /** The size of the buffers used to read the runs while merging them */
+    private static final int RUN_BUFFER_SIZE = 8192;
+
+    /** The comparator */
+    private final SortedEntryComparator comparator;
+
+    /** The serializer used to write the entries in the temporary files */
+    private final SortedEntrySerializer serializer;
+
+    /** The maximum number of entries sorted in memory */
+    private final int maxInMemory;
+
+    /** Orders the records on their sort values, then on the order they were read in */
+    private final Comparator<SortRecord> order = new Comparator<SortRecord>()
+    {
+        @Override
+        public int compare( SortRecord record1, SortRecord record2 )
+        {
+            int c = comparator.compareSortValues( record1.sortValues, record2.sortValues );
+
+            if ( c != 0 )
+            {
+                return c;
+            }
+
+            return Long.compare( record1.rank, record2.rank );
+        }
+    };
+
+
+    /**
+     * Creates a new instance of EntrySorter.
+     *
+     * @param comparator The comparator
+     * @param serializer The serializer used to write the entries in the temporary files
+     * @param maxInMemory The maximum number of entries sorted in memory
+     */
+    EntrySorter( SortedEntryComparator comparator, SortedEntrySerializer serializer, int maxInMemory )
+    {
+        this.comparator = comparator;
+        this.serializer = serializer;
+        this.maxInMemory = maxInMemory;
+    }
+
+
+    /**
+     * Reads and sorts all the entries of a cursor. The cursor is closed.
+     *
+     * @param unsortedEntries The entries to sort
+     * @param limit The maximum number of entries the caller will read, 0 if there is no limit
+     * @return A cursor over the sorted entries
+     * @throws LdapException If the entries can't be read
+     * @throws CursorException If the entries can't be read
+     * @throws IOException If the temporary files can't be written
+     */
+    SortedEntryCursor sort( Cursor<Entry> unsortedEntries, long limit ) throws LdapException, CursorException,
+        IOException
+    {
+        try
+        {
+            unsortedEntries.beforeFirst();
+
+            if ( ( limit > 0 ) && ( limit <= maxInMemory ) )
+            {
+                return sortTop( unsortedEntries, ( int ) limit );
+            }
+
+            return sortAll( unsortedEntries );
+        }
+        finally
+        {
+            unsortedEntries.close();
+        }
+    }
+
+
+    /**
+     * Keeps the <code>limit</code> first entries in a heap, which top is the last of them.
+     */
+    private SortedEntryCursor sortTop( Cursor<Entry> unsortedEntries, int limit ) throws LdapException,
+        CursorException
+    {
+        PriorityQueue<SortRecord> heap = new PriorityQueue<>( limit, Collections.reverseOrder( order ) );
+        long rank = 0L;
+
+        while ( unsortedEntries.next() )
+        {
+            Entry entry = unsortedEntries.get();
+            SortRecord record = new SortRecord( entry, comparator.getSortValues( entry ), rank++ );
+
+            if ( heap.size() < limit )
+            {
+                heap.add( record );
+            }
+            else if ( order.compare( record, heap.peek() ) < 0 )
+            {
+                heap.poll();
+                heap.add( record );
+            }
+        }
+
+        List<SortRecord> records = new ArrayList<>( heap );
+        Collections.sort( records, order );
+
+        return new SortedEntryCursor( toEntries( records ) );
+    }
+
+
+    /**
+     * Sorts all the entries, spilling sorted runs to temporary files when they don't
+     * fit in memory.
+     */
+    private SortedEntryCursor sortAll( Cursor<Entry> unsortedEntries ) throws LdapException, CursorException,
+        IOException
+    {
+        List<SortRecord> records = new ArrayList<>();
+        List<File> runFiles = new ArrayList<>();
+        long rank = 0L;
+
+        try
+        {
+            while ( unsortedEntries.next() )
+            {
+                Entry entry = unsortedEntries.get();
+                records.add( new SortRecord( entry, comparator.getSortValues( entry ), rank++ ) );
+
+                if ( records.size() >= maxInMemory )
+                {
+                    Collections.sort( records, order );
+                    runFiles.add( writeRun( records ) );
+                    records.clear();
+                }
+            }
+
+            Collections.sort( records, order );
+
+            if ( runFiles.isEmpty() )
+            {
+                return new SortedEntryCursor( toEntries( records ) );
+            }
+
+            LOG.debug( "Merging {} sorted runs of {} entries", runFiles.size() + 1, rank );
+
+            return merge( runFiles, records );
+        }
+        finally
+        {
+            for ( File runFile : runFiles )
+            {
+                deleteFile( runFile );
+            }
+        }
+    }
+
+
+    /**
+     * Writes a sorted run in a temporary file, each record being stored as its rank, then the
+     * length of the serialized entry, then the serialized entry.
+     */
+    private File writeRun( List<SortRecord> records ) throws IOException
+    {
+        File runFile = createTempFile( ".sorted-run" );
+
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+            new FileOutputStream( runFile ) ) ) )
+        {
+            for ( SortRecord record : records )
+            {
+                byte[] bytes = serializer.serialize( record.entry );
+
+                out.writeLong( record.rank );
+                out.writeInt( bytes.length );
+                out.write( bytes );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            deleteFile( runFile );
+            throw ioe;
+        }
+
+        return runFile;
+    }
+
+
+    /**
+     * Merges the runs and the last run kept in memory in a single data file, and returns a
+     * cursor reading this file.
+     */
+    private SortedEntryCursor merge( List<File> runFiles, List<SortRecord> lastRun ) throws IOException
+    {
+        PriorityQueue<MergeSource> sources = new PriorityQueue<>( runFiles.size() + 1, new Comparator<MergeSource>()
+        {
+            @Override
+            public int compare( MergeSource source1, MergeSource source2 )
+            {
+                return order.compare( source1.current, source2.current );
+            }
+        } );
+
+        File dataFile = createTempFile( ".sorted-data" );
+        long[] offsets = new long[1024];
+        int nbEntries = 0;
+
+        try
+        {
+            for ( File runFile : runFiles )
+            {
+                MergeSource source = new RunSource( runFile );
+
+                if ( source.advance() )
+                {
+                    sources.add( source );
+                }
+                else
+                {
+                    source.close();
+                }
+            }
+
+            MergeSource memorySource = new MemorySource( lastRun.iterator() );
+
+            if ( memorySource.advance() )
+            {
+                sources.add( memorySource );
+            }
+
+            try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+                new FileOutputStream( dataFile ) ) ) )
+            {
+                long offset = 0L;
+
+                while ( !sources.isEmpty() )
+                {
+                    MergeSource source = sources.poll();
+                    byte[] bytes = source.current.bytes;
+
+                    if ( bytes == null )
+                    {
+                        bytes = serializer.serialize( source.current.entry );
+                    }
+
+                    if ( nbEntries == offsets.length )
+                    {
+                        offsets = Arrays.copyOf( offsets, nbEntries * 2 );
+                    }
+
+                    offsets[nbEntries++] = offset;
+                    out.writeInt( bytes.length );
+                    out.write( bytes );
+                    offset += 4 + bytes.length;
+
+                    if ( source.advance() )
+                    {
+                        sources.add( source );
+                    }
+                    else
+                    {
+                        source.close();
+                    }
+                }
+            }
+
+            return new SortedEntryCursor( dataFile, offsets, nbEntries, serializer );
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            deleteFile( dataFile );
+            throw e;
+        }
+        finally
+        {
+            for ( MergeSource source : sources )
+            {
+                source.close();
+            }
+        }
+    }
+
+
+    private static List<Entry> toEntries( List<SortRecord> records )
+    {
+        List<Entry> entries = new ArrayList<>( records.size() );
+
+        for ( SortRecord record : records )
+        {
+            entries.add( record.entry );
+        }
+
+        return entries;
+    }
+
+
+    private static File createTempFile( String suffix ) throws IOException
+    {
+        try
+        {
+            return File.createTempFile( "replica", suffix ); // see DIRSERVER-2007
+        }
+        catch ( IOException e )
+        {
+            // see DIRSERVER-2091
+            LOG.error( "Error creating temp file in directory {} for sorting: {}",
+                System.getProperty( "java.io.tmpdir" ), e.getMessage(), e );
+            throw e;
+        }
+    }
+
+
+    private static void deleteFile( File file )
+    {
+        if ( file.exists() && !file.delete() )
+        {
+            LOG.warn( "Failed to delete the sort temporary file {}", file );
+        }
+    }
+
+
+    /**
+     * An entry, with its sort values and its rank in the unsorted entries
+     */
+    private static final class SortRecord
+    {
+        /** The entry */
+        private final Entry entry;
+
+        /** The values the entry is sorted on */
+        private final Object[] sortValues;
+
+        /** The position of the entry in the unsorted entries */
+        private final long rank;
+
+        /** The serialized entry, when it has been read from a run */
+        private byte[] bytes;
+
+
+        private SortRecord( Entry entry, Object[] sortValues, long rank )
+        {
+            this.entry = entry;
+            this.sortValues = sortValues;
+            this.rank = rank;
+        }
+    }
+
+
+    /**
+     * A sorted sequence of records being merged
+     */
+    private abstract static class MergeSource
+    {
+        /** The current record */
+        protected SortRecord current;
+
+
+        /**
+         * Moves to the next record.
+         *
+         * @return <tt>false</tt> if there is no more record
+         */
+        abstract boolean advance() throws IOException;
+
+
+        /**
+         * Releases the resources used to read the records
+         */
+        void close()
+        {
+        }
+    }
+
+
+    /**
+     * The last run, which has been kept in memory
+     */
+    private static final class MemorySource extends MergeSource
+    {
+        private final Iterator<SortRecord> records;
+
+
+        private MemorySource( Iterator<SortRecord> records )
+        {
+            this.records = records;
+        }
+
+
+        @Override
+        boolean advance()
+        {
+            if ( records.hasNext() )
+            {
+                current = records.next();
+
+                return true;
+            }
+
+            current = null;
+
+            return false;
+        }
+    }
+
+
+    /**
+     * A run written in a temporary file
+     */
+    private final class RunSource extends MergeSource
+    {
+        private final File runFile;
+
+        private final DataInputStream in;
+
+
+        private RunSource( File runFile ) throws IOException
+        {
+            this.runFile = runFile;
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( runFile ), RUN_BUFFER_SIZE ) );
+        }
+
+
+        @Override
+        boolean advance() throws IOException
+        {
+            long rank;
+
+            try
+            {
+                rank = in.readLong();
+            }
+            catch ( EOFException eofe )
+            {
+                current = null;
+
+                return false;
+            }
+
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully( bytes );
+
+            Entry entry = ( Entry ) serializer.deserialize( bytes );
+            current = new SortRecord( entry, comparator.getSortValues( entry ), rank );
+            current.bytes = bytes;
+
+            return true;
+        }
+
+
+        @Override
+        void close()
+        {
+            try
+            {
+                in.close();
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Failed to close the sorted run {}", runFile, ioe );
+            }
+        }
+    }
+}
@@ -6,204 +6,262 @@
  *  to you under the Apache License, Version 2.0 (the
  *  "License"); you may not use this file except in compliance
  *  with the License.  You may obtain a copy of the License at
- * 
+ *
  *    http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  *  Unless required by applicable law or agreed to in writing,
  *  software distributed under the License is distributed on an
  *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
  *  KIND, either express or implied.  See the License for the
  *  specific language governing permissions and limitations
  *  under the License.
- * 
+ *
  */
 package org.apache.directory.server.core.shared;
 
 
 import java.io.Serializable;
 import java.util.Comparator;
-import java.util.TreeSet;
+import java.util.List;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.LdapComparator;
 import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.comparators.ParsedDnComparator;
 
 /**
- * A comparator to sort the entries as per <a href="http://tools.ietf.org/html/rfc2891">RFC 2891</a>
+ * A comparator to sort the entries as per <a href="http://tools.ietf.org/html/rfc2891">RFC 2891</a>.
+ * <p>
+ * The entries are compared on each sort key in turn, the next key being used only when
+ * the entries are equal on the previous ones. As the same entry is compared many times
+ * while sorting, the values used to compare the entries can be extracted once with
+ * {@link #getSortValues(Entry)}, then compared with {@link #compareSortValues(Object[], Object[])}.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 class SortedEntryComparator implements Comparator<Entry>, Serializable
 {
+    /** The serialVersionUID */
+    private static final long serialVersionUID = 1L;
 
-    /** the attribute's type */
-    private transient AttributeType type;
+    /** the attribute's type of each key */
+    private transient AttributeType[] types;
 
-    /** comparator used for comparing the values of the given attribute type */
-    private transient LdapComparator comparator;
+    /** comparator used for comparing the values of each key */
+    private transient LdapComparator<Object>[] comparators;
 
-    /** flag to indicate if the attribute type is multivalued */
-    private boolean multivalued;
+    /** flag to indicate if the attribute type of each key is multivalued */
+    private boolean[] multivalued;
 
-    /** flag for indicating the order of sorting */
-    private boolean reverse;
+    /** flag for indicating the order of sorting of each key */
+    private boolean[] reverse;
 
-    /** flag to indicate if the attribute is human readable or binary */
-    private boolean hr;
+    /** flag to indicate if the attribute of each key is human readable or binary */
+    private boolean[] hr;
 
 
     /**
      * 
      * Creates a new instance of SortedEntryComparator.
      *
-     * @param at the attribute's type
-     * @param mrOid the OID or name of the matchingrule
-     * @param reverse flag to indicate the sort order
+     * @param sortKeys the sort keys, which attribute type and matching rule have been checked
+     * @param schemaManager the schema manager
      */
-    SortedEntryComparator( AttributeType at, String mrule, boolean reverse, SchemaManager schemaManager ) throws LdapException
+    @SuppressWarnings("unchecked")
+    SortedEntryComparator( List<SortKey> sortKeys, SchemaManager schemaManager ) throws LdapException
     {
-        this.type = at;
-        this.reverse = reverse;
+        int nbKeys = sortKeys.size();
+        types = new AttributeType[nbKeys];
+        comparators = new LdapComparator[nbKeys];
+        multivalued = new boolean[nbKeys];
+        reverse = new boolean[nbKeys];
+        hr = new boolean[nbKeys];
 
-        if ( !at.isSingleValued() )
-        {
-            multivalued = true;
-        }
-        
-        // Special case : entryDn
-        if ( SchemaConstants.ENTRY_DN_AT_OID.equals( at.getOid() ) )
+        for ( int i = 0; i < nbKeys; i++ )
         {
-            // We will use the Entry's DN comparator.
-            comparator = new ParsedDnComparator( SchemaConstants.ENTRY_DN_AT_OID );
-            comparator.setSchemaManager( schemaManager );
-            hr = true;
-        }
-        else
-        { 
-            hr = at.getSyntax().isHumanReadable();
-    
-            if ( mrule != null )
+            SortKey sortKey = sortKeys.get( i );
+            AttributeType at = schemaManager.lookupAttributeTypeRegistry( sortKey.getAttributeTypeDesc() );
+
+            types[i] = at;
+            reverse[i] = sortKey.isReverseOrder();
+            multivalued[i] = !at.isSingleValued();
+
+            // Special case : entryDn
+            if ( SchemaConstants.ENTRY_DN_AT_OID.equals( at.getOid() ) )
             {
-                comparator = schemaManager.lookupComparatorRegistry( mrule );
+                // We will use the Entry's DN comparator.
+                comparators[i] = ( LdapComparator<Object> ) ( LdapComparator<?> ) new ParsedDnComparator(
+                    SchemaConstants.ENTRY_DN_AT_OID );
+                comparators[i].setSchemaManager( schemaManager );
+                hr[i] = true;
             }
             else
             {
-                MatchingRule mr = at.getOrdering();
-                
-                if ( mr == null )
+                hr[i] = at.getSyntax().isHumanReadable();
+                String mrule = sortKey.getMatchingRuleId();
+
+                if ( mrule != null )
                 {
-                    mr = at.getEquality();
+                    comparators[i] = ( LdapComparator<Object> ) schemaManager.lookupComparatorRegistry( mrule );
                 }
-                
-                comparator = schemaManager.lookupComparatorRegistry( mr.getOid() );
+                else
+                {
+                    MatchingRule mr = at.getOrdering();
+
+                    if ( mr == null )
+                    {
+                        mr = at.getEquality();
+                    }
+
+                    comparators[i] = ( LdapComparator<Object> ) schemaManager.lookupComparatorRegistry( mr.getOid() );
+                }
+
+                comparators[i].setSchemaManager( schemaManager );
             }
-            
-            comparator.setSchemaManager( schemaManager );
         }
     }
 
 
-    @Override
-    public int compare( Entry entry1, Entry entry2 )
+    /**
+     * @return The number of sort keys
+     */
+    int getNbKeys()
     {
-        Attribute at1 = entry1.get( type );
+        return types.length;
+    }
 
-        Attribute at2 = entry2.get( type );
 
-        // as per section 2.2 of the spec null values are considered larger
-        if ( at1 == null )
-        {
-            return reverse ? -1 : 1;
-        }
-        else if ( at2 == null )
+    /**
+     * Extracts the values an entry is sorted on : for each key, the value of the attribute
+     * (the lowest one if the attribute has many values), or null if the entry has no such
+     * attribute.
+     *
+     * @param entry The entry
+     * @return The sort values, one per key
+     */
+    Object[] getSortValues( Entry entry )
+    {
+        Object[] sortValues = new Object[types.length];
+
+        for ( int i = 0; i < types.length; i++ )
         {
-            return reverse ? 1 : -1;
-        }
+            Attribute attribute = entry.get( types[i] );
 
-        Object o1;
-        Object o2;
+            if ( ( attribute == null ) || ( attribute.size() == 0 ) )
+            {
+                continue;
+            }
 
-        if ( multivalued )
-        {
-            TreeSet ts = new TreeSet( comparator );
+            if ( multivalued[i] )
+            {
+                Object lowest = null;
 
-            o1 = sortAndGetFirst( at1, ts );
+                for ( Value value : attribute )
+                {
+                    Object sortValue = getSortValue( i, value );
 
-            ts.clear();
-            o2 = sortAndGetFirst( at2, ts );
-        }
-        else
-        {
-            Value v1 = at1.get();
-            Value v2 = at2.get();
+                    if ( ( lowest == null ) || ( comparators[i].compare( sortValue, lowest ) < 0 ) )
+                    {
+                        lowest = sortValue;
+                    }
+                }
 
-            if ( hr )
-            {
-                o1 = v1.getValue();
-                o2 = v2.getValue();
+                sortValues[i] = lowest;
             }
             else
             {
-                o1 = v1.getBytes();
-                o2 = v2.getBytes();
+                sortValues[i] = getSortValue( i, attribute.get() );
             }
         }
 
-        int c;
+        return sortValues;
+    }
 
-        try
+
+    /**
+     * Normalizes a value using the key's comparator normalizer
+     */
+    private Object getSortValue( int key, Value value )
+    {
+        if ( !hr[key] )
         {
-            if ( reverse )
-            {
-                c = comparator.compare( comparator.getNormalizer().normalize( ( String ) o2 ), o1 );
-            }
-            else
-            {
-                c = comparator.compare( comparator.getNormalizer().normalize( ( String ) o1 ), o2 );
-            }
-    
-            if ( c == 0 )
-            {
-                return 1;
-            }
+            return value.getBytes();
+        }
+
+        Normalizer normalizer = comparators[key].getNormalizer();
 
-            return c;
+        if ( normalizer == null )
+        {
+            return value.getNormalized();
+        }
+
+        try
+        {
+            return normalizer.normalize( value.getValue() );
         }
         catch ( LdapException le )
         {
-            return 0;
+            return value.getNormalized();
         }
     }
 
 
     /**
-     * sorts the values of an attribute and picks the least value
-     * 
-     * @param at the attribute
-     * @param ts the TreeSet for sorting 
-     * @return the least value among the values of the attribute
+     * Compares the sort values of two entries, key by key.
+     *
+     * @param sortValues1 The sort values of the first entry
+     * @param sortValues2 The sort values of the second entry
+     * @return A negative number if the first entry comes first, a positive number if
+     * the second entry comes first, 0 if they are equal on all the keys
      */
-    private Object sortAndGetFirst( Attribute at, TreeSet ts )
+    int compareSortValues( Object[] sortValues1, Object[] sortValues2 )
     {
-        for ( Value v : at )
+        for ( int i = 0; i < types.length; i++ )
         {
-            if ( hr )
+            Object o1 = sortValues1[i];
+            Object o2 = sortValues2[i];
+            int c;
+
+            // as per section 2.2 of the spec null values are considered larger
+            if ( o1 == null )
+            {
+                if ( o2 == null )
+                {
+                    continue;
+                }
+
+                c = 1;
+            }
+            else if ( o2 == null )
             {
-                ts.add( v.getNormalized() );
+                c = -1;
             }
             else
             {
-                ts.add( v.getBytes() );
+                c = comparators[i].compare( o1, o2 );
+            }
+
+            if ( c != 0 )
+            {
+                return reverse[i] ? -c : c;
             }
         }
 
-        return ts.first();
+        return 0;
+    }
+
+
+    @Override
+    public int compare( Entry entry1, Entry entry2 )
+    {
+        return compareSortValues( getSortValues( entry1 ), getSortValues( entry2 ) );
     }
-}
\ No newline at end of file
+}
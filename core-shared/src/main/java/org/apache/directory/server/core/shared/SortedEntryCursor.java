@@ -1,20 +1,20 @@
 /*
- *   Licensed to the Apache Software Foundation (ASF) under one
- *   or more contributor license agreements.  See the NOTICE file
- *   distributed with this work for additional information
- *   regarding copyright ownership.  The ASF licenses this file
- *   to you under the Apache License, Version 2.0 (the
- *   "License"); you may not use this file except in compliance
- *   with the License.  You may obtain a copy of the License at
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
  *
- *     http://www.apache.org/licenses/LICENSE-2.0
+ *    http://www.apache.org/licenses/LICENSE-2.0
  *
- *   Unless required by applicable law or agreed to in writing,
- *   software distributed under the License is distributed on an
- *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
- *   KIND, either express or implied.  See the License for the
- *   specific language governing permissions and limitations
- *   under the License.
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
  *
  */
 package org.apache.directory.server.core.shared;
@@ -22,13 +22,10 @@ package org.apache.directory.server.core.shared;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.List;
-import java.util.NoSuchElementException;
-
-import jdbm.RecordManager;
-import jdbm.btree.BTree;
-import jdbm.helper.Tuple;
-import jdbm.helper.TupleBrowser;
 
 import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
@@ -37,48 +34,89 @@ import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.server.core.api.filtering.EntryFilter;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.filtering.SizedCursor;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * Cursor for sorted entries.
- * 
- * Note: This currently uses JDBM, but will be migrated to use Mavibot
- *       when ready.
+ * Cursor for sorted entries. The entries are either kept in memory, when they were
+ * few enough to be sorted in memory, or read from the data file produced by the
+ * merge of the sorted runs : in this case, we keep the offset of each entry in the
+ * file, so that the cursor can move in both directions.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFilteringCursor
+public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFilteringCursor, SizedCursor
 {
+    /** The estimated size of an entry kept in memory, in bytes */
+    private static final long ESTIMATED_ENTRY_SIZE = 1024L;
 
     private static final Logger LOG = LoggerFactory.getLogger( SortedEntryCursor.class );
-    
-    private TupleBrowser browser;
-
-    private final Tuple tuple = new Tuple();
 
-    private RecordManager recMan;
+    /** The sorted entries, when they are kept in memory */
+    private List<Entry> entries;
 
+    /** The file containing the sorted entries, when they don't fit in memory */
     private File dataFile;
-    
-    private BTree<Entry, String> btree;
-    
 
-    public SortedEntryCursor( BTree<Entry, String> btree, RecordManager recMan, File dataFile ) throws IOException
+    /** The channel used to read the data file */
+    private FileChannel channel;
+
+    /** The offset of each entry in the data file */
+    private long[] offsets;
+
+    /** The serializer used to read the entries from the data file */
+    private SortedEntrySerializer serializer;
+
+    /** The number of entries */
+    private final int size;
+
+    /** The current position, -1 when before the first entry, size when after the last one */
+    private int position = -1;
+
+    /** The entry at the current position, null if it has not been read yet */
+    private Entry current;
+
+
+    /**
+     * Creates a cursor over entries sorted in memory.
+     *
+     * @param entries The sorted entries
+     */
+    public SortedEntryCursor( List<Entry> entries )
+    {
+        this.entries = entries;
+        size = entries.size();
+    }
+
+
+    /**
+     * Creates a cursor over entries stored in a data file, each entry being stored as
+     * its length followed by its serialized form.
+     *
+     * @param dataFile The data file, which is deleted when the cursor is closed
+     * @param offsets The offset of each entry in the data file
+     * @param size The number of entries
+     * @param serializer The serializer used to read the entries
+     * @throws IOException If the data file can't be opened
+     */
+    public SortedEntryCursor( File dataFile, long[] offsets, int size, SortedEntrySerializer serializer )
+        throws IOException
     {
-        this.recMan = recMan;
         this.dataFile = dataFile;
-        this.btree = btree;
-        browser = btree.browse();
+        this.offsets = offsets;
+        this.size = size;
+        this.serializer = serializer;
+        channel = new RandomAccessFile( dataFile, "r" ).getChannel();
     }
 
 
     @Override
     public boolean available()
     {
-        return tuple.getKey() != null;
+        return ( position >= 0 ) && ( position < size );
     }
 
 
@@ -99,31 +137,16 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     @Override
     public void beforeFirst() throws LdapException, CursorException
     {
-        try
-        {
-            clearValue();
-            browser = btree.browse();
-        }
-        catch ( IOException e )
-        {
-            throw new CursorException( e );
-        }
+        checkNotClosed();
+        moveTo( -1 );
     }
 
 
     @Override
     public void afterLast() throws LdapException, CursorException
     {
-        try
-        {
-            clearValue();
-            browser = btree.browse( null );
-        }
-        catch ( IOException e )
-        {
-            throw new CursorException( e );
-        }
-
+        checkNotClosed();
+        moveTo( size );
     }
 
 
@@ -146,73 +169,101 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     @Override
     public boolean previous() throws LdapException, CursorException
     {
-        try
-        {
+        checkNotClosed();
 
-            if ( browser == null )
-            {
-                browser = btree.browse( null );
-            }
-            
-            if ( browser.getPrevious( tuple ) )
-            {
-                return true;
-            }
-        }
-        catch ( IOException e )
+        if ( position <= 0 )
         {
-            throw new CursorException( e );
+            moveTo( -1 );
+
+            return false;
         }
-        catch ( NoSuchElementException e )
+
+        moveTo( position - 1 );
+
+        return true;
+    }
+
+
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( position >= size - 1 )
         {
-            // ignore this is due to the call wrapped.prev()
-            // instead of doing a check like if(wrapped.hasPrev())
+            moveTo( size );
+
+            return false;
         }
 
-        clearValue();
-        return false;
+        moveTo( position + 1 );
+
+        return true;
     }
 
 
     @Override
-    public boolean next() throws LdapException, CursorException
+    public Entry get() throws CursorException
     {
-        try
+        if ( !available() )
         {
-            if ( browser == null )
+            throw new InvalidCursorPositionException();
+        }
+
+        if ( current == null )
+        {
+            if ( entries != null )
             {
-                browser = btree.browse();
+                current = entries.get( position );
             }
-            
-            if ( browser.getNext( tuple ) )
+            else
             {
-                return true;
+                current = read( offsets[position] );
             }
         }
-        catch ( IOException e )
+
+        return current;
+    }
+
+
+    /**
+     * Reads the entry stored at the given offset in the data file
+     */
+    private Entry read( long offset ) throws CursorException
+    {
+        try
         {
-            throw new CursorException( e );
+            ByteBuffer lengthBuffer = ByteBuffer.allocate( 4 );
+            readFully( lengthBuffer, offset );
+            lengthBuffer.flip();
+
+            ByteBuffer buffer = ByteBuffer.allocate( lengthBuffer.getInt() );
+            readFully( buffer, offset + 4 );
+
+            return ( Entry ) serializer.deserialize( buffer.array() );
         }
-        catch ( NoSuchElementException e )
+        catch ( IOException ioe )
         {
-            // ignore, this is due to the call wrapped.prev()
-            // instead of doing a check like if(wrapped.hasNext())
+            throw new CursorException( ioe );
         }
-
-        clearValue();
-        return false;
     }
 
 
-    @Override
-    public Entry get() throws CursorException
+    private void readFully( ByteBuffer buffer, long offset ) throws IOException
     {
-        if ( tuple.getKey() == null )
+        long pos = offset;
+
+        while ( buffer.hasRemaining() )
         {
-            throw new InvalidCursorPositionException();
-        }
+            int nbRead = channel.read( buffer, pos );
 
-        return ( Entry ) tuple.getKey();
+            if ( nbRead < 0 )
+            {
+                throw new IOException( "Unexpected end of the sorted entry data file " + dataFile );
+            }
+
+            pos += nbRead;
+        }
     }
 
 
@@ -252,29 +303,51 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
         return null;
     }
 
-    
-    private void clearValue()
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getEstimatedSize()
+    {
+        if ( entries != null )
+        {
+            return size * ESTIMATED_ENTRY_SIZE;
+        }
+
+        // Only the offsets are kept in memory
+        return size * 8L;
+    }
+
+
+    private void moveTo( int newPosition )
     {
-        tuple.setKey( null );
-        tuple.setValue( null );
+        position = newPosition;
+        current = null;
     }
 
-    
+
     private void deleteFile()
     {
-        if ( recMan == null )
+        if ( channel == null )
         {
             return;
         }
 
         try
         {
-            recMan.close();
-            dataFile.delete();
+            channel.close();
         }
         catch ( IOException e )
         {
-            LOG.warn( "Failed to delete the sorted entry data file {}", dataFile, e );
+            LOG.warn( "Failed to close the sorted entry data file {}", dataFile, e );
+        }
+
+        channel = null;
+
+        if ( !dataFile.delete() )
+        {
+            LOG.warn( "Failed to delete the sorted entry data file {}", dataFile );
         }
     }
 }
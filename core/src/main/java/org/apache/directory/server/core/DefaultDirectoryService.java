@@ -87,6 +87,7 @@ import org.apache.directory.server.core.api.administrative.AccessControlAdminist
 import org.apache.directory.server.core.api.administrative.CollectiveAttributeAdministrativePoint;
 import org.apache.directory.server.core.api.administrative.SubschemaAdministrativePoint;
 import org.apache.directory.server.core.api.administrative.TriggerExecutionAdministrativePoint;
+import org.apache.directory.server.core.api.authn.PasswordHashingExecutor;
 import org.apache.directory.server.core.api.changelog.ChangeLog;
 import org.apache.directory.server.core.api.changelog.ChangeLogEvent;
 import org.apache.directory.server.core.api.changelog.Tag;
@@ -273,6 +274,9 @@ public class DefaultDirectoryService implements DirectoryService
     /** the ehcache based cache service */
     private CacheService cacheService;
 
+    /** The executor computing the expensive password hashes */
+    private PasswordHashingExecutor passwordHashingExecutor;
+
     /** The AccessControl AdministrativePoint cache */
     private DnNode<AccessControlAdministrativePoint> accessControlAPCache;
 
@@ -1315,6 +1319,13 @@ public class DefaultDirectoryService implements DirectoryService
         LOG.debug( "---Deleting the DnCache" );
         dnFactory = null;
 
+        LOG.debug( "--- Stopping the password hashing executor" );
+        if ( passwordHashingExecutor != null )
+        {
+            passwordHashingExecutor.shutdown();
+            passwordHashingExecutor = null;
+        }
+
         if ( lockFile != null )
         {
             try
@@ -1958,6 +1969,12 @@ public class DefaultDirectoryService implements DirectoryService
 
         cacheService.initialize( instanceLayout, instanceId );
 
+        if ( passwordHashingExecutor == null )
+        {
+            // Initialize a default password hashing executor
+            passwordHashingExecutor = new PasswordHashingExecutor();
+        }
+
         // Initialize the AP caches
         accessControlAPCache = new DnNode<>();
         collectiveAttributeAPCache = new DnNode<>();
@@ -2478,6 +2495,24 @@ public class DefaultDirectoryService implements DirectoryService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public PasswordHashingExecutor getPasswordHashingExecutor()
+    {
+        return passwordHashingExecutor;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setPasswordHashingExecutor( PasswordHashingExecutor passwordHashingExecutor )
+    {
+        this.passwordHashingExecutor = passwordHashingExecutor;
+    }
+
+
     /**
      * {@inheritDoc}
      */
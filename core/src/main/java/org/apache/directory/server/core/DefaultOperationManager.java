@@ -22,8 +22,15 @@ package org.apache.directory.server.core;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.directory.api.ldap.model.constants.Loggers;
@@ -47,6 +54,7 @@ import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.url.LdapUrl;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.MonitoredReadWriteLock;
 import org.apache.directory.server.core.api.OperationManager;
 import org.apache.directory.server.core.api.ReferralManager;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
@@ -65,6 +73,7 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.partition.EntryLockingPartition;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
@@ -96,12 +105,45 @@ public class DefaultOperationManager implements OperationManager
     /** The directory service instance */
     private final DirectoryService directoryService;
 
-    /** A lock used to protect against concurrent operations */
+    /** A global lock, held in read mode by every operation, and in write mode when the server is shut down */
     private ReadWriteLock rwLock = new ReentrantReadWriteLock( true );
 
+    /** The locks protecting each partition against concurrent operations, per partition ID */
+    private final ConcurrentMap<String, MonitoredReadWriteLock> partitionLocks = new ConcurrentHashMap<>();
+
+    /** The ID used for the lock protecting the RootDSE, which has no partition ID */
+    private static final String ROOT_DSE_LOCK_ID = "rootDSE";
+
+    /** The default maximum time we wait for a lock when we already hold a partition lock, in milliseconds */
+    public static final long DEFAULT_NESTED_LOCK_TIMEOUT = 30000L;
+
+    /** The maximum time we wait for a lock when we already hold a partition lock, in milliseconds */
+    private volatile long nestedLockTimeout = DEFAULT_NESTED_LOCK_TIMEOUT;
+
+    /** The number of entry locks, a power of 2 */
+    private static final int NB_ENTRY_LOCKS = 256;
+
+    /** The striped locks serializing the modifications of a given entry, when the partition lock is shared */
+    private final ReentrantLock[] entryLocks = new ReentrantLock[NB_ENTRY_LOCKS];
+
+    /** The number of partition locks held by the current thread */
+    private final ThreadLocal<int[]> heldLocks = new ThreadLocal<int[]>()
+    {
+        @Override
+        protected int[] initialValue()
+        {
+            return new int[1];
+        }
+    };
+
     public DefaultOperationManager( DirectoryService directoryService )
     {
         this.directoryService = directoryService;
+
+        for ( int i = 0; i < NB_ENTRY_LOCKS; i++ )
+        {
+            entryLocks[i] = new ReentrantLock();
+        }
     }
 
 
@@ -150,6 +192,265 @@ public class DefaultOperationManager implements OperationManager
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public ReadWriteLock getRWLock( Partition partition )
+    {
+        return getPartitionLock( partition );
+    }
+
+
+    /**
+     * Gives access to the partition locks, and to their contention statistics.
+     *
+     * @return The partition locks, per partition ID
+     */
+    public Map<String, MonitoredReadWriteLock> getPartitionLocks()
+    {
+        return Collections.unmodifiableMap( partitionLocks );
+    }
+
+
+    /**
+     * @return The maximum time we wait for a lock when we already hold a partition lock,
+     * in milliseconds
+     */
+    public long getNestedLockTimeout()
+    {
+        return nestedLockTimeout;
+    }
+
+
+    /**
+     * Sets the maximum time we wait for a lock when we already hold a partition lock. When
+     * this time is elapsed, the operation fails with a BUSY error.
+     *
+     * @param nestedLockTimeout The timeout, in milliseconds
+     */
+    public void setNestedLockTimeout( long nestedLockTimeout )
+    {
+        this.nestedLockTimeout = nestedLockTimeout;
+    }
+
+
+    /**
+     * Gets the lock associated with a partition, creating it if needed.
+     */
+    private MonitoredReadWriteLock getPartitionLock( Partition partition )
+    {
+        String partitionId = partition.getId();
+
+        if ( partitionId == null )
+        {
+            partitionId = ROOT_DSE_LOCK_ID;
+        }
+
+        MonitoredReadWriteLock partitionLock = partitionLocks.get( partitionId );
+
+        if ( partitionLock == null )
+        {
+            partitionLock = new MonitoredReadWriteLock( partitionId );
+            MonitoredReadWriteLock existing = partitionLocks.putIfAbsent( partitionId, partitionLock );
+
+            if ( existing != null )
+            {
+                partitionLock = existing;
+            }
+        }
+
+        return partitionLock;
+    }
+
+
+    /**
+     * Acquires a partition lock. The global lock is also acquired in read mode, so that
+     * a shutdown waits for all the pending operations.
+     * <p>
+     * An operation may trigger other operations on other partitions, while holding its own
+     * partition lock. As two threads may do so in the reverse order, we don't wait forever
+     * for a lock when we already hold another one : the operation fails with a BUSY error.
+     */
+    private void lockPartition( Partition partition, boolean write ) throws LdapException
+    {
+        MonitoredReadWriteLock partitionLock = getPartitionLock( partition );
+        Lock lock = write ? partitionLock.writeLock() : partitionLock.readLock();
+        int[] held = heldLocks.get();
+
+        if ( write && partitionLock.isHeldByCurrentThread() && !partitionLock.isWriteLockedByCurrentThread() )
+        {
+            // The read lock can't be upgraded : waiting for the write lock would never end
+            String message = "Cannot upgrade the lock on partition " + partitionLock.getName();
+            OPERATION_LOG.warn( message );
+
+            throw new LdapServiceUnavailableException( ResultCodeEnum.BUSY, message );
+        }
+
+        rwLock.readLock().lock();
+
+        if ( ( held[0] == 0 ) || partitionLock.isHeldByCurrentThread() )
+        {
+            lock.lock();
+        }
+        else
+        {
+            boolean acquired = false;
+
+            try
+            {
+                acquired = lock.tryLock( nestedLockTimeout, TimeUnit.MILLISECONDS );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            if ( !acquired )
+            {
+                rwLock.readLock().unlock();
+
+                String message = "Cannot acquire the lock on partition " + partitionLock.getName();
+                OPERATION_LOG.warn( message );
+
+                throw new LdapServiceUnavailableException( ResultCodeEnum.BUSY, message );
+            }
+        }
+
+        held[0]++;
+    }
+
+
+    /**
+     * Releases a partition lock, and the global read lock.
+     */
+    private void unlockPartition( Partition partition, boolean write )
+    {
+        MonitoredReadWriteLock partitionLock = getPartitionLock( partition );
+
+        if ( write )
+        {
+            partitionLock.writeLock().unlock();
+        }
+        else
+        {
+            partitionLock.readLock().unlock();
+        }
+
+        heldLocks.get()[0]--;
+        rwLock.readLock().unlock();
+    }
+
+
+    /**
+     * Acquires the ReadLock of a partition
+     */
+    private void lockRead( Partition partition ) throws LdapException
+    {
+        lockPartition( partition, false );
+    }
+
+
+    /**
+     * Acquires the WriteLock of a partition
+     */
+    private void lockWrite( Partition partition ) throws LdapException
+    {
+        lockPartition( partition, true );
+    }
+
+
+    /**
+     * Releases the ReadLock of a partition
+     */
+    private void unlockRead( Partition partition )
+    {
+        unlockPartition( partition, false );
+    }
+
+
+    /**
+     * Releases the WriteLock of a partition
+     */
+    private void unlockWrite( Partition partition )
+    {
+        unlockPartition( partition, true );
+    }
+
+
+    /**
+     * Acquires the locks needed to modify an entry. When the partition protects its entries
+     * against concurrent modifications on its own, its lock is only taken in shared mode,
+     * and the modifications of the entry are serialized by an entry lock, so that they are
+     * checked against the entry's current content. Otherwise, the partition lock is taken
+     * in exclusive mode.
+     *
+     * @return The entry lock, or null if the partition lock is held in exclusive mode
+     */
+    private Lock lockModify( Partition partition, Dn dn ) throws LdapException
+    {
+        if ( !( partition instanceof EntryLockingPartition )
+            || !( ( EntryLockingPartition ) partition ).isConcurrentModifySupported() )
+        {
+            lockWrite( partition );
+
+            return null;
+        }
+
+        lockRead( partition );
+
+        int hash = dn.getNormName().hashCode();
+        Lock entryLock = entryLocks[( hash ^ ( hash >>> 16 ) ) & ( NB_ENTRY_LOCKS - 1 )];
+
+        if ( heldLocks.get()[0] == 1 )
+        {
+            entryLock.lock();
+
+            return entryLock;
+        }
+
+        // A nested modification : don't wait forever, as for the partition locks
+        boolean acquired = false;
+
+        try
+        {
+            acquired = entryLock.tryLock( nestedLockTimeout, TimeUnit.MILLISECONDS );
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if ( !acquired )
+        {
+            unlockRead( partition );
+
+            String message = "Cannot acquire the lock on entry " + dn;
+            OPERATION_LOG.warn( message );
+
+            throw new LdapServiceUnavailableException( ResultCodeEnum.BUSY, message );
+        }
+
+        return entryLock;
+    }
+
+
+    /**
+     * Releases the locks acquired by {@link #lockModify(Partition, Dn)}
+     */
+    private void unlockModify( Partition partition, Lock entryLock )
+    {
+        if ( entryLock == null )
+        {
+            unlockWrite( partition );
+        }
+        else
+        {
+            entryLock.unlock();
+            unlockRead( partition );
+        }
+    }
+
+
     /**
      * Eagerly populates fields of operation contexts so multiple Interceptors
      * in the processing pathway can reuse this value without performing a
@@ -398,7 +699,7 @@ public class DefaultOperationManager implements OperationManager
         // Call the Add method
         Interceptor head = directoryService.getInterceptor( addContext.getNextInterceptor() );
 
-        lockWrite();
+        lockWrite( partition );
 
         // Start a Write transaction right away
         PartitionTxn transaction = addContext.getSession().getTransaction( partition ); 
@@ -455,7 +756,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
         if ( IS_DEBUG )
@@ -501,12 +802,12 @@ public class DefaultOperationManager implements OperationManager
             bindContext.setDn( dn );
         }
 
-        lockRead();
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+        lockRead( partition );
 
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 bindContext.setPartition( partition );
@@ -521,7 +822,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -616,12 +917,12 @@ public class DefaultOperationManager implements OperationManager
 
         boolean result = false;
 
-        lockRead();
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+        lockRead( partition );
 
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 compareContext.setPartition( partition );
@@ -636,7 +937,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -729,7 +1030,7 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // populate the context with the old entry
-        lockWrite();
+        lockWrite( partition );
 
         // Start a Write transaction right away
         PartitionTxn transaction = deleteContext.getSession().getTransaction( partition ); 
@@ -791,7 +1092,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
         if ( IS_DEBUG )
@@ -828,12 +1129,12 @@ public class DefaultOperationManager implements OperationManager
         Interceptor head = directoryService.getInterceptor( getRootDseContext.getNextInterceptor() );
         Entry root;
 
+        Partition partition = directoryService.getPartitionNexus().getPartition( Dn.ROOT_DSE );
+
+        lockRead( partition );
+
         try
         {
-            lockRead();
-            
-            Partition partition = directoryService.getPartitionNexus().getPartition( Dn.ROOT_DSE );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 getRootDseContext.setPartition( partition );
@@ -848,7 +1149,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -888,8 +1189,6 @@ public class DefaultOperationManager implements OperationManager
 
         boolean result = false;
 
-        lockRead();
-
         // Normalize the addContext Dn
         Dn dn = hasEntryContext.getDn();
         
@@ -899,10 +1198,12 @@ public class DefaultOperationManager implements OperationManager
             hasEntryContext.setDn( dn );
         }
 
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+        lockRead( partition );
+
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 hasEntryContext.setPartition( partition );
@@ -917,7 +1218,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -974,7 +1275,7 @@ public class DefaultOperationManager implements OperationManager
         {
             lookupContext.setTransaction( transaction );
 
-            lockRead();
+            lockRead( partition );
     
             try
             {
@@ -982,7 +1283,7 @@ public class DefaultOperationManager implements OperationManager
             }
             finally
             {
-                unlockRead();
+                unlockRead( partition );
             }
         }
         catch ( IOException ioe )
@@ -1089,7 +1390,7 @@ public class DefaultOperationManager implements OperationManager
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         modifyContext.setPartition( partition );
         
-        lockWrite();
+        Lock entryLock = lockModify( partition, dn );
         
         // Start a Write transaction right away
         PartitionTxn transaction = modifyContext.getSession().getTransaction( partition ); 
@@ -1152,7 +1453,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockModify( partition, entryLock );
         }
 
         if ( IS_DEBUG )
@@ -1260,12 +1561,12 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
-        
         // Find the working partition
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         moveContext.setPartition( partition );
 
+        lockWrite( partition );
+
         // Start a Write transaction right away
         PartitionTxn transaction = moveContext.getSession().getTransaction( partition ); 
         
@@ -1330,7 +1631,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
         if ( IS_DEBUG )
@@ -1443,7 +1744,7 @@ public class DefaultOperationManager implements OperationManager
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         moveAndRenameContext.setPartition( partition );
 
-        lockWrite();
+        lockWrite( partition );
         
         // Start a Write transaction right away
         PartitionTxn transaction = moveAndRenameContext.getSession().getTransaction( partition ); 
@@ -1505,7 +1806,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
         if ( IS_DEBUG )
@@ -1611,10 +1912,10 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
-
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
 
+        lockWrite( partition );
+
         // Start a Write transaction right away
         PartitionTxn transaction = renameContext.getSession().getTransaction( partition ); 
         
@@ -1725,7 +2026,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
         if ( IS_DEBUG )
@@ -1824,7 +2125,7 @@ public class DefaultOperationManager implements OperationManager
         {
             searchContext.setPartition( partition );
             searchContext.setTransaction( partitionTxn );
-            lockRead();
+            lockRead( partition );
     
             try
             {
@@ -1832,7 +2133,7 @@ public class DefaultOperationManager implements OperationManager
             }
             finally
             {
-                unlockRead();
+                unlockRead( partition );
             }
         }
         catch ( IOException ioe )
@@ -46,6 +46,7 @@ import org.apache.directory.api.ldap.model.password.PasswordUtil;
 import org.apache.directory.api.util.DateUtils;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.authn.PasswordHashingExecutor;
 import org.apache.directory.server.core.api.authn.ppolicy.PasswordPolicyConfiguration;
 import org.apache.directory.server.core.api.authn.ppolicy.PasswordPolicyException;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
@@ -169,6 +170,42 @@ public abstract class AbstractAuthenticator implements Authenticator
     }
 
 
+    /**
+     * Compares the given credentials with the stored passwords. The expensive hashes are
+     * computed by the directory service's password hashing executor, so that a bind storm
+     * does not keep all the request threads busy.
+     *
+     * @param credentials The credentials
+     * @param storedPasswords The stored passwords
+     * @return <tt>true</tt> if the credentials match one of the stored passwords
+     * @throws LdapException If the hashing executor is too busy
+     */
+    protected boolean compareCredentials( byte[] credentials, byte[][] storedPasswords ) throws LdapException
+    {
+        PasswordHashingExecutor hashingExecutor = null;
+
+        if ( directoryService != null )
+        {
+            hashingExecutor = directoryService.getPasswordHashingExecutor();
+        }
+
+        if ( hashingExecutor != null )
+        {
+            return hashingExecutor.compareCredentials( credentials, storedPasswords );
+        }
+
+        for ( byte[] storedPassword : storedPasswords )
+        {
+            if ( PasswordUtil.compareCredentials( credentials, storedPassword ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
     /**
      * Does nothing leaving it so subclasses can override.
      */
@@ -596,6 +596,18 @@ public class AuthenticationInterceptor extends BaseInterceptor
             // authentication failed, try the next authenticator
             LOG.info( "Authenticator {} failed to authenticate: {}", authenticator, bindContext.getDn() );
         }
+        catch ( LdapOperationException e )
+        {
+            if ( e.getResultCode() == ResultCodeEnum.BUSY )
+            {
+                // The password hashing executor is saturated : this is not an authentication
+                // failure, and it must not be recorded as such by the password policy
+                LOG.info( "Authenticator {} is too busy to authenticate: {}", authenticator, bindContext.getDn() );
+                throw e;
+            }
+
+            LOG.info( "Unexpected failure for Authenticator {} : {}", authenticator, bindContext.getDn() );
+        }
         catch ( Exception e )
         {
             // Log other exceptions than LdapAuthenticationException
@@ -930,6 +942,29 @@ public class AuthenticationInterceptor extends BaseInterceptor
         }
     }
 
+
+    /**
+     * Invalidates the cached credentials of an entry and of all its descendants, which
+     * Dn change when the entry is moved or renamed.
+     */
+    private void invalidateAuthenticatorCachesSubtree( Dn baseDn )
+    {
+        for ( AuthenticationLevel authMech : authenticatorsMapByType.keySet() )
+        {
+            for ( Authenticator authenticator : getAuthenticators( authMech ) )
+            {
+                if ( authenticator instanceof SimpleAuthenticator )
+                {
+                    ( ( SimpleAuthenticator ) authenticator ).invalidateCacheSubtree( baseDn );
+                }
+                else
+                {
+                    authenticator.invalidateCache( baseDn );
+                }
+            }
+        }
+    }
+
     
     /**
      * {@inheritDoc}
@@ -1340,7 +1375,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
         checkAuthenticated( moveContext );
         checkPwdReset( moveContext );
         next( moveContext );
-        invalidateAuthenticatorCaches( moveContext.getDn() );
+        invalidateAuthenticatorCachesSubtree( moveContext.getDn() );
     }
 
 
@@ -1358,7 +1393,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
         checkAuthenticated( moveAndRenameContext );
         checkPwdReset( moveAndRenameContext );
         next( moveAndRenameContext );
-        invalidateAuthenticatorCaches( moveAndRenameContext.getDn() );
+        invalidateAuthenticatorCachesSubtree( moveAndRenameContext.getDn() );
     }
 
 
@@ -1376,7 +1411,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
         checkAuthenticated( renameContext );
         checkPwdReset( renameContext );
         next( renameContext );
-        invalidateAuthenticatorCaches( renameContext.getDn() );
+        invalidateAuthenticatorCachesSubtree( renameContext.getDn() );
     }
 
 
@@ -0,0 +1,319 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn;
+
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A bounded cache of the passwords stored in the user entries, used by the
+ * {@link SimpleAuthenticator} to avoid a backend lookup on each bind.
+ * <p>
+ * The cache is split in segments, each one being a LRU map protected by its own lock,
+ * so that concurrent binds rarely contend. The cached passwords expire after a
+ * configurable time to live, and are removed when the user entry is modified, deleted
+ * or moved.
+ * <p>
+ * As the passwords are read from the backend without holding any lock, a bind could
+ * cache a password which has been modified in the meantime. To avoid that, the caller
+ * gets the cache version before reading the passwords, and gives it back when caching
+ * them : they are not cached if an invalidation has happened since.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CredentialCache
+{
+    /** The default number of segments */
+    private static final int NB_SEGMENTS = 16;
+
+    /** The segments */
+    private final Segment[] segments;
+
+    /** The time to live of a cached password, in milliseconds. 0 means forever */
+    private final long timeToLive;
+
+    /** The number of invalidations, used to detect concurrent modifications */
+    private final AtomicLong version = new AtomicLong();
+
+    /** The number of hits */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /** The number of misses, including the expired passwords */
+    private final AtomicLong missCount = new AtomicLong();
+
+
+    /**
+     * Creates a new instance of CredentialCache.
+     *
+     * @param maxSize The maximum number of cached users
+     * @param timeToLive The time to live of a cached password, in milliseconds. 0 means forever
+     */
+    public CredentialCache( int maxSize, long timeToLive )
+    {
+        this.timeToLive = timeToLive;
+
+        int nbSegments = Math.min( NB_SEGMENTS, Integer.highestOneBit( Math.max( 1, maxSize ) ) );
+        int segmentSize = Math.max( 1, ( maxSize + nbSegments - 1 ) / nbSegments );
+        segments = new Segment[nbSegments];
+
+        for ( int i = 0; i < nbSegments; i++ )
+        {
+            segments[i] = new Segment( segmentSize );
+        }
+    }
+
+
+    private Segment segmentFor( String normName )
+    {
+        int hash = normName.hashCode();
+        hash ^= hash >>> 16;
+
+        return segments[hash & ( segments.length - 1 )];
+    }
+
+
+    /**
+     * Gets the cached passwords of a user.
+     *
+     * @param normName The normalized Dn of the user
+     * @return The passwords, or null if they are not cached or have expired
+     */
+    public byte[][] get( String normName )
+    {
+        Segment segment = segmentFor( normName );
+        CachedCredentials credentials;
+
+        synchronized ( segment )
+        {
+            credentials = segment.get( normName );
+
+            if ( ( credentials != null ) && ( timeToLive > 0 )
+                && ( System.currentTimeMillis() - credentials.creationTime > timeToLive ) )
+            {
+                segment.remove( normName );
+                credentials = null;
+            }
+        }
+
+        if ( credentials == null )
+        {
+            missCount.incrementAndGet();
+
+            return null;
+        }
+
+        hitCount.incrementAndGet();
+
+        return credentials.passwords;
+    }
+
+
+    /**
+     * @return The current version of the cache, to be given to {@link #put(String, byte[][], long)}
+     */
+    public long getVersion()
+    {
+        return version.get();
+    }
+
+
+    /**
+     * Caches the passwords of a user, unless an invalidation happened since they
+     * have been read.
+     *
+     * @param normName The normalized Dn of the user
+     * @param passwords The passwords
+     * @param readVersion The version of the cache before the passwords were read
+     */
+    public void put( String normName, byte[][] passwords, long readVersion )
+    {
+        Segment segment = segmentFor( normName );
+
+        synchronized ( segment )
+        {
+            // The invalidations are done under the segment lock, so this check is safe
+            if ( version.get() == readVersion )
+            {
+                segment.put( normName, new CachedCredentials( passwords ) );
+            }
+        }
+    }
+
+
+    /**
+     * Removes the passwords of a user.
+     *
+     * @param normName The normalized Dn of the user
+     */
+    public void invalidate( String normName )
+    {
+        Segment segment = segmentFor( normName );
+
+        synchronized ( segment )
+        {
+            version.incrementAndGet();
+            segment.remove( normName );
+        }
+    }
+
+
+    /**
+     * Removes the passwords of a user and of all the users below it.
+     *
+     * @param normName The normalized Dn of the subtree's root
+     */
+    public void invalidateSubtree( String normName )
+    {
+        String suffix = "," + normName;
+
+        for ( Segment segment : segments )
+        {
+            synchronized ( segment )
+            {
+                version.incrementAndGet();
+                Iterator<String> keys = segment.keySet().iterator();
+
+                while ( keys.hasNext() )
+                {
+                    String key = keys.next();
+
+                    if ( key.equals( normName ) || key.endsWith( suffix ) || normName.isEmpty() )
+                    {
+                        keys.remove();
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Removes all the cached passwords.
+     */
+    public void clear()
+    {
+        for ( Segment segment : segments )
+        {
+            synchronized ( segment )
+            {
+                version.incrementAndGet();
+                segment.clear();
+            }
+        }
+    }
+
+
+    /**
+     * @return The number of cached users
+     */
+    public int size()
+    {
+        int size = 0;
+
+        for ( Segment segment : segments )
+        {
+            synchronized ( segment )
+            {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+
+    /**
+     * @return The number of binds which found the passwords in the cache
+     */
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+
+    /**
+     * @return The number of binds which had to read the passwords from the backend
+     */
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "CredentialCache[size=" + size() + ", ttl=" + timeToLive + ", hits=" + hitCount.get() + ", misses="
+            + missCount.get() + "]";
+    }
+
+
+    /**
+     * The cached passwords of a user
+     */
+    private static final class CachedCredentials
+    {
+        /** The passwords */
+        private final byte[][] passwords;
+
+        /** The time the passwords were cached at */
+        private final long creationTime;
+
+
+        private CachedCredentials( byte[][] passwords )
+        {
+            this.passwords = passwords;
+            creationTime = System.currentTimeMillis();
+        }
+    }
+
+
+    /**
+     * A LRU map, containing a part of the cached users
+     */
+    private static final class Segment extends LinkedHashMap<String, CachedCredentials>
+    {
+        private static final long serialVersionUID = 1L;
+
+        /** The maximum number of users in this segment */
+        private final int maxSize;
+
+
+        private Segment( int maxSize )
+        {
+            super( 16, 0.75f, true );
+            this.maxSize = maxSize;
+        }
+
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, CachedCredentials> eldest )
+        {
+            return size() > maxSize;
+        }
+    }
+}
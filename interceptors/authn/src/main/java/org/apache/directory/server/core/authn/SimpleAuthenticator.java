@@ -24,7 +24,6 @@ import java.net.SocketAddress;
 
 import javax.naming.Context;
 
-import org.apache.commons.collections4.map.LRUMap;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -33,7 +32,6 @@ import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapAuthenticationException;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.name.Dn;
-import org.apache.directory.api.ldap.model.password.PasswordUtil;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.LdapPrincipal;
@@ -77,10 +75,13 @@ public class SimpleAuthenticator extends AbstractAuthenticator
      * We need to be sure that frequently used passwords be always in cache, and not discarded.
      * We will use a LRU cache for this purpose.
      */
-    private final LRUMap credentialCache;
+    private volatile CredentialCache credentialCache;
 
-    /** Declare a default for this cache. 100 entries seems to be enough */
-    private static final int DEFAULT_CACHE_SIZE = 100;
+    /** Declare a default for this cache */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /** The default time to live of the cached passwords : 10 minutes */
+    public static final long DEFAULT_CACHE_TTL = 600000L;
 
 
     /**
@@ -89,7 +90,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     public SimpleAuthenticator()
     {
         super( AuthenticationLevel.SIMPLE );
-        credentialCache = new LRUMap( DEFAULT_CACHE_SIZE );
+        credentialCache = new CredentialCache( DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL );
     }
 
 
@@ -102,7 +103,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     public SimpleAuthenticator( Dn baseDn )
     {
         super( AuthenticationLevel.SIMPLE, baseDn );
-        credentialCache = new LRUMap( DEFAULT_CACHE_SIZE );
+        credentialCache = new CredentialCache( DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL );
     }
 
 
@@ -114,7 +115,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     {
         super( AuthenticationLevel.SIMPLE, Dn.ROOT_DSE );
 
-        credentialCache = new LRUMap( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE );
+        credentialCache = new CredentialCache( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL );
     }
 
 
@@ -128,7 +129,30 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     {
         super( AuthenticationLevel.SIMPLE, baseDn );
 
-        credentialCache = new LRUMap( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE );
+        credentialCache = new CredentialCache( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL );
+    }
+
+
+    /**
+     * Replaces the credential cache with a new one, using the given settings. These settings
+     * have no configuration attribute, they are only set programmatically.
+     *
+     * @param cacheSize the size of the credential cache
+     * @param cacheTtl the time to live of the cached passwords, in milliseconds. 0 means forever
+     */
+    public void setCacheConfiguration( int cacheSize, long cacheTtl )
+    {
+        credentialCache = new CredentialCache( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE,
+            Math.max( 0L, cacheTtl ) );
+    }
+
+
+    /**
+     * @return The credential cache, which gives the hit and miss counts
+     */
+    public CredentialCache getCredentialCache()
+    {
+        return credentialCache;
     }
 
 
@@ -140,21 +164,22 @@ public class SimpleAuthenticator extends AbstractAuthenticator
      */
     private LdapPrincipal getStoredPassword( BindOperationContext bindContext ) throws LdapException
     {
-        LdapPrincipal principal = null;
+        CredentialCache cache = credentialCache;
+        String normName = bindContext.getDn().getNormName();
+        byte[][] storedPasswords = null;
 
         // use cache only if pwdpolicy is not enabled
-        if ( !getDirectoryService().isPwdPolicyEnabled() )
+        boolean useCache = !getDirectoryService().isPwdPolicyEnabled();
+
+        if ( useCache )
         {
-            synchronized ( credentialCache )
-            {
-                principal = ( LdapPrincipal ) credentialCache.get( bindContext.getDn() );
-            }
+            storedPasswords = cache.get( normName );
         }
 
-        byte[][] storedPasswords;
-
-        if ( principal == null )
+        if ( storedPasswords == null )
         {
+            long cacheVersion = cache.getVersion();
+
             // Not found in the cache
             // Get the user password from the backend
             storedPasswords = lookupUserPassword( bindContext );
@@ -169,21 +194,18 @@ public class SimpleAuthenticator extends AbstractAuthenticator
                     {};
             }
 
-            // Create the new principal before storing it in the cache
-            principal = new LdapPrincipal( getDirectoryService().getSchemaManager(), bindContext.getDn(),
-                AuthenticationLevel.SIMPLE );
-            principal.setUserPassword( storedPasswords );
-
             // Now, update the local cache ONLY if pwdpolicy is not enabled.
-            if ( !getDirectoryService().isPwdPolicyEnabled() )
+            if ( useCache )
             {
-                synchronized ( credentialCache )
-                {
-                    credentialCache.put( bindContext.getDn().getNormName(), principal );
-                }
+                cache.put( normName, storedPasswords, cacheVersion );
             }
         }
 
+        // Each bind gets its own principal, as it holds the client address
+        LdapPrincipal principal = new LdapPrincipal( getDirectoryService().getSchemaManager(), bindContext.getDn(),
+            AuthenticationLevel.SIMPLE );
+        principal.setUserPassword( storedPasswords );
+
         return principal;
     }
 
@@ -232,23 +254,20 @@ public class SimpleAuthenticator extends AbstractAuthenticator
         }
 
         // Now, compare the passwords.
-        for ( byte[] storedPassword : storedPasswords )
+        if ( compareCredentials( credentials, storedPasswords ) )
         {
-            if ( PasswordUtil.compareCredentials( credentials, storedPassword ) )
+            if ( ppe != null )
             {
-                if ( ppe != null )
-                {
-                    LOG.debug( "{} Authentication failed: {}", bindContext.getDn(), ppe.getMessage() );
-                    throw ppe;
-                }
-
-                if ( IS_DEBUG )
-                {
-                    LOG.debug( "{} Authenticated", bindContext.getDn() );
-                }
-
-                return principal;
+                LOG.debug( "{} Authentication failed: {}", bindContext.getDn(), ppe.getMessage() );
+                throw ppe;
             }
+
+            if ( IS_DEBUG )
+            {
+                LOG.debug( "{} Authenticated", bindContext.getDn() );
+            }
+
+            return principal;
         }
 
         // Bad password ...
@@ -349,9 +368,18 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     @Override
     public void invalidateCache( Dn bindDn )
     {
-        synchronized ( credentialCache )
-        {
-            credentialCache.remove( bindDn.getNormName() );
-        }
+        credentialCache.invalidate( bindDn.getNormName() );
+    }
+
+
+    /**
+     * Remove the principal and all the principals below it from the cache. This
+     * is used when an entry is moved or renamed, as its descendants are moved too.
+     *
+     * @param baseDn The Dn of the moved entry
+     */
+    public void invalidateCacheSubtree( Dn baseDn )
+    {
+        credentialCache.invalidateSubtree( baseDn.getNormName() );
     }
 }
@@ -0,0 +1,116 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.apache.directory.api.util.Strings;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link CredentialCache} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CredentialCacheTest
+{
+    private static final byte[][] PASSWORDS = new byte[][]
+        { Strings.getBytesUtf8( "secret" ) };
+
+
+    @Test
+    public void testGetPut()
+    {
+        CredentialCache cache = new CredentialCache( 100, 0L );
+
+        assertNull( cache.get( "uid=user1,ou=system" ) );
+        cache.put( "uid=user1,ou=system", PASSWORDS, cache.getVersion() );
+        assertSame( PASSWORDS, cache.get( "uid=user1,ou=system" ) );
+
+        assertEquals( 1, cache.getHitCount() );
+        assertEquals( 1, cache.getMissCount() );
+    }
+
+
+    @Test
+    public void testBounded()
+    {
+        CredentialCache cache = new CredentialCache( 64, 0L );
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            cache.put( "uid=user" + i + ",ou=system", PASSWORDS, cache.getVersion() );
+        }
+
+        // Each segment is bounded, so the cache is
+        assertEquals( 64, cache.size() );
+    }
+
+
+    @Test
+    public void testTimeToLive() throws Exception
+    {
+        CredentialCache cache = new CredentialCache( 100, 10L );
+
+        cache.put( "uid=user1,ou=system", PASSWORDS, cache.getVersion() );
+        Thread.sleep( 50L );
+
+        assertNull( cache.get( "uid=user1,ou=system" ) );
+        assertEquals( 0, cache.size() );
+    }
+
+
+    @Test
+    public void testInvalidate()
+    {
+        CredentialCache cache = new CredentialCache( 100, 0L );
+
+        cache.put( "uid=user1,ou=people,ou=system", PASSWORDS, cache.getVersion() );
+        cache.put( "uid=user2,ou=people,ou=system", PASSWORDS, cache.getVersion() );
+        cache.put( "uid=user3,ou=system", PASSWORDS, cache.getVersion() );
+
+        cache.invalidate( "uid=user1,ou=people,ou=system" );
+        assertNull( cache.get( "uid=user1,ou=people,ou=system" ) );
+        assertNotNull( cache.get( "uid=user2,ou=people,ou=system" ) );
+
+        cache.invalidateSubtree( "ou=people,ou=system" );
+        assertNull( cache.get( "uid=user2,ou=people,ou=system" ) );
+        assertNotNull( cache.get( "uid=user3,ou=system" ) );
+    }
+
+
+    @Test
+    public void testNoStalePut()
+    {
+        CredentialCache cache = new CredentialCache( 100, 0L );
+
+        // The password is read, then modified before being cached
+        long version = cache.getVersion();
+        cache.invalidate( "uid=user1,ou=system" );
+        cache.put( "uid=user1,ou=system", PASSWORDS, version );
+
+        assertNull( cache.get( "uid=user1,ou=system" ) );
+    }
+}
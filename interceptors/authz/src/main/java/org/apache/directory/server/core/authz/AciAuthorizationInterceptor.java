@@ -152,6 +152,9 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
     /** a groupCache that responds to add, delete, and modify attempts */
     private GroupCache groupCache;
 
+    /** a cache of the decisions taken when filtering the search results */
+    private AciDecisionCache decisionCache;
+
     /** a normalizing ACIItem parser */
     private ACIItemParser aciParser;
 
@@ -296,6 +299,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         // Create the caches
         tupleCache = new TupleCache( adminSession );
         groupCache = new GroupCache( directoryService );
+        decisionCache = new AciDecisionCache();
 
         // Iitialize the ACI PARSER and ACDF engine
         aciParser = new ACIItemParser( new ConcreteNameComponentNormalizer( schemaManager ), schemaManager );
@@ -1244,7 +1248,6 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
     {
         LdapPrincipal user = searchContext.getSession().getEffectivePrincipal();
         Dn principalDn = user.getDn();
-        EntryFilteringCursor cursor = next( searchContext );
 
         boolean isSubschemaSubentryLookup = subschemaSubentryDn.equals( searchContext.getDn() );
 
@@ -1255,10 +1258,16 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
             || !directoryService.isAccessControlEnabled() || isRootDseLookup
             || isSubschemaSubentryLookup )
         {
-            return cursor;
+            return next( searchContext );
         }
 
+        // The ACI evaluation may use any attribute of the entries (restrictedBy,
+        // rangeOfValues...) : the partitions must not project them
+        searchContext.setFullEntryRequired( true );
+
+        EntryFilteringCursor cursor = next( searchContext );
         cursor.addEntryFilter( new AuthorizationFilter() );
+
         return cursor;
     }
 
@@ -1343,7 +1352,8 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
     }
 
 
-    private boolean filter( OperationContext opContext, Dn normName, Entry clonedEntry ) throws LdapException
+    private boolean filter( OperationContext opContext, Dn normName, Entry clonedEntry, Set<String> userGroups )
+        throws LdapException
     {
         /*
          * First call hasPermission() for entry level "Browse" and "ReturnDN" perm
@@ -1353,11 +1363,26 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
 
         LdapPrincipal principal = opContext.getSession().getEffectivePrincipal();
         Dn userDn = principal.getDn();
-        Set<String> userGroups = groupCache.getGroups( userDn.getNormName() );
-        Collection<ACITuple> tuples = new HashSet<>();
-        addPerscriptiveAciTuples( opContext, tuples, normName, clonedEntry );
-        addEntryAciTuples( tuples, ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
-        addSubentryAciTuples( opContext, tuples, normName, ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
+        AciDecisionCache.DecisionTable table = getDecisionTable( principal, userGroups,
+            ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
+        Collection<ACITuple> tuples;
+
+        if ( table == null )
+        {
+            tuples = new HashSet<>();
+            addPerscriptiveAciTuples( opContext, tuples, normName, clonedEntry );
+            addEntryAciTuples( tuples, ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
+            addSubentryAciTuples( opContext, tuples, normName, ( ( ClonedServerEntry ) clonedEntry )
+                .getOriginalEntry() );
+        }
+        else if ( table.isCompilable() )
+        {
+            return filterCompiled( opContext, normName, clonedEntry, userGroups, table );
+        }
+        else
+        {
+            tuples = table.getTuples();
+        }
 
         AciContext aciContext = new AciContext( schemaManager, opContext );
         aciContext.setUserGroupNames( userGroups );
@@ -1446,11 +1471,148 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         return true;
     }
 
+
+    /**
+     * Gets the decision table shared by the entries protected by the same prescriptiveACIs.
+     *
+     * @return The decision table, or null if the entry has its own ACIs (entryACI, or
+     * subentryACI for a subentry)
+     */
+    private AciDecisionCache.DecisionTable getDecisionTable( LdapPrincipal principal, Set<String> userGroups,
+        Entry originalEntry ) throws LdapException
+    {
+        if ( originalEntry.containsAttribute( directoryService.getAtProvider().getEntryACI() )
+            || originalEntry.contains( directoryService.getAtProvider().getObjectClass(),
+                SchemaConstants.SUBENTRY_OC ) )
+        {
+            return null;
+        }
+
+        Attribute subentries = originalEntry.get( directoryService.getAtProvider().getAccessControlSubentries() );
+        Set<String> subentryDns;
+
+        if ( subentries == null )
+        {
+            subentryDns = Collections.emptySet();
+        }
+        else
+        {
+            subentryDns = new HashSet<>();
+
+            for ( Value value : subentries )
+            {
+                subentryDns.add( dnFactory.create( value.getValue() ).getNormName() );
+            }
+        }
+
+        return decisionCache.getTable( principal.getDn().getNormName(), userGroups,
+            principal.getAuthenticationLevel(), subentryDns, tupleCache, groupCache );
+    }
+
+
+    /**
+     * Filters an entry using the decisions stored in a decision table. The ACDF engine is
+     * only run for the decisions which have not been taken yet.
+     */
+    private boolean filterCompiled( OperationContext opContext, Dn normName, Entry clonedEntry,
+        Set<String> userGroups, AciDecisionCache.DecisionTable table ) throws LdapException
+    {
+        Boolean entryDecision = table.getEntryDecision();
+
+        if ( entryDecision == null )
+        {
+            AciContext aciContext = createSearchAciContext( opContext, normName, userGroups, table );
+            aciContext.setMicroOperations( SEARCH_ENTRY_PERMS );
+            aciContext.setEntry( ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
+
+            entryDecision = engine.hasPermission( aciContext );
+            table.setEntryDecision( entryDecision );
+        }
+
+        if ( !entryDecision )
+        {
+            return false;
+        }
+
+        List<AttributeType> attributeToRemove = new ArrayList<>();
+
+        for ( Attribute attribute : clonedEntry.getAttributes() )
+        {
+            AttributeType attributeType = attribute.getAttributeType();
+            Boolean attributeDecision = table.getAttributeDecision( attributeType );
+
+            if ( attributeDecision == null )
+            {
+                AciContext aciContext = createSearchAciContext( opContext, normName, userGroups, table );
+                aciContext.setAttributeType( attributeType );
+                aciContext.setMicroOperations( SEARCH_ATTRVAL_PERMS );
+                aciContext.setEntry( clonedEntry );
+
+                attributeDecision = engine.hasPermission( aciContext );
+                table.setAttributeDecision( attributeType, attributeDecision );
+            }
+
+            if ( !attributeDecision || ( attribute.size() == 0 ) )
+            {
+                attributeToRemove.add( attributeType );
+
+                continue;
+            }
+
+            // The decision is the same for all the values of the attribute
+            Boolean valueDecision = table.getValueDecision( attributeType );
+
+            if ( valueDecision == null )
+            {
+                AciContext aciContext = createSearchAciContext( opContext, normName, userGroups, table );
+                aciContext.setAttributeType( attributeType );
+                aciContext.setAttrValue( attribute.get() );
+                aciContext.setMicroOperations( SEARCH_ATTRVAL_PERMS );
+                aciContext.setEntry( clonedEntry );
+
+                valueDecision = engine.hasPermission( aciContext );
+                table.setValueDecision( attributeType, valueDecision );
+            }
+
+            if ( !valueDecision )
+            {
+                attributeToRemove.add( attributeType );
+            }
+        }
+
+        for ( AttributeType attributeType : attributeToRemove )
+        {
+            clonedEntry.removeAttributes( attributeType );
+        }
+
+        return true;
+    }
+
+
+    private AciContext createSearchAciContext( OperationContext opContext, Dn normName, Set<String> userGroups,
+        AciDecisionCache.DecisionTable table )
+    {
+        LdapPrincipal principal = opContext.getSession().getEffectivePrincipal();
+
+        AciContext aciContext = new AciContext( schemaManager, opContext );
+        aciContext.setUserGroupNames( userGroups );
+        aciContext.setUserDn( principal.getDn() );
+        aciContext.setAuthenticationLevel( principal.getAuthenticationLevel() );
+        aciContext.setEntryDn( normName );
+        aciContext.setAciTuples( table.getTuples() );
+
+        return aciContext;
+    }
+
     /**
      * WARNING: create one of these filters fresh every time for each new search.
      */
     private class AuthorizationFilter implements EntryFilter
     {
+        /** The groups of the user, read once per search */
+        private Set<String> userGroups;
+
+
         /**
          * {@inheritDoc}
          */
@@ -1462,7 +1624,13 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
                 entry.setDn(  new Dn( schemaManager, entry.getDn() ) );
             }
 
-            return filter( searchContext, entry.getDn(), entry );
+            if ( userGroups == null )
+            {
+                Dn userDn = searchContext.getSession().getEffectivePrincipal().getDn();
+                userGroups = groupCache.getGroups( userDn.getNormName() );
+            }
+
+            return filter( searchContext, entry.getDn(), entry, userGroups );
         }
 
 
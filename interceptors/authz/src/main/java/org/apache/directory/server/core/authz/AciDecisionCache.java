@@ -0,0 +1,372 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authz;
+
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.directory.api.ldap.aci.ACITuple;
+import org.apache.directory.api.ldap.aci.ProtectedItem;
+import org.apache.directory.api.ldap.aci.UserClass;
+import org.apache.directory.api.ldap.aci.protectedItem.AllAttributeValuesItem;
+import org.apache.directory.api.ldap.aci.protectedItem.AttributeTypeItem;
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.subtree.SubtreeSpecification;
+
+
+/**
+ * A cache of the access control decisions taken when filtering the search results.
+ * <p>
+ * The entries which have no entryACI and which are not subentries are only protected
+ * by the prescriptiveACIs of their access control subentries. For a given user, all
+ * the entries sharing the same set of access control subentries are thus evaluated
+ * using the same tuples, which are gathered once in a {@link DecisionTable}.
+ * <p>
+ * When those tuples only use protected items and user classes which don't depend on
+ * the evaluated entry or value (see {@link #isCompilable(Collection)}), the decisions
+ * only depend on the attribute type : they are computed once by the ACDF engine and
+ * stored in the table, so that the next entries are filtered without running the
+ * engine again.
+ * <p>
+ * The tables are tagged with the versions of the {@link TupleCache} and of the
+ * {@link GroupCache} they have been built with, and are discarded when one of those
+ * caches has been updated.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AciDecisionCache
+{
+    /** The default maximum number of tables */
+    public static final int DEFAULT_MAX_TABLES = 1024;
+
+    /** The maximum number of tables. The cache is cleared when it's reached */
+    private final int maxTables;
+
+    /** The tables */
+    private final ConcurrentMap<Key, DecisionTable> tables = new ConcurrentHashMap<>();
+
+
+    /**
+     * Creates a new instance of AciDecisionCache, holding at most {@link #DEFAULT_MAX_TABLES} tables.
+     */
+    public AciDecisionCache()
+    {
+        this( DEFAULT_MAX_TABLES );
+    }
+
+
+    /**
+     * Creates a new instance of AciDecisionCache.
+     *
+     * @param maxTables The maximum number of tables to keep
+     */
+    public AciDecisionCache( int maxTables )
+    {
+        this.maxTables = maxTables;
+    }
+
+
+    /**
+     * Tells if the decisions taken using a set of tuples only depend on the user and on
+     * the evaluated attribute type, and not on the evaluated entry or value.
+     *
+     * @param tuples The tuples
+     * @return <tt>true</tt> if the decisions can be stored per attribute type
+     */
+    public static boolean isCompilable( Collection<ACITuple> tuples )
+    {
+        for ( ACITuple tuple : tuples )
+        {
+            for ( UserClass userClass : tuple.getUserClasses() )
+            {
+                if ( ( userClass == UserClass.THIS_ENTRY ) || ( userClass == UserClass.PARENT_OF_ENTRY ) )
+                {
+                    return false;
+                }
+
+                if ( userClass instanceof UserClass.Subtree )
+                {
+                    for ( SubtreeSpecification subtreeSpec : ( ( UserClass.Subtree ) userClass )
+                        .getSubtreeSpecifications() )
+                    {
+                        // A refinement is evaluated on the user entry, which may change
+                        if ( subtreeSpec.getRefinement() != null )
+                        {
+                            return false;
+                        }
+                    }
+                }
+            }
+
+            for ( ProtectedItem item : tuple.getProtectedItems() )
+            {
+                if ( ( item != ProtectedItem.ENTRY )
+                    && ( item != ProtectedItem.ALL_USER_ATTRIBUTE_TYPES )
+                    && ( item != ProtectedItem.ALL_USER_ATTRIBUTE_TYPES_AND_VALUES )
+                    && !( item instanceof AttributeTypeItem )
+                    && !( item instanceof AllAttributeValuesItem ) )
+                {
+                    // Classes, attribute values, ranges of values, restrictions...
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Gets the decision table of a user for the entries protected by a set of access
+     * control subentries. The tuples are only read when the table doesn't exist yet.
+     *
+     * @param userDn The user's normalized DN
+     * @param userGroups The user's groups
+     * @param authenticationLevel The user's authentication level
+     * @param subentryDns The normalized DNs of the access control subentries
+     * @param tupleCache The tuple cache
+     * @param groupCache The group cache
+     * @return The decision table
+     */
+    public DecisionTable getTable( String userDn, Set<String> userGroups, AuthenticationLevel authenticationLevel,
+        Set<String> subentryDns, TupleCache tupleCache, GroupCache groupCache )
+    {
+        Key key = new Key( userDn, userGroups, authenticationLevel, subentryDns );
+        long tupleVersion = tupleCache.getVersion();
+        long groupVersion = groupCache.getVersion();
+        DecisionTable table = tables.get( key );
+
+        if ( ( table != null ) && ( table.tupleVersion == tupleVersion ) && ( table.groupVersion == groupVersion ) )
+        {
+            return table;
+        }
+
+        Set<ACITuple> tuples = new HashSet<>();
+
+        for ( String subentryDn : subentryDns )
+        {
+            tuples.addAll( tupleCache.getACITuples( subentryDn ) );
+        }
+
+        table = new DecisionTable( tuples, tupleVersion, groupVersion );
+
+        if ( tables.size() >= maxTables )
+        {
+            tables.clear();
+        }
+
+        tables.put( key, table );
+
+        return table;
+    }
+
+
+    /**
+     * Removes all the tables.
+     */
+    public void clear()
+    {
+        tables.clear();
+    }
+
+
+    /**
+     * @return The number of tables in the cache
+     */
+    public int size()
+    {
+        return tables.size();
+    }
+
+
+    /**
+     * The tuples applying to a user for a set of access control subentries, and the
+     * decisions already taken using them.
+     */
+    public static final class DecisionTable
+    {
+        /** The tuples */
+        private final Collection<ACITuple> tuples;
+
+        /** Tells if the decisions can be stored */
+        private final boolean compilable;
+
+        /** The TupleCache version this table was built with */
+        private final long tupleVersion;
+
+        /** The GroupCache version this table was built with */
+        private final long groupVersion;
+
+        /** The entry level decision, null until it has been taken */
+        private volatile Boolean entryDecision;
+
+        /** The attribute type level decisions, per attribute type OID */
+        private final ConcurrentMap<String, Boolean> attributeDecisions = new ConcurrentHashMap<>();
+
+        /** The value level decisions, per attribute type OID */
+        private final ConcurrentMap<String, Boolean> valueDecisions = new ConcurrentHashMap<>();
+
+
+        private DecisionTable( Collection<ACITuple> tuples, long tupleVersion, long groupVersion )
+        {
+            this.tuples = Collections.unmodifiableCollection( tuples );
+            this.compilable = isCompilable( tuples );
+            this.tupleVersion = tupleVersion;
+            this.groupVersion = groupVersion;
+        }
+
+
+        /**
+         * @return The tuples applying to the entries
+         */
+        public Collection<ACITuple> getTuples()
+        {
+            return tuples;
+        }
+
+
+        /**
+         * @return <tt>true</tt> if the decisions can be stored in this table
+         */
+        public boolean isCompilable()
+        {
+            return compilable;
+        }
+
+
+        /**
+         * @return The entry level decision, or null if it has not been taken yet
+         */
+        public Boolean getEntryDecision()
+        {
+            return entryDecision;
+        }
+
+
+        /**
+         * @param decision The entry level decision
+         */
+        public void setEntryDecision( boolean decision )
+        {
+            entryDecision = decision;
+        }
+
+
+        /**
+         * @param attributeType The attribute type
+         * @return The attribute type level decision, or null if it has not been taken yet
+         */
+        public Boolean getAttributeDecision( AttributeType attributeType )
+        {
+            return attributeDecisions.get( attributeType.getOid() );
+        }
+
+
+        /**
+         * @param attributeType The attribute type
+         * @param decision The attribute type level decision
+         */
+        public void setAttributeDecision( AttributeType attributeType, boolean decision )
+        {
+            attributeDecisions.put( attributeType.getOid(), decision );
+        }
+
+
+        /**
+         * @param attributeType The attribute type
+         * @return The decision for the values of the attribute type, or null if it has not been taken yet
+         */
+        public Boolean getValueDecision( AttributeType attributeType )
+        {
+            return valueDecisions.get( attributeType.getOid() );
+        }
+
+
+        /**
+         * @param attributeType The attribute type
+         * @param decision The decision for the values of the attribute type
+         */
+        public void setValueDecision( AttributeType attributeType, boolean decision )
+        {
+            valueDecisions.put( attributeType.getOid(), decision );
+        }
+    }
+
+
+    /**
+     * The key of a decision table
+     */
+    private static final class Key
+    {
+        private final String userDn;
+        private final Set<String> userGroups;
+        private final AuthenticationLevel authenticationLevel;
+        private final Set<String> subentryDns;
+        private final int hashCode;
+
+
+        private Key( String userDn, Set<String> userGroups, AuthenticationLevel authenticationLevel,
+            Set<String> subentryDns )
+        {
+            this.userDn = userDn;
+            this.userGroups = userGroups;
+            this.authenticationLevel = authenticationLevel;
+            this.subentryDns = subentryDns;
+
+            int hash = userDn.hashCode();
+            hash = hash * 31 + userGroups.hashCode();
+            hash = hash * 31 + authenticationLevel.hashCode();
+            hashCode = hash * 31 + subentryDns.hashCode();
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( this == obj )
+            {
+                return true;
+            }
+
+            if ( !( obj instanceof Key ) )
+            {
+                return false;
+            }
+
+            Key other = ( Key ) obj;
+
+            return userDn.equals( other.userDn ) && ( authenticationLevel == other.authenticationLevel )
+                && userGroups.equals( other.userGroups ) && subentryDns.equals( other.subentryDns );
+        }
+    }
+}
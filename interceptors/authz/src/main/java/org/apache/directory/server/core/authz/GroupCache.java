@@ -24,6 +24,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.naming.directory.SearchControls;
 
@@ -97,6 +98,9 @@ public class GroupCache
     @SuppressWarnings("rawtypes")
     private Cache< String, Set > groupCache;
 
+    /** The version of the cache, incremented each time a group is updated */
+    private final AtomicLong version = new AtomicLong();
+
 
 
     /**
@@ -315,6 +319,7 @@ public class GroupCache
         addMembers( memberSet, members );
 
         groupCache.put( name, memberSet );
+        version.incrementAndGet();
 
         if ( IS_DEBUG )
         {
@@ -342,6 +347,7 @@ public class GroupCache
         }
 
         groupCache.remove( name.getNormName() );
+        version.incrementAndGet();
 
         if ( IS_DEBUG )
         {
@@ -433,6 +439,7 @@ public class GroupCache
                 if ( memberSet != null )
                 {
                     modify( memberSet, modification.getOperation(), modification.getAttribute() );
+                    version.incrementAndGet();
                 }
 
                 break;
@@ -471,6 +478,7 @@ public class GroupCache
         if ( memberSet != null )
         {
             modify( memberSet, modOp, members );
+            version.incrementAndGet();
         }
 
         if ( IS_DEBUG )
@@ -567,6 +575,7 @@ public class GroupCache
             groupCache.remove( oldName.getNormName() );
 
             groupCache.put( newName.getNormName(), members );
+            version.incrementAndGet();
 
             if ( IS_DEBUG )
             {
@@ -579,4 +588,13 @@ public class GroupCache
 
         return false;
     }
+
+
+    /**
+     * @return The version of the cache, which changes each time a group is updated
+     */
+    public long getVersion()
+    {
+        return version.get();
+    }
 }
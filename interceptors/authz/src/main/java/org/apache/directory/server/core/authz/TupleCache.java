@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.naming.directory.SearchControls;
 
@@ -89,6 +90,9 @@ public class TupleCache
     /** a normalizing ACIItem parser */
     private final ACIItemParser aciParser;
 
+    /** The version of the cache, incremented each time the tuples are updated */
+    private final AtomicLong version = new AtomicLong();
+
 
     /**
      * Creates a ACITuple cache.
@@ -235,6 +239,7 @@ public class TupleCache
         }
 
         tuples.put( dn.getNormName(), entryTuples );
+        version.incrementAndGet();
     }
 
 
@@ -246,6 +251,7 @@ public class TupleCache
         }
 
         tuples.remove( dn.getNormName() );
+        version.incrementAndGet();
     }
 
 
@@ -298,5 +304,15 @@ public class TupleCache
     public void subentryRenamed( Dn oldName, Dn newName )
     {
         tuples.put( newName.getNormName(), tuples.remove( oldName.getNormName() ) );
+        version.incrementAndGet();
+    }
+
+
+    /**
+     * @return The version of the cache, which changes each time the tuples are updated
+     */
+    public long getVersion()
+    {
+        return version.get();
     }
 }
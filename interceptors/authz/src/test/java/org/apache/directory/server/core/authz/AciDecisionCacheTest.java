@@ -0,0 +1,111 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authz;
+
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.aci.ACITuple;
+import org.apache.directory.api.ldap.aci.MicroOperation;
+import org.apache.directory.api.ldap.aci.ProtectedItem;
+import org.apache.directory.api.ldap.aci.UserClass;
+import org.apache.directory.api.ldap.aci.protectedItem.AllAttributeValuesItem;
+import org.apache.directory.api.ldap.aci.protectedItem.AttributeTypeItem;
+import org.apache.directory.api.ldap.aci.protectedItem.SelfValueItem;
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.junit.Test;
+
+
+/**
+ * Tests {@link AciDecisionCache}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AciDecisionCacheTest
+{
+    private static final Set<AttributeType> EMPTY_ATTRIBUTE_TYPE_COLLECTION = Collections
+        .unmodifiableSet( new HashSet<AttributeType>() );
+
+    private static final Set<MicroOperation> MICRO_OPERATIONS = Collections.singleton( MicroOperation.READ );
+
+
+    private static ACITuple newTuple( UserClass userClass, ProtectedItem protectedItem )
+    {
+        Collection<UserClass> userClasses = new ArrayList<>();
+        userClasses.add( userClass );
+
+        Collection<ProtectedItem> protectedItems = new ArrayList<>();
+        protectedItems.add( protectedItem );
+
+        return new ACITuple( userClasses, AuthenticationLevel.NONE, protectedItems, MICRO_OPERATIONS, true, 0 );
+    }
+
+
+    @Test
+    public void testCompilableTuples()
+    {
+        Collection<ACITuple> tuples = new ArrayList<>();
+
+        assertTrue( AciDecisionCache.isCompilable( tuples ) );
+
+        tuples.add( newTuple( UserClass.ALL_USERS, ProtectedItem.ENTRY ) );
+        tuples.add( newTuple( UserClass.ALL_USERS, ProtectedItem.ALL_USER_ATTRIBUTE_TYPES_AND_VALUES ) );
+        tuples.add( newTuple( UserClass.ALL_USERS, new AttributeTypeItem( EMPTY_ATTRIBUTE_TYPE_COLLECTION ) ) );
+        tuples.add( newTuple( UserClass.ALL_USERS, new AllAttributeValuesItem( EMPTY_ATTRIBUTE_TYPE_COLLECTION ) ) );
+
+        // Those decisions only depend on the attribute type
+        assertTrue( AciDecisionCache.isCompilable( tuples ) );
+    }
+
+
+    @Test
+    public void testEntryDependentUserClass()
+    {
+        Collection<ACITuple> tuples = new ArrayList<>();
+        tuples.add( newTuple( UserClass.ALL_USERS, ProtectedItem.ENTRY ) );
+        tuples.add( newTuple( UserClass.THIS_ENTRY, ProtectedItem.ALL_USER_ATTRIBUTE_TYPES ) );
+
+        assertFalse( AciDecisionCache.isCompilable( tuples ) );
+
+        tuples.clear();
+        tuples.add( newTuple( UserClass.PARENT_OF_ENTRY, ProtectedItem.ENTRY ) );
+
+        assertFalse( AciDecisionCache.isCompilable( tuples ) );
+    }
+
+
+    @Test
+    public void testValueDependentProtectedItem()
+    {
+        Collection<ACITuple> tuples = new ArrayList<>();
+        tuples.add( newTuple( UserClass.ALL_USERS, ProtectedItem.ENTRY ) );
+        tuples.add( newTuple( UserClass.ALL_USERS, new SelfValueItem( EMPTY_ATTRIBUTE_TYPE_COLLECTION ) ) );
+
+        assertFalse( AciDecisionCache.isCompilable( tuples ) );
+    }
+}
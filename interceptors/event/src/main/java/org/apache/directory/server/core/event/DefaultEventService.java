@@ -20,11 +20,15 @@
 package org.apache.directory.server.core.event;
 
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.normalizers.ConcreteNameComponentNormalizer;
@@ -40,6 +44,10 @@ import org.apache.directory.server.core.api.normalization.FilterNormalizingVisit
 /**
  * A class implementing the EventService interface. It stores all the Listener 
  * associated with a DirectoryService.
+ * <p>
+ * The registrations are also indexed by the normalized Dn of their base, so that the
+ * registrations which scope may contain a modified entry are found by looking up the
+ * entry's Dn and its ancestors, instead of checking every registration.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -48,6 +56,12 @@ class DefaultEventService implements EventService
     /** The list of RegistrationEntries being registered */
     private List<RegistrationEntry> registrations = new CopyOnWriteArrayList<>();
 
+    /** The same RegistrationEntries, indexed by the normalized Dn of their base */
+    private ConcurrentMap<String, List<RegistrationEntry>> registrationsByBase = new ConcurrentHashMap<>();
+
+    /** The dispatcher delivering the notifications to the asynchronous listeners */
+    private EventDispatcher dispatcher;
+
     /** The DirectoryService instance */
     private DirectoryService directoryService;
 
@@ -58,11 +72,13 @@ class DefaultEventService implements EventService
     /**
      * Create an instance of EventService
      * @param directoryService The associated DirectoryService
-     * @param registrations The list of Registrations
+     * @param dispatcher The dispatcher delivering the notifications to the asynchronous listeners
      */
-    DefaultEventService( DirectoryService directoryService )
+    DefaultEventService( DirectoryService directoryService, EventDispatcher dispatcher )
     {
         this.directoryService = directoryService;
+        this.dispatcher = dispatcher;
+        dispatcher.setEventService( this );
         SchemaManager schemaManager = directoryService.getSchemaManager();
         NameComponentNormalizer ncn = new ConcreteNameComponentNormalizer( schemaManager );
         filterNormalizer = new FilterNormalizingVisitor( ncn, schemaManager );
@@ -73,7 +89,8 @@ class DefaultEventService implements EventService
      * {@inheritDoc}
      */
     @Override
-    public void addListener( DirectoryListener listener, NotificationCriteria criteria ) throws Exception
+    public synchronized void addListener( DirectoryListener listener, NotificationCriteria criteria )
+        throws Exception
     {
         if ( !criteria.getBase().isSchemaAware() )
         {
@@ -82,7 +99,25 @@ class DefaultEventService implements EventService
 
         ExprNode result = ( ExprNode ) criteria.getFilter().accept( filterNormalizer );
         criteria.setFilter( result );
-        registrations.add( new RegistrationEntry( listener, criteria ) );
+        RegistrationEntry registration = new RegistrationEntry( listener, criteria );
+
+        if ( !listener.isSynchronous() )
+        {
+            dispatcher.addListener( listener );
+        }
+
+        registrations.add( registration );
+
+        String baseName = criteria.getBase().getNormName();
+        List<RegistrationEntry> atBase = registrationsByBase.get( baseName );
+
+        if ( atBase == null )
+        {
+            atBase = new CopyOnWriteArrayList<>();
+            registrationsByBase.put( baseName, atBase );
+        }
+
+        atBase.add( registration );
     }
 
 
@@ -90,15 +125,31 @@ class DefaultEventService implements EventService
      * {@inheritDoc}
      */
     @Override
-    public void removeListener( DirectoryListener listener )
+    public synchronized void removeListener( DirectoryListener listener )
     {
         for ( RegistrationEntry entry : registrations )
         {
             if ( entry.getListener() == listener )
             {
                 registrations.remove( entry );
+
+                String baseName = entry.getCriteria().getBase().getNormName();
+                List<RegistrationEntry> atBase = registrationsByBase.get( baseName );
+
+                if ( atBase != null )
+                {
+                    atBase.remove( entry );
+
+                    // The additions are done under the same lock, the list can be safely dropped
+                    if ( atBase.isEmpty() )
+                    {
+                        registrationsByBase.remove( baseName );
+                    }
+                }
             }
         }
+
+        dispatcher.removeListener( listener );
     }
 
 
@@ -110,4 +161,55 @@ class DefaultEventService implements EventService
     {
         return Collections.unmodifiableList( registrations );
     }
+
+
+    /**
+     * Gets the registrations which scope contains an entry : the OBJECT registrations based
+     * on the entry, the ONELEVEL registrations based on its parent, and the SUBTREE registrations
+     * based on the entry or any of its ancestors. The registrations filter is not evaluated.
+     *
+     * @param name The schema aware Dn of the entry
+     * @return The candidate registrations
+     */
+    List<RegistrationEntry> getCandidateRegistrations( Dn name )
+    {
+        List<RegistrationEntry> candidates = new ArrayList<>();
+
+        if ( registrationsByBase.isEmpty() )
+        {
+            return candidates;
+        }
+
+        Dn current = name;
+        int depth = 0;
+
+        while ( current != null )
+        {
+            List<RegistrationEntry> atBase = registrationsByBase.get( current.getNormName() );
+
+            if ( atBase != null )
+            {
+                for ( RegistrationEntry registration : atBase )
+                {
+                    SearchScope scope = registration.getCriteria().getScope();
+
+                    if ( ( scope == SearchScope.SUBTREE ) || ( ( scope == SearchScope.OBJECT ) && ( depth == 0 ) )
+                        || ( ( scope == SearchScope.ONELEVEL ) && ( depth == 1 ) ) )
+                    {
+                        candidates.add( registration );
+                    }
+                }
+            }
+
+            if ( current.isEmpty() )
+            {
+                break;
+            }
+
+            current = current.getParent();
+            depth++;
+        }
+
+        return candidates;
+    }
 }
@@ -0,0 +1,471 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.EventService;
+import org.apache.directory.server.core.api.event.NotificationOverflowListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Delivers the notifications to the asynchronous listeners. Each listener has its own
+ * bounded queue, drained by a shared pool of threads, so that the notifications of a
+ * listener are delivered in order, and a slow listener only delays its own notifications.
+ * <p>
+ * When the queue of a listener is full, the thread producing the notification waits
+ * for a bounded time for some room. If the listener is still late, it has missed a
+ * notification : its pending notifications are discarded, it's unregistered from the
+ * event service, and it's told so if it's a {@link NotificationOverflowListener}. A
+ * persistent search is thus ended with an error instead of silently missing changes.
+ * The number of waits, of dropped notifications and of abandoned listeners are counted,
+ * as well as the number of delivered notifications.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EventDispatcher
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( EventDispatcher.class );
+
+    /** The default number of threads */
+    public static final int DEFAULT_NB_THREADS = 10;
+
+    /** The default maximum number of pending notifications per listener */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    /** The default time to wait for some room in a full queue, in milliseconds */
+    public static final long DEFAULT_OFFER_TIMEOUT = 100L;
+
+    /** The maximum number of notifications delivered to a listener before releasing the thread */
+    private static final int MAX_BATCH_SIZE = 64;
+
+    /** The threads delivering the notifications */
+    private final ThreadPoolExecutor executor;
+
+    /** The queue of each listener */
+    private final ConcurrentMap<DirectoryListener, ListenerQueue> queues = new ConcurrentHashMap<>();
+
+    /** The maximum number of pending notifications per listener */
+    private final int queueCapacity;
+
+    /** The time to wait for some room in a full queue, in milliseconds */
+    private final long offerTimeout;
+
+    /** The number of delivered notifications */
+    private final AtomicLong deliveredCount = new AtomicLong();
+
+    /** The number of times a producer had to wait for some room in a queue */
+    private final AtomicLong waitCount = new AtomicLong();
+
+    /** The number of dropped notifications */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /** The number of listeners unregistered because their queue was full */
+    private final AtomicLong abandonedCount = new AtomicLong();
+
+    /** The service the listeners are registered on */
+    private volatile EventService eventService;
+
+
+    /**
+     * Creates a new instance of EventDispatcher, with the default settings.
+     */
+    public EventDispatcher()
+    {
+        this( DEFAULT_NB_THREADS, DEFAULT_QUEUE_CAPACITY, DEFAULT_OFFER_TIMEOUT );
+    }
+
+
+    /**
+     * Creates a new instance of EventDispatcher.
+     *
+     * @param nbThreads The number of threads delivering the notifications
+     * @param queueCapacity The maximum number of pending notifications per listener
+     * @param offerTimeout The time to wait for some room in a full queue, in milliseconds
+     */
+    public EventDispatcher( int nbThreads, int queueCapacity, long offerTimeout )
+    {
+        this.queueCapacity = queueCapacity;
+        this.offerTimeout = offerTimeout;
+
+        ThreadFactory threadFactory = new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
+                newThread.setDaemon( true );
+
+                return newThread;
+            }
+        };
+
+        // At most one task per listener is pending, the executor queue does not need a bound
+        executor = new ThreadPoolExecutor( nbThreads, nbThreads, 1000, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), threadFactory );
+        executor.allowCoreThreadTimeOut( true );
+    }
+
+
+    /**
+     * Creates the queue of a listener which is being registered.
+     *
+     * @param listener The listener
+     */
+    public void addListener( DirectoryListener listener )
+    {
+        queues.putIfAbsent( listener, new ListenerQueue( listener ) );
+    }
+
+
+    /**
+     * Queues a notification for a listener. The notification is ignored if the listener
+     * is not registered anymore.
+     *
+     * @param listener The listener
+     * @param notification The notification, which calls the listener
+     */
+    public void dispatch( DirectoryListener listener, Runnable notification )
+    {
+        ListenerQueue queue = queues.get( listener );
+
+        if ( queue == null )
+        {
+            LOG.debug( "The listener {} has been unregistered, ignoring a notification", listener );
+
+            return;
+        }
+
+        queue.offer( notification );
+    }
+
+
+    /**
+     * Sets the service the listeners are registered on, used to unregister the
+     * listeners which can't keep up with their notifications.
+     *
+     * @param eventService The event service
+     */
+    void setEventService( EventService eventService )
+    {
+        this.eventService = eventService;
+    }
+
+
+    /**
+     * Forgets the queue of a listener which has been unregistered. The pending
+     * notifications are still delivered.
+     *
+     * @param listener The listener
+     */
+    public void removeListener( DirectoryListener listener )
+    {
+        queues.remove( listener );
+    }
+
+
+    /**
+     * Stops the threads delivering the notifications.
+     */
+    public void shutdown()
+    {
+        executor.shutdown();
+    }
+
+
+    /**
+     * @return The number of delivered notifications
+     */
+    public long getDeliveredCount()
+    {
+        return deliveredCount.get();
+    }
+
+
+    /**
+     * @return The number of times a producer had to wait because a listener queue was full
+     */
+    public long getWaitCount()
+    {
+        return waitCount.get();
+    }
+
+
+    /**
+     * @return The number of notifications dropped because a listener queue was full
+     */
+    public long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+
+
+    /**
+     * @return The number of listeners unregistered because their queue was full
+     */
+    public long getAbandonedCount()
+    {
+        return abandonedCount.get();
+    }
+
+
+    /**
+     * @return The number of notifications waiting to be delivered, for all the listeners
+     */
+    public int getPendingCount()
+    {
+        int pending = 0;
+
+        for ( ListenerQueue queue : queues.values() )
+        {
+            pending += queue.notifications.size();
+        }
+
+        return pending;
+    }
+
+
+    /**
+     * @param listener The listener
+     * @return The number of notifications waiting to be delivered to a listener
+     */
+    public int getPendingCount( DirectoryListener listener )
+    {
+        ListenerQueue queue = queues.get( listener );
+
+        if ( queue == null )
+        {
+            return 0;
+        }
+
+        return queue.notifications.size();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "EventDispatcher[listeners=" + queues.size() + ", pending=" + getPendingCount() + ", delivered="
+            + deliveredCount.get() + ", waits=" + waitCount.get() + ", dropped=" + droppedCount.get()
+            + ", abandoned=" + abandonedCount.get() + "]";
+    }
+
+
+    /**
+     * The pending notifications of a listener. The queue is drained by at most one
+     * thread at a time. Once it has overflowed, the queue only delivers the overflow
+     * to the listener, after the notification it may be processing.
+     */
+    private final class ListenerQueue implements Runnable
+    {
+        /** The listener */
+        private final DirectoryListener listener;
+
+        /** The pending notifications */
+        private final BlockingQueue<Runnable> notifications;
+
+        /** Tells if a thread is draining the queue, or is about to */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /** Tells if a notification has been dropped */
+        private final AtomicBoolean overflowed = new AtomicBoolean();
+
+        /** Tells if the listener has been unregistered after the overflow */
+        private final AtomicBoolean abandoned = new AtomicBoolean();
+
+
+        private ListenerQueue( DirectoryListener listener )
+        {
+            this.listener = listener;
+            notifications = new ArrayBlockingQueue<>( queueCapacity );
+        }
+
+
+        private void offer( Runnable notification )
+        {
+            if ( overflowed.get() )
+            {
+                // The listener is being unregistered
+                droppedCount.incrementAndGet();
+
+                return;
+            }
+
+            if ( !notifications.offer( notification ) )
+            {
+                // The listener is late : wait a bit, then give up
+                waitCount.incrementAndGet();
+
+                try
+                {
+                    if ( !notifications.offer( notification, offerTimeout, TimeUnit.MILLISECONDS ) )
+                    {
+                        overflow();
+
+                        return;
+                    }
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                    overflow();
+
+                    return;
+                }
+            }
+
+            schedule();
+        }
+
+
+        /**
+         * The listener has missed a notification : discard the pending ones, and let
+         * the draining thread unregister the listener
+         */
+        private void overflow()
+        {
+            droppedCount.incrementAndGet();
+
+            if ( overflowed.compareAndSet( false, true ) )
+            {
+                LOG.warn( "The notifications queue of the listener {} is full, unregistering it", listener );
+                droppedCount.addAndGet( notifications.size() );
+                notifications.clear();
+                schedule();
+            }
+        }
+
+
+        /**
+         * Unregisters the listener, and tells it that it has missed some notifications
+         */
+        private void abandon()
+        {
+            if ( !abandoned.compareAndSet( false, true ) )
+            {
+                return;
+            }
+
+            abandonedCount.incrementAndGet();
+
+            if ( eventService != null )
+            {
+                eventService.removeListener( listener );
+            }
+            else
+            {
+                queues.remove( listener, this );
+            }
+
+            if ( listener instanceof NotificationOverflowListener )
+            {
+                try
+                {
+                    ( ( NotificationOverflowListener ) listener ).notificationsOverflowed();
+                }
+                catch ( RuntimeException re )
+                {
+                    LOG.error( "The listener {} failed to process the overflow", listener, re );
+                }
+            }
+        }
+
+
+        private void schedule()
+        {
+            if ( scheduled.compareAndSet( false, true ) )
+            {
+                try
+                {
+                    executor.execute( this );
+                }
+                catch ( RejectedExecutionException ree )
+                {
+                    // The dispatcher has been shut down
+                    scheduled.set( false );
+                    LOG.warn( "Cannot deliver the notifications of the listener {}", listener, ree );
+                }
+            }
+        }
+
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                for ( int i = 0; ( i < MAX_BATCH_SIZE ) && !overflowed.get(); i++ )
+                {
+                    Runnable notification = notifications.poll();
+
+                    if ( notification == null )
+                    {
+                        break;
+                    }
+
+                    try
+                    {
+                        notification.run();
+                        deliveredCount.incrementAndGet();
+                    }
+                    catch ( RuntimeException re )
+                    {
+                        LOG.error( "The listener {} failed to process a notification", listener, re );
+                    }
+                }
+
+                if ( overflowed.get() )
+                {
+                    abandon();
+                }
+            }
+            finally
+            {
+                scheduled.set( false );
+
+                // Some notifications may have been queued in the meantime, the batch was full,
+                // or the queue has overflowed while we were finishing
+                if ( overflowed.get() ? !abandoned.get() : !notifications.isEmpty() )
+                {
+                    schedule();
+                }
+            }
+        }
+    }
+}
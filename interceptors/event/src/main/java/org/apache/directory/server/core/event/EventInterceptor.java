@@ -27,12 +27,6 @@ import static org.apache.directory.api.ldap.model.message.SearchScope.SUBTREE;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
@@ -45,6 +39,7 @@ import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.event.DirectoryListener;
 import org.apache.directory.server.core.api.event.Evaluator;
+import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.ExpressionEvaluator;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
@@ -73,7 +68,9 @@ public class EventInterceptor extends BaseInterceptor
     private static final Logger LOG = LoggerFactory.getLogger( EventInterceptor.class );
 
     private Evaluator evaluator;
-    private ExecutorService executor;
+
+    /** The dispatcher delivering the notifications to the asynchronous listeners */
+    private EventDispatcher dispatcher;
 
 
     /**
@@ -86,8 +83,9 @@ public class EventInterceptor extends BaseInterceptor
 
 
     /**
-     * Initialize the event interceptor. It creates a pool of executor which will be used
-     * to call the listeners in separate threads.
+     * Initialize the event interceptor. It creates the dispatcher which will be used
+     * to call the asynchronous listeners in separate threads, each listener having its
+     * own bounded queue of notifications.
      */
     @Override
     public void init( DirectoryService directoryService ) throws LdapException
@@ -96,24 +94,9 @@ public class EventInterceptor extends BaseInterceptor
         super.init( directoryService );
 
         evaluator = new ExpressionEvaluator( schemaManager );
-        executor = new ThreadPoolExecutor( 1, 10, 1000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>( 100 ) );
-        
-        ThreadFactory threadFactory = new ThreadFactory() 
-        {
-            @Override
-            public Thread newThread( Runnable runnable ) 
-            {
-                Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
-                newThread.setDaemon( true );
-                
-                return newThread;
-            }
-        };
-        
-        executor = new ThreadPoolExecutor( 1, 10, 1000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>( 100 ),
-            threadFactory );
+        dispatcher = new EventDispatcher();
 
-        this.directoryService.setEventService( new DefaultEventService( directoryService ) );
+        this.directoryService.setEventService( new DefaultEventService( directoryService, dispatcher ) );
         LOG.info( "Initialization complete." );
     }
 
@@ -132,7 +115,7 @@ public class EventInterceptor extends BaseInterceptor
                 }
                 else
                 {
-                    executor.execute( new Runnable()
+                    dispatcher.dispatch( listener, new Runnable()
                     {
                         @Override
                         public void run()
@@ -151,7 +134,7 @@ public class EventInterceptor extends BaseInterceptor
                 }
                 else
                 {
-                    executor.execute( new Runnable()
+                    dispatcher.dispatch( listener, new Runnable()
                     {
                         @Override
                         public void run()
@@ -170,7 +153,7 @@ public class EventInterceptor extends BaseInterceptor
                 }
                 else
                 {
-                    executor.execute( new Runnable()
+                    dispatcher.dispatch( listener, new Runnable()
                     {
                         @Override
                         public void run()
@@ -189,7 +172,7 @@ public class EventInterceptor extends BaseInterceptor
                 }
                 else
                 {
-                    executor.execute( new Runnable()
+                    dispatcher.dispatch( listener, new Runnable()
                     {
                         @Override
                         public void run()
@@ -208,7 +191,7 @@ public class EventInterceptor extends BaseInterceptor
                 }
                 else
                 {
-                    executor.execute( new Runnable()
+                    dispatcher.dispatch( listener, new Runnable()
                     {
                         @Override
                         public void run()
@@ -227,7 +210,7 @@ public class EventInterceptor extends BaseInterceptor
                 }
                 else
                 {
-                    executor.execute( new Runnable()
+                    dispatcher.dispatch( listener, new Runnable()
                     {
                         @Override
                         public void run()
@@ -432,7 +415,18 @@ public class EventInterceptor extends BaseInterceptor
      */
     private List<RegistrationEntry> getSelectingRegistrations( Dn name, Entry entry ) throws LdapException
     {
-        List<RegistrationEntry> registrations = directoryService.getEventService().getRegistrationEntries();
+        EventService eventService = directoryService.getEventService();
+        List<RegistrationEntry> registrations;
+
+        if ( ( eventService instanceof DefaultEventService ) && name.isSchemaAware() )
+        {
+            // Only check the registrations based on the entry or one of its ancestors
+            registrations = ( ( DefaultEventService ) eventService ).getCandidateRegistrations( name );
+        }
+        else
+        {
+            registrations = eventService.getRegistrationEntries();
+        }
 
         if ( registrations.isEmpty() )
         {
@@ -471,6 +465,15 @@ public class EventInterceptor extends BaseInterceptor
     @Override
     public void destroy()
     {
-       executor.shutdown();
+       dispatcher.shutdown();
+    }
+
+
+    /**
+     * @return The dispatcher delivering the notifications to the asynchronous listeners
+     */
+    public EventDispatcher getEventDispatcher()
+    {
+        return dispatcher;
     }
 }
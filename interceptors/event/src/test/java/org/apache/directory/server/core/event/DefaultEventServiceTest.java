@@ -0,0 +1,214 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the DefaultEventService.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DefaultEventServiceTest
+{
+    private static SchemaManager schemaManager;
+
+    private EventDispatcher dispatcher;
+
+    private DefaultEventService eventService;
+
+    private NoopListener subtreeListener;
+    private NoopListener oneLevelListener;
+    private NoopListener objectListener;
+    private NoopListener otherListener;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+    }
+
+
+    @Before
+    public void init() throws Exception
+    {
+        MockDirectoryService directoryService = new MockDirectoryService();
+        directoryService.setSchemaManager( schemaManager );
+        dispatcher = new EventDispatcher( 2, 2, 10L );
+        eventService = new DefaultEventService( directoryService, dispatcher );
+
+        subtreeListener = new NoopListener();
+        oneLevelListener = new NoopListener();
+        objectListener = new NoopListener();
+        otherListener = new NoopListener();
+
+        register( subtreeListener, "ou=system", SearchScope.SUBTREE );
+        register( oneLevelListener, "OU=Users, ou=System", SearchScope.ONELEVEL );
+        register( objectListener, "uid=admin,ou=users,ou=system", SearchScope.OBJECT );
+        register( otherListener, "ou=schema", SearchScope.SUBTREE );
+    }
+
+
+    @After
+    public void shutdown()
+    {
+        dispatcher.shutdown();
+    }
+
+
+    private void register( DirectoryListener listener, String base, SearchScope scope ) throws Exception
+    {
+        NotificationCriteria criteria = new NotificationCriteria( schemaManager );
+        criteria.setBase( new Dn( base ) );
+        criteria.setScope( scope );
+        criteria.setFilter( "(objectClass=*)" );
+
+        eventService.addListener( listener, criteria );
+    }
+
+
+    private Set<DirectoryListener> getCandidates( String name ) throws Exception
+    {
+        Set<DirectoryListener> listeners = new HashSet<>();
+
+        for ( RegistrationEntry registration : eventService.getCandidateRegistrations(
+            new Dn( schemaManager, name ) ) )
+        {
+            listeners.add( registration.getListener() );
+        }
+
+        return listeners;
+    }
+
+
+    private Set<DirectoryListener> setOf( DirectoryListener... listeners )
+    {
+        Set<DirectoryListener> set = new HashSet<>();
+
+        for ( DirectoryListener listener : listeners )
+        {
+            set.add( listener );
+        }
+
+        return set;
+    }
+
+
+    /**
+     * The registrations are found from the normalized base, depending on their scope
+     */
+    @Test
+    public void testCandidateRegistrations() throws Exception
+    {
+        assertEquals( setOf( subtreeListener ), getCandidates( "ou=system" ) );
+        assertEquals( setOf( subtreeListener ), getCandidates( "ou=users,ou=system" ) );
+        assertEquals( setOf( subtreeListener, oneLevelListener, objectListener ),
+            getCandidates( "uid=admin,ou=users,ou=system" ) );
+        assertEquals( setOf( subtreeListener, oneLevelListener ), getCandidates( "UID=Other, OU=users,ou=system" ) );
+        assertEquals( setOf( subtreeListener ), getCandidates( "cn=deep,uid=admin,ou=users,ou=system" ) );
+        assertEquals( setOf( otherListener ), getCandidates( "cn=person,ou=schema" ) );
+        assertTrue( getCandidates( "dc=example,dc=com" ).isEmpty() );
+    }
+
+
+    @Test
+    public void testRemoveListener() throws Exception
+    {
+        eventService.removeListener( oneLevelListener );
+
+        assertEquals( 3, eventService.getRegistrationEntries().size() );
+        assertEquals( setOf( subtreeListener, objectListener ), getCandidates( "uid=admin,ou=users,ou=system" ) );
+
+        eventService.removeListener( objectListener );
+        assertEquals( setOf( subtreeListener ), getCandidates( "uid=admin,ou=users,ou=system" ) );
+    }
+
+
+    /**
+     * A listener which does not keep up with its notifications is unregistered
+     */
+    @Test
+    public void testOverflowUnregisters() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        dispatcher.dispatch( objectListener, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                started.countDown();
+
+                try
+                {
+                    release.await();
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } );
+
+        assertTrue( started.await( 10, TimeUnit.SECONDS ) );
+
+        Runnable noop = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        };
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            dispatcher.dispatch( objectListener, noop );
+        }
+
+        release.countDown();
+        assertTrue( objectListener.overflowed.await( 10, TimeUnit.SECONDS ) );
+
+        assertEquals( 3, eventService.getRegistrationEntries().size() );
+        assertEquals( setOf( subtreeListener, oneLevelListener ), getCandidates( "uid=admin,ou=users,ou=system" ) );
+    }
+}
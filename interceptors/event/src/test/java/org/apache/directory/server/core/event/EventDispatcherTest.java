@@ -0,0 +1,224 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the EventDispatcher.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EventDispatcherTest
+{
+    private EventDispatcher dispatcher;
+
+
+    @Before
+    public void init()
+    {
+        // A tiny queue, so that a blocked listener overflows quickly
+        dispatcher = new EventDispatcher( 4, 2, 10L );
+    }
+
+
+    @After
+    public void shutdown()
+    {
+        dispatcher.shutdown();
+    }
+
+
+    /**
+     * A notification appending its number to a list
+     */
+    private static Runnable record( final List<Integer> received, final int number, final CountDownLatch done )
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                received.add( number );
+                done.countDown();
+            }
+        };
+    }
+
+
+    /**
+     * The notifications of each listener are delivered in order, even if several
+     * threads deliver them
+     */
+    @Test
+    public void testOrderPerListener() throws Exception
+    {
+        dispatcher.shutdown();
+        dispatcher = new EventDispatcher( 4, 1000, 1000L );
+        int nbNotifications = 500;
+        List<NoopListener> listeners = new ArrayList<>();
+        List<List<Integer>> received = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch( 3 * nbNotifications );
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            NoopListener listener = new NoopListener();
+            dispatcher.addListener( listener );
+            listeners.add( listener );
+            received.add( Collections.synchronizedList( new ArrayList<Integer>() ) );
+        }
+
+        for ( int i = 0; i < nbNotifications; i++ )
+        {
+            for ( int j = 0; j < listeners.size(); j++ )
+            {
+                dispatcher.dispatch( listeners.get( j ), record( received.get( j ), i, done ) );
+            }
+        }
+
+        assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+
+        for ( List<Integer> numbers : received )
+        {
+            assertEquals( nbNotifications, numbers.size() );
+
+            for ( int i = 0; i < nbNotifications; i++ )
+            {
+                assertEquals( i, numbers.get( i ).intValue() );
+            }
+        }
+
+        assertEquals( 3L * nbNotifications, dispatcher.getDeliveredCount() );
+        assertEquals( 0L, dispatcher.getDroppedCount() );
+    }
+
+
+    /**
+     * A listener which does not keep up is abandoned, and told so, instead of silently
+     * missing some notifications
+     */
+    @Test
+    public void testOverflow() throws Exception
+    {
+        NoopListener slow = new NoopListener();
+        NoopListener fast = new NoopListener();
+        dispatcher.addListener( slow );
+        dispatcher.addListener( fast );
+
+        final CountDownLatch started = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final AtomicInteger slowDelivered = new AtomicInteger();
+
+        // The first notification blocks the slow listener
+        dispatcher.dispatch( slow, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                started.countDown();
+
+                try
+                {
+                    release.await();
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } );
+
+        assertTrue( started.await( 10, TimeUnit.SECONDS ) );
+
+        Runnable counting = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                slowDelivered.incrementAndGet();
+            }
+        };
+
+        // Two notifications fill the queue, the third one can't be queued
+        dispatcher.dispatch( slow, counting );
+        dispatcher.dispatch( slow, counting );
+        assertEquals( 2, dispatcher.getPendingCount( slow ) );
+        dispatcher.dispatch( slow, counting );
+
+        assertEquals( 1L, dispatcher.getWaitCount() );
+        assertEquals( 3L, dispatcher.getDroppedCount() );
+        assertEquals( 0, dispatcher.getPendingCount( slow ) );
+
+        // The other listener is not affected
+        List<Integer> received = Collections.synchronizedList( new ArrayList<Integer>() );
+        CountDownLatch done = new CountDownLatch( 1 );
+        dispatcher.dispatch( fast, record( received, 1, done ) );
+        assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+
+        // Once the slow listener is done with its current notification, it's told it has missed some
+        release.countDown();
+        assertTrue( slow.overflowed.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( 1L, dispatcher.getAbandonedCount() );
+        assertEquals( 0, slowDelivered.get() );
+
+        // The abandoned listener does not receive anything anymore
+        dispatcher.dispatch( slow, counting );
+        assertEquals( 0, dispatcher.getPendingCount( slow ) );
+        assertEquals( 3L, dispatcher.getDroppedCount() );
+        assertEquals( 0, slowDelivered.get() );
+        assertEquals( 1L, fast.overflowed.getCount() );
+    }
+
+
+    /**
+     * The notifications of an unregistered listener are ignored
+     */
+    @Test
+    public void testUnregisteredListener() throws Exception
+    {
+        NoopListener listener = new NoopListener();
+        List<Integer> received = Collections.synchronizedList( new ArrayList<Integer>() );
+
+        dispatcher.dispatch( listener, record( received, 1, new CountDownLatch( 1 ) ) );
+        assertEquals( 0, dispatcher.getPendingCount( listener ) );
+
+        dispatcher.addListener( listener );
+        dispatcher.removeListener( listener );
+        dispatcher.dispatch( listener, record( received, 2, new CountDownLatch( 1 ) ) );
+        assertEquals( 0, dispatcher.getPendingCount( listener ) );
+
+        assertEquals( 0L, dispatcher.getDeliveredCount() );
+        assertTrue( received.isEmpty() );
+    }
+}
@@ -31,11 +31,11 @@ import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
-import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
 import org.apache.directory.api.ldap.model.password.PasswordUtil;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.server.config.beans.HashInterceptorBean;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.authn.PasswordHashingExecutor;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
@@ -104,7 +104,24 @@ public class ConfigurableHashingInterceptor extends BaseInterceptor
     }
     
     
-    private void includeHashed( Attribute attribute ) throws LdapInvalidAttributeValueException 
+    /**
+     * Hashes a value, using the directory service's hashing executor if the algorithm is
+     * an expensive one.
+     */
+    private byte[] createStoragePassword( byte[] value ) throws LdapException
+    {
+        PasswordHashingExecutor hashingExecutor = directoryService.getPasswordHashingExecutor();
+
+        if ( hashingExecutor == null )
+        {
+            return PasswordUtil.createStoragePassword( value, algorithm );
+        }
+
+        return hashingExecutor.createStoragePassword( value, algorithm );
+    }
+
+
+    private void includeHashed( Attribute attribute ) throws LdapException 
     {
         if ( attribute == null ) 
         {
@@ -130,7 +147,7 @@ public class ConfigurableHashingInterceptor extends BaseInterceptor
             if ( existingAlgo == null ) 
             {
                 // not already hashed, so hash it
-                values.add( PasswordUtil.createStoragePassword( bytes, algorithm ) );
+                values.add( createStoragePassword( bytes ) );
             }
             else 
             {
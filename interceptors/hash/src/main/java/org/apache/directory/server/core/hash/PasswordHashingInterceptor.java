@@ -34,6 +34,7 @@ import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.password.PasswordUtil;
 import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.authn.PasswordHashingExecutor;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
@@ -135,6 +136,23 @@ public abstract class PasswordHashingInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * Hashes a password, using the directory service's hashing executor if the algorithm is
+     * an expensive one, so that the request threads are not all busy hashing passwords.
+     */
+    private byte[] createStoragePassword( byte[] password ) throws LdapException
+    {
+        PasswordHashingExecutor hashingExecutor = directoryService.getPasswordHashingExecutor();
+
+        if ( hashingExecutor == null )
+        {
+            return PasswordUtil.createStoragePassword( password, algorithm );
+        }
+
+        return hashingExecutor.createStoragePassword( password, algorithm );
+    }
+
+
     /**
      * hash the password if it was <i>not</i> already hashed
      *
@@ -163,7 +181,7 @@ public abstract class PasswordHashingInterceptor extends BaseInterceptor
             // if there exists NO algorithm, then hash the password
             if ( existingAlgo == null )
             {
-                byte[] hashedPassword = PasswordUtil.createStoragePassword( userPassword.getBytes(), algorithm );
+                byte[] hashedPassword = createStoragePassword( userPassword.getBytes() );
 
                 newPwd.add( hashedPassword );
             }
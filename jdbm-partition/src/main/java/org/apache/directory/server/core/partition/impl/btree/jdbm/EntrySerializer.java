@@ -39,6 +39,7 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.partition.impl.btree.CompactEntrySerializer;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,6 +49,10 @@ import org.slf4j.LoggerFactory;
  * Serialize and deserialize a ServerEntry. There is a big difference with the standard
  * Entry serialization : we don't serialize the entry's Dn, we just serialize it's Rdn.
  * <br><br>
+ * The entries are written using the {@link CompactEntrySerializer} format. The entries
+ * written by previous versions, using the Java serialization, can still be read : they
+ * will be converted the next time they are updated.
+ * <br><br>
  * <b>This class must *not* be used outside of the server.</b>
  *  
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
@@ -68,6 +73,9 @@ public class EntrySerializer implements Serializer
     /** The schemaManager reference */
     private transient SchemaManager schemaManager;
 
+    /** The serializer used for the compact format */
+    private transient CompactEntrySerializer compactSerializer;
+
 
     /**
      * Creates a new instance of ServerEntrySerializer.
@@ -77,16 +85,34 @@ public class EntrySerializer implements Serializer
     public EntrySerializer( SchemaManager schemaManager )
     {
         this.schemaManager = schemaManager;
+        compactSerializer = new CompactEntrySerializer( schemaManager );
     }
 
 
     /**
-     * <p>
-     * 
-     * This is the place where we serialize entries, and all theirs
-     * elements. the reason why we don't call the underlying methods
-     * (<code>ServerAttribute.write(), Value.write()</code>) is that we need
-     * access to the registries to read back the values.
+     * Serializes an entry, using the {@link CompactEntrySerializer} format.
+     *
+     * @param object The entry to serialize
+     * @return The serialized entry
+     * @throws IOException If the entry can't be serialized
+     */
+    public byte[] serialize( Object object ) throws IOException
+    {
+        Entry entry = ( Entry ) object;
+
+        if ( IS_DEBUG )
+        {
+            LOG.debug( ">------------------------------------------------" );
+            LOG.debug( "Serialize {}", entry );
+        }
+
+        return compactSerializer.serialize( entry );
+    }
+
+
+    /**
+     * Serializes an entry using the legacy Java serialization based format. It's not used
+     * to write the master table anymore, but is kept to test the migration from this format.
      * <p>
      * The structure used to store the entry is the following :
      * <ul>
@@ -102,7 +128,7 @@ public class EntrySerializer implements Serializer
      *   </li>
      * </ul>
      */
-    public byte[] serialize( Object object ) throws IOException
+    byte[] serializeLegacy( Object object ) throws IOException
     {
         Entry entry = ( Entry ) object;
 
@@ -161,13 +187,31 @@ public class EntrySerializer implements Serializer
 
 
     /**
-     *  Deserialize a Entry.
+     *  Deserialize a Entry, whatever the format it has been serialized with.
      *  
      *  @param bytes the byte array containing the serialized entry
      *  @return An instance of a Entry object 
      *  @throws IOException if we can't deserialize the Entry
      */
     public Object deserialize( byte[] bytes ) throws IOException
+    {
+        if ( CompactEntrySerializer.isCompact( bytes, 0 ) )
+        {
+            return compactSerializer.deserialize( bytes );
+        }
+
+        return deserializeLegacy( bytes );
+    }
+
+
+    /**
+     *  Deserialize a Entry serialized using the Java serialization.
+     *  
+     *  @param bytes the byte array containing the serialized entry
+     *  @return An instance of a Entry object 
+     *  @throws IOException if we can't deserialize the Entry
+     */
+    private Object deserializeLegacy( byte[] bytes ) throws IOException
     {
         ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) );
 
@@ -45,6 +45,7 @@ import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
 import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.DnFactory;
@@ -64,7 +65,9 @@ import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.NGramIndex;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.apache.directory.server.xdbm.Table;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
 import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
@@ -531,9 +534,14 @@ public class JdbmPartition extends AbstractBTreePartition
             if ( !indexToBuild.isEmpty() )
             {
                 buildUserIndex( beginReadTransaction(), indexToBuild );
+
+                // The n-grams of the indexes we just built are now missing
+                buildNGramIndexes();
             }
 
-            if ( cacheService != null )
+            initOffHeapEntryCache();
+
+            if ( ( offHeapEntryCache == null ) && ( cacheService != null ) )
             {
                 entryCache = cacheService.getCache( getId(), String.class, Entry.class );
 
@@ -832,6 +840,7 @@ public class JdbmPartition extends AbstractBTreePartition
             jdbmIndex = new JdbmIndex( index.getAttributeId(), true );
             jdbmIndex.setCacheSize( index.getCacheSize() );
             jdbmIndex.setNumDupLimit( JdbmIndex.DEFAULT_DUPLICATE_LIMIT );
+            jdbmIndex.setSubstringIndexed( index.isSubstringIndexed() );
         }
 
         try
@@ -847,6 +856,28 @@ public class JdbmPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Table<String, String> createNGramTable( AttributeType attributeType ) throws LdapException
+    {
+        SerializableComparator<String> comp = new SerializableComparator<>( attributeType.getEquality().getOid() );
+        comp.setSchemaManager( schemaManager );
+
+        try
+        {
+            return new JdbmTable<>( schemaManager, attributeType.getOid() + NGramIndex.NGRAM_BTREE,
+                JdbmIndex.DEFAULT_DUPLICATE_LIMIT, recMan, comp, comp, StringSerializer.INSTANCE,
+                StringSerializer.INSTANCE );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -934,6 +965,7 @@ public class JdbmPartition extends AbstractBTreePartition
     {
         if ( entryCache == null )
         {
+            super.updateCache( opCtx );
             return;
         }
 
@@ -977,7 +1009,7 @@ public class JdbmPartition extends AbstractBTreePartition
     @Override
     public Entry lookupCache( String id )
     {
-        return ( entryCache != null ) ? entryCache.get( id ) : null;
+        return ( entryCache != null ) ? entryCache.get( id ) : super.lookupCache( id );
     }
 
 
@@ -986,6 +1018,7 @@ public class JdbmPartition extends AbstractBTreePartition
     {
         if ( entryCache == null )
         {
+            super.addToCache( id, entry );
             return;
         }
 
@@ -78,6 +78,8 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
         {
             baseRecordManager.getTransactionManager().synchronizeLog();
         }
+
+        runCommitActions();
     }
 
 
@@ -87,6 +89,7 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     @Override
     public void abort() throws IOException
     {
+        discardCommitActions();
         recordManager.rollback();
     }
 
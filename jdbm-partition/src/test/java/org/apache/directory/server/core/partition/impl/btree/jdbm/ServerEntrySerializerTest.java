@@ -21,6 +21,7 @@ package org.apache.directory.server.core.partition.impl.btree.jdbm;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
@@ -287,4 +288,30 @@ public class ServerEntrySerializerTest
 
         assertEquals( entry, result );
     }
+
+
+    @Test
+    public void testDeserializeLegacyFormat() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "cn=test,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "SN: Test",
+            "userPassword", Strings.getBytesUtf8( "password" ) );
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+
+        // The entries written by previous versions can still be read
+        byte[] legacyData = ses.serializeLegacy( entry );
+        Entry legacyResult = ( Entry ) ses.deserialize( legacyData );
+
+        byte[] data = ses.serialize( entry );
+        Entry result = ( Entry ) ses.deserialize( data );
+
+        assertEquals( legacyResult, result );
+        assertEquals( "cn=test", result.getDn().getName() );
+        assertTrue( data.length < legacyData.length );
+    }
 }
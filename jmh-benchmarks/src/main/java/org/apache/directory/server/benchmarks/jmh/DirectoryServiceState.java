@@ -0,0 +1,229 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.jmh;
+
+
+import java.io.File;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.DateUtils;
+import org.apache.directory.server.core.DefaultDirectoryService;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.factory.AvlPartitionFactory;
+import org.apache.directory.server.core.factory.DefaultDirectoryServiceFactory;
+import org.apache.directory.server.core.factory.JdbmPartitionFactory;
+import org.apache.directory.server.core.factory.MavibotPartitionFactory;
+import org.apache.directory.server.core.factory.PartitionFactory;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+
+/**
+ * A JMH state holding an in-process {@link DirectoryService}, built with the same
+ * {@link DefaultDirectoryServiceFactory} the test framework uses. A benchmark partition
+ * (<em>dc=bench,dc=com</em>) backed by the selected partition implementation is added
+ * and loaded with <em>nbEntries</em> person entries, with indexes on uid, cn, sn and mail.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@State(Scope.Benchmark)
+public class DirectoryServiceState
+{
+    /** The benchmark partition suffix */
+    public static final String SUFFIX = "dc=bench,dc=com";
+
+    /** The container for all the person entries */
+    public static final String PEOPLE = "ou=people," + SUFFIX;
+
+    /** The partition implementation to benchmark */
+    @Param({ "avl", "jdbm", "mavibot" })
+    public String partitionType;
+
+    /** The number of entries injected before the benchmark starts */
+    @Param({ "10000" })
+    public int nbEntries;
+
+    /** The directory service */
+    public DirectoryService directoryService;
+
+    /** The admin session */
+    public CoreSession session;
+
+    /** The schema manager */
+    public SchemaManager schemaManager;
+
+    /** The benchmark partition */
+    public AbstractBTreePartition partition;
+
+    /** A counter used to generate unique entries for the add benchmarks */
+    private final AtomicLong counter = new AtomicLong();
+
+
+    /**
+     * Creates the DirectoryService, the benchmark partition and loads the data.
+     *
+     * @throws Exception If the DirectoryService can't be started
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        DefaultDirectoryService service = new DefaultDirectoryService();
+        service.setShutdownHookEnabled( false );
+        service.setAccessControlEnabled( false );
+        service.setAllowAnonymousAccess( true );
+
+        PartitionFactory partitionFactory = createPartitionFactory( partitionType );
+        DefaultDirectoryServiceFactory factory = new DefaultDirectoryServiceFactory( service, partitionFactory );
+        factory.init( "jmh-" + partitionType );
+
+        directoryService = factory.getDirectoryService();
+        schemaManager = directoryService.getSchemaManager();
+        session = directoryService.getAdminSession();
+
+        partition = ( AbstractBTreePartition ) partitionFactory.createPartition( schemaManager,
+            directoryService.getDnFactory(), "bench", SUFFIX, 1000,
+            new File( directoryService.getInstanceLayout().getPartitionsDirectory(), "bench" ) );
+
+        for ( String attributeId : new String[]
+            { "uid", "cn", "sn", "mail" } )
+        {
+            partitionFactory.addIndex( partition, attributeId, 1000 );
+        }
+
+        directoryService.addPartition( partition );
+
+        session.add( new DefaultEntry( schemaManager, SUFFIX,
+            "objectClass: top",
+            "objectClass: domain",
+            "dc: bench" ) );
+
+        session.add( new DefaultEntry( schemaManager, PEOPLE,
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: people" ) );
+
+        for ( int i = 0; i < nbEntries; i++ )
+        {
+            session.add( createPerson( i ) );
+        }
+    }
+
+
+    /**
+     * Shuts down the DirectoryService
+     *
+     * @throws Exception If the shutdown failed
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        if ( directoryService != null )
+        {
+            directoryService.shutdown();
+        }
+    }
+
+
+    /**
+     * Creates a person entry, with no operational attribute.
+     *
+     * @param i The entry number
+     * @return The created entry
+     * @throws Exception If the entry can't be created
+     */
+    public Entry createPerson( long i ) throws Exception
+    {
+        return new DefaultEntry( schemaManager, "uid=user" + i + "," + PEOPLE,
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "objectClass: inetOrgPerson",
+            "uid: user" + i,
+            "cn: User " + i,
+            "sn: Surname" + ( i % 1000 ),
+            "givenName: Given" + i,
+            "mail: user" + i + "@bench.com",
+            "description: A benchmark entry used to measure the server performances",
+            "userPassword: secret" );
+    }
+
+
+    /**
+     * Creates a person entry which has never been added yet, with all the operational
+     * attributes the partition requires, so that it can be added directly into the partition
+     * without going through the interceptor chain.
+     *
+     * @return The created entry
+     * @throws Exception If the entry can't be created
+     */
+    public Entry createNewPartitionEntry() throws Exception
+    {
+        Entry entry = createPerson( nbEntries + counter.incrementAndGet() );
+
+        entry.add( SchemaConstants.ENTRY_CSN_AT, directoryService.getCSN().toString() );
+        entry.add( SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
+        entry.add( SchemaConstants.CREATORS_NAME_AT, "uid=admin,ou=system" );
+        entry.add( SchemaConstants.CREATE_TIMESTAMP_AT, DateUtils.getGeneralizedTime() );
+
+        return entry;
+    }
+
+
+    /**
+     * @param i The entry number
+     * @return The Dn of a person entry injected during the setup
+     * @throws Exception If the Dn is invalid
+     */
+    public Dn personDn( int i ) throws Exception
+    {
+        return new Dn( schemaManager, "uid=user" + i + "," + PEOPLE );
+    }
+
+
+    private static PartitionFactory createPartitionFactory( String type )
+    {
+        switch ( type )
+        {
+            case "avl":
+                return new AvlPartitionFactory();
+
+            case "jdbm":
+                return new JdbmPartitionFactory();
+
+            case "mavibot":
+                return new MavibotPartitionFactory();
+
+            default:
+                throw new IllegalArgumentException( "Unknown partition type : " + type );
+        }
+    }
+}
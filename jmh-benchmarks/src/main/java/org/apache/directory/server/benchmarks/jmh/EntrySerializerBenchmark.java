@@ -0,0 +1,175 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.jmh;
+
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.partition.impl.btree.CompactEntrySerializer;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.EntrySerializer;
+import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotEntrySerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks the serialization and deserialization of entries, as done by the JDBM and
+ * Mavibot master tables on every write and on every entry cache miss.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EntrySerializerBenchmark
+{
+    /**
+     * The entry to serialize, and its serialized forms
+     */
+    @State(Scope.Benchmark)
+    public static class EntryState
+    {
+        /** The size of the jpegPhoto attribute added to the entry, 0 for none */
+        @Param({ "0", "32768" })
+        public int photoSize;
+
+        public Entry entry;
+        public EntrySerializer jdbmSerializer;
+        public MavibotEntrySerializer mavibotSerializer;
+        public byte[] jdbmBytes;
+        public byte[] mavibotBytes;
+        public CompactEntrySerializer compactSerializer;
+        public byte[] compactBytes;
+        public Set<String> projection;
+
+
+        @Setup
+        public void setUp() throws Exception
+        {
+            SchemaManager schemaManager = new DefaultSchemaManager();
+
+            entry = new DefaultEntry( schemaManager, "uid=user42,ou=people,dc=bench,dc=com",
+                "objectClass: top",
+                "objectClass: person",
+                "objectClass: organizationalPerson",
+                "objectClass: inetOrgPerson",
+                "uid: user42",
+                "cn: User 42",
+                "sn: Surname42",
+                "givenName: Given42",
+                "mail: user42@bench.com",
+                "telephoneNumber: +1 555 0042",
+                "description: A benchmark entry used to measure the server performances",
+                "entryUUID: " + UUID.randomUUID().toString(),
+                "entryCSN: 20181231000000.000000Z#000000#000#000000",
+                "creatorsName: uid=admin,ou=system",
+                "createTimestamp: 20181231000000Z" );
+
+            if ( photoSize > 0 )
+            {
+                byte[] photo = new byte[photoSize];
+                new Random( 42L ).nextBytes( photo );
+                entry.add( "jpegPhoto", photo );
+            }
+
+            jdbmSerializer = new EntrySerializer( schemaManager );
+            MavibotEntrySerializer.setSchemaManager( schemaManager );
+            mavibotSerializer = new MavibotEntrySerializer();
+
+            jdbmBytes = jdbmSerializer.serialize( entry );
+            mavibotBytes = mavibotSerializer.serialize( entry );
+
+            compactSerializer = new CompactEntrySerializer( schemaManager );
+            compactBytes = compactSerializer.serialize( entry );
+            projection = new HashSet<>( Arrays.asList( schemaManager.getAttributeType( "cn" ).getOid(),
+                schemaManager.getAttributeType( "mail" ).getOid() ) );
+        }
+    }
+
+
+    @Benchmark
+    public byte[] jdbmSerialize( EntryState state ) throws Exception
+    {
+        return state.jdbmSerializer.serialize( state.entry );
+    }
+
+
+    @Benchmark
+    public Object jdbmDeserialize( EntryState state ) throws Exception
+    {
+        return state.jdbmSerializer.deserialize( state.jdbmBytes );
+    }
+
+
+    @Benchmark
+    public Object jdbmRoundTrip( EntryState state ) throws Exception
+    {
+        return state.jdbmSerializer.deserialize( state.jdbmSerializer.serialize( state.entry ) );
+    }
+
+
+    @Benchmark
+    public byte[] mavibotSerialize( EntryState state ) throws Exception
+    {
+        return state.mavibotSerializer.serialize( state.entry );
+    }
+
+
+    @Benchmark
+    public Entry mavibotDeserialize( EntryState state ) throws Exception
+    {
+        return state.mavibotSerializer.fromBytes( state.mavibotBytes );
+    }
+
+
+    @Benchmark
+    public Entry mavibotRoundTrip( EntryState state ) throws Exception
+    {
+        return state.mavibotSerializer.fromBytes( state.mavibotSerializer.serialize( state.entry ) );
+    }
+
+
+    @Benchmark
+    public Entry compactProjectedDeserialize( EntryState state ) throws Exception
+    {
+        return state.compactSerializer.deserialize( state.compactBytes, 0, state.compactBytes.length,
+            state.projection );
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.jmh;
+
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Benchmarks the search operation going through the {@link OperationManager} and the full
+ * interceptor chain, as a LDAP request would do once decoded.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class OperationManagerBenchmark
+{
+    /**
+     * Searches a single entry by uid, returning all the user attributes
+     *
+     * @param state The DirectoryService state
+     * @param blackhole The blackhole consuming the entries
+     * @throws Exception If the search failed
+     */
+    @Benchmark
+    public void searchByUid( DirectoryServiceState state, Blackhole blackhole ) throws Exception
+    {
+        search( state, "(uid=user" + ThreadLocalRandom.current().nextInt( state.nbEntries ) + ")", blackhole );
+    }
+
+
+    /**
+     * Same as {@link #searchByUid(DirectoryServiceState, Blackhole)}, with 4 concurrent threads
+     *
+     * @param state The DirectoryService state
+     * @param blackhole The blackhole consuming the entries
+     * @throws Exception If the search failed
+     */
+    @Benchmark
+    @Threads(4)
+    public void searchByUidConcurrent( DirectoryServiceState state, Blackhole blackhole ) throws Exception
+    {
+        search( state, "(uid=user" + ThreadLocalRandom.current().nextInt( state.nbEntries ) + ")", blackhole );
+    }
+
+
+    /**
+     * Searches the entries sharing a surname
+     *
+     * @param state The DirectoryService state
+     * @param blackhole The blackhole consuming the entries
+     * @throws Exception If the search failed
+     */
+    @Benchmark
+    public void searchBySurname( DirectoryServiceState state, Blackhole blackhole ) throws Exception
+    {
+        search( state, "(&(objectClass=person)(sn=Surname" + ThreadLocalRandom.current().nextInt( 1000 ) + "))",
+            blackhole );
+    }
+
+
+    private void search( DirectoryServiceState state, String filter, Blackhole blackhole ) throws Exception
+    {
+        ExprNode exprNode = FilterParser.parse( state.schemaManager, filter );
+        Dn base = new Dn( state.schemaManager, DirectoryServiceState.PEOPLE );
+        SearchOperationContext searchContext = new SearchOperationContext( state.session, base, SearchScope.SUBTREE,
+            exprNode, "*" );
+
+        try ( EntryFilteringCursor cursor = state.directoryService.getOperationManager().search( searchContext ) )
+        {
+            while ( cursor.next() )
+            {
+                blackhole.consume( cursor.get() );
+            }
+        }
+    }
+}
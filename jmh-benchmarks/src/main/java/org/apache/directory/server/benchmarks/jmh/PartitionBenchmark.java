@@ -0,0 +1,165 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.jmh;
+
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Benchmarks the {@link AbstractBTreePartition} add, lookup and search operations, called
+ * directly on the partition (ie, without going through the interceptor chain), for the
+ * AVL, JDBM and Mavibot backends.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PartitionBenchmark
+{
+    /**
+     * Adds a new entry in the partition. Note that the partition grows with each
+     * invocation.
+     *
+     * @param state The DirectoryService state
+     * @throws Exception If the addition failed
+     */
+    @Benchmark
+    public void add( DirectoryServiceState state ) throws Exception
+    {
+        AbstractBTreePartition partition = state.partition;
+        Entry entry = state.createNewPartitionEntry();
+        AddOperationContext addContext = new AddOperationContext( state.session, entry );
+
+        PartitionTxn partitionTxn = partition.beginWriteTransaction();
+
+        try
+        {
+            addContext.setTransaction( partitionTxn );
+            partition.add( addContext );
+            partitionTxn.commit();
+        }
+        catch ( Exception e )
+        {
+            partitionTxn.abort();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Looks up a random existing entry.
+     *
+     * @param state The DirectoryService state
+     * @return The found entry
+     * @throws Exception If the lookup failed
+     */
+    @Benchmark
+    public Entry lookup( DirectoryServiceState state ) throws Exception
+    {
+        Dn dn = state.personDn( ThreadLocalRandom.current().nextInt( state.nbEntries ) );
+        LookupOperationContext lookupContext = new LookupOperationContext( state.session, dn );
+
+        try ( PartitionTxn partitionTxn = state.partition.beginReadTransaction() )
+        {
+            lookupContext.setTransaction( partitionTxn );
+
+            return state.partition.lookup( lookupContext );
+        }
+    }
+
+
+    /**
+     * Searches for a random existing entry using an equality filter on an indexed attribute.
+     *
+     * @param state The DirectoryService state
+     * @param blackhole The blackhole consuming the entries
+     * @throws Exception If the search failed
+     */
+    @Benchmark
+    public void searchEquality( DirectoryServiceState state, Blackhole blackhole ) throws Exception
+    {
+        String filter = "(uid=user" + ThreadLocalRandom.current().nextInt( state.nbEntries ) + ")";
+
+        search( state, filter, blackhole );
+    }
+
+
+    /**
+     * Searches for the entries sharing a surname (about nbEntries/1000 entries).
+     *
+     * @param state The DirectoryService state
+     * @param blackhole The blackhole consuming the entries
+     * @throws Exception If the search failed
+     */
+    @Benchmark
+    public void searchAnd( DirectoryServiceState state, Blackhole blackhole ) throws Exception
+    {
+        String filter = "(&(objectClass=person)(sn=Surname" + ThreadLocalRandom.current().nextInt( 1000 ) + "))";
+
+        search( state, filter, blackhole );
+    }
+
+
+    private void search( DirectoryServiceState state, String filter, Blackhole blackhole ) throws Exception
+    {
+        ExprNode exprNode = FilterParser.parse( state.schemaManager, filter );
+        Dn base = new Dn( state.schemaManager, DirectoryServiceState.PEOPLE );
+        SearchOperationContext searchContext = new SearchOperationContext( state.session, base, SearchScope.SUBTREE,
+            exprNode, "*" );
+
+        try ( PartitionTxn partitionTxn = state.partition.beginReadTransaction() )
+        {
+            searchContext.setTransaction( partitionTxn );
+
+            try ( EntryFilteringCursor cursor = state.partition.search( searchContext ) )
+            {
+                while ( cursor.next() )
+                {
+                    blackhole.consume( cursor.get() );
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.jmh;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.server.kerberos.shared.replay.ShardedReplayCache;
+import org.apache.directory.shared.kerberos.KerberosTime;
+import org.apache.directory.shared.kerberos.codec.types.PrincipalNameType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks the Kerberos replay cache, as used by the KDC and the GSSAPI bind on each
+ * received authenticator : each thread checks then saves the authenticators of its own
+ * client.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ReplayCacheBenchmark
+{
+    private static final KerberosPrincipal SERVER = new KerberosPrincipal( "ldap/localhost@EXAMPLE.COM",
+        PrincipalNameType.KRB_NT_PRINCIPAL.getValue() );
+
+    /**
+     * The shared replay cache
+     */
+    @State(Scope.Benchmark)
+    public static class CacheState
+    {
+        /** The number of shards, 1 meaning a single lock for the whole cache */
+        @Param({ "1", "64" })
+        public int nbShards;
+
+        public ShardedReplayCache cache;
+
+
+        @Setup
+        public void setUp()
+        {
+            // A short clock skew, so that the saved authenticators expire during the run
+            cache = new ShardedReplayCache( 1000L, nbShards );
+        }
+    }
+
+
+    /**
+     * The client of a benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class ClientState
+    {
+        private static final AtomicInteger CLIENT_COUNTER = new AtomicInteger();
+
+        public KerberosPrincipal client;
+        public int clientMicroSeconds;
+
+
+        @Setup
+        public void setUp()
+        {
+            client = new KerberosPrincipal( "client" + CLIENT_COUNTER.incrementAndGet() + "@EXAMPLE.COM",
+                PrincipalNameType.KRB_NT_PRINCIPAL.getValue() );
+        }
+    }
+
+
+    /**
+     * Checks then saves a new authenticator
+     *
+     * @param cacheState The replay cache
+     * @param clientState The thread's client
+     * @return <tt>true</tt> if the authenticator was a replay, which never happens
+     */
+    @Benchmark
+    public boolean checkAndSave( CacheState cacheState, ClientState clientState )
+    {
+        return checkAndSave( cacheState.cache, clientState );
+    }
+
+
+    /**
+     * Same as {@link #checkAndSave(CacheState, ClientState)}, with 4 concurrent threads
+     *
+     * @param cacheState The replay cache
+     * @param clientState The thread's client
+     * @return <tt>true</tt> if the authenticator was a replay, which never happens
+     */
+    @Benchmark
+    @Threads(4)
+    public boolean checkAndSaveConcurrent( CacheState cacheState, ClientState clientState )
+    {
+        return checkAndSave( cacheState.cache, clientState );
+    }
+
+
+    private boolean checkAndSave( ShardedReplayCache cache, ClientState clientState )
+    {
+        KerberosTime clientTime = new KerberosTime( System.currentTimeMillis() );
+        int clientMicroSeconds = clientState.clientMicroSeconds++;
+
+        if ( cache.isReplay( SERVER, clientState.client, clientTime, clientMicroSeconds ) )
+        {
+            return true;
+        }
+
+        cache.save( SERVER, clientState.client, clientTime, clientMicroSeconds );
+
+        return false;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks.jmh;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.apache.directory.server.xdbm.search.SearchEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Benchmarks the candidate set computation done by the {@link SearchEngine}, with a set of
+ * representative filters. The entries are not fetched from the master table.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SearchEngineBenchmark
+{
+    /**
+     * The filters to evaluate
+     */
+    @State(Scope.Benchmark)
+    public static class FilterState
+    {
+        @Param(
+            {
+                "(uid=user42)",
+                "(&(objectClass=person)(sn=Surname42))",
+                "(|(uid=user1)(uid=user2)(mail=user3@bench.com))",
+                "(sn>=Surname900)",
+                "(cn=User 4*)",
+                "(objectClass=*)"
+        })
+        public String filter;
+
+        /** The search base */
+        public Dn base;
+
+
+        @Setup
+        public void setUp( DirectoryServiceState state ) throws Exception
+        {
+            base = new Dn( state.schemaManager, DirectoryServiceState.PEOPLE );
+        }
+    }
+
+
+    /**
+     * Computes the set of candidates for the filter
+     *
+     * @param state The DirectoryService state
+     * @param filterState The filter state
+     * @param blackhole The blackhole consuming the candidates
+     * @throws Exception If the search failed
+     */
+    @Benchmark
+    public void computeResult( DirectoryServiceState state, FilterState filterState, Blackhole blackhole )
+        throws Exception
+    {
+        // The filter is annotated by the optimizer, so it must be parsed every time
+        ExprNode exprNode = FilterParser.parse( state.schemaManager, filterState.filter );
+        SearchOperationContext searchContext = new SearchOperationContext( state.session, filterState.base,
+            SearchScope.SUBTREE, exprNode, "*" );
+        SearchEngine searchEngine = state.partition.getSearchEngine();
+
+        try ( PartitionTxn partitionTxn = state.partition.beginReadTransaction() )
+        {
+            searchContext.setTransaction( partitionTxn );
+            PartitionSearchResult result = searchEngine.computeResult( partitionTxn, state.schemaManager,
+                searchContext );
+
+            try ( Cursor<IndexEntry<String, String>> cursor = result.getResultSet() )
+            {
+                while ( cursor.next() )
+                {
+                    blackhole.consume( cursor.get() );
+                }
+            }
+        }
+    }
+}
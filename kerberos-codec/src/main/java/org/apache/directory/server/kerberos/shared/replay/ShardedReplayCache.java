@@ -0,0 +1,515 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.kerberos.shared.replay;
+
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.shared.kerberos.KerberosTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An in-memory {@link ReplayCache} designed for a high request rate.
+ * <p>
+ * The cache is split in shards, selected by the hash of the client and server principals,
+ * each one being protected by its own lock, so that concurrent requests rarely contend.
+ * Each shard stores its entries in a hash table, and expires them using a hierarchical
+ * timing wheel : an entry is kept until its client time plus the clock skew, as an older
+ * authenticator is rejected anyway. The wheel's first level covers twice the clock skew,
+ * its second level 64 times more. The wheel is advanced by the requests themselves, so
+ * no thread is needed to expire the entries, and the expiration costs nothing more than
+ * dropping the entries of the elapsed slots.
+ * <p>
+ * Checking if a request is a replay does not allocate anything, and saving a request
+ * only allocates its entry.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ShardedReplayCache implements ReplayCache
+{
+    private static final Logger LOG = LoggerFactory.getLogger( ShardedReplayCache.class );
+
+    /** The default clock skew */
+    private static final long DEFAULT_CLOCK_SKEW = 5L * KerberosTime.MINUTE;
+
+    /** The default number of shards */
+    private static final int DEFAULT_NB_SHARDS = 64;
+
+    /** The number of bits of a wheel level's number of slots */
+    private static final int WHEEL_BITS = 6;
+
+    /** The number of slots of a wheel level */
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+    /** The mask used to compute a slot */
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    /** The shards */
+    private final Shard[] shards;
+
+    /** The mask used to select a shard */
+    private final int shardMask;
+
+    /** The clock skew, in milliseconds */
+    private final long clockSkew;
+
+    /** The duration of a first level slot, in milliseconds */
+    private final long tick;
+
+
+    /**
+     * Creates a new instance of ShardedReplayCache, with the default clock skew.
+     */
+    public ShardedReplayCache()
+    {
+        this( DEFAULT_CLOCK_SKEW );
+    }
+
+
+    /**
+     * Creates a new instance of ShardedReplayCache.
+     *
+     * @param clockSkew the allowed skew (milliseconds)
+     */
+    public ShardedReplayCache( long clockSkew )
+    {
+        this( clockSkew, DEFAULT_NB_SHARDS );
+    }
+
+
+    /**
+     * Creates a new instance of ShardedReplayCache.
+     *
+     * @param clockSkew the allowed skew (milliseconds)
+     * @param nbShards The number of shards, rounded up to a power of 2
+     */
+    public ShardedReplayCache( long clockSkew, int nbShards )
+    {
+        this.clockSkew = Math.max( 1L, clockSkew );
+
+        // The first level covers twice the clock skew
+        tick = Math.max( 1L, ( 2L * this.clockSkew ) / WHEEL_SIZE );
+
+        int size = Integer.highestOneBit( Math.max( 1, nbShards ) );
+
+        if ( size < nbShards )
+        {
+            size <<= 1;
+        }
+
+        shards = new Shard[size];
+        shardMask = size - 1;
+        long now = currentTime();
+
+        for ( int i = 0; i < size; i++ )
+        {
+            shards[i] = new Shard( now / tick );
+        }
+    }
+
+
+    /**
+     * @return The current time, in milliseconds
+     */
+    protected long currentTime()
+    {
+        return System.currentTimeMillis();
+    }
+
+
+    private static String nameOf( KerberosPrincipal principal )
+    {
+        return ( principal == null ) ? null : principal.getName();
+    }
+
+
+    private static int hashOf( String serverName, String clientName, long time, int microSeconds )
+    {
+        int hash = ( serverName == null ) ? 0 : serverName.hashCode();
+        hash = hash * 31 + ( ( clientName == null ) ? 0 : clientName.hashCode() );
+        hash = hash * 31 + ( int ) ( time ^ ( time >>> 32 ) );
+        hash = hash * 31 + microSeconds;
+
+        // Spread the bits, as the shard and the bucket are selected using the low bits
+        return hash ^ ( hash >>> 16 );
+    }
+
+
+    private Shard shardFor( int hash )
+    {
+        return shards[( hash >>> 8 ) & shardMask];
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReplay( KerberosPrincipal serverPrincipal, KerberosPrincipal clientPrincipal,
+        KerberosTime clientTime, int clientMicroSeconds )
+    {
+        String serverName = nameOf( serverPrincipal );
+        String clientName = nameOf( clientPrincipal );
+        long time = ( clientTime == null ) ? 0L : clientTime.getTime();
+        int hash = hashOf( serverName, clientName, time, clientMicroSeconds );
+        Shard shard = shardFor( hash );
+        long now = currentTime();
+
+        synchronized ( shard )
+        {
+            shard.advance( now / tick );
+
+            return shard.find( hash, serverName, clientName, time, clientMicroSeconds ) != null;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void save( KerberosPrincipal serverPrincipal, KerberosPrincipal clientPrincipal, KerberosTime clientTime,
+        int clientMicroSeconds )
+    {
+        String serverName = nameOf( serverPrincipal );
+        String clientName = nameOf( clientPrincipal );
+        long time = ( clientTime == null ) ? 0L : clientTime.getTime();
+        int hash = hashOf( serverName, clientName, time, clientMicroSeconds );
+        Shard shard = shardFor( hash );
+        long now = currentTime();
+
+        // The entry can be forgotten once its authenticator is out of the clock skew,
+        // but it's kept at least one tick
+        long expirationTick = Math.max( now / tick + 1L, ( time + clockSkew ) / tick + 1L );
+
+        synchronized ( shard )
+        {
+            shard.advance( now / tick );
+
+            if ( shard.find( hash, serverName, clientName, time, clientMicroSeconds ) == null )
+            {
+                shard.add( new Entry( hash, serverName, clientName, time, clientMicroSeconds ), expirationTick );
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear()
+    {
+        LOG.debug( "removing all the elements from cache" );
+
+        for ( Shard shard : shards )
+        {
+            synchronized ( shard )
+            {
+                shard.clear();
+            }
+        }
+    }
+
+
+    /**
+     * @return The number of entries in the cache, including the expired entries which
+     * have not been removed yet
+     */
+    public int size()
+    {
+        int size = 0;
+
+        for ( Shard shard : shards )
+        {
+            synchronized ( shard )
+            {
+                size += shard.size;
+            }
+        }
+
+        return size;
+    }
+
+
+    /**
+     * A saved request.
+     */
+    private static final class Entry
+    {
+        private final int hash;
+        private final String serverName;
+        private final String clientName;
+        private final long time;
+        private final int microSeconds;
+
+        /** The tick at which the entry expires */
+        private long expirationTick;
+
+        /** The next entry in the same hash bucket */
+        private Entry nextInBucket;
+
+        /** The next entry in the same wheel slot */
+        private Entry nextInSlot;
+
+
+        private Entry( int hash, String serverName, String clientName, long time, int microSeconds )
+        {
+            this.hash = hash;
+            this.serverName = serverName;
+            this.clientName = clientName;
+            this.time = time;
+            this.microSeconds = microSeconds;
+        }
+
+
+        private boolean matches( int hash, String serverName, String clientName, long time, int microSeconds )
+        {
+            return ( this.hash == hash ) && ( this.time == time ) && ( this.microSeconds == microSeconds )
+                && equals( this.serverName, serverName ) && equals( this.clientName, clientName );
+        }
+
+
+        private static boolean equals( String s1, String s2 )
+        {
+            return ( s1 == null ) ? ( s2 == null ) : s1.equals( s2 );
+        }
+    }
+
+
+    /**
+     * A shard : a hash table of entries, and the two levels timing wheel expiring them.
+     * All the methods must be called while holding the shard's lock.
+     */
+    private static final class Shard
+    {
+        /** The initial number of hash buckets */
+        private static final int INITIAL_CAPACITY = 64;
+
+        /** The hash buckets */
+        private Entry[] buckets = new Entry[INITIAL_CAPACITY];
+
+        /** The number of entries */
+        private int size;
+
+        /** The first level slots, one per tick */
+        private final Entry[] level0 = new Entry[WHEEL_SIZE];
+
+        /** The second level slots, one per WHEEL_SIZE ticks */
+        private final Entry[] level1 = new Entry[WHEEL_SIZE];
+
+        /** The last tick the wheel has been advanced to */
+        private long currentTick;
+
+
+        private Shard( long currentTick )
+        {
+            this.currentTick = currentTick;
+        }
+
+
+        private Entry find( int hash, String serverName, String clientName, long time, int microSeconds )
+        {
+            Entry entry = buckets[hash & ( buckets.length - 1 )];
+
+            while ( entry != null )
+            {
+                if ( entry.matches( hash, serverName, clientName, time, microSeconds ) )
+                {
+                    return entry;
+                }
+
+                entry = entry.nextInBucket;
+            }
+
+            return null;
+        }
+
+
+        private void add( Entry entry, long expirationTick )
+        {
+            if ( size >= buckets.length - ( buckets.length >>> 2 ) )
+            {
+                resize();
+            }
+
+            int bucket = entry.hash & ( buckets.length - 1 );
+            entry.nextInBucket = buckets[bucket];
+            buckets[bucket] = entry;
+            size++;
+
+            // Entries expiring beyond the wheel's horizon are kept until the horizon : their
+            // client time is so far in the future that they will be rejected anyway
+            entry.expirationTick = Math.min( expirationTick, currentTick + ( ( long ) WHEEL_SIZE * WHEEL_SIZE ) - 1L );
+            schedule( entry );
+        }
+
+
+        /**
+         * Stores an entry in the wheel slot matching its expiration tick
+         */
+        private void schedule( Entry entry )
+        {
+            if ( entry.expirationTick - currentTick < WHEEL_SIZE )
+            {
+                int slot = ( int ) ( entry.expirationTick & WHEEL_MASK );
+                entry.nextInSlot = level0[slot];
+                level0[slot] = entry;
+            }
+            else
+            {
+                int slot = ( int ) ( ( entry.expirationTick >>> WHEEL_BITS ) & WHEEL_MASK );
+                entry.nextInSlot = level1[slot];
+                level1[slot] = entry;
+            }
+        }
+
+
+        private void resize()
+        {
+            Entry[] oldBuckets = buckets;
+            buckets = new Entry[oldBuckets.length * 2];
+            int mask = buckets.length - 1;
+
+            for ( Entry head : oldBuckets )
+            {
+                Entry entry = head;
+
+                while ( entry != null )
+                {
+                    Entry next = entry.nextInBucket;
+                    int bucket = entry.hash & mask;
+                    entry.nextInBucket = buckets[bucket];
+                    buckets[bucket] = entry;
+                    entry = next;
+                }
+            }
+        }
+
+
+        /**
+         * Advances the wheel up to the given tick, removing the expired entries.
+         */
+        private void advance( long tick )
+        {
+            if ( tick <= currentTick )
+            {
+                return;
+            }
+
+            if ( tick - currentTick >= ( long ) WHEEL_SIZE * WHEEL_SIZE )
+            {
+                // Idle for longer than the wheel's horizon : everything has expired
+                clear();
+                currentTick = tick;
+
+                return;
+            }
+
+            while ( currentTick < tick )
+            {
+                currentTick++;
+
+                if ( ( currentTick & WHEEL_MASK ) == 0 )
+                {
+                    // A new round of the first level : move the second level's entries
+                    // expiring during this round to the first level
+                    int slot = ( int ) ( ( currentTick >>> WHEEL_BITS ) & WHEEL_MASK );
+                    Entry entry = level1[slot];
+                    level1[slot] = null;
+
+                    while ( entry != null )
+                    {
+                        Entry next = entry.nextInSlot;
+                        schedule( entry );
+                        entry = next;
+                    }
+                }
+
+                // The entries of the slot matching the new tick have expired
+                int slot = ( int ) ( currentTick & WHEEL_MASK );
+                Entry entry = level0[slot];
+                level0[slot] = null;
+
+                while ( entry != null )
+                {
+                    Entry next = entry.nextInSlot;
+
+                    if ( entry.expirationTick <= currentTick )
+                    {
+                        remove( entry );
+                    }
+                    else
+                    {
+                        // Should not happen, but never lose an entry
+                        schedule( entry );
+                    }
+
+                    entry = next;
+                }
+            }
+        }
+
+
+        private void remove( Entry removed )
+        {
+            int bucket = removed.hash & ( buckets.length - 1 );
+            Entry previous = null;
+            Entry entry = buckets[bucket];
+
+            while ( entry != null )
+            {
+                if ( entry == removed )
+                {
+                    if ( previous == null )
+                    {
+                        buckets[bucket] = entry.nextInBucket;
+                    }
+                    else
+                    {
+                        previous.nextInBucket = entry.nextInBucket;
+                    }
+
+                    size--;
+
+                    return;
+                }
+
+                previous = entry;
+                entry = entry.nextInBucket;
+            }
+        }
+
+
+        private void clear()
+        {
+            buckets = new Entry[INITIAL_CAPACITY];
+            size = 0;
+
+            for ( int i = 0; i < WHEEL_SIZE; i++ )
+            {
+                level0[i] = null;
+                level1[i] = null;
+            }
+        }
+    }
+}
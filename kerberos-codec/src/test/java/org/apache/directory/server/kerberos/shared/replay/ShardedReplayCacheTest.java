@@ -0,0 +1,214 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.kerberos.shared.replay;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.shared.kerberos.KerberosTime;
+import org.apache.directory.shared.kerberos.codec.types.PrincipalNameType;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link ShardedReplayCache} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ShardedReplayCacheTest
+{
+    private static final KerberosPrincipal SERVER = new KerberosPrincipal( "ldap/localhost@EXAMPLE.COM",
+        PrincipalNameType.KRB_NT_PRINCIPAL.getValue() );
+
+    private static final KerberosPrincipal CLIENT = new KerberosPrincipal( "hnelson@EXAMPLE.COM",
+        PrincipalNameType.KRB_NT_PRINCIPAL.getValue() );
+
+
+    /**
+     * A cache which time is set by the test.
+     */
+    private static class ManualClockReplayCache extends ShardedReplayCache
+    {
+        private volatile long now;
+
+
+        private ManualClockReplayCache( long clockSkew, long now )
+        {
+            super( clockSkew, 4 );
+            this.now = now;
+        }
+
+
+        @Override
+        protected long currentTime()
+        {
+            return now;
+        }
+    }
+
+
+    @Test
+    public void testSaveAndCheck()
+    {
+        ShardedReplayCache cache = new ShardedReplayCache( 5L * KerberosTime.MINUTE );
+        KerberosTime clientTime = new KerberosTime( System.currentTimeMillis() );
+
+        assertFalse( cache.isReplay( SERVER, CLIENT, clientTime, 100 ) );
+
+        cache.save( SERVER, CLIENT, clientTime, 100 );
+        cache.save( SERVER, CLIENT, clientTime, 100 );
+
+        assertTrue( cache.isReplay( SERVER, CLIENT, clientTime, 100 ) );
+        assertEquals( 1, cache.size() );
+
+        // Any difference in the tuple is not a replay
+        assertFalse( cache.isReplay( SERVER, CLIENT, clientTime, 101 ) );
+        assertFalse( cache.isReplay( CLIENT, SERVER, clientTime, 100 ) );
+        assertFalse( cache.isReplay( SERVER, CLIENT, new KerberosTime( clientTime.getTime() + 1L ), 100 ) );
+        assertFalse( cache.isReplay( SERVER, null, clientTime, 100 ) );
+
+        cache.clear();
+        assertFalse( cache.isReplay( SERVER, CLIENT, clientTime, 100 ) );
+        assertEquals( 0, cache.size() );
+    }
+
+
+    @Test
+    public void testExpiration()
+    {
+        long start = 1000000000L;
+        long clockSkew = 1000L;
+        ManualClockReplayCache cache = new ManualClockReplayCache( clockSkew, start );
+        KerberosTime clientTime = new KerberosTime( start );
+
+        cache.save( SERVER, CLIENT, clientTime, 0 );
+
+        // Still in the clock skew
+        cache.now = start + clockSkew - 1L;
+        assertTrue( cache.isReplay( SERVER, CLIENT, clientTime, 0 ) );
+
+        // Out of the clock skew, plus the wheel's granularity
+        cache.now = start + clockSkew + 100L;
+        assertFalse( cache.isReplay( SERVER, CLIENT, clientTime, 0 ) );
+        assertEquals( 0, cache.size() );
+    }
+
+
+    @Test
+    public void testSecondLevelExpiration()
+    {
+        long start = 1000000000L;
+        long clockSkew = 1000L;
+        ManualClockReplayCache cache = new ManualClockReplayCache( clockSkew, start );
+
+        // An authenticator ten clock skews in the future goes in the wheel's second level
+        KerberosTime clientTime = new KerberosTime( start + 10L * clockSkew );
+        cache.save( SERVER, CLIENT, clientTime, 0 );
+
+        for ( long now = start; now < start + 11L * clockSkew; now += 250L )
+        {
+            cache.now = now;
+            assertTrue( cache.isReplay( SERVER, CLIENT, clientTime, 0 ) );
+        }
+
+        cache.now = start + 11L * clockSkew + 100L;
+        assertFalse( cache.isReplay( SERVER, CLIENT, clientTime, 0 ) );
+
+        // After a long idle period, everything has expired
+        cache.save( SERVER, CLIENT, new KerberosTime( cache.now ), 1 );
+        cache.now += 1000L * clockSkew;
+        assertFalse( cache.isReplay( SERVER, CLIENT, clientTime, 1 ) );
+    }
+
+
+    @Test
+    public void testManyEntries()
+    {
+        ShardedReplayCache cache = new ShardedReplayCache( 5L * KerberosTime.MINUTE );
+        KerberosTime clientTime = new KerberosTime( System.currentTimeMillis() );
+
+        for ( int i = 0; i < 10000; i++ )
+        {
+            cache.save( SERVER, CLIENT, clientTime, i );
+        }
+
+        assertEquals( 10000, cache.size() );
+
+        for ( int i = 0; i < 10000; i++ )
+        {
+            assertTrue( cache.isReplay( SERVER, CLIENT, clientTime, i ) );
+        }
+
+        assertFalse( cache.isReplay( SERVER, CLIENT, clientTime, 10000 ) );
+    }
+
+
+    @Test
+    public void testConcurrentAccess() throws Exception
+    {
+        final ShardedReplayCache cache = new ShardedReplayCache( 5L * KerberosTime.MINUTE );
+        final KerberosTime clientTime = new KerberosTime( System.currentTimeMillis() );
+        final AtomicInteger errors = new AtomicInteger();
+        int nbThreads = 8;
+        final CountDownLatch done = new CountDownLatch( nbThreads );
+
+        for ( int t = 0; t < nbThreads; t++ )
+        {
+            final KerberosPrincipal client = new KerberosPrincipal( "client" + t + "@EXAMPLE.COM",
+                PrincipalNameType.KRB_NT_PRINCIPAL.getValue() );
+
+            new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for ( int i = 0; i < 1000; i++ )
+                    {
+                        if ( cache.isReplay( SERVER, client, clientTime, i ) )
+                        {
+                            errors.incrementAndGet();
+                        }
+
+                        cache.save( SERVER, client, clientTime, i );
+
+                        if ( !cache.isReplay( SERVER, client, clientTime, i ) )
+                        {
+                            errors.incrementAndGet();
+                        }
+                    }
+
+                    done.countDown();
+                }
+            } ).start();
+        }
+
+        done.await();
+
+        assertEquals( 0, errors.get() );
+        assertEquals( nbThreads * 1000, cache.size() );
+    }
+}
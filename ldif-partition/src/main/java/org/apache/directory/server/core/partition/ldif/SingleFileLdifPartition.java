@@ -21,22 +21,43 @@
 package org.apache.directory.server.core.partition.ldif;
 
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Iterator;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.exception.LdapOperationException;
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
 import org.apache.directory.api.ldap.model.ldif.LdifEntry;
 import org.apache.directory.api.ldap.model.ldif.LdifReader;
 import org.apache.directory.api.ldap.model.ldif.LdifUtils;
@@ -60,6 +81,15 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A Partition implementation backed by a single LDIF file.
+ * <p>
+ * By default, the whole file is rewritten on each modification. When the journal is enabled
+ * (see {@link #setJournalEnabled(boolean)}), the added, modified and deleted entries are
+ * appended as LDIF change records to a journal file stored next to the LDIF file, and the
+ * journal is synced to disk every {@link #getJournalSyncDelay()} ms. The LDIF file is then
+ * rewritten by a background thread (the journal is compacted) when the journal size exceeds
+ * {@link #getCompactionSize()} or {@link #getCompactionRatio()} times the LDIF file size.
+ * The rename and move operations, which modify a whole subtree, still rewrite the file
+ * synchronously. The journal is replayed when the partition is loaded.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -79,6 +109,51 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
     private static final Logger LOG = LoggerFactory.getLogger( SingleFileLdifPartition.class );
 
+    /** The suffix of the journal file name */
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    /** The suffix of the journal file name while it's being discarded by a compaction */
+    private static final String OLD_JOURNAL_SUFFIX = ".journal.old";
+
+    /** The suffix of the LDIF file name while it's being written by a compaction */
+    private static final String COMPACTION_SUFFIX = ".tmp";
+
+    /** The comment preceding each journal record, followed by the record length and CRC */
+    private static final String RECORD_HEADER = "# record: ";
+
+    /** The journal size under which the compaction ratio is not checked */
+    private static final long MIN_COMPACTION_SIZE = 64 * 1024L;
+
+    /** flag to enable/disable the journal, default is set to false */
+    private boolean journalEnabled = false;
+
+    /** The delay between two journal syncs, in ms. If 0, the journal is synced on each change */
+    private long journalSyncDelay = 100L;
+
+    /** The journal size above which it's compacted */
+    private long compactionSize = 16 * 1024 * 1024L;
+
+    /** The journal size to LDIF file size ratio above which the journal is compacted */
+    private double compactionRatio = 1.0d;
+
+    /** the LDIF file */
+    private File partitionFile;
+
+    /** the journal file */
+    private File journalFile;
+
+    /** the journal, when it's enabled */
+    private volatile FileChannel journal;
+
+    /** flag used to detect if some changes were appended to the journal since the last sync */
+    private final AtomicBoolean journalUnsynced = new AtomicBoolean( false );
+
+    /** flag used to avoid scheduling a compaction twice */
+    private boolean compactionScheduled = false;
+
+    /** the thread syncing and compacting the journal */
+    private ScheduledExecutorService journalExecutor;
+
 
     /**
      * Creates a new instance of SingleFileLdifPartition.
@@ -102,13 +177,16 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 throw new IllegalArgumentException( "Partition path cannot be null" );
             }
 
-            File partitionFile = new File( getPartitionPath() );
+            partitionFile = new File( getPartitionPath() );
+            journalFile = new File( partitionFile.getPath() + JOURNAL_SUFFIX );
 
             if ( partitionFile.exists() && !partitionFile.isFile() )
             {
                 throw new IllegalArgumentException( "Partition path must be a LDIF file" );
             }
 
+            recoverCompaction();
+
             try
             {
                 ldifFile = new RandomAccessFile( partitionFile, "rws" );
@@ -137,6 +215,71 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
             super.doInit();
 
             loadEntries();
+
+            boolean replayed = replayJournal();
+
+            if ( journalEnabled )
+            {
+                openJournal();
+                startJournalThread();
+            }
+            else if ( replayed )
+            {
+                // The journal has been disabled since the last run : write its changes in the LDIF file
+                synchronized ( lock )
+                {
+                    try ( PartitionTxn partitionTxn = beginReadTransaction() )
+                    {
+                        compact( partitionTxn );
+                    }
+                    catch ( LdapException le )
+                    {
+                        throw le;
+                    }
+                    catch ( Exception e )
+                    {
+                        throw new LdapOtherException( e.getMessage(), e );
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Cleans up the files left by a compaction which has been interrupted by a crash. If the
+     * compacted file has not replaced the LDIF file, the discarded journal is restored.
+     */
+    private void recoverCompaction() throws LdapException
+    {
+        File compactedFile = new File( partitionFile.getPath() + COMPACTION_SUFFIX );
+        File oldJournalFile = new File( partitionFile.getPath() + OLD_JOURNAL_SUFFIX );
+
+        try
+        {
+            if ( oldJournalFile.exists() )
+            {
+                if ( compactedFile.exists() )
+                {
+                    LOG.warn( "Restoring the journal of the interrupted compaction of {}", partitionFile );
+                    Files.delete( compactedFile.toPath() );
+                    Files.move( oldJournalFile.toPath(), journalFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING );
+                }
+                else
+                {
+                    // The LDIF file contains all the changes of the old journal
+                    Files.delete( oldJournalFile.toPath() );
+                }
+            }
+            else
+            {
+                Files.deleteIfExists( compactedFile.toPath() );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
         }
     }
 
@@ -197,6 +340,206 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     }
 
 
+    /**
+     * Applies the changes stored in the journal, if any. A truncated or corrupted record at the
+     * end of the journal (written when the server crashed) is discarded.
+     *
+     * @return <tt>true</tt> if some changes have been applied
+     */
+    private boolean replayJournal() throws LdapException
+    {
+        if ( !journalFile.exists() || ( journalFile.length() == 0L ) )
+        {
+            return false;
+        }
+
+        int nbChanges = 0;
+
+        try
+        {
+            byte[] data = Files.readAllBytes( journalFile.toPath() );
+            int pos = 0;
+
+            while ( pos < data.length )
+            {
+                // The LDIF starts after the record header line
+                int start = pos;
+
+                while ( ( start < data.length ) && ( data[start] != '\n' ) )
+                {
+                    start++;
+                }
+
+                start++;
+
+                int end = getRecordEnd( data, pos, start );
+
+                if ( end < 0 )
+                {
+                    LOG.warn( "Discarding the {} last bytes of the journal {}", data.length - pos, journalFile );
+
+                    try ( FileChannel channel = FileChannel.open( journalFile.toPath(), StandardOpenOption.WRITE ) )
+                    {
+                        channel.truncate( pos );
+                    }
+
+                    break;
+                }
+
+                String ldif = new String( data, start, end - start, StandardCharsets.UTF_8 );
+
+                try ( LdifReader reader = new LdifReader( schemaManager ) )
+                {
+                    for ( LdifEntry change : reader.parseLdif( ldif ) )
+                    {
+                        applyChange( change );
+                        nbChanges++;
+                    }
+                }
+
+                pos = end;
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        LOG.debug( "{} changes replayed from the journal {}", nbChanges, journalFile );
+
+        return nbChanges > 0;
+    }
+
+
+    /**
+     * Checks the header of a journal record, and returns the position of the end of the record,
+     * or -1 if the record is truncated or corrupted.
+     */
+    private static int getRecordEnd( byte[] data, int pos, int start )
+    {
+        if ( start > data.length )
+        {
+            // No header line
+            return -1;
+        }
+
+        String header = new String( data, pos, start - 1 - pos, StandardCharsets.UTF_8 );
+
+        if ( !header.startsWith( RECORD_HEADER ) )
+        {
+            return -1;
+        }
+
+        String[] fields = header.substring( RECORD_HEADER.length() ).split( " " );
+
+        if ( fields.length != 2 )
+        {
+            return -1;
+        }
+
+        try
+        {
+            int length = Integer.parseInt( fields[0] );
+            long crc = Long.parseLong( fields[1], 16 );
+
+            if ( ( length < 0 ) || ( length > data.length - start ) )
+            {
+                return -1;
+            }
+
+            CRC32 checksum = new CRC32();
+            checksum.update( data, start, length );
+
+            if ( checksum.getValue() != crc )
+            {
+                return -1;
+            }
+
+            return start + length;
+        }
+        catch ( NumberFormatException nfe )
+        {
+            return -1;
+        }
+    }
+
+
+    /**
+     * Applies a change read from the journal, bypassing the journal.
+     */
+    private void applyChange( LdifEntry change ) throws LdapException
+    {
+        Dn dn = change.getDn();
+
+        if ( !dn.isSchemaAware() )
+        {
+            dn = new Dn( schemaManager, dn );
+        }
+
+        try ( PartitionTxn partitionTxn = beginWriteTransaction() )
+        {
+            switch ( change.getChangeType() )
+            {
+                case Add:
+                    Entry entry = new DefaultEntry( schemaManager, change.getEntry() );
+                    entry.setDn( dn );
+
+                    addMandatoryOpAt( entry );
+
+                    AddOperationContext addContext = new AddOperationContext( null, entry );
+                    addContext.setPartition( this );
+                    addContext.setTransaction( partitionTxn );
+
+                    super.add( addContext );
+
+                    if ( dn.equals( suffixDn ) )
+                    {
+                        contextEntry = entry;
+                    }
+
+                    break;
+
+                case Modify:
+                    List<Modification> modifications = change.getModifications();
+                    Modification[] mods = new Modification[modifications.size()];
+
+                    for ( int i = 0; i < mods.length; i++ )
+                    {
+                        mods[i] = new DefaultModification( schemaManager, modifications.get( i ) );
+                    }
+
+                    modify( partitionTxn, dn, mods );
+
+                    break;
+
+                case Delete:
+                    String id = getEntryId( partitionTxn, dn );
+
+                    if ( id != null )
+                    {
+                        super.delete( partitionTxn, id );
+                    }
+
+                    if ( dn.equals( suffixDn ) )
+                    {
+                        contextEntry = null;
+                    }
+
+                    break;
+
+                default:
+                    LOG.warn( "Ignoring the unexpected {} change of {} in the journal", change.getChangeType(), dn );
+            }
+
+            partitionTxn.commit();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
     //---------------------------------------------------------------------------------------------
     // Operations
     //---------------------------------------------------------------------------------------------
@@ -220,8 +563,29 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 }
             }
 
-            dirty = true;
-            rewritePartitionData( addContext.getTransaction() );
+            if ( journal != null )
+            {
+                Entry entry = addContext.getEntry();
+                LdifEntry change = new LdifEntry();
+                change.setChangeType( ChangeType.Add );
+                change.setDn( entry.getDn() );
+
+                for ( Attribute attribute : entry )
+                {
+                    // Don't write the EntryDN attribute
+                    if ( !attribute.isInstanceOf( entryDnAT ) )
+                    {
+                        change.addAttribute( attribute );
+                    }
+                }
+
+                appendJournal( change );
+            }
+            else
+            {
+                dirty = true;
+                rewritePartitionData( addContext.getTransaction() );
+            }
         }
     }
 
@@ -252,8 +616,24 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 throw new LdapOperationException( e.getMessage(), e );
             }
 
-            dirty = true;
-            rewritePartitionData( partitionTxn );
+            if ( journal != null )
+            {
+                LdifEntry change = new LdifEntry();
+                change.setChangeType( ChangeType.Modify );
+                change.setDn( modifyContext.getDn() );
+
+                for ( Modification modification : modifyContext.getModItems() )
+                {
+                    change.addModification( modification );
+                }
+
+                appendJournal( change );
+            }
+            else
+            {
+                dirty = true;
+                rewritePartitionData( partitionTxn );
+            }
         }
     }
 
@@ -308,9 +688,27 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     {
         synchronized ( lock )
         {
+            if ( journal == null )
+            {
+                Entry deletedEntry = super.delete( partitionTxn, id );
+                dirty = true;
+                rewritePartitionData( partitionTxn );
+
+                return deletedEntry;
+            }
+
+            Dn dn = getEntryDn( partitionTxn, id );
             Entry deletedEntry = super.delete( partitionTxn, id );
-            dirty = true;
-            rewritePartitionData( partitionTxn );
+
+            if ( dn.equals( suffixDn ) )
+            {
+                contextEntry = null;
+            }
+
+            LdifEntry change = new LdifEntry();
+            change.setChangeType( ChangeType.Delete );
+            change.setDn( dn );
+            appendJournal( change );
 
             return deletedEntry;
         }
@@ -318,46 +716,228 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
 
     /**
-     * writes the partition's data to the file if {@link #enableRewriting} is set to true
-     * and partition was modified since the last write or {@link #dirty} data. 
-     * 
-     * @throws LdapException
+     * Appends a change to the journal, and schedules a compaction if the journal has grown
+     * too much. If the rewriting is disabled, the change will be written when it's enabled again.
+     *
+     * @param change The change to append
+     * @throws LdapException If the change can't be written
      */
-    private void rewritePartitionData( PartitionTxn partitionTxn ) throws LdapException
+    private void appendJournal( LdifEntry change ) throws LdapException
     {
         synchronized ( lock )
         {
-            if ( !enableRewriting || !dirty )
+            if ( !enableRewriting )
             {
+                dirty = true;
                 return;
             }
 
             try
             {
-                ldifFile.setLength( 0 ); // wipe the file clean
+                byte[] ldif = Strings.getBytesUtf8( LdifUtils.convertToLdif( change ) + "\n" );
+                CRC32 checksum = new CRC32();
+                checksum.update( ldif, 0, ldif.length );
+
+                byte[] header = Strings.getBytesUtf8( RECORD_HEADER + ldif.length + " "
+                    + Long.toHexString( checksum.getValue() ) + "\n" );
 
-                String suffixId = getEntryId( partitionTxn, suffixDn );
+                // The header and the record are written at once
+                ByteBuffer buffer = ByteBuffer.allocate( header.length + ldif.length );
+                buffer.put( header ).put( ldif ).flip();
 
-                if ( suffixId == null )
+                while ( buffer.hasRemaining() )
                 {
-                    contextEntry = null;
-                    return;
+                    journal.write( buffer );
                 }
 
-                ParentIdAndRdn suffixEntry = rdnIdx.reverseLookup( partitionTxn, suffixId );
+                if ( journalSyncDelay == 0L )
+                {
+                    journal.force( false );
+                }
+                else
+                {
+                    journalUnsynced.set( true );
+                }
 
-                if ( suffixEntry != null )
+                if ( !compactionScheduled && ( journalExecutor != null ) && needsCompaction( journal.size() ) )
                 {
-                    Entry entry = master.get( partitionTxn, suffixId );
+                    compactionScheduled = true;
+                    journalExecutor.execute( new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            compactJournal();
+                        }
+                    } );
+                }
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+        }
+    }
 
-                    // Don't write the EntryDN attribute
-                    entry.removeAttributes( entryDnAT );
 
-                    entry.setDn( suffixDn );
+    /**
+     * Tells if the journal has grown enough to be compacted.
+     */
+    private boolean needsCompaction( long journalSize ) throws IOException
+    {
+        if ( journalSize >= compactionSize )
+        {
+            return true;
+        }
+
+        return ( journalSize >= MIN_COMPACTION_SIZE ) && ( journalSize >= compactionRatio * ldifFile.length() );
+    }
 
-                    appendLdif( entry );
 
-                    appendRecursive( partitionTxn, suffixId, suffixEntry.getNbChildren() );
+    /**
+     * Syncs the journal, if some changes have been appended since the last sync.
+     */
+    private void syncJournal()
+    {
+        FileChannel channel = journal;
+
+        if ( ( channel != null ) && journalUnsynced.getAndSet( false ) )
+        {
+            try
+            {
+                channel.force( false );
+            }
+            catch ( ClosedChannelException cce )
+            {
+                // The journal has been compacted and synced in the meantime
+            }
+            catch ( IOException ioe )
+            {
+                journalUnsynced.set( true );
+                LOG.error( "Failed to sync the journal {}", journalFile, ioe );
+            }
+        }
+    }
+
+
+    /**
+     * Rewrites the LDIF file and empties the journal. This is done by the journal thread.
+     */
+    private void compactJournal()
+    {
+        synchronized ( lock )
+        {
+            compactionScheduled = false;
+
+            if ( journal == null )
+            {
+                return;
+            }
+
+            try ( PartitionTxn partitionTxn = beginReadTransaction() )
+            {
+                dirty = true;
+                rewritePartitionData( partitionTxn );
+            }
+            catch ( LdapException | IOException e )
+            {
+                LOG.error( "Failed to compact the journal {}", journalFile, e );
+            }
+        }
+    }
+
+
+    /**
+     * Opens the journal.
+     */
+    private void openJournal() throws LdapException
+    {
+        try
+        {
+            journal = FileChannel.open( journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Starts the thread syncing and compacting the journal.
+     */
+    private void startJournalThread()
+    {
+        journalExecutor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "ldif-journal-" + getId() );
+                thread.setDaemon( true );
+
+                return thread;
+            }
+        } );
+
+        if ( journalSyncDelay > 0L )
+        {
+            journalExecutor.scheduleWithFixedDelay( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    syncJournal();
+                }
+            }, journalSyncDelay, journalSyncDelay, TimeUnit.MILLISECONDS );
+        }
+    }
+
+
+    /**
+     * Syncs and closes the journal.
+     */
+    private void closeJournal() throws IOException
+    {
+        FileChannel channel = journal;
+
+        if ( channel != null )
+        {
+            journal = null;
+            journalUnsynced.set( false );
+            channel.force( false );
+            channel.close();
+        }
+    }
+
+
+    /**
+     * writes the partition's data to the file if {@link #enableRewriting} is set to true
+     * and partition was modified since the last write or {@link #dirty} data. 
+     * 
+     * @throws LdapException
+     */
+    private void rewritePartitionData( PartitionTxn partitionTxn ) throws LdapException
+    {
+        synchronized ( lock )
+        {
+            if ( !enableRewriting || !dirty )
+            {
+                return;
+            }
+
+            try
+            {
+                if ( journalEnabled )
+                {
+                    compact( partitionTxn );
+                }
+                else
+                {
+                    ldifFile.setLength( 0 ); // wipe the file clean
+
+                    writePartitionData( partitionTxn, ldifFile );
                 }
 
                 dirty = false;
@@ -374,7 +954,84 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     }
 
 
-    private void appendRecursive( PartitionTxn partitionTxn, String id, int nbSibbling ) throws Exception
+    /**
+     * Writes the whole partition in a new LDIF file, which then replaces the current one, and
+     * discards the journal. A crash in the middle of a compaction is handled when the partition
+     * is loaded, depending on the files which have been renamed.
+     *
+     * @param partitionTxn The transaction to use
+     * @throws Exception If the partition can't be read or the files can't be written
+     */
+    private void compact( PartitionTxn partitionTxn ) throws Exception
+    {
+        synchronized ( lock )
+        {
+            File compactedFile = new File( partitionFile.getPath() + COMPACTION_SUFFIX );
+            File oldJournalFile = new File( partitionFile.getPath() + OLD_JOURNAL_SUFFIX );
+
+            try ( FileOutputStream fos = new FileOutputStream( compactedFile );
+                DataOutputStream out = new DataOutputStream( new BufferedOutputStream( fos ) ) )
+            {
+                writePartitionData( partitionTxn, out );
+                out.flush();
+                fos.getFD().sync();
+            }
+
+            closeJournal();
+
+            if ( journalFile.exists() )
+            {
+                Files.move( journalFile.toPath(), oldJournalFile.toPath(), StandardCopyOption.ATOMIC_MOVE );
+            }
+
+            ldifFile.close();
+            Files.move( compactedFile.toPath(), partitionFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING );
+            ldifFile = new RandomAccessFile( partitionFile, "rws" );
+
+            Files.deleteIfExists( oldJournalFile.toPath() );
+
+            if ( journalEnabled )
+            {
+                openJournal();
+            }
+        }
+    }
+
+
+    /**
+     * Writes the whole partition, starting with the context entry.
+     */
+    private void writePartitionData( PartitionTxn partitionTxn, DataOutput out ) throws Exception
+    {
+        String suffixId = getEntryId( partitionTxn, suffixDn );
+
+        if ( suffixId == null )
+        {
+            contextEntry = null;
+            return;
+        }
+
+        ParentIdAndRdn suffixEntry = rdnIdx.reverseLookup( partitionTxn, suffixId );
+
+        if ( suffixEntry != null )
+        {
+            Entry entry = master.get( partitionTxn, suffixId );
+
+            // Don't write the EntryDN attribute
+            entry.removeAttributes( entryDnAT );
+
+            entry.setDn( suffixDn );
+
+            appendLdif( out, entry );
+
+            appendRecursive( out, partitionTxn, suffixId, suffixEntry.getNbChildren() );
+        }
+    }
+
+
+    private void appendRecursive( DataOutput out, PartitionTxn partitionTxn, String id, int nbSibbling )
+        throws Exception
     {
         // Start with the root
         Cursor<IndexEntry<ParentIdAndRdn, String>> cursor = rdnIdx.forwardCursor( partitionTxn );
@@ -393,7 +1050,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
             // Remove the EntryDn
             entry.removeAttributes( SchemaConstants.ENTRY_DN_AT );
 
-            appendLdif( entry );
+            appendLdif( out, entry );
 
             countChildren++;
 
@@ -402,7 +1059,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
             if ( nbChildren > 0 )
             {
-                appendRecursive( partitionTxn, childId, nbChildren );
+                appendRecursive( out, partitionTxn, childId, nbChildren );
             }
         }
 
@@ -413,15 +1070,16 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     /**
      * append data to the LDIF file
      *
+     * @param out the LDIF file
      * @param entry the entry to be written
      * @throws LdapException
      */
-    private void appendLdif( Entry entry ) throws IOException
+    private void appendLdif( DataOutput out, Entry entry ) throws IOException
     {
         synchronized ( lock )
         {
             String ldif = LdifUtils.convertToLdif( entry );
-            ldifFile.write( Strings.getBytesUtf8( ldif + "\n" ) );
+            out.write( Strings.getBytesUtf8( ldif + "\n" ) );
         }
     }
 
@@ -505,6 +1163,45 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     @Override
     protected void doDestroy( PartitionTxn partitionTxn ) throws LdapException
     {
+        if ( journalExecutor != null )
+        {
+            // Let a pending compaction complete
+            journalExecutor.shutdown();
+
+            try
+            {
+                journalExecutor.awaitTermination( 1, TimeUnit.MINUTES );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            journalExecutor = null;
+        }
+
+        synchronized ( lock )
+        {
+            try
+            {
+                if ( ( journal != null ) && ( journal.size() > 0L ) )
+                {
+                    // Leave an empty journal behind us
+                    try ( PartitionTxn readTxn = beginReadTransaction() )
+                    {
+                        dirty = true;
+                        rewritePartitionData( readTxn );
+                    }
+                }
+
+                closeJournal();
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+        }
+
         super.doDestroy( partitionTxn );
         
         try
@@ -533,4 +1230,83 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         // save data if found dirty 
         rewritePartitionData( partitionTxn );
     }
+
+
+    /**
+     * @return <tt>true</tt> if the changes are appended to a journal
+     */
+    public boolean isJournalEnabled()
+    {
+        return journalEnabled;
+    }
+
+
+    /**
+     * Enables or disables the journal. When enabled, the added, modified and deleted entries are
+     * appended to a journal instead of rewriting the whole LDIF file. This must be set before
+     * the partition is initialized.
+     *
+     * @param journalEnabled flag to enable/disable the journal
+     */
+    public void setJournalEnabled( boolean journalEnabled )
+    {
+        this.journalEnabled = journalEnabled;
+    }
+
+
+    /**
+     * @return The delay between two journal syncs, in ms
+     */
+    public long getJournalSyncDelay()
+    {
+        return journalSyncDelay;
+    }
+
+
+    /**
+     * Sets the delay between two journal syncs. The changes done since the last sync may be lost
+     * if the server crashes. If 0, the journal is synced on each change.
+     *
+     * @param journalSyncDelay The delay between two journal syncs, in ms
+     */
+    public void setJournalSyncDelay( long journalSyncDelay )
+    {
+        this.journalSyncDelay = journalSyncDelay;
+    }
+
+
+    /**
+     * @return The journal size above which it's compacted
+     */
+    public long getCompactionSize()
+    {
+        return compactionSize;
+    }
+
+
+    /**
+     * @param compactionSize The journal size above which it's compacted
+     */
+    public void setCompactionSize( long compactionSize )
+    {
+        this.compactionSize = compactionSize;
+    }
+
+
+    /**
+     * @return The journal size to LDIF file size ratio above which the journal is compacted
+     */
+    public double getCompactionRatio()
+    {
+        return compactionRatio;
+    }
+
+
+    /**
+     * @param compactionRatio The journal size to LDIF file size ratio above which the journal is compacted
+     */
+    public void setCompactionRatio( double compactionRatio )
+    {
+        this.compactionRatio = compactionRatio;
+    }
 }
@@ -227,6 +227,17 @@ public class SingleFileLdifPartitionTest
      * @throws Exception
      */
     private SingleFileLdifPartition createPartition( String fileName, boolean truncate ) throws Exception
+    {
+        return createPartition( fileName, truncate, false );
+    }
+
+
+    /**
+     * creates a partition from the given ldif file, appending the changes to a journal if
+     * the journal flag is true
+     */
+    private SingleFileLdifPartition createPartition( String fileName, boolean truncate, boolean journal )
+        throws Exception
     {
         if ( fileName == null )
         {
@@ -247,6 +258,8 @@ public class SingleFileLdifPartitionTest
         partition.setSuffixDn( new Dn( schemaManager, "ou=test,ou=system" ) );
         partition.setSchemaManager( schemaManager );
         partition.setCacheService( cacheService );
+        partition.setJournalEnabled( journal );
+        partition.setJournalSyncDelay( 0L );
         partition.initialize();
 
         return partition;
@@ -1134,6 +1147,82 @@ public class SingleFileLdifPartitionTest
     }
 
 
+    /**
+     * Test that the changes appended to the journal are replayed when the partition is
+     * reloaded, and written in the LDIF file when the partition is destroyed
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testJournal() throws Exception
+    {
+        SingleFileLdifPartition partition = createPartition( null, true, true );
+        File journalFile = new File( ldifFileInUse.getAbsolutePath() + ".journal" );
+
+        AddOperationContext addCtx = new AddOperationContext( mockSession );
+        addCtx.setEntry( contextEntry );
+        addCtx.setPartition( partition );
+        addCtx.setTransaction( partition.beginWriteTransaction() );
+
+        partition.add( addCtx );
+
+        Entry entry1 = createEntry( "cn=test1,ou=test,ou=system" );
+        entry1.put( "ObjectClass", "top", "person" );
+        entry1.put( "cn", "test1" );
+        addCtx.setEntry( entry1 );
+
+        partition.add( addCtx );
+
+        Entry entry2 = createEntry( "cn=test2,ou=test,ou=system" );
+        entry2.put( "ObjectClass", "top", "person" );
+        entry2.put( "cn", "test2" );
+        addCtx.setEntry( entry2 );
+
+        partition.add( addCtx );
+
+        ModifyOperationContext modOpCtx = new ModifyOperationContext( mockSession );
+        Attribute attribute = new DefaultAttribute( schemaManager.lookupAttributeTypeRegistry( "description" ) );
+        attribute.add( "journaled description" );
+
+        List<Modification> modItems = new ArrayList<Modification>();
+        modItems.add( new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, attribute ) );
+        modOpCtx.setModItems( modItems );
+        modOpCtx.setDn( entry1.getDn() );
+        modOpCtx.setTransaction( partition.beginWriteTransaction() );
+
+        partition.modify( modOpCtx );
+
+        DeleteOperationContext delCtx = new DeleteOperationContext( mockSession );
+        delCtx.setDn( entry2.getDn() );
+        delCtx.setPartition( partition );
+        delCtx.setTransaction( partition.beginWriteTransaction() );
+
+        partition.delete( delCtx );
+
+        // The LDIF file has not been rewritten
+        assertEquals( 0L, ldifFileInUse.length() );
+        assertTrue( journalFile.length() > 0L );
+
+        entry1.add( "description", "journaled description" );
+
+        partition = createPartition( ldifFileInUse.getAbsolutePath(), false, true );
+        assertExists( partition, contextEntry );
+        assertExists( partition, entry1 );
+        assertNotExists( partition, entry2 );
+
+        // Destroying the partition compacts the journal
+        partition.destroy( null );
+
+        assertEquals( 0L, journalFile.length() );
+        assertTrue( ldifFileInUse.length() > 0L );
+
+        partition = reloadPartition();
+        assertExists( partition, contextEntry );
+        assertExists( partition, entry1 );
+        assertNotExists( partition, entry2 );
+    }
+
+
     /**
      * An important test to check the stability of the partition
      * under high concurrency
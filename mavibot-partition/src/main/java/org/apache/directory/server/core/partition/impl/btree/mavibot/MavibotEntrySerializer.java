@@ -39,8 +39,10 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.mavibot.btree.exception.SerializerCreationException;
 import org.apache.directory.mavibot.btree.serializer.AbstractElementSerializer;
 import org.apache.directory.mavibot.btree.serializer.BufferHandler;
+import org.apache.directory.server.core.partition.impl.btree.CompactEntrySerializer;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,6 +52,10 @@ import org.slf4j.LoggerFactory;
  * Serialize and deserialize a ServerEntry. There is a big difference with the standard
  * Entry serialization : we don't serialize the entry's Dn, we just serialize it's Rdn.
  * <br><br>
+ * The entries are written using the {@link CompactEntrySerializer} format. The entries
+ * written by previous versions, using the Java serialization, can still be read : they
+ * will be converted the next time they are updated.
+ * <br><br>
  * <b>This class must *not* be used outside of the server.</b>
  *  
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
@@ -83,6 +89,12 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
 
     private static Comparator<Entry> comparator = new EntryComparator();
 
+    /** The serializer used to read and write the entries, created when it's first used */
+    private transient volatile CompactEntrySerializer compactSerializer;
+
+    /** The SchemaManager the compact serializer has been created with */
+    private transient volatile SchemaManager compactSchemaManager;
+
 
     /**
      * Creates a new instance of ServerEntrySerializer.
@@ -102,12 +114,55 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
 
 
     /**
-     * <p>
-     * 
-     * This is the place where we serialize entries, and all theirs
-     * elements. the reason why we don't call the underlying methods
-     * (<code>ServerAttribute.write(), Value.write()</code>) is that we need
-     * access to the registries to read back the values.
+     * Gets the serializer used to read and write the entries. The SchemaManager is set after
+     * this instance has been created, so we create it lazily, and again if the SchemaManager
+     * is replaced.
+     */
+    private CompactEntrySerializer getCompactSerializer()
+    {
+        CompactEntrySerializer serializer = compactSerializer;
+
+        if ( ( serializer == null ) || ( compactSchemaManager != schemaManager ) )
+        {
+            SchemaManager current = schemaManager;
+            serializer = new CompactEntrySerializer( current );
+            compactSerializer = serializer;
+            compactSchemaManager = current;
+        }
+
+        return serializer;
+    }
+
+
+    /**
+     * Serializes an entry, using the {@link CompactEntrySerializer} format.
+     *
+     * @param entry The entry to serialize
+     * @return The serialized entry
+     * @throws SerializerCreationException If the entry can't be serialized
+     */
+    public byte[] serialize( Entry entry )
+    {
+        try
+        {
+            if ( IS_DEBUG )
+            {
+                LOG.debug( ">------------------------------------------------" );
+                LOG.debug( "Serialize {}", entry );
+            }
+
+            return getCompactSerializer().serialize( entry );
+        }
+        catch ( IOException ioe )
+        {
+            throw new SerializerCreationException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Serializes an entry using the legacy Java serialization based format. It's not used
+     * to write the master table anymore, but is kept to test the migration from this format.
      * <p>
      * The structure used to store the entry is the following :
      * <ul>
@@ -123,7 +178,7 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
      *   </li>
      * </ul>
      */
-    public byte[] serialize( Entry entry )
+    byte[] serializeLegacy( Entry entry )
     {
         try
         {
@@ -180,9 +235,9 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
 
             return baos.toByteArray();
         }
-        catch ( Exception e )
+        catch ( IOException ioe )
         {
-            throw new RuntimeException( e );
+            throw new SerializerCreationException( ioe.getMessage(), ioe );
         }
     }
 
@@ -196,6 +251,15 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
      */
     public Entry deserialize( ByteBuffer buffer ) throws IOException
     {
+        if ( CompactEntrySerializer.isCompact( buffer.array(), buffer.position() ) )
+        {
+            int length = buffer.limit() - buffer.position();
+            Entry entry = getCompactSerializer().deserialize( buffer.array(), buffer.position(), length );
+            buffer.position( buffer.limit() );
+
+            return entry;
+        }
+
         // read the length
         int len = buffer.limit();
 
@@ -301,6 +365,11 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
         // read the length
         int len = buffer.length - pos;
 
+        if ( CompactEntrySerializer.isCompact( buffer, pos ) )
+        {
+            return getCompactSerializer().deserialize( buffer, pos, len );
+        }
+
         ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( buffer, pos, len ) );
 
         try
@@ -40,8 +40,10 @@ import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
 import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.mavibot.btree.RecordManager;
+import org.apache.directory.mavibot.btree.serializer.StringSerializer;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.DnFactory;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
@@ -58,6 +60,8 @@ import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.NGramIndex;
+import org.apache.directory.server.xdbm.Table;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
 import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
@@ -231,7 +235,9 @@ public class MavibotPartition extends AbstractBTreePartition
                         deleteUnusedIndexFiles( allIndices, allIndexDbFiles );
             */
 
-            if ( cacheService != null )
+            initOffHeapEntryCache();
+
+            if ( ( offHeapEntryCache == null ) && ( cacheService != null ) )
             {
                 entryCache = cacheService.getCache( getId(), String.class, Entry.class );
                 
@@ -277,6 +283,7 @@ public class MavibotPartition extends AbstractBTreePartition
                 + "Will create new MavibotIndex using copied configuration parameters.", index );
             mavibotIndex = new MavibotIndex( index.getAttributeId(), true );
             mavibotIndex.setCacheSize( index.getCacheSize() );
+            mavibotIndex.setSubstringIndexed( index.isSubstringIndexed() );
             mavibotIndex.setWkDirPath( index.getWkDirPath() );
         }
 
@@ -295,6 +302,28 @@ public class MavibotPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Table<String, String> createNGramTable( AttributeType attributeType ) throws LdapException
+    {
+        SerializableComparator<String> comp = new SerializableComparator<>( attributeType.getEquality().getOid() );
+        comp.setSchemaManager( schemaManager );
+        StringSerializer serializer = new StringSerializer( comp );
+
+        try
+        {
+            return new MavibotTable<>( recordMan, schemaManager, attributeType.getOid() + NGramIndex.NGRAM_BTREE,
+                serializer, serializer, true );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -456,7 +485,7 @@ public class MavibotPartition extends AbstractBTreePartition
     @Override
     public Entry lookupCache( String id )
     {
-        return ( entryCache != null ) ? entryCache.get( id ) : null;
+        return ( entryCache != null ) ? entryCache.get( id ) : super.lookupCache( id );
     }
 
 
@@ -465,6 +494,7 @@ public class MavibotPartition extends AbstractBTreePartition
     {
         if ( entryCache == null )
         {
+            super.addToCache( id, entry );
             return;
         }
 
@@ -482,6 +512,7 @@ public class MavibotPartition extends AbstractBTreePartition
     {
         if ( entryCache == null )
         {
+            super.updateCache( opCtx );
             return;
         }
 
@@ -112,6 +112,29 @@ public class MavibotEntrySerializationTest
     }
 
 
+    @Test
+    public void testLegacyEntryDeserialization() throws IOException, LdapException
+    {
+        Entry entry1 = new DefaultEntry( schemaManager,
+            "dc=example",
+            "ObjectClass: top",
+            "ObjectClass: domain",
+            "dc: example",
+            "l: test" );
+
+        // The entries written by previous versions can still be read
+        byte[] legacyData = serializer.serializeLegacy( entry1 );
+
+        assertEquals( entry1, serializer.deserialize( ByteBuffer.wrap( legacyData ) ) );
+        assertEquals( entry1, serializer.fromBytes( legacyData ) );
+
+        byte[] data = serializer.serialize( entry1 );
+
+        assertEquals( entry1, serializer.fromBytes( data ) );
+        assertTrue( data.length < legacyData.length );
+    }
+
+
     @Test
     public void testPlainEntryFullSerialization() throws IOException, LdapException, ClassNotFoundException
     {
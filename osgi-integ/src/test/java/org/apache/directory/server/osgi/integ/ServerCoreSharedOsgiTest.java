@@ -22,7 +22,6 @@ package org.apache.directory.server.osgi.integ;
 
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.server.core.shared.DefaultDnFactory;
-import org.apache.directory.server.core.shared.NullStringSerializer;
 import org.apache.directory.server.core.shared.partition.DefaultPartitionNexus;
 
 
@@ -40,8 +39,6 @@ public class ServerCoreSharedOsgiTest extends ServerOsgiTestBase
     protected void useBundleClasses() throws Exception
     {
         new DefaultDnFactory( null, null );
-        NullStringSerializer.INSTANCE.serialize( null );
-        NullStringSerializer.INSTANCE.deserialize( null );
         new DefaultPartitionNexus( new DefaultEntry() );
     }
 
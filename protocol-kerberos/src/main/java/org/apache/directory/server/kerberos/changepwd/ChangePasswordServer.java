@@ -29,7 +29,6 @@ import org.apache.directory.server.kerberos.changepwd.protocol.ChangePasswordPro
 import org.apache.directory.server.kerberos.kdc.DirectoryPrincipalStore;
 import org.apache.directory.server.kerberos.shared.replay.ReplayCache;
 import org.apache.directory.server.kerberos.shared.replay.ReplayCacheImpl;
-import org.apache.directory.server.kerberos.shared.store.PrincipalStore;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
 import org.apache.directory.server.protocol.shared.transport.TcpTransport;
 import org.apache.directory.server.protocol.shared.transport.Transport;
@@ -69,6 +68,9 @@ public class ChangePasswordServer extends DirectoryBackedService
     /** the cache used for storing change password requests */
     private ReplayCache replayCache;
 
+    /** The store the principals are read from */
+    private DirectoryPrincipalStore store;
+
 
     /**
      * Creates a new instance of ChangePasswordConfiguration.
@@ -90,7 +92,7 @@ public class ChangePasswordServer extends DirectoryBackedService
      */
     public void start() throws IOException, LdapInvalidDnException
     {
-        PrincipalStore store = new DirectoryPrincipalStore( getDirectoryService(), new Dn( this.getSearchBaseDn() ) );
+        store = new DirectoryPrincipalStore( getDirectoryService(), new Dn( this.getSearchBaseDn() ) );
 
         LOG.debug( "initializing the changepassword replay cache" );
 
@@ -144,6 +146,12 @@ public class ChangePasswordServer extends DirectoryBackedService
 
         replayCache.clear();
 
+        if ( store != null )
+        {
+            store.destroy();
+            store = null;
+        }
+
         LOG.info( "ChangePassword service stopped." );
         //System.out.println( "ChangePassword service stopped." );
     }
@@ -31,6 +31,8 @@ import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.Strings;
@@ -38,6 +40,16 @@ import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.EventService;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.shared.DefaultCoreSession;
 import org.apache.directory.server.kerberos.changepwd.exceptions.ChangePasswdErrorType;
 import org.apache.directory.server.kerberos.changepwd.exceptions.ChangePasswordException;
@@ -46,34 +58,140 @@ import org.apache.directory.server.kerberos.shared.store.PrincipalStoreEntry;
 import org.apache.directory.server.protocol.shared.kerberos.GetPrincipal;
 import org.apache.directory.server.protocol.shared.kerberos.StoreUtils;
 import org.apache.directory.shared.kerberos.KerberosAttribute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
  * A PrincipalStore backing entries in a DirectoryService.
- * 
+ * <p>
+ * The principals are cached, so that the KDC does not search and decode the principal
+ * entries on each ticket request. The cache is kept coherent by a listener on the
+ * search base, which removes the principals whose entry is modified, deleted, renamed
+ * or moved.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class DirectoryPrincipalStore implements PrincipalStore
 {
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( DirectoryPrincipalStore.class );
+
+    /** The default maximum number of cached principals */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /** The default time to live of a cached principal, in milliseconds */
+    public static final long DEFAULT_CACHE_TTL = 300000L;
+
     /** The directory service backing store for this PrincipalStore. */
     private final DirectoryService directoryService;
     private final Dn searchBaseDn;
 
     private CoreSession adminSession;
 
+    /** The principal cache, null if the principals are not cached */
+    private PrincipalCache principalCache;
+
+    /** The listener keeping the cache coherent */
+    private PrincipalCacheListener cacheListener;
+
 
     /**
-     * Creates a new instance of DirectoryPrincipalStore.
+     * Creates a new instance of DirectoryPrincipalStore, with the default cache configuration.
      *
      * @param directoryService backing store for this PrincipalStore
      * @param searchBaseDn The Search Base DN
      */
     public DirectoryPrincipalStore( DirectoryService directoryService, Dn searchBaseDn )
+    {
+        this( directoryService, searchBaseDn, DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL );
+    }
+
+
+    /**
+     * Creates a new instance of DirectoryPrincipalStore.
+     *
+     * @param directoryService backing store for this PrincipalStore
+     * @param searchBaseDn The Search Base DN
+     * @param cacheSize The maximum number of cached principals, 0 to disable the cache
+     * @param cacheTtl The time to live of a cached principal, in milliseconds. 0 means forever
+     */
+    public DirectoryPrincipalStore( DirectoryService directoryService, Dn searchBaseDn, int cacheSize, long cacheTtl )
     {
         this.directoryService = directoryService;
         this.adminSession = directoryService.getAdminSession();
         this.searchBaseDn = searchBaseDn;
+
+        if ( cacheSize > 0 )
+        {
+            initCache( cacheSize, cacheTtl );
+        }
+    }
+
+
+    /**
+     * Creates the cache, and registers the listener which keeps it coherent. If the
+     * listener can't be registered, the principals are not cached.
+     */
+    private void initCache( int cacheSize, long cacheTtl )
+    {
+        EventService eventService = directoryService.getEventService();
+
+        if ( eventService == null )
+        {
+            LOG.info( "No event service, the Kerberos principals won't be cached" );
+            return;
+        }
+
+        try
+        {
+            SchemaManager schemaManager = directoryService.getSchemaManager();
+
+            NotificationCriteria criteria = new NotificationCriteria( schemaManager );
+            criteria.setBase( new Dn( schemaManager, searchBaseDn.getName() ) );
+            criteria.setScope( SearchScope.SUBTREE );
+            criteria.setFilter( new PresenceNode( SchemaConstants.OBJECT_CLASS_AT ) );
+            criteria.setEventMask( EventType.ALL_EVENT_TYPES_MASK );
+
+            PrincipalCache cache = new PrincipalCache( cacheSize, cacheTtl );
+            PrincipalCacheListener listener = new PrincipalCacheListener( cache );
+            eventService.addListener( listener, criteria );
+
+            principalCache = cache;
+            cacheListener = listener;
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Cannot register the principal cache listener, the Kerberos principals won't be cached", e );
+        }
+    }
+
+
+    /**
+     * Unregisters the cache listener. The principals are not cached anymore.
+     */
+    public void destroy()
+    {
+        if ( cacheListener != null )
+        {
+            directoryService.getEventService().removeListener( cacheListener );
+            cacheListener = null;
+        }
+
+        if ( principalCache != null )
+        {
+            principalCache.clear();
+            principalCache = null;
+        }
+    }
+
+
+    /**
+     * @return The principal cache, null if the principals are not cached
+     */
+    public PrincipalCache getPrincipalCache()
+    {
+        return principalCache;
     }
 
 
@@ -153,6 +271,97 @@ public class DirectoryPrincipalStore implements PrincipalStore
      */
     public PrincipalStoreEntry getPrincipal( KerberosPrincipal principal ) throws Exception
     {
-        return ( PrincipalStoreEntry ) new GetPrincipal( principal ).execute( adminSession, searchBaseDn );
+        PrincipalCache cache = principalCache;
+
+        if ( ( cache == null ) || ( principal == null ) )
+        {
+            return ( PrincipalStoreEntry ) new GetPrincipal( principal ).execute( adminSession, searchBaseDn );
+        }
+
+        String principalName = principal.getName();
+        PrincipalStoreEntry entry = cache.get( principalName );
+
+        if ( entry != null )
+        {
+            return entry;
+        }
+
+        long readVersion = cache.getVersion();
+        entry = ( PrincipalStoreEntry ) new GetPrincipal( principal ).execute( adminSession, searchBaseDn );
+
+        if ( entry != null )
+        {
+            Dn entryDn = new Dn( directoryService.getSchemaManager(), entry.getDistinguishedName() );
+            cache.put( principalName, entryDn.getNormName(), entry, readVersion );
+        }
+
+        return entry;
+    }
+
+
+    /**
+     * A listener removing the cached principals when their entry is updated. It is
+     * synchronous, so that a ticket request following a password change sees the new keys.
+     */
+    private static class PrincipalCacheListener extends DirectoryListenerAdapter
+    {
+        /** The cache to keep coherent */
+        private final PrincipalCache cache;
+
+
+        private PrincipalCacheListener( PrincipalCache cache )
+        {
+            this.cache = cache;
+        }
+
+
+        @Override
+        public void entryAdded( AddOperationContext addContext )
+        {
+            cache.invalidate( addContext.getDn().getNormName() );
+        }
+
+
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            cache.invalidate( deleteContext.getDn().getNormName() );
+        }
+
+
+        @Override
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+            cache.invalidate( modifyContext.getDn().getNormName() );
+        }
+
+
+        @Override
+        public void entryRenamed( RenameOperationContext renameContext )
+        {
+            // The renamed entry may have descendants
+            cache.clear();
+        }
+
+
+        @Override
+        public void entryMoved( MoveOperationContext moveContext )
+        {
+            cache.clear();
+        }
+
+
+        @Override
+        public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+        {
+            cache.clear();
+        }
+
+
+        @Override
+        public boolean isSynchronous()
+        {
+            return true;
+        }
     }
 }
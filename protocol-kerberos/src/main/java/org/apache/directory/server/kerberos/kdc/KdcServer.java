@@ -29,8 +29,7 @@ import org.apache.directory.server.kerberos.changepwd.ChangePasswordServer;
 import org.apache.directory.server.kerberos.protocol.KerberosProtocolHandler;
 import org.apache.directory.server.kerberos.protocol.codec.KerberosProtocolCodecFactory;
 import org.apache.directory.server.kerberos.shared.replay.ReplayCache;
-import org.apache.directory.server.kerberos.shared.replay.ReplayCacheImpl;
-import org.apache.directory.server.kerberos.shared.store.PrincipalStore;
+import org.apache.directory.server.kerberos.shared.replay.ShardedReplayCache;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
 import org.apache.directory.server.protocol.shared.transport.TcpTransport;
 import org.apache.directory.server.protocol.shared.transport.Transport;
@@ -39,7 +38,6 @@ import org.apache.mina.core.filterchain.IoFilterChainBuilder;
 import org.apache.mina.core.service.IoAcceptor;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
 import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
-import org.ehcache.Cache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,6 +64,9 @@ public class KdcServer extends DirectoryBackedService
 
     private ChangePasswordServer changePwdServer;
 
+    /** The store the principals are read from */
+    private DirectoryPrincipalStore store;
+
 
     /**
      * Creates a new instance of KdcServer with the default configuration.
@@ -104,14 +105,11 @@ public class KdcServer extends DirectoryBackedService
      */
     public void start() throws IOException, LdapInvalidDnException
     {
-        PrincipalStore store;
-
         store = new DirectoryPrincipalStore( getDirectoryService(), new Dn( this.getSearchBaseDn() ) );
 
         LOG.debug( "initializing the kerberos replay cache" );
 
-        Cache< String, Object > cache = getDirectoryService().getCacheService().getCache( "kdcReplayCache", String.class, Object.class );
-        replayCache = new ReplayCacheImpl( cache, config.getAllowableClockSkew() );
+        replayCache = new ShardedReplayCache( config.getAllowableClockSkew() );
 
         // Kerberos can use UDP or TCP
         for ( Transport transport : transports )
@@ -176,6 +174,12 @@ public class KdcServer extends DirectoryBackedService
             replayCache.clear();
         }
 
+        if ( store != null )
+        {
+            store.destroy();
+            store = null;
+        }
+
         LOG.info( "Kerberos service stopped." );
 
         if ( changePwdServer != null )
@@ -0,0 +1,261 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.kerberos.kdc;
+
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.server.kerberos.shared.store.PrincipalStoreEntry;
+
+
+/**
+ * A bounded cache of the principals read by the {@link DirectoryPrincipalStore}. It holds
+ * the decoded {@link PrincipalStoreEntry} instances, keys included, so that an AS-REQ or
+ * a TGS-REQ does not need a subtree search through the interceptor chain, nor the
+ * decoding of the krb5Key attribute.
+ * <p>
+ * The cache is kept coherent by the store, which removes the principals when their entry
+ * is modified, deleted, renamed or moved. The principals also expire after a configurable
+ * time to live, as a safety net. As a principal is read without holding any lock, a
+ * lookup could cache a principal modified in the meantime : the caller gets the cache
+ * version before reading the principal, and gives it back when caching it, and the
+ * principal is not cached if an invalidation has happened since.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PrincipalCache
+{
+    /** The cached principals, by principal name, in LRU order */
+    private final LinkedHashMap<String, CachedPrincipal> principals;
+
+    /** The names of the cached principals, by normalized entry DN */
+    private final Map<String, String> namesByDn = new HashMap<>();
+
+    /** The time to live of a cached principal, in milliseconds. 0 means forever */
+    private final long timeToLive;
+
+    /** The number of invalidations, used to detect concurrent modifications */
+    private final AtomicLong version = new AtomicLong();
+
+    /** The number of hits */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /** The number of misses, including the expired principals */
+    private final AtomicLong missCount = new AtomicLong();
+
+
+    /**
+     * Creates a new instance of PrincipalCache.
+     *
+     * @param maxSize The maximum number of cached principals
+     * @param timeToLive The time to live of a cached principal, in milliseconds. 0 means forever
+     */
+    public PrincipalCache( final int maxSize, long timeToLive )
+    {
+        this.timeToLive = timeToLive;
+
+        principals = new LinkedHashMap<String, CachedPrincipal>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, CachedPrincipal> eldest )
+            {
+                if ( size() > maxSize )
+                {
+                    namesByDn.remove( eldest.getValue().normDn );
+
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+
+    /**
+     * Gets a cached principal.
+     *
+     * @param principalName The principal name
+     * @return The principal, or null if it's not cached or has expired
+     */
+    public PrincipalStoreEntry get( String principalName )
+    {
+        synchronized ( principals )
+        {
+            CachedPrincipal cached = principals.get( principalName );
+
+            if ( cached != null )
+            {
+                if ( ( timeToLive == 0L ) || ( System.currentTimeMillis() - cached.creationTime < timeToLive ) )
+                {
+                    hitCount.incrementAndGet();
+
+                    return cached.entry;
+                }
+
+                principals.remove( principalName );
+                namesByDn.remove( cached.normDn );
+            }
+        }
+
+        missCount.incrementAndGet();
+
+        return null;
+    }
+
+
+    /**
+     * @return The current version, to be given back to {@link #put(String, String, PrincipalStoreEntry, long)}
+     */
+    public long getVersion()
+    {
+        return version.get();
+    }
+
+
+    /**
+     * Caches a principal, unless an invalidation has happened since it has been read.
+     *
+     * @param principalName The principal name
+     * @param normDn The normalized DN of the principal's entry
+     * @param entry The principal
+     * @param readVersion The cache version read before the principal was read
+     */
+    public void put( String principalName, String normDn, PrincipalStoreEntry entry, long readVersion )
+    {
+        synchronized ( principals )
+        {
+            if ( version.get() != readVersion )
+            {
+                return;
+            }
+
+            CachedPrincipal previous = principals.put( principalName, new CachedPrincipal( normDn, entry ) );
+
+            if ( previous != null )
+            {
+                namesByDn.remove( previous.normDn );
+            }
+
+            namesByDn.put( normDn, principalName );
+        }
+    }
+
+
+    /**
+     * Removes the principal stored in a given entry.
+     *
+     * @param normDn The normalized DN of the entry
+     */
+    public void invalidate( String normDn )
+    {
+        synchronized ( principals )
+        {
+            version.incrementAndGet();
+
+            String principalName = namesByDn.remove( normDn );
+
+            if ( principalName != null )
+            {
+                principals.remove( principalName );
+            }
+        }
+    }
+
+
+    /**
+     * Removes all the principals.
+     */
+    public void clear()
+    {
+        synchronized ( principals )
+        {
+            version.incrementAndGet();
+            principals.clear();
+            namesByDn.clear();
+        }
+    }
+
+
+    /**
+     * @return The number of cached principals
+     */
+    public int size()
+    {
+        synchronized ( principals )
+        {
+            return principals.size();
+        }
+    }
+
+
+    /**
+     * @return The number of lookups which have found a principal
+     */
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+
+    /**
+     * @return The number of lookups which have not found a principal
+     */
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "PrincipalCache[size=" + size() + ", hits=" + hitCount.get() + ", misses=" + missCount.get() + "]";
+    }
+
+
+    /**
+     * A cached principal, with the DN of its entry and its creation time.
+     */
+    private static final class CachedPrincipal
+    {
+        private final String normDn;
+
+        private final PrincipalStoreEntry entry;
+
+        private final long creationTime = System.currentTimeMillis();
+
+
+        private CachedPrincipal( String normDn, PrincipalStoreEntry entry )
+        {
+            this.normDn = normDn;
+            this.entry = entry;
+        }
+    }
+}
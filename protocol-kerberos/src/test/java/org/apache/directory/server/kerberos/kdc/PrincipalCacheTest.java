@@ -0,0 +1,119 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.kerberos.kdc;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.server.kerberos.shared.store.PrincipalStoreEntry;
+import org.apache.directory.server.kerberos.shared.store.PrincipalStoreEntryModifier;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link PrincipalCache} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PrincipalCacheTest
+{
+    private static PrincipalStoreEntry createEntry( String principalName )
+    {
+        PrincipalStoreEntryModifier modifier = new PrincipalStoreEntryModifier();
+        modifier.setPrincipal( new KerberosPrincipal( principalName ) );
+
+        return modifier.getEntry();
+    }
+
+
+    @Test
+    public void testPutGetInvalidate()
+    {
+        PrincipalCache cache = new PrincipalCache( 10, 0L );
+        PrincipalStoreEntry entry = createEntry( "hnelson@EXAMPLE.COM" );
+
+        assertNull( cache.get( "hnelson@EXAMPLE.COM" ) );
+
+        cache.put( "hnelson@EXAMPLE.COM", "uid=hnelson,ou=users,dc=example,dc=com", entry, cache.getVersion() );
+        assertSame( entry, cache.get( "hnelson@EXAMPLE.COM" ) );
+        assertEquals( 1L, cache.getHitCount() );
+        assertEquals( 1L, cache.getMissCount() );
+
+        // Another entry being modified does not invalidate the principal
+        cache.invalidate( "uid=akarasulu,ou=users,dc=example,dc=com" );
+        assertSame( entry, cache.get( "hnelson@EXAMPLE.COM" ) );
+
+        cache.invalidate( "uid=hnelson,ou=users,dc=example,dc=com" );
+        assertNull( cache.get( "hnelson@EXAMPLE.COM" ) );
+        assertEquals( 0, cache.size() );
+    }
+
+
+    @Test
+    public void testConcurrentInvalidation()
+    {
+        PrincipalCache cache = new PrincipalCache( 10, 0L );
+        PrincipalStoreEntry entry = createEntry( "hnelson@EXAMPLE.COM" );
+
+        // The principal is read, then modified before being cached : it must not be cached
+        long readVersion = cache.getVersion();
+        cache.invalidate( "uid=hnelson,ou=users,dc=example,dc=com" );
+        cache.put( "hnelson@EXAMPLE.COM", "uid=hnelson,ou=users,dc=example,dc=com", entry, readVersion );
+
+        assertNull( cache.get( "hnelson@EXAMPLE.COM" ) );
+    }
+
+
+    @Test
+    public void testEviction()
+    {
+        PrincipalCache cache = new PrincipalCache( 2, 0L );
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            cache.put( "user" + i + "@EXAMPLE.COM", "uid=user" + i + ",dc=example,dc=com",
+                createEntry( "user" + i + "@EXAMPLE.COM" ), cache.getVersion() );
+        }
+
+        assertEquals( 2, cache.size() );
+        assertNull( cache.get( "user0@EXAMPLE.COM" ) );
+
+        cache.clear();
+        assertEquals( 0, cache.size() );
+    }
+
+
+    @Test
+    public void testExpiration() throws Exception
+    {
+        PrincipalCache cache = new PrincipalCache( 10, 50L );
+        cache.put( "hnelson@EXAMPLE.COM", "uid=hnelson,dc=example,dc=com", createEntry( "hnelson@EXAMPLE.COM" ),
+            cache.getVersion() );
+
+        Thread.sleep( 100L );
+
+        assertNull( cache.get( "hnelson@EXAMPLE.COM" ) );
+        assertEquals( 0, cache.size() );
+    }
+}
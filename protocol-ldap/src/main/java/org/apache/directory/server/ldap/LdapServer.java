@@ -37,6 +37,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 
 import javax.net.ssl.KeyManagerFactory;
 
@@ -69,11 +71,13 @@ import org.apache.directory.api.ldap.model.message.UnbindRequest;
 import org.apache.directory.api.ldap.model.message.extended.NoticeOfDisconnect;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.authn.PasswordHashingExecutor;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.security.CoreKeyStoreSpi;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.handlers.LdapRequestHandler;
 import org.apache.directory.server.ldap.handlers.LdapResponseHandler;
+import org.apache.directory.server.ldap.handlers.controls.PagedSearchManager;
 import org.apache.directory.server.ldap.handlers.extended.StartTlsHandler;
 import org.apache.directory.server.ldap.handlers.request.AbandonRequestHandler;
 import org.apache.directory.server.ldap.handlers.request.AddRequestHandler;
@@ -84,6 +88,7 @@ import org.apache.directory.server.ldap.handlers.request.ExtendedRequestHandler;
 import org.apache.directory.server.ldap.handlers.request.ModifyDnRequestHandler;
 import org.apache.directory.server.ldap.handlers.request.ModifyRequestHandler;
 import org.apache.directory.server.ldap.handlers.request.SearchRequestHandler;
+import org.apache.directory.server.ldap.handlers.request.SearchResultWriter;
 import org.apache.directory.server.ldap.handlers.request.UnbindRequestHandler;
 import org.apache.directory.server.ldap.handlers.response.AddResponseHandler;
 import org.apache.directory.server.ldap.handlers.response.BindResponseHandler;
@@ -103,6 +108,7 @@ import org.apache.directory.server.ldap.replication.consumer.ReplicationConsumer
 import org.apache.directory.server.ldap.replication.consumer.ReplicationStatusEnum;
 import org.apache.directory.server.ldap.replication.provider.ReplicationRequestHandler;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
+import org.apache.directory.server.protocol.shared.transport.RequestExecutionMode;
 import org.apache.directory.server.protocol.shared.transport.TcpTransport;
 import org.apache.directory.server.protocol.shared.transport.Transport;
 import org.apache.directory.server.protocol.shared.transport.UdpTransport;
@@ -180,6 +186,15 @@ public class LdapServer extends DirectoryBackedService
     /** The maximum size for an incoming PDU */
     private int maxPDUSize = Integer.MAX_VALUE;
 
+    /** The minimum number of bytes written at once when returning search results */
+    private int searchResultBatchSize = SearchResultWriter.DEFAULT_BATCH_SIZE;
+
+    /** The number of bytes scheduled for writing on a session above which the searches wait */
+    private long maxScheduledWriteBytes = SearchResultWriter.DEFAULT_MAX_SCHEDULED_WRITE_BYTES;
+
+    /** The manager bounding the resources held by the paged searches */
+    private final PagedSearchManager pagedSearchManager = new PagedSearchManager();
+
     /** If LDAPS is activated : the external Keystore file, if defined */
     private String keystoreFile;
 
@@ -533,6 +548,10 @@ public class LdapServer extends DirectoryBackedService
         // Install the replication handler if we have one
         startReplicationProducer();
 
+        pagedSearchManager.start();
+
+        limitPendingHashes();
+
         for ( Transport transport : transports )
         {
             if ( !( transport instanceof TcpTransport ) )
@@ -557,10 +576,8 @@ public class LdapServer extends DirectoryBackedService
                 .getProtocolCodecFactory() ) );
 
             // Now inject an ExecutorFilter for the write operations
-            // We use the same number of thread than the number of IoProcessor
-            // (NOTE : this has to be double checked)
             ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "executor", new ExecutorFilter(
-                new UnorderedThreadPoolExecutor( transport.getNbThreads() ), IoEventType.MESSAGE_RECEIVED ) );
+                createRequestExecutor( ( TcpTransport ) transport ), IoEventType.MESSAGE_RECEIVED ) );
 
             /*
             // Trace all the incoming and outgoing message to the console
@@ -594,6 +611,69 @@ public class LdapServer extends DirectoryBackedService
     }
 
 
+    /**
+     * Creates the executor running the requests received on a transport. By default,
+     * we use the same number of thread than the number of IoProcessor (NOTE : this has
+     * to be double checked). In the VIRTUAL_THREADS mode, each request is run by its
+     * own virtual thread, the requests changing the session state being serialized.
+     */
+    private Executor createRequestExecutor( TcpTransport transport )
+    {
+        if ( transport.getExecutionMode() == RequestExecutionMode.VIRTUAL_THREADS )
+        {
+            ExecutorService virtualThreadExecutor = SessionOrderedExecutor.newVirtualThreadExecutor();
+
+            if ( virtualThreadExecutor != null )
+            {
+                LOG.info( "The requests received on {} are executed by virtual threads", transport );
+
+                return new SessionOrderedExecutor( virtualThreadExecutor );
+            }
+
+            LOG.warn( "Virtual threads are not supported by this JVM, the requests received on {} are executed "
+                + "by a pool of {} threads", transport, transport.getNbThreads() );
+        }
+
+        return new UnorderedThreadPoolExecutor( transport.getNbThreads() );
+    }
+
+
+    /**
+     * The threads waiting for an expensive password hash can't process any other request.
+     * Their number is kept below the size of the smallest request thread pool, so that a
+     * bind storm can't hold all the request threads. The extra requests wait for one of the
+     * pending hashes to complete, up to the hashing executor's maximum wait, before being
+     * rejected.
+     */
+    private void limitPendingHashes()
+    {
+        PasswordHashingExecutor hashingExecutor = directoryService.getPasswordHashingExecutor();
+
+        if ( hashingExecutor == null )
+        {
+            return;
+        }
+
+        int nbRequestThreads = Integer.MAX_VALUE;
+
+        for ( Transport transport : transports )
+        {
+            if ( ( transport instanceof TcpTransport )
+                && ( ( ( TcpTransport ) transport ).getExecutionMode() != RequestExecutionMode.VIRTUAL_THREADS ) )
+            {
+                nbRequestThreads = Math.min( nbRequestThreads, transport.getNbThreads() );
+            }
+        }
+
+        if ( nbRequestThreads != Integer.MAX_VALUE )
+        {
+            hashingExecutor.limitPending( Math.max( 1, nbRequestThreads - 1 ) );
+
+            LOG.info( "At most {} requests can wait for a password hash", hashingExecutor.getMaxPending() );
+        }
+    }
+
+
     /**
      * Install the replication handler if we have one
      */
@@ -681,6 +761,8 @@ public class LdapServer extends DirectoryBackedService
             LOG.warn( "Failed to sent NoD.", e );
         }
 
+        pagedSearchManager.stop();
+
         started = false;
         LOG.info( "Ldap service stopped." );
     }
@@ -1742,6 +1824,58 @@ public class LdapServer extends DirectoryBackedService
     }
 
 
+    /**
+     * @return The minimum number of bytes written at once when returning search results
+     */
+    public int getSearchResultBatchSize()
+    {
+        return searchResultBatchSize;
+    }
+
+
+    /**
+     * Sets the minimum number of bytes written at once when returning search results. The
+     * entries are encoded in a buffer, which is written when it reaches this size.
+     *
+     * @param searchResultBatchSize The batch size, in bytes. 0 or a negative value disables the
+     * batching, each entry being written on its own
+     */
+    public void setSearchResultBatchSize( int searchResultBatchSize )
+    {
+        this.searchResultBatchSize = searchResultBatchSize;
+    }
+
+
+    /**
+     * @return The number of bytes scheduled for writing on a session above which the searches wait
+     */
+    public long getMaxScheduledWriteBytes()
+    {
+        return maxScheduledWriteBytes;
+    }
+
+
+    /**
+     * Sets the number of bytes scheduled for writing on a session above which a search waits
+     * for its previous results to be written before sending new ones.
+     *
+     * @param maxScheduledWriteBytes The number of bytes
+     */
+    public void setMaxScheduledWriteBytes( long maxScheduledWriteBytes )
+    {
+        this.maxScheduledWriteBytes = maxScheduledWriteBytes;
+    }
+
+
+    /**
+     * @return The manager bounding the resources held by the paged searches
+     */
+    public PagedSearchManager getPagedSearchManager()
+    {
+        return pagedSearchManager;
+    }
+
+
     /**
      * @return The maximum allowed size for an incoming PDU
      */
@@ -520,8 +520,18 @@ public class LdapSession
     {
         PagedSearchContext oldContext = pagedSearchContexts.put( context.getCookieValue(), context );
 
+        if ( ldapServer != null )
+        {
+            ldapServer.getPagedSearchManager().register( this, context );
+        }
+
         if ( oldContext != null )
         {
+            if ( ldapServer != null )
+            {
+                ldapServer.getPagedSearchManager().unregister( oldContext );
+            }
+
             // ??? Very unlikely to happen ...
             Cursor<Entry> cursor = oldContext.getCursor();
 
@@ -548,7 +558,14 @@ public class LdapSession
      */
     public PagedSearchContext removePagedSearchContext( int contextId )
     {
-        return pagedSearchContexts.remove( contextId );
+        PagedSearchContext context = pagedSearchContexts.remove( contextId );
+
+        if ( ( context != null ) && ( ldapServer != null ) )
+        {
+            ldapServer.getPagedSearchManager().unregister( context );
+        }
+
+        return context;
     }
 
 
@@ -561,13 +578,22 @@ public class LdapSession
     {
         for ( Map.Entry<Integer, PagedSearchContext> entry : pagedSearchContexts.entrySet() )
         {
-            Cursor<Entry> cursor = entry.getValue().getCursor();
+            PagedSearchContext context = entry.getValue();
+
+            if ( ldapServer != null )
+            {
+                ldapServer.getPagedSearchManager().unregister( context );
+            }
+
+            Cursor<Entry> cursor = context.getCursor();
 
             if ( cursor != null )
             {
                 cursor.close();
             }
         }
+
+        pagedSearchContexts.clear();
     }
 
     /**
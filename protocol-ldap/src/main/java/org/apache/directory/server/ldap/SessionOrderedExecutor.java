@@ -0,0 +1,257 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.directory.api.ldap.model.message.BindRequest;
+import org.apache.directory.api.ldap.model.message.ExtendedRequest;
+import org.apache.directory.api.ldap.model.message.UnbindRequest;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An Executor running the received requests on a delegate executor, typically one
+ * virtual thread per request, without limiting the number of requests a session
+ * can run concurrently, except for the requests which change the session state :
+ * <ul>
+ *   <li>a BindRequest, an ExtendedRequest (including StartTLS) or an UnbindRequest
+ *   is started once all the previous requests of its session are completed</li>
+ *   <li>the following requests of the session are started once it is completed</li>
+ * </ul>
+ * The other requests (searches, updates, abandon...) are started as soon as they are
+ * received.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SessionOrderedExecutor implements Executor
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( SessionOrderedExecutor.class );
+
+    /** The session attribute holding the session's pending requests */
+    private static final AttributeKey SESSION_TASKS = new AttributeKey( SessionOrderedExecutor.class, "tasks" );
+
+    /** The executor running the requests */
+    private final Executor delegate;
+
+
+    /**
+     * Creates a new instance of SessionOrderedExecutor.
+     *
+     * @param delegate The executor running the requests
+     */
+    public SessionOrderedExecutor( Executor delegate )
+    {
+        this.delegate = delegate;
+    }
+
+
+    /**
+     * Creates an executor starting a new virtual thread for each task, using reflection
+     * so that the server still runs on JVMs without virtual threads.
+     *
+     * @return The executor, or null if the JVM does not support virtual threads
+     */
+    public static ExecutorService newVirtualThreadExecutor()
+    {
+        try
+        {
+            Method method = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+
+            return ( ExecutorService ) method.invoke( null );
+        }
+        catch ( ReflectiveOperationException | RuntimeException e )
+        {
+            LOG.debug( "Virtual threads are not supported by this JVM", e );
+
+            return null;
+        }
+    }
+
+
+    /**
+     * Tells if a request must be executed alone in its session
+     */
+    private static boolean isExclusive( Object message )
+    {
+        return ( message instanceof BindRequest ) || ( message instanceof ExtendedRequest )
+            || ( message instanceof UnbindRequest );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute( Runnable task )
+    {
+        if ( !( task instanceof IoEvent ) )
+        {
+            delegate.execute( task );
+
+            return;
+        }
+
+        IoEvent event = ( IoEvent ) task;
+        IoSession session = event.getSession();
+        SessionTasks sessionTasks = ( SessionTasks ) session.getAttribute( SESSION_TASKS );
+
+        if ( sessionTasks == null )
+        {
+            sessionTasks = new SessionTasks();
+            SessionTasks existing = ( SessionTasks ) session.setAttributeIfAbsent( SESSION_TASKS, sessionTasks );
+
+            if ( existing != null )
+            {
+                sessionTasks = existing;
+            }
+        }
+
+        sessionTasks.submit( new SessionTask( sessionTasks, task, isExclusive( event.getParameter() ) ) );
+    }
+
+
+    /**
+     * A request, which notifies its session when it is completed
+     */
+    private final class SessionTask implements Runnable
+    {
+        private final SessionTasks sessionTasks;
+
+        private final Runnable task;
+
+        private final boolean exclusive;
+
+
+        private SessionTask( SessionTasks sessionTasks, Runnable task, boolean exclusive )
+        {
+            this.sessionTasks = sessionTasks;
+            this.task = task;
+            this.exclusive = exclusive;
+        }
+
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                task.run();
+            }
+            finally
+            {
+                sessionTasks.completed( this );
+            }
+        }
+    }
+
+
+    /**
+     * The requests of a session : the number of running ones, and the ones waiting for
+     * an exclusive request to complete, or to start.
+     */
+    private final class SessionTasks
+    {
+        /** The number of running requests */
+        private int nbRunning;
+
+        /** Tells if the running request is an exclusive one */
+        private boolean exclusiveRunning;
+
+        /** The requests waiting to be started, in the order they were received */
+        private final Deque<SessionTask> waiting = new ArrayDeque<>();
+
+
+        private void submit( SessionTask task )
+        {
+            synchronized ( this )
+            {
+                if ( !waiting.isEmpty() || exclusiveRunning || ( task.exclusive && ( nbRunning > 0 ) ) )
+                {
+                    waiting.add( task );
+
+                    return;
+                }
+
+                start( task );
+            }
+
+            delegate.execute( task );
+        }
+
+
+        private void completed( SessionTask task )
+        {
+            Deque<SessionTask> startable = new ArrayDeque<>();
+
+            synchronized ( this )
+            {
+                nbRunning--;
+
+                if ( task.exclusive )
+                {
+                    exclusiveRunning = false;
+                }
+
+                // Start the waiting requests, up to the next exclusive one
+                while ( !waiting.isEmpty() && !exclusiveRunning )
+                {
+                    SessionTask next = waiting.peek();
+
+                    if ( next.exclusive && ( nbRunning > 0 ) )
+                    {
+                        break;
+                    }
+
+                    waiting.poll();
+                    start( next );
+                    startable.add( next );
+                }
+            }
+
+            for ( SessionTask next : startable )
+            {
+                delegate.execute( next );
+            }
+        }
+
+
+        private void start( SessionTask task )
+        {
+            nbRunning++;
+
+            if ( task.exclusive )
+            {
+                exclusiveRunning = true;
+            }
+        }
+    }
+}
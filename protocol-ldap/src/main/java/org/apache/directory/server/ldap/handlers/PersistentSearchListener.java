@@ -24,7 +24,9 @@ import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.AbandonListener;
 import org.apache.directory.api.ldap.model.message.AbandonableRequest;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchResultDone;
 import org.apache.directory.api.ldap.model.message.SearchResultEntry;
 import org.apache.directory.api.ldap.model.message.SearchResultEntryImpl;
 import org.apache.directory.api.ldap.model.message.controls.ChangeType;
@@ -36,6 +38,7 @@ import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.entry.ServerEntryUtils;
 import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.NotificationOverflowListener;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ChangeOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
@@ -57,11 +60,13 @@ import org.slf4j.LoggerFactory;
  * 
  * This listener is disabled only when a session closes or when an abandon request 
  * cancels it.  Hence time and size limits in normal search operations do not apply
- * here.
+ * here. It is also disabled when the client does not read the changes fast enough :
+ * the search is then ended with an adminLimitExceeded result, as some changes have
+ * been lost.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-public class PersistentSearchListener implements DirectoryListener, AbandonListener
+public class PersistentSearchListener implements DirectoryListener, AbandonListener, NotificationOverflowListener
 {
     private static final Logger LOG = LoggerFactory.getLogger( PersistentSearchListener.class );
     final LdapSession session;
@@ -116,6 +121,24 @@ public class PersistentSearchListener implements DirectoryListener, AbandonListe
     }
 
 
+    /**
+     * The client has missed some changes, and the listener has already been unregistered :
+     * we end the persistent search with an error, so that the client knows it must search
+     * again.
+     */
+    @Override
+    public void notificationsOverflowed()
+    {
+        LOG.warn( "The persistent search {} can't keep up with the changes, ending it", req.getMessageId() );
+
+        SearchResultDone done = ( SearchResultDone ) req.getResultResponse();
+        done.getLdapResult().setResultCode( ResultCodeEnum.ADMIN_LIMIT_EXCEEDED );
+        done.getLdapResult().setDiagnosticMessage( "Too many changes are waiting to be sent, some have been lost" );
+        session.unregisterOutstandingRequest( req );
+        session.getIoSession().write( done );
+    }
+
+
     private void setECResponseControl( SearchResultEntry response, ChangeOperationContext opContext, ChangeType type )
     {
         if ( psearchControl.isReturnECs() )
@@ -41,6 +41,11 @@ import org.apache.directory.server.ldap.LdapSession;
  * The structure which stores the informations relative to the pagedSearch control.
  * They are associated to a cookie, stored into the session and associated to an
  * instance of this class.
+ * <p>
+ * The context's cursor may be closed by the {@link PagedSearchManager} when the open
+ * cursors hold too much memory : the context is then checkpointed, keeping only the
+ * position and the DN of the last returned entry, and the cursor is reopened after this
+ * entry when the next page is requested.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -61,6 +66,21 @@ public class PagedSearchContext
     /** The associated cursor for the current search request */
     private Cursor<Entry> cursor;
 
+    /** The DN of the last returned entry */
+    private Dn lastEntryDn;
+
+    /** The estimated memory held by the cursor, in bytes */
+    private long estimatedSize;
+
+    /** Tells if the cursor has been closed to save resources */
+    private boolean checkpointed;
+
+    /** Tells if a page is being read */
+    private boolean inUse;
+
+    /** The last time a page has been read */
+    private volatile long lastAccessTime = System.currentTimeMillis();
+
 
     /**
      * Creates a new instance of this class, storing the SearchRequest into it.
@@ -319,6 +339,131 @@ public class PagedSearchContext
     }
 
 
+    /**
+     * @return The DN of the last returned entry, null if no entry has been returned
+     */
+    public Dn getLastEntryDn()
+    {
+        return lastEntryDn;
+    }
+
+
+    /**
+     * Sets the DN of the last returned entry, which is the key used to reopen the cursor
+     * at the right position
+     *
+     * @param lastEntryDn The DN of the last returned entry
+     */
+    public void setLastEntryDn( Dn lastEntryDn )
+    {
+        this.lastEntryDn = lastEntryDn;
+    }
+
+
+    /**
+     * @return The estimated memory held by the cursor, in bytes
+     */
+    long getEstimatedSize()
+    {
+        return estimatedSize;
+    }
+
+
+    /**
+     * @param estimatedSize The estimated memory held by the cursor, in bytes
+     */
+    void setEstimatedSize( long estimatedSize )
+    {
+        this.estimatedSize = estimatedSize;
+    }
+
+
+    /**
+     * @return The last time a page has been read
+     */
+    public long getLastAccessTime()
+    {
+        return lastAccessTime;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if a page is being read
+     */
+    public synchronized boolean isInUse()
+    {
+        return inUse;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the cursor has been closed, and must be reopened
+     */
+    public synchronized boolean isCheckpointed()
+    {
+        return checkpointed;
+    }
+
+
+    /**
+     * Marks the context as being used to read a page. It won't be checkpointed nor
+     * expired until {@link #release()} is called.
+     *
+     * @return <tt>true</tt> if the cursor has been checkpointed, and must be reopened
+     */
+    synchronized boolean acquire()
+    {
+        inUse = true;
+        lastAccessTime = System.currentTimeMillis();
+
+        return checkpointed;
+    }
+
+
+    /**
+     * Marks the context as not being used anymore.
+     */
+    synchronized void release()
+    {
+        inUse = false;
+        lastAccessTime = System.currentTimeMillis();
+    }
+
+
+    /**
+     * Sets the reopened cursor of a checkpointed context.
+     *
+     * @param cursor The reopened cursor
+     */
+    synchronized void resume( Cursor<Entry> cursor )
+    {
+        this.cursor = cursor;
+        checkpointed = false;
+    }
+
+
+    /**
+     * Closes the cursor, keeping the position, if no page is being read.
+     *
+     * @return <tt>true</tt> if the cursor has been closed
+     * @throws Exception If the cursor can't be closed
+     */
+    synchronized boolean checkpoint() throws Exception
+    {
+        if ( inUse || checkpointed || ( cursor == null ) )
+        {
+            return false;
+        }
+
+        checkpointed = true;
+        Cursor<Entry> closed = cursor;
+        cursor = null;
+        closed.close();
+
+        return true;
+    }
+
+
     /**
      * @see Object#toString()
      */
@@ -330,6 +475,12 @@ public class PagedSearchContext
         sb.append( Strings.dumpBytes( cookie ) );
         sb.append( ", " );
         sb.append( currentPosition );
+
+        if ( checkpointed )
+        {
+            sb.append( ", checkpointed" );
+        }
+
         sb.append( ">" );
 
         return sb.toString();
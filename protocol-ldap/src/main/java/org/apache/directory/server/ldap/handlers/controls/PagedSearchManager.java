@@ -0,0 +1,563 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.controls;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.filtering.SizedCursor;
+import org.apache.directory.server.ldap.LdapSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Keeps track of all the paged search contexts of an LDAP server, whatever the session
+ * they belong to, and bounds the resources they hold.
+ * <p>
+ * Each open cursor pins a partition read transaction and the set of candidates of the
+ * search, so the memory held by the open cursors is bounded : when it's exceeded, the
+ * least recently used contexts are checkpointed. Their cursor is closed, and only their
+ * position and the DN of the last returned entry are kept. A checkpointed context is
+ * reopened when the next page is requested : the search is done again, and the cursor
+ * is moved before the last returned entry, which is then skipped. If this entry can't
+ * be found anymore, or does not match the search anymore, or if the cursor can't be
+ * positioned on a given entry, like the cursor of a sorted search, the position can't
+ * be restored exactly : the paged search is ended with an unwillingToPerform error,
+ * instead of returning some entries twice or missing some of them.
+ * <p>
+ * The contexts which have not been used for longer than the idle timeout are closed
+ * and removed from their session : the client will get an invalid cookie error if it
+ * asks for the next page.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PagedSearchManager
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( PagedSearchManager.class );
+
+    /** The default maximum memory held by the open paged search cursors, in bytes */
+    public static final long DEFAULT_MAX_MEMORY = 64L * 1024L * 1024L;
+
+    /** The memory held by an open cursor besides its candidates : the cursors, the request and the transaction */
+    static final long CONTEXT_SIZE = 16L * 1024L;
+
+    /** The default idle timeout of a paged search, in milliseconds */
+    public static final long DEFAULT_IDLE_TIMEOUT = 300000L;
+
+    /** The contexts, with the session they belong to */
+    private final ConcurrentMap<PagedSearchContext, LdapSession> contexts = new ConcurrentHashMap<>();
+
+    /** The number of contexts with an open cursor */
+    private final AtomicInteger openCursors = new AtomicInteger();
+
+    /** The estimated memory held by the open cursors, in bytes */
+    private final AtomicLong usedMemory = new AtomicLong();
+
+    /** The maximum memory held by the open cursors, in bytes */
+    private volatile long maxMemory = DEFAULT_MAX_MEMORY;
+
+    /** The idle timeout, in milliseconds */
+    private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    /** The number of checkpointed contexts */
+    private final AtomicLong checkpointCount = new AtomicLong();
+
+    /** The number of reopened contexts */
+    private final AtomicLong resumeCount = new AtomicLong();
+
+    /** The number of expired contexts */
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    /** The thread expiring the idle contexts */
+    private ScheduledExecutorService sweeper;
+
+
+    /**
+     * Starts the thread expiring the idle contexts.
+     */
+    public synchronized void start()
+    {
+        if ( sweeper != null )
+        {
+            return;
+        }
+
+        sweeper = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "PagedSearchSweeper" );
+                thread.setDaemon( true );
+
+                return thread;
+            }
+        } );
+
+        long period = Math.max( 1000L, idleTimeout / 4L );
+
+        sweeper.scheduleWithFixedDelay( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                sweep();
+            }
+        }, period, period, TimeUnit.MILLISECONDS );
+    }
+
+
+    /**
+     * Stops the thread expiring the idle contexts.
+     */
+    public synchronized void stop()
+    {
+        if ( sweeper != null )
+        {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+    }
+
+
+    /**
+     * Registers a new context, with an open cursor.
+     *
+     * @param session The session the context belongs to
+     * @param context The context
+     */
+    public void register( LdapSession session, PagedSearchContext context )
+    {
+        synchronized ( context )
+        {
+            if ( contexts.put( context, session ) == null )
+            {
+                opened( context );
+            }
+        }
+
+        enforceBudget();
+    }
+
+
+    /**
+     * Accounts for the cursor of a context, which has been opened
+     */
+    private void opened( PagedSearchContext context )
+    {
+        long size = CONTEXT_SIZE;
+        Cursor<Entry> cursor = context.getCursor();
+
+        if ( cursor instanceof SizedCursor )
+        {
+            size += ( ( SizedCursor ) cursor ).getEstimatedSize();
+        }
+
+        context.setEstimatedSize( size );
+        usedMemory.addAndGet( size );
+        openCursors.incrementAndGet();
+    }
+
+
+    /**
+     * Accounts for the cursor of a context, which has been closed
+     */
+    private void closed( PagedSearchContext context )
+    {
+        usedMemory.addAndGet( -context.getEstimatedSize() );
+        openCursors.decrementAndGet();
+    }
+
+
+    /**
+     * Unregisters a context, which has been removed from its session. Its cursor is
+     * closed by the caller.
+     *
+     * @param context The context
+     */
+    public void unregister( PagedSearchContext context )
+    {
+        synchronized ( context )
+        {
+            if ( ( contexts.remove( context ) != null ) && !context.isCheckpointed() )
+            {
+                closed( context );
+            }
+        }
+    }
+
+
+    /**
+     * Gets the cursor of a context, to read the next page, reopening it if the context
+     * has been checkpointed. The context must be released when the page has been read.
+     *
+     * @param session The session the context belongs to
+     * @param context The context
+     * @param request The search request
+     * @return The context's cursor, positioned after the last returned entry, or null if
+     * the context has expired
+     * @throws LdapUnwillingToPerformException If the cursor can't be reopened after the last
+     * returned entry. The context is then removed from its session
+     * @throws Exception If the cursor can't be reopened
+     */
+    public Cursor<Entry> acquire( LdapSession session, PagedSearchContext context, SearchRequest request )
+        throws Exception
+    {
+        synchronized ( context )
+        {
+            if ( !contexts.containsKey( context ) )
+            {
+                return null;
+            }
+
+            if ( !context.acquire() )
+            {
+                return context.getCursor();
+            }
+        }
+
+        // The context has been checkpointed : do the search again, and move the cursor
+        // after the last returned entry. As the context is in use, it won't be checkpointed
+        // nor expired meanwhile
+        Cursor<Entry> cursor = null;
+        boolean resumed = false;
+
+        try
+        {
+            cursor = session.getCoreSession().search( request );
+            resumed = seek( cursor, context.getLastEntryDn() );
+        }
+        catch ( UnsupportedOperationException uoe )
+        {
+            LOG.debug( "The cursor of the paged search {} can't be positioned on an entry", context );
+        }
+        finally
+        {
+            if ( !resumed )
+            {
+                context.release();
+                session.removePagedSearchContext( context.getCookieValue() );
+
+                if ( cursor != null )
+                {
+                    try
+                    {
+                        cursor.close();
+                    }
+                    catch ( Exception e )
+                    {
+                        LOG.warn( "Failed to close the cursor of the paged search {}", context, e );
+                    }
+                }
+            }
+        }
+
+        if ( !resumed )
+        {
+            throw new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM,
+                "The paged search can't be resumed, as the entries have changed" );
+        }
+
+        synchronized ( context )
+        {
+            context.resume( cursor );
+
+            if ( contexts.containsKey( context ) )
+            {
+                opened( context );
+            }
+        }
+
+        resumeCount.incrementAndGet();
+        enforceBudget();
+
+        return cursor;
+    }
+
+
+    /**
+     * Moves a new cursor after the last returned entry : the cursor is positioned before
+     * this entry, which must be the next one.
+     *
+     * @param cursor The cursor
+     * @param lastEntryDn The DN of the last returned entry, null if no entry has been returned
+     * @return <tt>true</tt> if the cursor is positioned after the last returned entry
+     */
+    static boolean seek( Cursor<Entry> cursor, Dn lastEntryDn ) throws Exception
+    {
+        if ( lastEntryDn == null )
+        {
+            cursor.beforeFirst();
+
+            return true;
+        }
+
+        cursor.before( new DefaultEntry( lastEntryDn ) );
+
+        return cursor.next() && lastEntryDn.equals( cursor.get().getDn() );
+    }
+
+
+    /**
+     * Releases a context once a page has been read.
+     *
+     * @param context The context
+     */
+    public void release( PagedSearchContext context )
+    {
+        context.release();
+    }
+
+
+    /**
+     * Checkpoints the least recently used contexts, until the memory held by the open
+     * cursors fits in the budget.
+     */
+    private void enforceBudget()
+    {
+        long excess = usedMemory.get() - maxMemory;
+
+        if ( excess <= 0L )
+        {
+            return;
+        }
+
+        List<PagedSearchContext> candidates = new ArrayList<>();
+
+        for ( PagedSearchContext context : contexts.keySet() )
+        {
+            if ( !context.isInUse() && !context.isCheckpointed() )
+            {
+                candidates.add( context );
+            }
+        }
+
+        Collections.sort( candidates, new Comparator<PagedSearchContext>()
+        {
+            @Override
+            public int compare( PagedSearchContext context1, PagedSearchContext context2 )
+            {
+                return Long.compare( context1.getLastAccessTime(), context2.getLastAccessTime() );
+            }
+        } );
+
+        for ( PagedSearchContext context : candidates )
+        {
+            if ( excess <= 0L )
+            {
+                break;
+            }
+
+            if ( checkpoint( context ) )
+            {
+                excess -= context.getEstimatedSize();
+            }
+        }
+    }
+
+
+    private boolean checkpoint( PagedSearchContext context )
+    {
+        synchronized ( context )
+        {
+            if ( !contexts.containsKey( context ) )
+            {
+                return false;
+            }
+
+            try
+            {
+                if ( context.checkpoint() )
+                {
+                    closed( context );
+                    checkpointCount.incrementAndGet();
+
+                    LOG.debug( "Checkpointed the paged search {}", context );
+
+                    return true;
+                }
+            }
+            catch ( Exception e )
+            {
+                // The cursor is gone anyway
+                closed( context );
+                LOG.warn( "Failed to close the cursor of the paged search {}", context, e );
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Closes and removes the contexts which have been idle for too long, then enforces
+     * the open cursors budget.
+     */
+    public void sweep()
+    {
+        long expirationTime = System.currentTimeMillis() - idleTimeout;
+
+        for ( Map.Entry<PagedSearchContext, LdapSession> entry : contexts.entrySet() )
+        {
+            PagedSearchContext context = entry.getKey();
+
+            synchronized ( context )
+            {
+                if ( ( context.getLastAccessTime() >= expirationTime ) || context.isInUse() )
+                {
+                    continue;
+                }
+
+                // Removing the context from its session unregisters it
+                entry.getValue().removePagedSearchContext( context.getCookieValue() );
+                unregister( context );
+
+                try
+                {
+                    context.checkpoint();
+                }
+                catch ( Exception e )
+                {
+                    LOG.warn( "Failed to close the cursor of the paged search {}", context, e );
+                }
+            }
+
+            expiredCount.incrementAndGet();
+            LOG.debug( "Expired the idle paged search {}", context );
+        }
+
+        enforceBudget();
+    }
+
+
+    /**
+     * @return The maximum memory held by the open cursors, in bytes
+     */
+    public long getMaxMemory()
+    {
+        return maxMemory;
+    }
+
+
+    /**
+     * @param maxMemory The maximum memory held by the open cursors, in bytes
+     */
+    public void setMaxMemory( long maxMemory )
+    {
+        this.maxMemory = Math.max( CONTEXT_SIZE, maxMemory );
+    }
+
+
+    /**
+     * @return The estimated memory held by the open cursors, in bytes
+     */
+    public long getUsedMemory()
+    {
+        return usedMemory.get();
+    }
+
+
+    /**
+     * @return The idle timeout, in milliseconds
+     */
+    public long getIdleTimeout()
+    {
+        return idleTimeout;
+    }
+
+
+    /**
+     * Sets the idle timeout. It is taken into account when the manager is (re)started.
+     *
+     * @param idleTimeout The idle timeout, in milliseconds
+     */
+    public void setIdleTimeout( long idleTimeout )
+    {
+        this.idleTimeout = Math.max( 1000L, idleTimeout );
+    }
+
+
+    /**
+     * @return The number of paged search contexts
+     */
+    public int getContextCount()
+    {
+        return contexts.size();
+    }
+
+
+    /**
+     * @return The number of paged search contexts with an open cursor
+     */
+    public int getOpenCursorCount()
+    {
+        return openCursors.get();
+    }
+
+
+    /**
+     * @return The number of checkpointed contexts since the server has started
+     */
+    public long getCheckpointCount()
+    {
+        return checkpointCount.get();
+    }
+
+
+    /**
+     * @return The number of reopened contexts since the server has started
+     */
+    public long getResumeCount()
+    {
+        return resumeCount.get();
+    }
+
+
+    /**
+     * @return The number of expired contexts since the server has started
+     */
+    public long getExpiredCount()
+    {
+        return expiredCount.get();
+    }
+}
@@ -39,6 +39,7 @@ import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapOperationException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
 import org.apache.directory.api.ldap.model.exception.LdapURLEncodingException;
 import org.apache.directory.api.ldap.model.exception.OperationAbandonedException;
 import org.apache.directory.api.ldap.model.filter.EqualityNode;
@@ -81,6 +82,7 @@ import org.apache.directory.server.ldap.handlers.PersistentSearchListener;
 import org.apache.directory.server.ldap.handlers.SearchAbandonListener;
 import org.apache.directory.server.ldap.handlers.SearchTimeLimitingMonitor;
 import org.apache.directory.server.ldap.handlers.controls.PagedSearchContext;
+import org.apache.directory.server.ldap.handlers.controls.PagedSearchManager;
 import org.apache.directory.server.ldap.replication.provider.ReplicationRequestHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -280,6 +282,17 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     }
 
 
+    /**
+     * Creates the writer used to send the entries and references returned by a search,
+     * batching them as configured on the server.
+     */
+    private SearchResultWriter createResultWriter( LdapSession session )
+    {
+        return new SearchResultWriter( session.getIoSession(), ldapServer.getDirectoryService()
+            .getLdapCodecService(), ldapServer.getSearchResultBatchSize(), ldapServer.getMaxScheduledWriteBytes() );
+    }
+
+
     /**
      * Based on the server maximum time limits configured for search and the
      * requested time limits this method determines if at all to replace the
@@ -376,43 +389,53 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     {
         long count = 0;
 
-        while ( ( count < sizeLimit ) && cursor.next() )
+        SearchResultWriter writer = createResultWriter( session );
+
+        try
         {
-            // Handle closed session
-            if ( session.getIoSession().isClosing() )
+            while ( ( count < sizeLimit ) && cursor.next() )
             {
-                // The client has closed the connection
-                if ( IS_DEBUG )
+                // Handle closed session
+                if ( session.getIoSession().isClosing() )
                 {
-                    LOG.debug( "Request terminated for message {}, the client has closed the session",
-                        req.getMessageId() );
+                    // The client has closed the connection
+                    if ( IS_DEBUG )
+                    {
+                        LOG.debug( "Request terminated for message {}, the client has closed the session",
+                            req.getMessageId() );
+                    }
+
+                    break;
                 }
 
-                break;
-            }
+                if ( req.isAbandoned() )
+                {
+                    cursor.close( new OperationAbandonedException() );
 
-            if ( req.isAbandoned() )
-            {
-                cursor.close( new OperationAbandonedException() );
+                    // The cursor has been closed by an abandon request.
+                    if ( IS_DEBUG )
+                    {
+                        LOG.debug( "Request terminated by an AbandonRequest for message {}", req.getMessageId() );
+                    }
 
-                // The cursor has been closed by an abandon request.
-                if ( IS_DEBUG )
-                {
-                    LOG.debug( "Request terminated by an AbandonRequest for message {}", req.getMessageId() );
+                    break;
                 }
 
-                break;
-            }
+                Entry entry = cursor.get();
+                writer.write( generateResponse( session, req, entry ) );
 
-            Entry entry = cursor.get();
-            session.getIoSession().write( generateResponse( session, req, entry ) );
+                if ( IS_DEBUG )
+                {
+                    LOG.debug( "Sending {}", entry.getDn() );
+                }
 
-            if ( IS_DEBUG )
-            {
-                LOG.debug( "Sending {}", entry.getDn() );
+                count++;
             }
-
-            count++;
+        }
+        finally
+        {
+            // The entries must be sent before the SearchResultDone
+            writer.flush();
         }
 
         // check if the result code is not already set
@@ -451,18 +474,37 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
         int count = pagedContext.getCurrentPosition();
         int pageCount = 0;
+        Entry lastEntry = null;
 
-        while ( ( count < sizeLimit ) && ( pageCount < pagedLimit ) && cursor.next() )
+        SearchResultWriter writer = createResultWriter( session );
+
+        try
         {
-            if ( session.getIoSession().isClosing() )
+            while ( ( count < sizeLimit ) && ( pageCount < pagedLimit ) && cursor.next() )
             {
-                break;
+                if ( session.getIoSession().isClosing() )
+                {
+                    break;
+                }
+
+                Entry entry = cursor.get();
+                writer.write( generateResponse( session, req, entry ) );
+                lastEntry = entry;
+                count++;
+                pageCount++;
             }
+        }
+        finally
+        {
+            // The entries must be sent before the SearchResultDone
+            writer.flush();
+        }
 
-            Entry entry = cursor.get();
-            session.getIoSession().write( generateResponse( session, req, entry ) );
-            count++;
-            pageCount++;
+        // Keep the last returned entry, to be able to reopen the cursor after it if
+        // the cursor is checkpointed
+        if ( lastEntry != null )
+        {
+            pagedContext.setLastEntryDn( lastEntry.getDn() );
         }
 
         // DO NOT WRITE THE RESPONSE - JUST RETURN IT
@@ -523,7 +565,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
                 cursor.close();
 
-                session.removePagedSearchContext( cookieValue );
+                session.removePagedSearchContext( pagedContext.getCookieValue() );
             }
         }
     }
@@ -671,8 +713,9 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             }
             else
             {
-                // Case 2 : create the context
+                // Case 2 : create the context, and stores the cursor into the session
                 pagedContext = new PagedSearchContext( req );
+                pagedContext.setCursor( cursor );
 
                 session.addPagedSearchContext( pagedContext );
                 cookie = pagedContext.getCookie();
@@ -681,9 +724,6 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
                 pagedResultsControl.setCookie( cookie );
                 pagedResultsControl.setSize( 0 );
                 pagedResultsControl.setCritical( true );
-
-                // And stores the cursor into the session
-                pagedContext.setCursor( cursor );
             }
         }
         else
@@ -705,8 +745,8 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
             if ( pagedContext.hasSameRequest( req, session ) )
             {
-                // Case 3 : continue the search
-                cursor = pagedContext.getCursor();
+                // Case 3 : continue the search. The cursor is read below, as it may
+                // have been checkpointed
 
                 // get the cookie
                 cookie = pagedContext.getCookie();
@@ -728,8 +768,12 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
                     cursor.close();
                 }
 
-                // Now create a new context and stores it into the session
+                // Now do the new search, create a new context and stores it into the session
+                cursor = session.getCoreSession().search( req );
+                cursor.beforeFirst();
+
                 pagedContext = new PagedSearchContext( req );
+                pagedContext.setCursor( cursor );
 
                 session.addPagedSearchContext( pagedContext );
 
@@ -742,6 +786,32 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             }
         }
 
+        // Get the context's cursor, reopening it if it has been checkpointed. The
+        // context can't be checkpointed nor expired until it's released
+        PagedSearchManager pagedSearchManager = ldapServer.getPagedSearchManager();
+
+        try
+        {
+            cursor = pagedSearchManager.acquire( session, pagedContext, req );
+        }
+        catch ( LdapUnwillingToPerformException uwtpe )
+        {
+            // The cursor could not be reopened after the last returned entry
+            ldapResult.setDiagnosticMessage( uwtpe.getMessage() );
+            ldapResult.setResultCode( ResultCodeEnum.UNWILLING_TO_PERFORM );
+
+            return ( SearchResultDone ) req.getResultResponse();
+        }
+
+        if ( cursor == null )
+        {
+            // The context has expired in the meantime
+            ldapResult.setDiagnosticMessage( "Invalid cookie for this PagedSearch request." );
+            ldapResult.setResultCode( ResultCodeEnum.UNWILLING_TO_PERFORM );
+
+            return ( SearchResultDone ) req.getResultResponse();
+        }
+
         // Now, do the real search
         /*
          * Iterate through all search results building and sending back responses
@@ -766,6 +836,10 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
                 }
             }
         }
+        finally
+        {
+            pagedSearchManager.release( pagedContext );
+        }
 
         return ( SearchResultDone ) req.getResultResponse();
     }
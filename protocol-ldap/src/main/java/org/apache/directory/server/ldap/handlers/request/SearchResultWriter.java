@@ -0,0 +1,203 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.request;
+
+
+import java.nio.ByteBuffer;
+
+import org.apache.directory.api.asn1.util.Asn1Buffer;
+import org.apache.directory.api.ldap.codec.api.LdapApiService;
+import org.apache.directory.api.ldap.codec.api.LdapEncoder;
+import org.apache.directory.api.ldap.model.message.Response;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.core.session.IoSession;
+
+
+/**
+ * Writes the entries and references returned by a search, batching them. Instead of
+ * writing each response to the session, which creates one buffer and one write request
+ * per response, the responses are encoded into a heap buffer, which is written when
+ * it contains at least <code>batchSize</code> bytes, or when the writer is flushed. The
+ * encoded buffer goes through the codec filter untouched, so a batch is sent by a single
+ * write. Once a batch has been written, its buffer is reused for the next one : we don't
+ * allocate a buffer per batch.
+ * <p>
+ * The writer also applies some back pressure : when the number of bytes scheduled for
+ * writing on the session exceeds a threshold, we wait for the previous batch to be
+ * written before sending a new one, instead of piling up the encoded entries in memory
+ * when the client is slower than the server.
+ * <p>
+ * The writer must be flushed before any other message is written to the session (typically,
+ * the SearchResultDone), otherwise the messages would be sent out of order. This class is
+ * not thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SearchResultWriter
+{
+    /** The default minimum number of bytes written at once */
+    public static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+
+    /** The default number of bytes scheduled for writing above which we wait */
+    public static final long DEFAULT_MAX_SCHEDULED_WRITE_BYTES = 4L * 1024L * 1024L;
+
+    /** The time we wait for a write to complete before checking the session again */
+    private static final long WRITE_WAIT_TIMEOUT = 1000L;
+
+    /** The session we write into */
+    private final IoSession ioSession;
+
+    /** The codec used to encode the responses */
+    private final LdapApiService codec;
+
+    /** The minimum number of bytes written at once. 0 disables the batching */
+    private final int batchSize;
+
+    /** The number of bytes scheduled for writing above which we wait */
+    private final long maxScheduledWriteBytes;
+
+    /** The buffer the responses are encoded into, reused for all of them */
+    private final Asn1Buffer asn1Buffer = new Asn1Buffer();
+
+    /** The batch being filled */
+    private IoBuffer batch;
+
+    /** The buffer of the last batch, reused once it has been written */
+    private IoBuffer written;
+
+    /** The last batch write */
+    private WriteFuture lastWrite;
+
+
+    /**
+     * Creates a new instance of SearchResultWriter.
+     *
+     * @param ioSession The session to write into
+     * @param codec The codec used to encode the responses
+     * @param batchSize The minimum number of bytes written at once. If 0 or negative, the
+     * responses are written one by one
+     * @param maxScheduledWriteBytes The number of bytes scheduled for writing on the session
+     * above which we wait for the previous batch to be written
+     */
+    public SearchResultWriter( IoSession ioSession, LdapApiService codec, int batchSize, long maxScheduledWriteBytes )
+    {
+        this.ioSession = ioSession;
+        this.codec = codec;
+        this.batchSize = batchSize;
+        this.maxScheduledWriteBytes = maxScheduledWriteBytes;
+    }
+
+
+    /**
+     * Writes a response. It's encoded and added to the current batch, which is
+     * written if it's full.
+     *
+     * @param response The response to write
+     * @throws Exception If the response can't be encoded
+     */
+    public void write( Response response ) throws Exception
+    {
+        if ( batchSize <= 0 )
+        {
+            ioSession.write( response );
+
+            return;
+        }
+
+        // The encoded message is copied into a new buffer, which is ready to be read
+        asn1Buffer.clear();
+        ByteBuffer encoded = LdapEncoder.encodeMessageReverse( asn1Buffer, codec, response );
+
+        if ( batch == null )
+        {
+            batch = allocateBatch();
+        }
+
+        batch.put( encoded );
+
+        if ( batch.position() >= batchSize )
+        {
+            flush();
+        }
+    }
+
+
+    /**
+     * Writes the current batch, if any.
+     */
+    public void flush()
+    {
+        if ( batch == null )
+        {
+            return;
+        }
+
+        IoBuffer toWrite = batch;
+        batch = null;
+        toWrite.flip();
+
+        waitForScheduledWrites();
+
+        written = toWrite;
+        lastWrite = ioSession.write( toWrite );
+    }
+
+
+    /**
+     * Gets a buffer for a new batch. The buffer of the previous batch is reused if it has
+     * been written, and if it has not been expanded too much by a big response. Heap
+     * buffers are used, as the data are copied into a direct buffer when written to the
+     * socket anyway.
+     */
+    private IoBuffer allocateBatch()
+    {
+        if ( ( written != null ) && lastWrite.isDone() && ( written.capacity() <= 2 * batchSize ) )
+        {
+            IoBuffer reused = written;
+            written = null;
+            reused.clear();
+
+            return reused;
+        }
+
+        IoBuffer buffer = IoBuffer.allocate( batchSize, false );
+        buffer.setAutoExpand( true );
+
+        return buffer;
+    }
+
+
+    /**
+     * Waits until the previous batch has been written, if too many bytes are waiting
+     * to be written on the session. We stop waiting if the session is being closed.
+     */
+    private void waitForScheduledWrites()
+    {
+        while ( ( lastWrite != null ) && ( ioSession.getScheduledWriteBytes() > maxScheduledWriteBytes )
+            && !ioSession.isClosing() )
+        {
+            if ( lastWrite.awaitUninterruptibly( WRITE_WAIT_TIMEOUT ) )
+            {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication;
+
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.codec.api.CodecControl;
+import org.apache.directory.api.ldap.codec.api.LdapApiService;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.ldap.model.ldif.LdifUtils;
+import org.apache.directory.api.ldap.model.message.Control;
+import org.apache.directory.api.ldap.model.message.Message;
+import org.apache.directory.api.ldap.model.message.controls.OpaqueControl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * Utility methods used by the delta synchronization. When it's enabled, a modified entry
+ * is not logged and transmitted in full : we only keep the modifications applied on it,
+ * plus the entry's Dn, entryUUID and entryCSN, so that a small change on a big entry
+ * (like a timestamp update on an entry containing certificates) costs a few bytes.
+ * <p>
+ * The consumer tells the provider that it is able to apply such a delta by adding the
+ * (non critical) delta sync control to its sync request. The provider then sends the
+ * modified entries as a SearchResultEntry containing the Dn, the entryUUID and the entryCSN,
+ * with the syncState control and a delta sync control which value contains the
+ * modifications, as an LDIF modify change. The other consumers get the full entry.
+ * <p>
+ * The modifications are filtered the same way the entries are : a consumer only gets
+ * the modifications of the attributes it has requested.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class DeltaSyncUtils
+{
+    /**
+     * The delta sync control OID. It belongs to the private ApacheDS replication arc, under
+     * the Apache Directory enterprise number : this control is only understood by ApacheDS
+     * servers.
+     */
+    public static final String OID = "1.3.6.1.4.1.18060.0.4.1.9.1";
+
+
+    private DeltaSyncUtils()
+    {
+    }
+
+
+    /**
+     * Tells if a message contains the delta sync control
+     *
+     * @param message The message
+     * @return <tt>true</tt> if the delta sync control is present
+     */
+    public static boolean hasDeltaControl( Message message )
+    {
+        return message.getControls().containsKey( OID );
+    }
+
+
+    /**
+     * Creates the control sent to the provider to request the modified entries as deltas.
+     *
+     * @return The control
+     */
+    public static Control createRequestControl()
+    {
+        return new OpaqueControl( OID );
+    }
+
+
+    /**
+     * Creates the control sent to the consumer with a modified entry, containing the
+     * modifications to apply on it.
+     *
+     * @param codec The LDAP codec service
+     * @param dn The modified entry's Dn
+     * @param modifications The modifications
+     * @return The control
+     * @throws LdapException If the modifications can't be encoded
+     */
+    public static Control createResponseControl( LdapApiService codec, Dn dn, List<Modification> modifications )
+        throws LdapException
+    {
+        CodecControl<? extends Control> control = codec.newResponseControl( new OpaqueControl( OID ) );
+        control.setValue( encodeModifications( dn, modifications ) );
+
+        return control;
+    }
+
+
+    /**
+     * Reads the modifications stored in a delta sync control.
+     *
+     * @param schemaManager The SchemaManager
+     * @param control The received delta sync control
+     * @return The modifications, or null if the control has no value
+     * @throws IOException If the modifications can't be read
+     * @throws LdapException If the modifications can't be parsed, or contain an unknown attribute
+     */
+    public static List<Modification> getModifications( SchemaManager schemaManager, Control control )
+        throws IOException, LdapException
+    {
+        if ( !( control instanceof CodecControl ) )
+        {
+            return null;
+        }
+
+        byte[] value = ( ( CodecControl<?> ) control ).getValue();
+
+        if ( ( value == null ) || ( value.length == 0 ) )
+        {
+            return null;
+        }
+
+        return decodeModifications( schemaManager, value );
+    }
+
+
+    /**
+     * Keeps the modifications of the attributes a consumer has requested, like the
+     * attributes of the entries it gets.
+     *
+     * @param schemaManager The SchemaManager
+     * @param attributes The attributes requested by the consumer
+     * @param modifications The modifications applied on an entry
+     * @return The modifications the consumer has to apply, which may be empty
+     */
+    public static List<Modification> filterModifications( SchemaManager schemaManager, List<String> attributes,
+        List<Modification> modifications )
+    {
+        boolean allUserAttributes = attributes.isEmpty()
+            || attributes.contains( SchemaConstants.ALL_USER_ATTRIBUTES );
+        boolean allOperationalAttributes = attributes.contains( SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES );
+        Set<String> requestedOids = new HashSet<>();
+
+        for ( String attribute : attributes )
+        {
+            AttributeType attributeType = schemaManager.getAttributeType( attribute );
+
+            if ( attributeType != null )
+            {
+                requestedOids.add( attributeType.getOid() );
+            }
+        }
+
+        List<Modification> filtered = new ArrayList<>( modifications.size() );
+
+        for ( Modification modification : modifications )
+        {
+            AttributeType attributeType = modification.getAttribute().getAttributeType();
+
+            if ( attributeType == null )
+            {
+                attributeType = schemaManager.getAttributeType( modification.getAttribute().getId() );
+            }
+
+            if ( attributeType == null )
+            {
+                continue;
+            }
+
+            boolean requested = attributeType.isOperational() ? allOperationalAttributes : allUserAttributes;
+
+            if ( requested || requestedOids.contains( attributeType.getOid() ) )
+            {
+                filtered.add( modification );
+            }
+        }
+
+        return filtered;
+    }
+
+
+    /**
+     * Creates the entry stored in a delta message : only the Dn, the entryUUID and the
+     * entryCSN are kept.
+     *
+     * @param schemaManager The SchemaManager
+     * @param entry The modified entry
+     * @return The delta entry
+     * @throws LdapException If the entry can't be created
+     */
+    public static Entry createDeltaEntry( SchemaManager schemaManager, Entry entry ) throws LdapException
+    {
+        Entry deltaEntry = new DefaultEntry( schemaManager, entry.getDn() );
+        deltaEntry.add( entry.get( SchemaConstants.ENTRY_UUID_AT ).clone() );
+        deltaEntry.add( entry.get( SchemaConstants.ENTRY_CSN_AT ).clone() );
+
+        return deltaEntry;
+    }
+
+
+    /**
+     * Writes a list of modifications in the replication log.
+     *
+     * @param out The output
+     * @param modifications The modifications
+     * @throws IOException If the modifications can't be written
+     */
+    public static void writeModifications( ObjectOutput out, List<Modification> modifications ) throws IOException
+    {
+        out.writeInt( modifications.size() );
+
+        for ( Modification modification : modifications )
+        {
+            modification.writeExternal( out );
+        }
+    }
+
+
+    /**
+     * Reads a list of modifications written by {@link #writeModifications(ObjectOutput, List)}.
+     *
+     * @param in The input
+     * @param schemaManager The SchemaManager
+     * @return The modifications
+     * @throws IOException If the modifications can't be read
+     * @throws LdapException If the modifications contain an unknown attribute
+     */
+    public static List<Modification> readModifications( ObjectInput in, SchemaManager schemaManager )
+        throws IOException, LdapException
+    {
+        int nbModifications = in.readInt();
+        List<Modification> modifications = new ArrayList<>( nbModifications );
+
+        try
+        {
+            for ( int i = 0; i < nbModifications; i++ )
+            {
+                Modification modification = new DefaultModification();
+                modification.readExternal( in );
+                modifications.add( new DefaultModification( schemaManager, modification ) );
+            }
+        }
+        catch ( ClassNotFoundException cnfe )
+        {
+            throw new IOException( cnfe.getMessage(), cnfe );
+        }
+
+        return modifications;
+    }
+
+
+    /**
+     * Encodes a list of modifications as an LDIF modify change, in UTF-8.
+     *
+     * @param dn The modified entry's Dn
+     * @param modifications The modifications
+     * @return The encoded modifications
+     * @throws LdapException If the modifications can't be encoded
+     */
+    public static byte[] encodeModifications( Dn dn, List<Modification> modifications ) throws LdapException
+    {
+        LdifEntry change = new LdifEntry();
+        change.setChangeType( ChangeType.Modify );
+        change.setDn( dn );
+
+        for ( Modification modification : modifications )
+        {
+            change.addModification( modification );
+        }
+
+        return Strings.getBytesUtf8( LdifUtils.convertToLdif( change ) + "\n" );
+    }
+
+
+    /**
+     * Decodes a list of modifications encoded by {@link #encodeModifications(Dn, List)}.
+     *
+     * @param schemaManager The SchemaManager
+     * @param bytes The encoded modifications
+     * @return The modifications
+     * @throws IOException If the modifications can't be read
+     * @throws LdapException If the modifications can't be parsed, or contain an unknown attribute
+     */
+    public static List<Modification> decodeModifications( SchemaManager schemaManager, byte[] bytes )
+        throws IOException, LdapException
+    {
+        try ( LdifReader reader = new LdifReader( schemaManager ) )
+        {
+            List<LdifEntry> changes = reader.parseLdif( Strings.utf8ToString( bytes ) );
+
+            if ( ( changes.size() != 1 ) || !changes.get( 0 ).isChangeModify() )
+            {
+                throw new LdapException( "The delta sync control does not contain a modify change" );
+            }
+
+            List<Modification> modifications = new ArrayList<>();
+
+            for ( Modification modification : changes.get( 0 ).getModifications() )
+            {
+                modifications.add( new DefaultModification( schemaManager, modification ) );
+            }
+
+            return modifications;
+        }
+    }
+}
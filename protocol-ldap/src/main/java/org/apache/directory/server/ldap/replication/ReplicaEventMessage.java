@@ -21,8 +21,11 @@
 package org.apache.directory.server.ldap.replication;
 
 
+import java.util.List;
+
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.controls.ChangeType;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
@@ -41,6 +44,9 @@ public class ReplicaEventMessage
     /** The entry */
     private Entry entry;
 
+    /** The modifications, for a delta modify message */
+    private List<Modification> modifications;
+
     /**
      * Create a new ReplicaEvent instance for a Add/Delete+Modify operation
      * @param changeType The change type
@@ -61,6 +67,21 @@ public class ReplicaEventMessage
     }
 
 
+    /**
+     * Create a new ReplicaEvent instance for a delta Modify operation. The entry only
+     * contains the Dn, the entryUUID and the entryCSN of the modified entry.
+     *
+     * @param entry The delta entry
+     * @param modifications The modifications applied on the entry
+     * @see DeltaSyncUtils#createDeltaEntry(org.apache.directory.api.ldap.model.schema.SchemaManager, Entry)
+     */
+    public ReplicaEventMessage( Entry entry, List<Modification> modifications )
+    {
+        this( ChangeType.MODIFY, entry );
+        this.modifications = modifications;
+    }
+
+
     /**
      * @return The changeType
      */
@@ -79,6 +100,24 @@ public class ReplicaEventMessage
     }
 
 
+    /**
+     * @return The modifications applied on the entry, if this is a delta message
+     */
+    public List<Modification> getModifications()
+    {
+        return modifications;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if this message only contains the modifications applied on the entry
+     */
+    public boolean isDelta()
+    {
+        return modifications != null;
+    }
+
+
     /**
      * checks if the event's CSN is older than the given CSN
      *
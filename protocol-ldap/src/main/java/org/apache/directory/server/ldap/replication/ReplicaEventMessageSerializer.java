@@ -26,11 +26,14 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.util.List;
 
 import jdbm.helper.Serializer;
 
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.controls.ChangeType;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
@@ -44,7 +47,10 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
  * <li>byte : EventType</li>
  * <li>byte[] : the serialized DN</li>
  * <li>byte[] : the serialized entry</li>
+ * <li>int + byte[]... : the number of modifications and the serialized modifications, for a delta message</li>
  * </ul>
+ * A delta message has the 0x40 bit set in the EventType byte, so that the
+ * messages serialized before the delta sync was introduced can still be read.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -53,6 +59,9 @@ public class ReplicaEventMessageSerializer implements Serializer
     /** The serialVersionUID */
     private static final long serialVersionUID = 1L;
 
+    /** The flag added to the EventType of a delta message */
+    private static final byte DELTA_FLAG = 0x40;
+
     /** The schemaManager */
     private transient SchemaManager schemaManager;
 
@@ -83,7 +92,14 @@ public class ReplicaEventMessageSerializer implements Serializer
         {
 
             // The change type first
-            out.writeByte( changeType.getValue() );
+            if ( replicaEventMessage.isDelta() )
+            {
+                out.writeByte( changeType.getValue() | DELTA_FLAG );
+            }
+            else
+            {
+                out.writeByte( changeType.getValue() );
+            }
 
             // The entry DN
             entry.getDn().writeExternal( out );
@@ -91,6 +107,12 @@ public class ReplicaEventMessageSerializer implements Serializer
             // The entry
             entry.writeExternal( out );
 
+            // The modifications
+            if ( replicaEventMessage.isDelta() )
+            {
+                DeltaSyncUtils.writeModifications( out, replicaEventMessage.getModifications() );
+            }
+
             out.flush();
 
             return baos.toByteArray();
@@ -115,7 +137,8 @@ public class ReplicaEventMessageSerializer implements Serializer
         {
             // The changeType
             byte type = in.readByte();
-            ChangeType changeType = ChangeType.getChangeType( type );
+            boolean isDelta = ( type & DELTA_FLAG ) != 0;
+            ChangeType changeType = ChangeType.getChangeType( ( byte ) ( type & ~DELTA_FLAG ) );
 
             // The Entry's DN
             Dn entryDn = new Dn( schemaManager );
@@ -127,12 +150,24 @@ public class ReplicaEventMessageSerializer implements Serializer
             entry.setDn( entryDn );
 
             // And create a ReplicaEventMessage
-            replicaEventMessage = new ReplicaEventMessage( changeType, entry );
+            if ( isDelta )
+            {
+                List<Modification> modifications = DeltaSyncUtils.readModifications( in, schemaManager );
+                replicaEventMessage = new ReplicaEventMessage( entry, modifications );
+            }
+            else
+            {
+                replicaEventMessage = new ReplicaEventMessage( changeType, entry );
+            }
         }
         catch ( ClassNotFoundException cnfe )
         {
             // there is nothing we can do here...
         }
+        catch ( LdapException le )
+        {
+            throw new IOException( le.getMessage(), le );
+        }
 
         return replicaEventMessage;
     }
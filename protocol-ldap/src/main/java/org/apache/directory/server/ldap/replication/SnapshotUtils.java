@@ -0,0 +1,181 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.Control;
+import org.apache.directory.api.ldap.model.message.IntermediateResponse;
+import org.apache.directory.api.ldap.model.message.Message;
+import org.apache.directory.api.ldap.model.message.controls.OpaqueControl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.partition.impl.btree.CompactEntrySerializer;
+
+
+/**
+ * Utility methods used by the snapshot based initial refresh. Instead of sending each
+ * entry of the initial content in its own SearchResultEntry, the provider reads them
+ * from the partition's master table and sends them in frames : IntermediateResponses
+ * which name is the snapshot OID, and which value contains a batch of entries encoded
+ * with the {@link CompactEntrySerializer}.
+ * <p>
+ * The consumer tells the provider that it is able to load such frames by adding the
+ * (non critical) snapshot control to its sync request. The frame format is :
+ * <ul>
+ *   <li><b>[version]</b> : the frame format version, currently 1</li>
+ *   <li>For each entry, until the end of the frame :
+ *     <ul>
+ *       <li><b>[dn]</b> : the entry's Dn, as a length prefixed UTF-8 string</li>
+ *       <li><b>[entry]</b> : the length prefixed compact serialized entry</li>
+ *     </ul>
+ *   </li>
+ * </ul>
+ * The entries are sent parents first, so that they can be added in the received order.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class SnapshotUtils
+{
+    /** The snapshot control OID, also used as the frames response name */
+    public static final String OID = "1.3.6.1.4.1.18060.0.0.3";
+
+    /** The frame format version */
+    public static final byte VERSION = 1;
+
+    /** The number of bytes after which a frame is sent */
+    public static final int FRAME_SIZE = 256 * 1024;
+
+
+    private SnapshotUtils()
+    {
+    }
+
+
+    /**
+     * Tells if a message contains the snapshot control
+     *
+     * @param message The message
+     * @return <tt>true</tt> if the snapshot control is present
+     */
+    public static boolean hasSnapshotControl( Message message )
+    {
+        return message.getControls().containsKey( OID );
+    }
+
+
+    /**
+     * Creates the control sent to the provider to request a snapshot based initial refresh.
+     *
+     * @return The control
+     */
+    public static Control createRequestControl()
+    {
+        return new OpaqueControl( OID );
+    }
+
+
+    /**
+     * Tells if an intermediate response is a snapshot frame
+     *
+     * @param response The intermediate response
+     * @return <tt>true</tt> if the response contains some snapshot entries
+     */
+    public static boolean isFrame( IntermediateResponse response )
+    {
+        return OID.equals( response.getResponseName() );
+    }
+
+
+    /**
+     * Writes an entry in a frame.
+     *
+     * @param out The frame being built
+     * @param serializer The serializer used to encode the entry
+     * @param entry The entry
+     * @throws IOException If the entry can't be serialized
+     */
+    public static void writeEntry( DataOutput out, CompactEntrySerializer serializer, Entry entry ) throws IOException
+    {
+        byte[] dnBytes = Strings.getBytesUtf8( entry.getDn().getName() );
+        byte[] entryBytes = serializer.serialize( entry );
+
+        out.writeInt( dnBytes.length );
+        out.write( dnBytes );
+        out.writeInt( entryBytes.length );
+        out.write( entryBytes );
+    }
+
+
+    /**
+     * Reads the entries stored in a frame.
+     *
+     * @param schemaManager The SchemaManager
+     * @param serializer The serializer used to decode the entries
+     * @param frame The frame
+     * @return The entries, in the order they were sent
+     * @throws IOException If the frame is invalid
+     * @throws LdapException If an entry Dn is invalid
+     */
+    public static List<Entry> readEntries( SchemaManager schemaManager, CompactEntrySerializer serializer,
+        byte[] frame ) throws IOException, LdapException
+    {
+        List<Entry> entries = new ArrayList<>();
+
+        if ( ( frame == null ) || ( frame.length == 0 ) )
+        {
+            return entries;
+        }
+
+        try ( DataInputStream in = new DataInputStream( new ByteArrayInputStream( frame ) ) )
+        {
+            byte version = in.readByte();
+
+            if ( version != VERSION )
+            {
+                throw new IOException( "Unsupported snapshot frame version " + version );
+            }
+
+            while ( in.available() > 0 )
+            {
+                byte[] dnBytes = new byte[in.readInt()];
+                in.readFully( dnBytes );
+
+                byte[] entryBytes = new byte[in.readInt()];
+                in.readFully( entryBytes );
+
+                Entry entry = serializer.deserialize( entryBytes );
+                entry.setDn( new Dn( schemaManager, Strings.utf8ToString( dnBytes ) ) );
+                entries.add( entry );
+            }
+        }
+
+        return entries;
+    }
+}
@@ -133,6 +133,18 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     /** flag to indicate if this node is part of a MMR setup, default value is true */
     private boolean mmrMode = true;
 
+    /** flag to indicate if the modified entries are requested as deltas, default value is false */
+    private boolean deltaSync = false;
+
+    /** the number of threads applying the received changes. 1 (the default) applies them in the reading thread */
+    private int applyThreads = 1;
+
+    /** the number of applied changes after which the cookie is stored */
+    private int applyBatchSize = 100;
+
+    /** a flag to request the initial content as a snapshot */
+    private boolean snapshotRefresh = false;
+
 
     /**
      * Creates a new instance of SyncreplConfiguration
@@ -580,6 +592,98 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     }
 
 
+    /**
+     * @return true if the modified entries are requested as deltas
+     */
+    public boolean isDeltaSync()
+    {
+        return deltaSync;
+    }
+
+
+    /**
+     * enable/disable the delta sync. When enabled, the provider sends the modifications
+     * applied on an entry instead of the full modified entry, if it supports it.
+     *
+     * @param deltaSync The delta sync flag
+     */
+    public void setDeltaSync( boolean deltaSync )
+    {
+        this.deltaSync = deltaSync;
+    }
+
+
+    /**
+     * @return the number of threads applying the received changes
+     */
+    public int getApplyThreads()
+    {
+        return applyThreads;
+    }
+
+
+    /**
+     * Sets the number of threads applying the received changes. The changes done on
+     * the same entry, or on an entry and its parent, are always applied in the order
+     * they were received. A value of 1 or lower, the default, applies the changes one by
+     * one, as they are received.
+     * <p>
+     * The changes applied in parallel must be isolated from each other by the partition :
+     * it's not the case of the JDBM and Mavibot partitions, which commit or roll back all
+     * the pending writes at once.
+     *
+     * @param applyThreads The number of threads
+     */
+    public void setApplyThreads( int applyThreads )
+    {
+        this.applyThreads = applyThreads;
+    }
+
+
+    /**
+     * @return the number of applied changes after which the cookie is stored
+     */
+    public int getApplyBatchSize()
+    {
+        return applyBatchSize;
+    }
+
+
+    /**
+     * Sets the number of applied changes after which the cookie is stored, when the changes
+     * are applied by more than one thread. The cookie is also stored when all the received
+     * changes have been applied.
+     *
+     * @param applyBatchSize The number of changes
+     */
+    public void setApplyBatchSize( int applyBatchSize )
+    {
+        this.applyBatchSize = applyBatchSize;
+    }
+
+
+    /**
+     * @return true if the initial content is requested as a snapshot
+     */
+    public boolean isSnapshotRefresh()
+    {
+        return snapshotRefresh;
+    }
+
+
+    /**
+     * enable/disable the snapshot based initial refresh. When enabled, the provider sends
+     * the initial content read directly from its partition, in frames containing many
+     * entries, if it supports it.
+     *
+     * @param snapshotRefresh The snapshot refresh flag
+     */
+    public void setSnapshotRefresh( boolean snapshotRefresh )
+    {
+        this.snapshotRefresh = snapshotRefresh;
+    }
+
+
     public String toString()
     {
         StringBuilder sb = new StringBuilder();
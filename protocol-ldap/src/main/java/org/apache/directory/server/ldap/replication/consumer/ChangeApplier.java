@@ -0,0 +1,473 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.consumer;
+
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Applies the changes received by a consumer using a pool of worker threads. Each worker
+ * has its own queue, and the changes are dispatched so that the changes done on the
+ * same entry, or on an entry and its parent, are applied by the same worker, in the
+ * order they were received :
+ * <ul>
+ *   <li>a change on an entry which has a change being applied goes to the same worker</li>
+ *   <li>otherwise, a change on an entry which parent has a change being applied goes to
+ *   the parent's worker</li>
+ *   <li>otherwise, the worker is selected using the entryUUID</li>
+ * </ul>
+ * The changes which can't be dispatched this way (renames, deletions) must be applied
+ * after a call to {@link #drain()}.
+ * <p>
+ * The cookies received with the changes are not stored for each change : a cookie is
+ * committed when all the changes received before it have been applied, every
+ * <em>batchSize</em> changes, or when all the received changes have been applied.
+ * <p>
+ * When a change can't be applied, no cookie received with or after it is committed, and
+ * the changes not yet applied are skipped : the applier is marked as failed (see
+ * {@link #isFailed()}), and the consumer must refresh its content from the last committed
+ * cookie, after a call to {@link #drain()} and {@link #reset()}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ChangeApplier
+{
+    /** A dedicated logger for the consumer */
+    private static final Logger CONSUMER_LOG = LoggerFactory.getLogger( Loggers.CONSUMER_LOG.getName() );
+
+    /** The number of changes each worker queue can hold before the reader is blocked */
+    private static final int QUEUE_SIZE = 256;
+
+    /**
+     * The interface used to commit a cookie, when all the changes received with or
+     * before it have been applied
+     */
+    public interface CookieCommitter
+    {
+        /**
+         * Commits a cookie
+         *
+         * @param cookie The cookie to store
+         */
+        void commit( byte[] cookie );
+    }
+
+
+    /**
+     * A change to apply
+     */
+    public interface Task
+    {
+        /**
+         * Applies the change
+         *
+         * @throws Exception If the change can't be applied
+         */
+        void apply() throws Exception;
+    }
+
+    /** The workers */
+    private final Worker[] workers;
+
+    /** The number of applied changes after which a cookie is committed */
+    private final int batchSize;
+
+    /** The cookie committer */
+    private final CookieCommitter committer;
+
+    /** The entries having changes being applied, and the worker applying them, per normalized Dn */
+    private final Map<String, InFlight> inFlight = new HashMap<>();
+
+    /** The sequence number of the last submitted change */
+    private long lastSubmitted;
+
+    /** All the changes up to this sequence number have been applied */
+    private long completedUpTo;
+
+    /** The number of changes applied, failed or skipped */
+    private long nbFinished;
+
+    /** A flag set when a change can't be applied */
+    private volatile boolean failed;
+
+    /** The changes applied while some previous changes are still pending */
+    private final PriorityQueue<Long> completed = new PriorityQueue<>();
+
+    /** The cookies received with the changes not yet applied, per sequence number */
+    private final TreeMap<Long, byte[]> cookies = new TreeMap<>();
+
+    /** The last cookie which can be committed */
+    private byte[] pendingCookie;
+
+    /** The sequence number of the change which cookie was last committed */
+    private long lastCommitted;
+
+    /** A flag set when the applier is stopped */
+    private volatile boolean stopped;
+
+
+    /**
+     * The changes being applied on an entry
+     */
+    private static class InFlight
+    {
+        /** The worker applying the changes */
+        private final int worker;
+
+        /** The number of changes */
+        private int count;
+
+
+        private InFlight( int worker )
+        {
+            this.worker = worker;
+        }
+    }
+
+
+    /**
+     * A change to apply
+     */
+    private static class Change
+    {
+        /** The change sequence number */
+        private final long sequence;
+
+        /** The normalized Dn of the changed entry */
+        private final String dnKey;
+
+        /** The change itself */
+        private final Task task;
+
+
+        private Change( long sequence, String dnKey, Task task )
+        {
+            this.sequence = sequence;
+            this.dnKey = dnKey;
+            this.task = task;
+        }
+    }
+
+
+    /**
+     * A worker, applying the changes of its queue one by one
+     */
+    private class Worker extends Thread
+    {
+        /** The changes to apply */
+        private final BlockingQueue<Change> queue = new LinkedBlockingQueue<>( QUEUE_SIZE );
+
+
+        private Worker( String name )
+        {
+            super( name );
+            setDaemon( true );
+        }
+
+
+        @Override
+        public void run()
+        {
+            while ( !stopped )
+            {
+                Change change;
+
+                try
+                {
+                    change = queue.take();
+                }
+                catch ( InterruptedException ie )
+                {
+                    break;
+                }
+
+                boolean applied = false;
+
+                try
+                {
+                    // Once a change has failed, the next ones will be received again
+                    if ( !failed )
+                    {
+                        change.task.apply();
+                        applied = true;
+                    }
+                }
+                catch ( Exception e )
+                {
+                    CONSUMER_LOG.error( "Failed to apply a change on {}", change.dnKey, e );
+                }
+                finally
+                {
+                    completed( change, applied );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Creates a new instance of ChangeApplier, and starts its workers.
+     *
+     * @param name The name of the applier, used to name the worker threads
+     * @param nbWorkers The number of workers
+     * @param batchSize The number of applied changes after which a cookie is committed
+     * @param committer The cookie committer
+     */
+    public ChangeApplier( String name, int nbWorkers, int batchSize, CookieCommitter committer )
+    {
+        this.batchSize = Math.max( 1, batchSize );
+        this.committer = committer;
+
+        workers = new Worker[Math.max( 1, nbWorkers )];
+
+        for ( int i = 0; i < workers.length; i++ )
+        {
+            workers[i] = new Worker( name + "-" + i );
+            workers[i].start();
+        }
+    }
+
+
+    /**
+     * Submits a change. This method blocks if the selected worker has too many changes to
+     * apply. It must always be called by the same thread.
+     *
+     * @param dn The Dn of the changed entry
+     * @param uuid The entryUUID of the changed entry
+     * @param cookie The cookie received with the change, if any
+     * @param task The change to apply
+     * @throws InterruptedException If the thread was interrupted while waiting for a worker
+     */
+    public void submit( Dn dn, String uuid, byte[] cookie, Task task ) throws InterruptedException
+    {
+        String dnKey = dn.getNormName();
+        Change change;
+        int worker;
+
+        synchronized ( this )
+        {
+            InFlight entryInFlight = inFlight.get( dnKey );
+
+            if ( entryInFlight == null )
+            {
+                InFlight parentInFlight = null;
+
+                if ( !dn.isRoot() )
+                {
+                    parentInFlight = inFlight.get( dn.getParent().getNormName() );
+                }
+
+                if ( parentInFlight != null )
+                {
+                    worker = parentInFlight.worker;
+                }
+                else
+                {
+                    worker = ( uuid.hashCode() & Integer.MAX_VALUE ) % workers.length;
+                }
+
+                entryInFlight = new InFlight( worker );
+                inFlight.put( dnKey, entryInFlight );
+            }
+            else
+            {
+                worker = entryInFlight.worker;
+            }
+
+            entryInFlight.count++;
+            lastSubmitted++;
+            change = new Change( lastSubmitted, dnKey, task );
+
+            if ( cookie != null )
+            {
+                cookies.put( lastSubmitted, cookie );
+            }
+        }
+
+        // Outside of the lock, the workers must be able to complete the changes while we wait
+        workers[worker].queue.put( change );
+    }
+
+
+    /**
+     * Called by a worker when a change has been applied, or has failed or been skipped
+     */
+    private synchronized void completed( Change change, boolean applied )
+    {
+        InFlight entryInFlight = inFlight.get( change.dnKey );
+
+        if ( ( entryInFlight != null ) && ( --entryInFlight.count == 0 ) )
+        {
+            inFlight.remove( change.dnKey );
+        }
+
+        nbFinished++;
+
+        if ( !applied )
+        {
+            // The committed sequence will never go past this change
+            failed = true;
+            notifyAll();
+
+            return;
+        }
+
+        completed.add( change.sequence );
+
+        while ( !completed.isEmpty() && ( completed.peek() == completedUpTo + 1 ) )
+        {
+            completed.poll();
+            completedUpTo++;
+        }
+
+        Map.Entry<Long, byte[]> cookie = cookies.floorEntry( completedUpTo );
+
+        if ( cookie != null )
+        {
+            pendingCookie = cookie.getValue();
+            cookies.headMap( completedUpTo, true ).clear();
+        }
+
+        if ( ( pendingCookie != null )
+            && ( ( completedUpTo - lastCommitted >= batchSize ) || ( completedUpTo == lastSubmitted ) ) )
+        {
+            commit();
+        }
+
+        notifyAll();
+    }
+
+
+    /**
+     * Commits the pending cookie. Must be called while holding the lock.
+     */
+    private void commit()
+    {
+        byte[] cookie = pendingCookie;
+        pendingCookie = null;
+        lastCommitted = completedUpTo;
+
+        try
+        {
+            committer.commit( cookie );
+        }
+        catch ( RuntimeException re )
+        {
+            CONSUMER_LOG.error( "Failed to commit the cookie", re );
+        }
+    }
+
+
+    /**
+     * Waits until all the submitted changes have been applied (or skipped, if a change
+     * has failed), and commits the last cookie which can be committed.
+     *
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public synchronized void drain() throws InterruptedException
+    {
+        while ( ( nbFinished < lastSubmitted ) && !stopped )
+        {
+            wait();
+        }
+
+        if ( pendingCookie != null )
+        {
+            commit();
+        }
+    }
+
+
+    /**
+     * @return <tt>true</tt> if a change could not be applied since the last reset
+     */
+    public boolean isFailed()
+    {
+        return failed;
+    }
+
+
+    /**
+     * Forgets the submitted changes and their cookies, after a failure. It must be called
+     * after {@link #drain()}, before submitting the changes received again.
+     */
+    public synchronized void reset()
+    {
+        inFlight.clear();
+        completed.clear();
+        cookies.clear();
+        pendingCookie = null;
+        lastSubmitted = 0L;
+        completedUpTo = 0L;
+        lastCommitted = 0L;
+        nbFinished = 0L;
+        failed = false;
+    }
+
+
+    /**
+     * @return the number of changes submitted and not yet applied, failed or skipped
+     */
+    public synchronized long getPendingCount()
+    {
+        return lastSubmitted - nbFinished;
+    }
+
+
+    /**
+     * Stops the workers. The changes not yet applied are lost.
+     */
+    public void stop()
+    {
+        stopped = true;
+
+        for ( Worker worker : workers )
+        {
+            worker.interrupt();
+        }
+
+        synchronized ( this )
+        {
+            notifyAll();
+        }
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public synchronized String toString()
+    {
+        return "ChangeApplier[workers=" + workers.length + ", submitted=" + lastSubmitted + ", applied="
+            + completedUpTo + ", failed=" + failed + "]";
+    }
+}
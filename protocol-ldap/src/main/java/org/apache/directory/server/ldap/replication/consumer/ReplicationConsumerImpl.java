@@ -24,9 +24,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
-import org.apache.commons.collections4.map.LRUMap;
 import org.apache.directory.api.ldap.codec.controls.manageDsaIT.ManageDsaITDecorator;
 import org.apache.directory.api.ldap.extras.controls.SynchronizationModeEnum;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncDone.SyncDoneValue;
@@ -57,6 +55,7 @@ import org.apache.directory.api.ldap.model.filter.NotNode;
 import org.apache.directory.api.ldap.model.filter.OrNode;
 import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.message.IntermediateResponse;
 import org.apache.directory.api.ldap.model.message.Response;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
@@ -92,8 +91,11 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.btree.CompactEntrySerializer;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
+import org.apache.directory.server.ldap.replication.DeltaSyncUtils;
 import org.apache.directory.server.ldap.replication.ReplicationConsumerConfig;
+import org.apache.directory.server.ldap.replication.SnapshotUtils;
 import org.apache.directory.server.ldap.replication.SyncReplConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -164,7 +166,28 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     private AttributeType adsReplCookieAT;
     private AttributeType adsDsReplicaIdAT;
 
-    private static final Map<String, Object> UUID_LOCK_MAP = new LRUMap( 1000 );
+    /** The number of locks used to serialize the updates done on the same entry by several consumers */
+    private static final int NB_UUID_LOCKS = 256;
+
+    /** The locks, selected using the entryUUID */
+    private static final Object[] UUID_LOCKS = new Object[NB_UUID_LOCKS];
+
+    /** The applier used to apply the changes in parallel, null if they are applied as they are received */
+    private ChangeApplier applier;
+
+    /** A flag set when a change applied as it was received could not be applied */
+    private boolean applyFailed;
+
+    /** The serializer used to read the snapshot entries */
+    private CompactEntrySerializer snapshotSerializer;
+
+    static
+    {
+        for ( int i = 0; i < NB_UUID_LOCKS; i++ )
+        {
+            UUID_LOCKS[i] = new Object();
+        }
+    }
 
 
     /**
@@ -200,6 +223,21 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         ridMod = new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, ridAttr );
 
         prepareSyncSearchRequest();
+
+        snapshotSerializer = new CompactEntrySerializer( schemaManager );
+
+        if ( config.getApplyThreads() > 1 )
+        {
+            applier = new ChangeApplier( "ReplicaApplier-" + config.getReplicaId(), config.getApplyThreads(),
+                config.getApplyBatchSize(), new ChangeApplier.CookieCommitter()
+                {
+                    @Override
+                    public void commit( byte[] cookie )
+                    {
+                        storeCookie( cookie );
+                    }
+                } );
+        }
     }
 
 
@@ -299,6 +337,16 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
                 new ManageDsaITImpl() ) );
         }
 
+        if ( config.isDeltaSync() )
+        {
+            searchRequest.addControl( DeltaSyncUtils.createRequestControl() );
+        }
+
+        if ( config.isSnapshotRefresh() )
+        {
+            searchRequest.addControl( SnapshotUtils.createRequestControl() );
+        }
+
         if ( CONSUMER_LOG.isDebugEnabled() )
         {
             MDC.put( "Replica", Integer.toString( config.getReplicaId() ) );
@@ -343,131 +391,315 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
      * - Moddn
      * - Delete
      * - Present
+     * When the changes are applied in parallel, the additions and modifications are
+     * submitted to the applier. The other changes depend on the whole subtree of the
+     * changed entry : we wait for all the submitted changes to be applied first.
+     * 
      * @param syncResult
      */
-    private void handleSearchResultEntry( SearchResultEntry syncResult )
+    private void handleSearchResultEntry( final SearchResultEntry syncResult )
     {
         CONSUMER_LOG.debug( "------------- starting handleSearchResult ------------" );
 
-        SyncStateValue syncStateCtrl = ( SyncStateValue ) syncResult.getControl( SyncStateValue.OID );
+        final SyncStateValue syncStateCtrl = ( SyncStateValue ) syncResult.getControl( SyncStateValue.OID );
 
         try
         {
-            Entry remoteEntry = new DefaultEntry( schemaManager, syncResult.getEntry() );
-            String uuid = remoteEntry.get( directoryService.getAtProvider().getEntryUUID() ).getString();
-            // lock on UUID to serialize the updates when there are multiple consumers
-            // connected to several producers and to the *same* base/partition
-            Object lock = getLockFor( uuid );
+            final Entry remoteEntry = new DefaultEntry( schemaManager, syncResult.getEntry() );
+            final String uuid = remoteEntry.get( directoryService.getAtProvider().getEntryUUID() ).getString();
+            final byte[] cookie = syncStateCtrl.getCookie();
+            int replicaId = -1;
+
+            if ( cookie != null )
+            {
+                replicaId = LdapProtocolUtils.getReplicaId( Strings.utf8ToString( cookie ) );
+                CONSUMER_LOG.debug( "received the cookie from sync state value control: {}",
+                    Strings.utf8ToString( cookie ) );
+            }
+
+            final int rid = replicaId;
+            final SyncStateTypeEnum state = syncStateCtrl.getSyncStateType();
+
+            // check to avoid conversion of UUID from byte[] to String
+            if ( CONSUMER_LOG.isDebugEnabled() )
+            {
+                CONSUMER_LOG.debug( "state name {}", state.name() );
+                CONSUMER_LOG.debug( "entryUUID = {}", Strings.uuidToString( syncStateCtrl.getEntryUUID() ) );
+            }
 
-            synchronized ( lock )
+            boolean parallel = ( state == SyncStateTypeEnum.ADD ) || ( state == SyncStateTypeEnum.MODIFY );
+
+            if ( ( applier != null ) && parallel )
+            {
+                // The cookie will be committed by the applier, if the change is applied
+                applier.submit( remoteEntry.getDn(), uuid, cookie, new ChangeApplier.Task()
+                {
+                    @Override
+                    public void apply() throws Exception
+                    {
+                        applyChange( state, remoteEntry, uuid, syncStateCtrl, syncResult, rid );
+                    }
+                } );
+            }
+            else
             {
-                int rid = -1;
+                drainChanges();
 
-                if ( syncStateCtrl.getCookie() != null )
+                if ( isApplyFailed() )
                 {
-                    syncCookie = syncStateCtrl.getCookie();
-                    rid = LdapProtocolUtils.getReplicaId( Strings.utf8ToString( syncCookie ) );
-                    CONSUMER_LOG.debug( "assigning the cookie from sync state value control: {}",
-                        Strings.utf8ToString( syncCookie ) );
+                    // The change will be received again
+                    return;
                 }
 
-                SyncStateTypeEnum state = syncStateCtrl.getSyncStateType();
+                applyChange( state, remoteEntry, uuid, syncStateCtrl, syncResult, rid );
 
-                // check to avoid conversion of UUID from byte[] to String
-                if ( CONSUMER_LOG.isDebugEnabled() )
+                // store the cookie only if the above operation was successful
+                if ( cookie != null )
                 {
-                    CONSUMER_LOG.debug( "state name {}", state.name() );
-                    CONSUMER_LOG.debug( "entryUUID = {}", Strings.uuidToString( syncStateCtrl.getEntryUUID() ) );
+                    storeCookie( cookie );
                 }
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            CONSUMER_LOG.warn( "Interrupted while submitting a change" );
+        }
+        catch ( Exception e )
+        {
+            CONSUMER_LOG.error( e.getMessage(), e );
+            applyFailed = true;
+        }
 
-                Dn remoteDn = remoteEntry.getDn();
+        CONSUMER_LOG.debug( "------------- Ending handleSearchResult ------------" );
+    }
 
-                switch ( state )
-                {
-                    case ADD:
-                        boolean remoteDnExist = false;
 
-                        try
-                        {
-                            remoteDnExist = session.exists( remoteDn );
-                        }
-                        catch ( LdapNoSuchObjectException lnsoe )
-                        {
-                            CONSUMER_LOG.error( lnsoe.getMessage() );
-                        }
+    /**
+     * Applies a change received from the provider.
+     */
+    private void applyChange( SyncStateTypeEnum state, Entry remoteEntry, String uuid, SyncStateValue syncStateCtrl,
+        SearchResultEntry syncResult, int rid ) throws Exception
+    {
+        // lock on UUID to serialize the updates when there are multiple consumers
+        // connected to several producers and to the *same* base/partition
+        Object lock = getLockFor( uuid );
 
-                        if ( !remoteDnExist )
-                        {
-                            CONSUMER_LOG.debug( "adding entry with dn {}", remoteDn );
-                            CONSUMER_LOG.debug( remoteEntry.toString() );
-                            AddOperationContext addContext = new AddOperationContext( session, remoteEntry );
-                            addContext.setReplEvent( true );
-                            addContext.setRid( rid );
-
-                            OperationManager operationManager = directoryService.getOperationManager();
-                            operationManager.add( addContext );
-                        }
-                        else
-                        {
-                            CONSUMER_LOG.debug( "updating entry in refreshOnly mode {}", remoteDn );
-                            modify( remoteEntry, rid );
-                        }
+        synchronized ( lock )
+        {
+            Dn remoteDn = remoteEntry.getDn();
 
-                        break;
+            switch ( state )
+            {
+                case ADD:
+                    applyAdd( remoteEntry, rid );
+
+                    break;
 
-                    case MODIFY:
-                        CONSUMER_LOG.debug( "modifying entry with dn {}", remoteEntry.getDn().getName() );
+                case MODIFY:
+                    CONSUMER_LOG.debug( "modifying entry with dn {}", remoteEntry.getDn().getName() );
+                    Control deltaControl = syncResult.getControl( DeltaSyncUtils.OID );
+
+                    if ( deltaControl != null )
+                    {
+                        applyDelta( remoteEntry, deltaControl, rid );
+                    }
+                    else
+                    {
                         modify( remoteEntry, rid );
+                    }
+
+                    break;
+
+                case MODDN:
+                    String entryUuid = Strings.uuidToString( syncStateCtrl.getEntryUUID() );
+                    applyModDnOperation( remoteEntry, entryUuid, rid );
+
+                    break;
+
+                case DELETE:
+                    CONSUMER_LOG.debug( "deleting entry with dn {}", remoteEntry.getDn().getName() );
+
+                    if ( !session.exists( remoteDn ) )
+                    {
+                        CONSUMER_LOG
+                            .debug(
+                                "looks like entry {} was already deleted in a prior update (possibly from another provider), skipping delete",
+                                remoteDn );
+                    }
+                    else
+                    {
+                        // incase of a MODDN operation resulting in a branch to be moved out of scope
+                        // ApacheDS replication provider sends a single delete event on the Dn of the moved branch
+                        // so the branch needs to be recursively deleted here
+                        deleteRecursive( remoteEntry.getDn(), rid );
+                    }
+
+                    break;
+
+                case PRESENT:
+                    CONSUMER_LOG.debug( "entry present {}", remoteEntry );
+                    break;
+
+                default:
+                    throw new IllegalArgumentException( "Unexpected sync state " + state );
+            }
+        }
+    }
 
-                        break;
 
-                    case MODDN:
-                        String entryUuid = Strings.uuidToString( syncStateCtrl.getEntryUUID() );
-                        applyModDnOperation( remoteEntry, entryUuid, rid );
+    /**
+     * Adds an entry, or updates it if it already exists.
+     */
+    private void applyAdd( Entry remoteEntry, int rid ) throws Exception
+    {
+        Dn remoteDn = remoteEntry.getDn();
+        boolean remoteDnExist = false;
+
+        try
+        {
+            remoteDnExist = session.exists( remoteDn );
+        }
+        catch ( LdapNoSuchObjectException lnsoe )
+        {
+            CONSUMER_LOG.error( lnsoe.getMessage() );
+        }
+
+        if ( !remoteDnExist )
+        {
+            CONSUMER_LOG.debug( "adding entry with dn {}", remoteDn );
+            CONSUMER_LOG.debug( remoteEntry.toString() );
+            AddOperationContext addContext = new AddOperationContext( session, remoteEntry );
+            addContext.setReplEvent( true );
+            addContext.setRid( rid );
 
-                        break;
+            OperationManager operationManager = directoryService.getOperationManager();
+            operationManager.add( addContext );
+        }
+        else
+        {
+            CONSUMER_LOG.debug( "updating entry in refreshOnly mode {}", remoteDn );
+            modify( remoteEntry, rid );
+        }
+    }
 
-                    case DELETE:
-                        CONSUMER_LOG.debug( "deleting entry with dn {}", remoteEntry.getDn().getName() );
 
-                        if ( !session.exists( remoteDn ) )
-                        {
-                            CONSUMER_LOG
-                                .debug(
-                                    "looks like entry {} was already deleted in a prior update (possibly from another provider), skipping delete",
-                                    remoteDn );
-                        }
-                        else
-                        {
-                            // incase of a MODDN operation resulting in a branch to be moved out of scope
-                            // ApacheDS replication provider sends a single delete event on the Dn of the moved branch
-                            // so the branch needs to be recursively deleted here
-                            deleteRecursive( remoteEntry.getDn(), rid );
-                        }
+    /**
+     * Process a snapshot frame received during the initial refresh. The frame contains
+     * some entries of the initial content, parents first : they are added in this order,
+     * by the applier if the changes are applied in parallel.
+     */
+    private void handleSnapshotFrame( IntermediateResponse frame )
+    {
+        try
+        {
+            List<Entry> entries = SnapshotUtils.readEntries( schemaManager, snapshotSerializer,
+                frame.getResponseValue() );
 
-                        break;
+            CONSUMER_LOG.debug( "Received a snapshot frame containing {} entries", entries.size() );
 
-                    case PRESENT:
-                        CONSUMER_LOG.debug( "entry present {}", remoteEntry );
-                        break;
+            for ( final Entry remoteEntry : entries )
+            {
+                final String uuid = remoteEntry.get( directoryService.getAtProvider().getEntryUUID() ).getString();
 
-                    default:
-                        throw new IllegalArgumentException( "Unexpected sync state " + state );
-                }
+                ChangeApplier.Task add = new ChangeApplier.Task()
+                {
+                    @Override
+                    public void apply() throws Exception
+                    {
+                        synchronized ( getLockFor( uuid ) )
+                        {
+                            applyAdd( remoteEntry, -1 );
+                        }
+                    }
+                };
 
-                // store the cookie only if the above operation was successful
-                if ( syncStateCtrl.getCookie() != null )
+                if ( applier != null )
                 {
-                    storeCookie();
+                    applier.submit( remoteEntry.getDn(), uuid, null, add );
+                }
+                else
+                {
+                    add.apply();
                 }
             }
         }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            CONSUMER_LOG.warn( "Interrupted while submitting the snapshot entries" );
+        }
         catch ( Exception e )
         {
-            CONSUMER_LOG.error( e.getMessage(), e );
+            CONSUMER_LOG.error( "Failed to handle a snapshot frame", e );
+            applyFailed = true;
         }
+    }
 
-        CONSUMER_LOG.debug( "------------- Ending handleSearchResult ------------" );
+
+    /**
+     * Waits until all the changes submitted to the applier have been applied
+     */
+    private void drainChanges()
+    {
+        if ( applier != null )
+        {
+            try
+            {
+                applier.drain();
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+                CONSUMER_LOG.warn( "Interrupted while waiting for the changes to be applied" );
+            }
+        }
+    }
+
+
+    /**
+     * @return <tt>true</tt> if a change received from the provider could not be applied
+     */
+    private boolean isApplyFailed()
+    {
+        return applyFailed || ( ( applier != null ) && applier.isFailed() );
+    }
+
+
+    /**
+     * Abandons the current sync search after a change could not be applied. We wait for
+     * the changes submitted to the applier, and the sync is restarted from the last stored
+     * cookie : the changes received after it will be received again.
+     *
+     * @param sf The future of the current sync search
+     * @return The REFRESH_REQUIRED status
+     */
+    private ReplicationStatusEnum refreshFromLastCookie( SearchFuture sf )
+    {
+        CONSUMER_LOG.warn( "A change received from {} could not be applied, refreshing from the last stored cookie",
+            config.getProducer() );
+
+        if ( !sf.isDone() )
+        {
+            // Abandons the search
+            sf.cancel( true );
+        }
+
+        drainChanges();
+
+        if ( applier != null )
+        {
+            applier.reset();
+        }
+
+        applyFailed = false;
+
+        // The in-memory cookie may be ahead of the stored one
+        syncCookie = null;
+        lastSavedCookie = null;
+        readCookie();
+
+        return ReplicationStatusEnum.REFRESH_REQUIRED;
     }
 
 
@@ -536,6 +768,7 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         catch ( Exception de )
         {
             CONSUMER_LOG.error( "Failed to handle syncinfo message", de );
+            applyFailed = true;
         }
 
         CONSUMER_LOG.debug( ".................... END handleSyncInfo ..............." );
@@ -599,7 +832,13 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
             try
             {
-                doSyncSearch( SynchronizationModeEnum.REFRESH_ONLY, reload );
+                ReplicationStatusEnum status = doSyncSearch( SynchronizationModeEnum.REFRESH_ONLY, reload );
+
+                if ( status == ReplicationStatusEnum.REFRESH_REQUIRED )
+                {
+                    // Don't wait for the next refresh
+                    continue;
+                }
 
                 CONSUMER_LOG.debug( "--------------------- Sleep for {} seconds ------------------",
                     ( config.getRefreshInterval() / 1000 ) );
@@ -718,6 +957,11 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         {
             disconnect();
         }
+
+        if ( applier != null )
+        {
+            applier.stop();
+        }
     }
 
 
@@ -788,11 +1032,36 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
             }
             else if ( resp instanceof SearchResultReference )
             {
-                handleSearchReference( ( SearchResultReference ) resp );
+                drainChanges();
+
+                if ( !isApplyFailed() )
+                {
+                    handleSearchReference( ( SearchResultReference ) resp );
+                }
             }
             else if ( resp instanceof IntermediateResponse )
             {
-                handleSyncInfo( ( IntermediateResponse ) resp );
+                IntermediateResponse intermediateResponse = ( IntermediateResponse ) resp;
+
+                if ( SnapshotUtils.isFrame( intermediateResponse ) )
+                {
+                    handleSnapshotFrame( intermediateResponse );
+                }
+                else
+                {
+                    // The cookie of the sync info must not be stored if a previous change has failed
+                    drainChanges();
+
+                    if ( !isApplyFailed() )
+                    {
+                        handleSyncInfo( intermediateResponse );
+                    }
+                }
+            }
+
+            if ( isApplyFailed() )
+            {
+                return refreshFromLastCookie( sf );
             }
 
             // Next entry
@@ -800,6 +1069,14 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
             CONSUMER_LOG.debug( "Response from {} : {}", config.getProducer(), resp );
         }
 
+        // The changes received so far must be applied before we proceed
+        drainChanges();
+
+        if ( isApplyFailed() && !disconnected )
+        {
+            return refreshFromLastCookie( sf );
+        }
+
         if ( sf.isCancelled() )
         {
 
@@ -913,10 +1190,22 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
+    /**
+     * stores the given cookie, once all the changes received with or before it have been applied.
+     * 
+     * @param cookie The cookie to store
+     */
+    private synchronized void storeCookie( byte[] cookie )
+    {
+        syncCookie = cookie;
+        storeCookie();
+    }
+
+
     /**
      * stores the cookie.
      */
-    private void storeCookie()
+    private synchronized void storeCookie()
     {
         CONSUMER_LOG.debug( "Storing the cookie '{}'", Strings.utf8ToString( syncCookie ) );
 
@@ -1210,6 +1499,120 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
+    /**
+     * Applies the modifications sent by the provider as a delta. If they can't be applied,
+     * we read the full entry from the provider and update the local entry with it.
+     */
+    private void applyDelta( Entry remoteEntry, Control deltaControl, int rid ) throws Exception
+    {
+        Dn dn = remoteEntry.getDn();
+        String remoteCsn = remoteEntry.get( SchemaConstants.ENTRY_CSN_AT ).getString();
+
+        try
+        {
+            List<Modification> modifications = DeltaSyncUtils.getModifications( schemaManager, deltaControl );
+
+            if ( modifications == null )
+            {
+                throw new LdapException( "No modification in the delta sync control" );
+            }
+
+            if ( config.isMmrMode() )
+            {
+                LookupOperationContext lookupCtx = new LookupOperationContext( session, dn,
+                    SchemaConstants.ENTRY_CSN_AT );
+                lookupCtx.setSyncreplLookup( true );
+
+                Entry localEntry;
+                Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+                try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
+                {
+                    lookupCtx.setTransaction( partitionTxn );
+                    localEntry = directoryService.getOperationManager().lookup( lookupCtx );
+                }
+
+                Csn localCsn = new Csn( localEntry.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+
+                if ( localCsn.compareTo( new Csn( remoteCsn ) ) >= 0 )
+                {
+                    // just discard the received modifications, they are old
+                    CONSUMER_LOG.debug( "local modification is latest, discarding the modification of dn {}", dn );
+                    return;
+                }
+            }
+
+            List<Modification> serverModifications = new ArrayList<>( modifications.size() + 1 );
+            boolean hasCsn = false;
+
+            for ( Modification modification : modifications )
+            {
+                AttributeType attributeType = modification.getAttribute().getAttributeType();
+
+                if ( isIgnored( attributeType ) )
+                {
+                    continue;
+                }
+
+                if ( attributeType.equals( directoryService.getAtProvider().getEntryCSN() ) )
+                {
+                    hasCsn = true;
+                }
+
+                serverModifications.add( modification );
+            }
+
+            if ( !hasCsn )
+            {
+                serverModifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+                    remoteEntry.get( SchemaConstants.ENTRY_CSN_AT ) ) );
+            }
+
+            ModifyOperationContext modifyContext = new ModifyOperationContext( session, dn, serverModifications );
+            modifyContext.setReplEvent( true );
+            modifyContext.setRid( rid );
+
+            directoryService.getOperationManager().modify( modifyContext );
+        }
+        catch ( Exception e )
+        {
+            // Fall back to the full entry
+            CONSUMER_LOG.warn( "Failed to apply the delta on the entry {}, reading the full entry from {}", dn,
+                config.getProducer(), e );
+
+            String[] attributes = computeAttributes( config.getAttributes(),
+                SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES );
+            Entry fullEntry = connection.lookup( dn, attributes );
+
+            if ( fullEntry == null )
+            {
+                CONSUMER_LOG.warn( "The entry {} does not exist anymore on {}", dn, config.getProducer() );
+
+                return;
+            }
+
+            modify( new DefaultEntry( schemaManager, fullEntry ), rid );
+        }
+    }
+
+
+    /**
+     * Tells if the modifications on an attribute should be ignored
+     */
+    private boolean isIgnored( AttributeType attributeType )
+    {
+        for ( String ignored : MOD_IGNORE_AT )
+        {
+            if ( attributeType.equals( schemaManager.getAttributeType( ignored ) ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
     /**
      * Create a new list combining a list and a newly added attribute
      */
@@ -1393,17 +1796,9 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
-    private synchronized Object getLockFor( String uuid )
+    private static Object getLockFor( String uuid )
     {
-        Object lock = UUID_LOCK_MAP.get( uuid );
-
-        if ( lock == null )
-        {
-            lock = new Object();
-            UUID_LOCK_MAP.put( uuid, lock );
-        }
-
-        return lock;
+        return UUID_LOCKS[( uuid.hashCode() & Integer.MAX_VALUE ) % NB_UUID_LOCKS];
     }
 
 
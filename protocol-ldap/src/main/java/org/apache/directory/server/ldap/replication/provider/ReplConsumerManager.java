@@ -51,8 +51,6 @@ import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
-import org.apache.directory.server.core.api.partition.Partition;
-import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -94,16 +92,21 @@ public class ReplConsumerManager
     /** A map containing the last sent CSN for every connected consumer */
     private Map<Integer, Modification> modMap = new ConcurrentHashMap<>();
 
+    /** The log shared by all the consumers */
+    private SharedReplicaLog sharedLog;
+
 
     /**
      * Create a new instance of the producer replication manager.
      * 
      * @param directoryService The directoryService instance
+     * @param sharedLog The log shared by all the consumers
      * @throws Exception if we add an error while creating the configuration
      */
-    public ReplConsumerManager( DirectoryService directoryService ) throws Exception
+    public ReplConsumerManager( DirectoryService directoryService, SharedReplicaLog sharedLog ) throws Exception
     {
         this.directoryService = directoryService;
+        this.sharedLog = sharedLog;
         adminSession = directoryService.getAdminSession();
         schemaManager = directoryService.getSchemaManager();
         replConsumerDn = directoryService.getDnFactory().create( REPL_CONSUMER_DN_STR );
@@ -263,9 +266,6 @@ public class ReplConsumerManager
     public List<ReplicaEventLog> getReplicaEventLogs() throws Exception
     {
         List<ReplicaEventLog> replicas = new ArrayList<>();
-        
-        Partition partition = directoryService.getPartitionNexus().getPartition( replConsumerDn );
-        
 
         // Search for all the consumers
         ExprNode filter = new EqualityNode<String>( directoryService.getAtProvider().getObjectClass(), 
@@ -282,12 +282,8 @@ public class ReplConsumerManager
         while ( cursor.next() )
         {
             Entry entry = cursor.get();
-            
-            try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
-            {
-                ReplicaEventLog replica = convertEntryToReplica( partitionTxn, entry );
-                replicas.add( replica );
-            }
+            ReplicaEventLog replica = convertEntryToReplica( entry );
+            replicas.add( replica );
         }
 
         cursor.close();
@@ -300,10 +296,10 @@ public class ReplConsumerManager
     /**
      * Convert the stored entry to a valid ReplicaEventLog structure
      */
-    private ReplicaEventLog convertEntryToReplica( PartitionTxn partitionTxn, Entry entry ) throws Exception
+    private ReplicaEventLog convertEntryToReplica( Entry entry ) throws Exception
     {
         String id = entry.get( SchemaConstants.ADS_DS_REPLICA_ID ).getString();
-        ReplicaEventLog replica = new ReplicaEventLog( partitionTxn, directoryService, Integer.parseInt( id ) );
+        ReplicaEventLog replica = new ReplicaEventLog( sharedLog, directoryService, Integer.parseInt( id ) );
 
         NotificationCriteria searchCriteria = new NotificationCriteria( schemaManager );
 
@@ -22,7 +22,7 @@ package org.apache.directory.server.ldap.replication.provider;
 
 
 import java.io.File;
-import java.io.IOException;
+import java.util.List;
 
 import jdbm.RecordManager;
 import jdbm.recman.BaseRecordManager;
@@ -30,16 +30,21 @@ import jdbm.recman.TransactionManager;
 
 import org.apache.directory.api.ldap.model.constants.Loggers;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.controls.ChangeType;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
-import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
 import org.apache.directory.server.core.partition.impl.btree.jdbm.StringSerializer;
+import org.apache.directory.server.ldap.replication.DeltaSyncUtils;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessageSerializer;
 import org.slf4j.Logger;
@@ -57,8 +62,9 @@ import org.slf4j.LoggerFactory;
  * <li>refreshNPersist : a flag indicating that the consumer is processing in Refresh and persist mode</li>
  * <li></li>
  * </ul>
- * A separate log is maintained for each syncrepl consumer.<br>
- * We also associate a Queue with each structure, which will store the messages to send to the consumer.
+ * The messages to send to the consumers are stored in a {@link SharedReplicaLog}, each
+ * message being written once for all the consumers. A consumer's log is the sequence of
+ * the messages logged for it, read from its last sent CSN.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -98,14 +104,11 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     private int purgeThresholdCount = DEFAULT_PURGE_THRESHOLD_COUNT;
 
     // fields that won't be serialized
-    /** The Journal of modifications */
-    private JdbmTable<String, ReplicaEventMessage> journal;
+    /** The log shared by all the consumers */
+    private SharedReplicaLog sharedLog;
 
-    /** the underlying file  */
-    private File journalFile;
-
-    /** The record manager*/
-    private RecordManager recman;
+    /** The SchemaManager instance */
+    private SchemaManager schemaManager;
 
     /** A flag used to indicate that the consumer is not up to date */
     private volatile boolean dirty;
@@ -113,48 +116,32 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     /** the DN of the entry where this event log details are stored */
     private Dn consumerEntryDn;
 
+    /** Tells if the consumer has requested the modified entries as deltas */
+    private volatile boolean consumerDeltaSync;
+
     public static final String REPLICA_EVENT_LOG_NAME_PREFIX = "REPL_EVENT_LOG.";
 
     public static final int DEFAULT_PURGE_THRESHOLD_COUNT = 10000;
 
     /** The max delay for an idle replication log with no activity, by default the logs have no idle time period */
     public static final int DEFAULT_MAX_IDLE_PERIOD = -1;
-    
-    /** The partition transaction */
-    private PartitionTxn partitionTxn;
 
 
     /**
      * Creates a new instance of EventLog for a replica
      * 
-     * @param partitionTxn The Transaction to use
+     * @param sharedLog The log shared by all the consumers
      * @param directoryService The DirectoryService instance
      * @param replicaId The replica ID
-     * @throws IOException if we weren't able to log the event
      */
-    public ReplicaEventLog( PartitionTxn partitionTxn, DirectoryService directoryService, int replicaId ) throws IOException
+    public ReplicaEventLog( SharedReplicaLog sharedLog, DirectoryService directoryService, int replicaId )
     {
         PROVIDER_LOG.debug( "Creating the replication queue for replica {}", replicaId );
-        SchemaManager schemaManager = directoryService.getSchemaManager();
+        this.schemaManager = directoryService.getSchemaManager();
         this.replicaId = replicaId;
         this.searchCriteria = new NotificationCriteria( schemaManager );
         this.searchCriteria.setEventMask( EventType.ALL_EVENT_TYPES_MASK );
-
-        // Create the journal file, or open if already exists
-        File replDir = directoryService.getInstanceLayout().getReplDirectory();
-        journalFile = new File( replDir, REPLICA_EVENT_LOG_NAME_PREFIX + replicaId );
-        recman = new BaseRecordManager( journalFile.getAbsolutePath() );
-        TransactionManager transactionManager = ( ( BaseRecordManager ) recman ).getTransactionManager();
-        transactionManager.setMaximumTransactionsInLog( 200 );
-
-        SerializableComparator<String> comparator = new SerializableComparator<>(
-            SchemaConstants.CSN_ORDERING_MATCH_MR_OID );
-        comparator.setSchemaManager( schemaManager );
-
-        journal = new JdbmTable<>( schemaManager, journalFile.getName(), recman, comparator,
-            StringSerializer.INSTANCE, new ReplicaEventMessageSerializer( schemaManager ) );
-        
-        this.partitionTxn = partitionTxn;
+        this.sharedLog = sharedLog;
     }
 
 
@@ -163,7 +150,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
      *
      * @param message The message to store
      */
-    public synchronized void log( ReplicaEventMessage message )
+    public void log( ReplicaEventMessage message )
     {
         try
         {
@@ -172,8 +159,8 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
             PROVIDER_LOG.debug( "logging entry with Dn {} with the event {}", message.getEntry().getDn(),
                 message.getChangeType() );
 
-            String entryCsn = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
-            journal.put( partitionTxn, entryCsn, message );
+            // The message is written to disk by the shared log flusher
+            sharedLog.append( replicaId, message );
         }
         catch ( Exception e )
         {
@@ -183,6 +170,32 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     }
 
 
+    /**
+     * Creates the message logged for a modified entry. If the delta sync is enabled, the
+     * message only contains the modifications, otherwise the full entry is kept. All the
+     * modifications are logged : they are filtered by the consumer's requested attributes
+     * when they are sent.
+     *
+     * @param alteredEntry The modified entry
+     * @param modifications The modifications applied on the entry
+     * @return The message to log
+     * @throws LdapException If the delta entry can't be created
+     */
+    public ReplicaEventMessage createModifyMessage( Entry alteredEntry, List<Modification> modifications )
+        throws LdapException
+    {
+        if ( sharedLog.isDeltaSync() )
+        {
+            return new ReplicaEventMessage( DeltaSyncUtils.createDeltaEntry( schemaManager, alteredEntry ),
+                modifications );
+        }
+        else
+        {
+            return new ReplicaEventMessage( ChangeType.MODIFY, alteredEntry );
+        }
+    }
+
+
     /**
      * Deletes the queue (to remove the log) and recreates a new queue instance
      * with the same queue name. Also creates the corresponding message producer
@@ -205,28 +218,71 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
 
 
     /**
-     * Stop the EventLog
+     * Stop the EventLog. The shared log is closed by its owner.
      * 
      * @throws Exception If the stop failed
      */
     public void stop() throws Exception
     {
         PROVIDER_LOG.debug( "Stopping the EventLog for replicaId {}", replicaId );
+    }
+
+
+    /**
+     * Deletes the content of this log from the shared log.
+     */
+    public void delete()
+    {
+        sharedLog.removeReplica( replicaId );
+    }
+
+
+    /**
+     * Imports the messages stored in the JDBM journal used by the previous versions, if
+     * this replica still has one, and deletes it.
+     *
+     * @param replDir The replication directory
+     * @throws Exception If the journal can't be read
+     */
+    public void importLegacyJournal( File replDir ) throws Exception
+    {
+        File journalFile = new File( replDir, getName() );
+        File dbFile = new File( replDir, getName() + ".db" );
 
-        // Close the producer and session, DO NOT close connection 
-        if ( journal != null )
+        if ( !dbFile.exists() )
         {
-            journal.close( partitionTxn );
+            return;
         }
 
-        journal = null;
+        PROVIDER_LOG.info( "Importing the replication journal {} into the shared log", dbFile );
+
+        RecordManager recman = new BaseRecordManager( journalFile.getAbsolutePath() );
+        TransactionManager transactionManager = ( ( BaseRecordManager ) recman ).getTransactionManager();
+        transactionManager.setMaximumTransactionsInLog( 200 );
+
+        SerializableComparator<String> comparator = new SerializableComparator<>(
+            SchemaConstants.CSN_ORDERING_MATCH_MR_OID );
+        comparator.setSchemaManager( schemaManager );
+
+        JdbmTable<String, ReplicaEventMessage> journal = new JdbmTable<>( schemaManager, journalFile.getName(),
+            recman, comparator, StringSerializer.INSTANCE, new ReplicaEventMessageSerializer( schemaManager ) );
 
-        if ( recman != null )
+        try ( Cursor<Tuple<String, ReplicaEventMessage>> cursor = journal.cursor() )
+        {
+            while ( cursor.next() )
+            {
+                sharedLog.append( replicaId, cursor.get().getValue() );
+            }
+        }
+        finally
         {
             recman.close();
         }
 
-        recman = null;
+        sharedLog.sync();
+
+        dbFile.delete();
+        new File( replDir, getName() + ".lg" ).delete();
     }
 
 
@@ -331,6 +387,24 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     }
 
 
+    /**
+     * @return true if the consumer can apply the modified entries sent as deltas
+     */
+    public boolean isConsumerDeltaSync()
+    {
+        return consumerDeltaSync;
+    }
+
+
+    /**
+     * @param consumerDeltaSync if true, the modified entries are sent as deltas to the consumer
+     */
+    public void setConsumerDeltaSync( boolean consumerDeltaSync )
+    {
+        this.consumerDeltaSync = consumerDeltaSync;
+    }
+
+
     /**
      * @return The replica ID
      */
@@ -441,7 +515,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
      */
     public ReplicaJournalCursor getCursor( String consumerCsn ) throws Exception
     {
-        return new ReplicaJournalCursor( partitionTxn, journal, consumerCsn );
+        return new ReplicaJournalCursor( sharedLog, replicaId, consumerCsn );
     }
 
 
@@ -450,23 +524,16 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
      */
     public String getName()
     {
-        return journal.getName();
+        return REPLICA_EVENT_LOG_NAME_PREFIX + replicaId;
     }
 
 
     /**
-     * @return the number of entries present in the replica log
+     * @return the number of entries present in the replica log, which have not been sent yet
      */
-    public synchronized long count()
+    public long count()
     {
-        try
-        {
-            return journal.count( partitionTxn );
-        }
-        catch ( LdapException e )
-        {
-            throw new RuntimeException( e );
-        }
+        return sharedLog.count( replicaId, lastSentCsn );
     }
 
 
@@ -522,7 +589,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
         return "ReplicaEventLog [hostName=" + hostName + ", searchFilter=" + searchFilter + ", lastSentCsn="
             + lastSentCsn + ", searchCriteria=" + searchCriteria + ", replicaId=" + replicaId
             + ", refreshNPersist=" + refreshNPersist + ", maxInactivePeriod=" + maxIdlePeriod
-            + ", purgeThresholdCount=" + purgeThresholdCount + ", journalFile=" + journalFile
+            + ", purgeThresholdCount=" + purgeThresholdCount
             + ", dirty=" + dirty + ", consumerEntryDn=" + consumerEntryDn + "]";
     }
 }
@@ -20,21 +20,19 @@
 package org.apache.directory.server.ldap.replication.provider;
 
 
-import java.io.File;
 import java.util.Map;
 
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.Csn;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.util.DateUtils;
 import org.apache.directory.server.core.api.DirectoryService;
-import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * Deletes old entries from the replication event logs that are configured in refreshNPersist mode.
+ * Deletes the idle replication event logs, and the old entries of the shared log : its segments
+ * are deleted once all their messages are older than the CSN sent to the slowest consumer.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -46,6 +44,9 @@ public class ReplicaEventLogJanitor extends Thread
 
     private Map<Integer, ReplicaEventLog> replicaLogMap;
 
+    /** The log shared by all the consumers */
+    private SharedReplicaLog sharedLog;
+
     private volatile boolean stop = false;
 
     /** A lock used to wait */
@@ -58,12 +59,13 @@ public class ReplicaEventLogJanitor extends Thread
 
 
     public ReplicaEventLogJanitor( final DirectoryService directoryService,
-        final Map<Integer, ReplicaEventLog> replicaLogMap )
+        final Map<Integer, ReplicaEventLog> replicaLogMap, final SharedReplicaLog sharedLog )
     {
         // if log is in refreshNpersist mode, has more entries than the log's threshold count then 
         // all the entries before the last sent CSN and older than 2 hours will be purged
         this.directoryService = directoryService;
         this.replicaLogMap = replicaLogMap;
+        this.sharedLog = sharedLog;
         setDaemon( true );
     }
 
@@ -73,9 +75,16 @@ public class ReplicaEventLogJanitor extends Thread
     {
         while ( !stop )
         {
+            // The oldest CSN sent to a consumer. The shared log can't be purged if one of the
+            // consumers has not received anything yet
+            String purgeCsn = null;
+            boolean canPurge = true;
+            long thresholdCount = Long.MAX_VALUE;
+            long now = DateUtils.getDate( DateUtils.getGeneralizedTime() ).getTime();
+
             for ( ReplicaEventLog log : replicaLogMap.values() )
             {
-                synchronized ( log ) // lock the log and clean
+                synchronized ( log ) // lock the log and check it
                 {
                     try
                     {
@@ -84,11 +93,10 @@ public class ReplicaEventLogJanitor extends Thread
                         if ( lastSentCsn == null )
                         {
                             LOG.debug( "last sent CSN is null for the replica {}, skipping cleanup", log.getName() );
-                            return;
+                            canPurge = false;
+                            continue;
                         }
 
-                        long now = DateUtils.getDate( DateUtils.getGeneralizedTime() ).getTime();
-
                         long maxIdleTime = log.getMaxIdlePeriod() * 1000L;
 
                         long lastUpdatedTime = new Csn( lastSentCsn ).getTimestamp();
@@ -120,52 +128,34 @@ public class ReplicaEventLogJanitor extends Thread
                             continue;
                         }
 
-                        long thresholdCount = log.getPurgeThresholdCount();
-
-                        if ( log.count() < thresholdCount )
+                        if ( ( purgeCsn == null ) || ( lastSentCsn.compareTo( purgeCsn ) < 0 ) )
                         {
-                            continue;
+                            purgeCsn = lastSentCsn;
                         }
 
-                        LOG.debug( "starting to purge the log entries that are older than {} milliseconds",
-                            thresholdTime );
-
-                        long deleteCount = 0;
-
-                        ReplicaJournalCursor cursor = log.getCursor( null ); // pass no CSN
-                        cursor.skipQualifyingWhileFetching();
-
-                        while ( cursor.next() )
-                        {
-                            ReplicaEventMessage message = cursor.get();
-                            String csnVal = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
-
-                            // skip if we reach the lastSentCsn or got past it
-                            if ( csnVal.compareTo( lastSentCsn ) >= 0 )
-                            {
-                                break;
-                            }
-
-                            Csn csn = new Csn( csnVal );
-
-                            if ( ( now - csn.getTimestamp() ) >= thresholdTime )
-                            {
-                                cursor.delete();
-                                deleteCount++;
-                            }
-                        }
-
-                        cursor.close();
-
-                        LOG.debug( "purged {} messages from the log {}", deleteCount, log.getName() );
+                        thresholdCount = Math.min( thresholdCount, log.getPurgeThresholdCount() );
                     }
                     catch ( Exception e )
                     {
-                        LOG.warn( "Failed to purge old entries from the log {}", log.getName(), e );
+                        // We don't know what this consumer has received, keep its messages
+                        LOG.warn( "Failed to check the log {}", log.getName(), e );
+                        canPurge = false;
                     }
                 }
             }
 
+            // The messages are deleted once they have been sent to all the consumers, and
+            // if they are older than the threshold time
+            if ( canPurge && ( purgeCsn != null ) && ( sharedLog.size() >= thresholdCount ) )
+            {
+                LOG.debug( "starting to purge the log entries that are older than {} milliseconds",
+                    thresholdTime );
+
+                int nbPurged = sharedLog.purge( purgeCsn, now - thresholdTime );
+
+                LOG.debug( "purged {} segments of the shared log", nbPurged );
+            }
+
             try
             {
                 synchronized ( lock )
@@ -192,9 +182,8 @@ public class ReplicaEventLogJanitor extends Thread
         try
         {
             replicaEventLog.stop();
+            replicaEventLog.delete();
 
-            new File( directoryService.getInstanceLayout().getReplDirectory(), name + ".db" ).delete();
-            new File( directoryService.getInstanceLayout().getReplDirectory(), name + ".lg" ).delete();
             LOG.info( "successfully removed replication event log {}", name );
         }
         catch ( Exception e )
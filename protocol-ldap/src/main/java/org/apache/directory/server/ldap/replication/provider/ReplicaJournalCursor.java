@@ -25,22 +25,18 @@ import java.io.IOException;
 import java.util.Iterator;
 
 import org.apache.directory.api.ldap.model.constants.Loggers;
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
-import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
-import org.apache.directory.api.ldap.model.cursor.Tuple;
 import org.apache.directory.api.ldap.model.exception.LdapException;
-import org.apache.directory.api.ldap.model.message.controls.ChangeType;
-import org.apache.directory.server.core.api.partition.PartitionTxn;
-import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * Define a cursor on top of a replication journal.
+ * Define a cursor on top of a replication journal : the messages of the {@link SharedReplicaLog}
+ * which follow the consumer's CSN, and which have been logged for this consumer.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -55,45 +51,39 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
     /** Speedup for logs */
     private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
 
-    /** the underlying journal's cursor */
-    private Cursor<Tuple<String, ReplicaEventMessage>> tupleCursor;
+    /** the iterator on the message keys following the consumer's CSN */
+    private Iterator<String> keyIterator;
 
-    /** the event log journal */
-    private JdbmTable<String, ReplicaEventMessage> journal;
+    /** the log containing the messages */
+    private SharedReplicaLog sharedLog;
+
+    /** the consumer's replica ID */
+    private int replicaId;
 
     /** the consumer's CSN based on which messages will be qualified for sending */
     private String consumerCsn;
 
     private ReplicaEventMessage qualifiedEvtMsg;
 
-    /** used while cleaning up the log */
-    private boolean skipQualifying;
-    
-    /** The partition transaction */
-    private PartitionTxn partitionTxn;
-    
-
 
     /**
      * Creates a cursor on top of the given journal
      * 
-     * @param partitionTxn The Transaction to use
-     * @param journal the log journal
+     * @param sharedLog the log containing the messages
+     * @param replicaId the consumer's replica ID
      * @param consumerCsn the consumer's CSN taken from cookie
-     * @throws Exception If the cursor creation failed
      */
-    public ReplicaJournalCursor( PartitionTxn partitionTxn, JdbmTable<String, ReplicaEventMessage> journal, 
-            String consumerCsn ) throws Exception
+    public ReplicaJournalCursor( SharedReplicaLog sharedLog, int replicaId, String consumerCsn )
     {
         if ( IS_DEBUG )
         {
             LOG_CURSOR.debug( "Creating ReplicaJournalCursor {}", this );
         }
 
-        this.journal = journal;
-        this.tupleCursor = journal.cursor();
+        this.sharedLog = sharedLog;
+        this.replicaId = replicaId;
+        this.keyIterator = sharedLog.getKeys( consumerCsn ).iterator();
         this.consumerCsn = consumerCsn;
-        this.partitionTxn = partitionTxn;
     }
 
 
@@ -160,29 +150,14 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
 
 
     /**
-     * selects the current queue entry if qualified for sending to the consumer
-     * 
-     * @throws Exception
+     * selects the current queue entry if qualified for sending to the consumer, ie if
+     * it's newer than the consumer's CSN
      */
-    private boolean isQualified( String csn, ReplicaEventMessage evtMsg ) throws LdapException
+    private boolean isQualified( String key )
     {
-        LOG.debug( "ReplicaEventMessage: {}", evtMsg );
-
-        if ( evtMsg.isEventOlderThan( consumerCsn ) )
+        if ( ( consumerCsn != null ) && ( SharedReplicaLog.getCsn( key ).compareTo( consumerCsn ) <= 0 ) )
         {
-            if ( LOG.isDebugEnabled() )
-            {
-                String evt = "MODDN"; // take this as default cause the event type for MODDN is null
-
-                ChangeType changeType = evtMsg.getChangeType();
-
-                if ( changeType != null )
-                {
-                    evt = changeType.name();
-                }
-
-                LOG.debug( "event {} for dn {} is not qualified for sending", evt, evtMsg.getEntry().getDn() );
-            }
+            LOG.debug( "event {} is not qualified for sending", key );
 
             return false;
         }
@@ -205,30 +180,38 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
      */
     public boolean next() throws LdapException, CursorException
     {
-        while ( tupleCursor.next() )
+        while ( keyIterator.hasNext() )
         {
-            Tuple<String, ReplicaEventMessage> tuple = tupleCursor.get();
+            String key = keyIterator.next();
 
-            String csn = tuple.getKey();
-            ReplicaEventMessage message = tuple.getValue();
-
-            if ( skipQualifying )
+            if ( !isQualified( key ) || !sharedLog.isSentTo( key, replicaId ) )
             {
-                qualifiedEvtMsg = message;
-                return true;
+                // The consumer has already received this message, or it's not for this consumer
+                continue;
             }
 
-            boolean qualified = isQualified( csn, message );
+            ReplicaEventMessage message;
 
-            if ( qualified )
+            try
+            {
+                message = sharedLog.read( key );
+            }
+            catch ( IOException ioe )
             {
-                qualifiedEvtMsg = message;
-                return true;
+                throw new LdapOtherException( ioe.getMessage(), ioe );
             }
-            else
+
+            if ( message == null )
             {
-                journal.remove( partitionTxn, csn );
+                // The message has been purged
+                continue;
             }
+
+            LOG.debug( "ReplicaEventMessage: {}", message );
+
+            qualifiedEvtMsg = message;
+
+            return true;
         }
 
         qualifiedEvtMsg = null;
@@ -257,7 +240,6 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
             LOG_CURSOR.debug( "Closing ReplicaJournalCursor {}", this );
         }
 
-        tupleCursor.close();
         super.close();
     }
 
@@ -273,40 +255,10 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
             LOG_CURSOR.debug( "Closing ReplicaJournalCursor {}", this );
         }
 
-        tupleCursor.close();
         super.close( cause );
     }
 
 
-    /**
-     * sets the flag to skip CSN based checking while traversing
-     * used for internal log cleanup ONLY 
-     */
-    protected void skipQualifyingWhileFetching()
-    {
-        skipQualifying = true;
-    }
-
-
-    /**
-     * delete the current message
-     * used for internal log cleanup ONLY
-     */
-    protected void delete()
-    {
-        try
-        {
-            if ( qualifiedEvtMsg != null )
-            {
-                journal.remove( partitionTxn, qualifiedEvtMsg.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString() );
-            }
-        }
-        catch ( Exception e )
-        {
-        }
-    }
-
-
     /**
      * {@inheritDoc}
      */
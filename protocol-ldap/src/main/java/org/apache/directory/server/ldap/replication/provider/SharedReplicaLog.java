@@ -0,0 +1,993 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.Csn;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessageSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The replication log shared by all the consumers of a provider. Each modification is
+ * serialized and written once, whatever the number of consumers it has to be sent to.
+ * <p>
+ * The log is an append-only sequence of memory mapped segment files. It contains two
+ * kinds of records :
+ * <ul>
+ * <li>an ENTRY record, storing a serialized {@link ReplicaEventMessage} and the IDs of the
+ * consumers it has to be sent to</li>
+ * <li>a DROP record, telling that a consumer's log has been deleted</li>
+ * </ul>
+ * The messages are identified by a key made of their entryCSN and change type, so that
+ * the keys are ordered by CSN. The position and the recipients of each message are kept in
+ * memory, and rebuilt by reading the segments when the log is opened. A consumer only
+ * keeps its read offset, the CSN it has been sent : a {@link ReplicaJournalCursor} reads
+ * the messages following this CSN, skipping those which are not sent to this consumer.
+ * <p>
+ * The appended messages are not written by the threads logging them : they are queued, and
+ * written and flushed to disk in batches by a background thread, every flush interval or as
+ * soon as the queue exceeds the flush batch size. The queued messages are readable at once,
+ * and all the consumers logging the same modification are recorded in a single record.
+ * If a consumer logs a message after it has been written, the message is written again
+ * with all its recipients, the last record superseding the previous one.
+ * <p>
+ * Old messages are removed by deleting whole segments, when all their messages are older
+ * than the CSN the slowest consumer has received (see {@link #purge(String, long)}).
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SharedReplicaLog
+{
+    /** The logger */
+    private static final Logger LOG = LoggerFactory.getLogger( SharedReplicaLog.class );
+
+    /** The prefix of the segment file names */
+    public static final String SEGMENT_NAME_PREFIX = "REPL_SHARED_LOG.";
+
+    /** The default segment size : 16MB */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /** The default delay between two flushes, in milliseconds */
+    public static final long DEFAULT_FLUSH_INTERVAL = 100L;
+
+    /** The default number of queued bytes above which the queue is flushed at once : 1MB */
+    public static final int DEFAULT_FLUSH_BATCH_SIZE = 1024 * 1024;
+
+    /** The separator between the CSN and the change type in a key */
+    private static final char KEY_SEPARATOR = '/';
+
+    /** The record types */
+    private static final byte ENTRY_RECORD = 1;
+    private static final byte DROP_RECORD = 2;
+
+    /** The size of a record header : the length, the type, the key length and the number of recipients */
+    private static final int HEADER_SIZE = 4 + 1 + 4 + 4;
+
+    /** The directory containing the segments */
+    private final File directory;
+
+    /** The segment size */
+    private final int segmentSize;
+
+    /** The messages serializer */
+    private final ReplicaEventMessageSerializer serializer;
+
+    /** The segments, by ID */
+    private final ConcurrentNavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    /** The stored messages, by key */
+    private final ConcurrentNavigableMap<String, Message> index = new ConcurrentSkipListMap<>();
+
+    /** The records waiting to be written */
+    private final Deque<Message> queue = new ArrayDeque<>();
+
+    /** The number of bytes waiting to be written */
+    private long queuedBytes;
+
+    /** The segment we append to */
+    private Segment current;
+
+    /** The lock used to write the queued records and flush them */
+    private final Object syncLock = new Object();
+
+    /** The lock the flusher thread waits on */
+    private final Object flushLock = new Object();
+
+    /** The delay between two flushes */
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+
+    /** The number of queued bytes above which the queue is flushed */
+    private int flushBatchSize = DEFAULT_FLUSH_BATCH_SIZE;
+
+    /** The thread flushing the queue */
+    private Thread flusher;
+
+    /** Tells if the log has been closed */
+    private volatile boolean closed;
+
+    /** Tells if the modified entries are logged as deltas */
+    private volatile boolean deltaSync;
+
+
+    /**
+     * A memory mapped segment file
+     */
+    private static class Segment
+    {
+        /** The segment ID */
+        private final long id;
+
+        /** The segment file */
+        private final File file;
+
+        /** The channel, kept to close the file */
+        private final FileChannel channel;
+
+        /** The mapped file content */
+        private final MappedByteBuffer buffer;
+
+        /** The position of the next record */
+        private int position;
+
+        /** The highest CSN stored in this segment */
+        private volatile String maxCsn;
+
+        /** The timestamp of the highest CSN */
+        private volatile long maxTimestamp;
+
+
+        private Segment( long id, File file, int size ) throws IOException
+        {
+            this.id = id;
+            this.file = file;
+
+            RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+
+            try
+            {
+                if ( raf.length() < size )
+                {
+                    raf.setLength( size );
+                }
+
+                channel = raf.getChannel();
+                buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0, raf.length() );
+            }
+            catch ( IOException ioe )
+            {
+                raf.close();
+                throw ioe;
+            }
+        }
+
+
+        private void updateMaxCsn( String csn )
+        {
+            if ( ( maxCsn == null ) || ( maxCsn.compareTo( csn ) < 0 ) )
+            {
+                maxTimestamp = new Csn( csn ).getTimestamp();
+                maxCsn = csn;
+            }
+        }
+
+
+        private void close()
+        {
+            try
+            {
+                channel.close();
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Failed to close the replication log segment {}", file, ioe );
+            }
+        }
+    }
+
+
+    /**
+     * A record : a stored message, or a DROP record waiting to be written
+     */
+    private static class Message
+    {
+        /** The record type */
+        private final byte type;
+
+        /** The message key */
+        private final String key;
+
+        /** The IDs of the consumers the message is sent to */
+        private final Set<Integer> recipients = Collections
+            .newSetFromMap( new ConcurrentHashMap<Integer, Boolean>() );
+
+        /** The serialized message, kept until it's written */
+        private volatile byte[] payload;
+
+        /** The position of the record, the segment ID in the high 32 bits, the offset in the low 32 bits */
+        private volatile long position = -1L;
+
+
+        private Message( byte type, String key, byte[] payload )
+        {
+            this.type = type;
+            this.key = key;
+            this.payload = payload;
+        }
+
+
+        private int getRecordSize( int nbRecipients )
+        {
+            int payloadLength = ( payload == null ) ? 0 : payload.length;
+
+            return HEADER_SIZE + Strings.getBytesUtf8( key ).length + 4 * nbRecipients + payloadLength;
+        }
+    }
+
+
+    /**
+     * The thread writing the queued records
+     */
+    private class Flusher extends Thread
+    {
+        private Flusher()
+        {
+            super( "SharedReplicaLogFlusher" );
+            setDaemon( true );
+        }
+
+
+        @Override
+        public void run()
+        {
+            while ( !closed )
+            {
+                try
+                {
+                    synchronized ( flushLock )
+                    {
+                        flushLock.wait( flushInterval );
+                    }
+
+                    sync();
+                }
+                catch ( InterruptedException ie )
+                {
+                    break;
+                }
+                catch ( IOException ioe )
+                {
+                    LOG.error( "Failed to write the replication log", ioe );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Creates a new instance of SharedReplicaLog. The log must be opened before being used.
+     *
+     * @param directory The directory containing the segments
+     * @param schemaManager The SchemaManager, used to deserialize the messages
+     * @param segmentSize The minimum size of a segment file
+     */
+    public SharedReplicaLog( File directory, SchemaManager schemaManager, int segmentSize )
+    {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.serializer = new ReplicaEventMessageSerializer( schemaManager );
+    }
+
+
+    /**
+     * Opens the log, reading the existing segments to rebuild the index, and starts
+     * the thread flushing the appended messages.
+     *
+     * @throws IOException If the segments can't be read
+     */
+    public synchronized void open() throws IOException
+    {
+        File[] files = directory.listFiles( new FilenameFilter()
+        {
+            @Override
+            public boolean accept( File dir, String name )
+            {
+                return name.startsWith( SEGMENT_NAME_PREFIX );
+            }
+        } );
+
+        List<Long> ids = new ArrayList<>();
+
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                try
+                {
+                    ids.add( Long.parseLong( file.getName().substring( SEGMENT_NAME_PREFIX.length() ) ) );
+                }
+                catch ( NumberFormatException nfe )
+                {
+                    LOG.warn( "Ignoring the unexpected file {} in the replication directory", file );
+                }
+            }
+        }
+
+        Collections.sort( ids );
+
+        for ( Long id : ids )
+        {
+            Segment segment = new Segment( id, getSegmentFile( id ), 0 );
+            segments.put( id, segment );
+            load( segment );
+            current = segment;
+        }
+
+        if ( current == null )
+        {
+            roll( 0 );
+        }
+
+        closed = false;
+        flusher = new Flusher();
+        flusher.start();
+
+        LOG.debug( "Opened the shared replication log, {} segments, {} messages", segments.size(), index.size() );
+    }
+
+
+    private File getSegmentFile( long id )
+    {
+        return new File( directory, SEGMENT_NAME_PREFIX + String.format( "%020d", id ) );
+    }
+
+
+    /**
+     * Reads the records of a segment. We stop on the first empty or incomplete record.
+     */
+    private void load( Segment segment )
+    {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int capacity = buffer.capacity();
+        int offset = 0;
+
+        while ( offset + HEADER_SIZE <= capacity )
+        {
+            buffer.position( offset );
+            int length = buffer.getInt();
+
+            if ( ( length < HEADER_SIZE - 4 ) || ( offset + 4 + length > capacity ) )
+            {
+                break;
+            }
+
+            byte type = buffer.get();
+            byte[] keyBytes = new byte[buffer.getInt()];
+            buffer.get( keyBytes );
+            String key = Strings.utf8ToString( keyBytes );
+            int[] recipients = new int[buffer.getInt()];
+
+            for ( int i = 0; i < recipients.length; i++ )
+            {
+                recipients[i] = buffer.getInt();
+            }
+
+            switch ( type )
+            {
+                case ENTRY_RECORD:
+                    // A message written again supersedes the previous record
+                    Message message = new Message( ENTRY_RECORD, key, null );
+
+                    for ( int replicaId : recipients )
+                    {
+                        message.recipients.add( replicaId );
+                    }
+
+                    message.position = ( segment.id << 32 ) | offset;
+                    index.put( key, message );
+                    segment.updateMaxCsn( getCsn( key ) );
+                    break;
+
+                case DROP_RECORD:
+                    for ( Message stored : index.values() )
+                    {
+                        stored.recipients.remove( recipients[0] );
+                    }
+
+                    break;
+
+                default:
+                    LOG.warn( "Unexpected record type {} in the replication log segment {}", type, segment.file );
+            }
+
+            offset += 4 + length;
+        }
+
+        segment.position = offset;
+    }
+
+
+    /**
+     * Gets the CSN contained in a key.
+     *
+     * @param key The message key
+     * @return The message entryCSN
+     */
+    public static String getCsn( String key )
+    {
+        int pos = key.lastIndexOf( KEY_SEPARATOR );
+
+        if ( pos < 0 )
+        {
+            return key;
+        }
+
+        return key.substring( 0, pos );
+    }
+
+
+    /**
+     * Gets the keys of the stored messages following a CSN. The returned set is live : the
+     * keys are added when a message is logged, and removed when it's purged.
+     *
+     * @param fromCsn The CSN to start from, or null to get all the keys
+     * @return The keys, ordered by CSN
+     */
+    public NavigableSet<String> getKeys( String fromCsn )
+    {
+        if ( fromCsn == null )
+        {
+            return index.navigableKeySet();
+        }
+
+        return index.tailMap( fromCsn, false ).navigableKeySet();
+    }
+
+
+    /**
+     * Tells if a message has to be sent to a consumer.
+     *
+     * @param key The message key
+     * @param replicaId The consumer's replica ID
+     * @return <tt>true</tt> if the message is stored, and has been logged for this consumer
+     */
+    public boolean isSentTo( String key, int replicaId )
+    {
+        Message message = index.get( key );
+
+        return ( message != null ) && message.recipients.contains( replicaId );
+    }
+
+
+    /**
+     * Counts the messages a consumer has not been sent yet.
+     *
+     * @param replicaId The consumer's replica ID
+     * @param fromCsn The last CSN sent to the consumer, or null to count all its messages
+     * @return The number of messages following the given CSN for this consumer
+     */
+    public long count( int replicaId, String fromCsn )
+    {
+        long count = 0L;
+
+        for ( String key : getKeys( fromCsn ) )
+        {
+            if ( ( ( fromCsn == null ) || ( getCsn( key ).compareTo( fromCsn ) > 0 ) ) && isSentTo( key, replicaId ) )
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Logs a message for a consumer. The message is queued if it has not already been logged
+     * for another consumer, otherwise we just add the consumer to its recipients. The queued
+     * messages are written by the flusher thread, or by {@link #sync()}.
+     *
+     * @param replicaId The consumer's replica ID
+     * @param message The message to log
+     * @throws LdapException If the message has no entryCSN
+     * @throws IOException If the message can't be serialized
+     */
+    public void append( int replicaId, ReplicaEventMessage message ) throws LdapException, IOException
+    {
+        String csn = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
+        String key = csn + KEY_SEPARATOR + message.getChangeType().getValue();
+
+        // Serialize the message out of the lock, if it has not yet been logged
+        byte[] payload = null;
+
+        if ( !index.containsKey( key ) )
+        {
+            payload = serializer.serialize( message );
+        }
+
+        boolean flushNow;
+
+        synchronized ( this )
+        {
+            Message stored = index.get( key );
+
+            if ( stored == null )
+            {
+                if ( payload == null )
+                {
+                    // The message has been purged in the meantime
+                    payload = serializer.serialize( message );
+                }
+
+                stored = new Message( ENTRY_RECORD, key, payload );
+                stored.recipients.add( replicaId );
+                index.put( key, stored );
+                enqueue( stored );
+            }
+            else if ( stored.recipients.add( replicaId ) && ( stored.payload == null ) )
+            {
+                // The message has already been written without this consumer
+                stored.payload = serializer.serialize( message );
+                enqueue( stored );
+            }
+            else
+            {
+                // The message is still queued, it will be written with all its recipients
+                return;
+            }
+
+            flushNow = queuedBytes >= flushBatchSize;
+        }
+
+        if ( flushNow )
+        {
+            synchronized ( flushLock )
+            {
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+
+    /**
+     * Queues a record. Must be called while holding the lock on this log.
+     */
+    private void enqueue( Message message )
+    {
+        queue.add( message );
+        queuedBytes += message.getRecordSize( message.recipients.size() );
+    }
+
+
+    /**
+     * Writes a record at the end of the current segment, creating a new segment if it's full.
+     * Must be called while holding the lock on this log.
+     */
+    private void write( Message message ) throws IOException
+    {
+        byte[] keyBytes = Strings.getBytesUtf8( message.key );
+        Integer[] recipients = message.recipients.toArray( new Integer[0] );
+        byte[] payload = message.payload;
+        int recordSize = message.getRecordSize( recipients.length );
+
+        if ( ( current == null ) || ( current.position + recordSize > current.buffer.capacity() ) )
+        {
+            roll( recordSize );
+        }
+
+        int offset = current.position;
+        ByteBuffer buffer = current.buffer.duplicate();
+        buffer.position( offset + 4 );
+        buffer.put( message.type );
+        buffer.putInt( keyBytes.length );
+        buffer.put( keyBytes );
+        buffer.putInt( recipients.length );
+
+        for ( Integer replicaId : recipients )
+        {
+            buffer.putInt( replicaId );
+        }
+
+        if ( payload != null )
+        {
+            buffer.put( payload );
+        }
+
+        // Write the length last, so that an incomplete record is never read back
+        current.buffer.putInt( offset, recordSize - 4 );
+        current.position += recordSize;
+
+        if ( message.type == ENTRY_RECORD )
+        {
+            current.updateMaxCsn( getCsn( message.key ) );
+
+            // The message is now read from the segment
+            message.position = ( current.id << 32 ) | offset;
+            message.payload = null;
+        }
+    }
+
+
+    /**
+     * Flushes the current segment and creates a new one, big enough to store a record.
+     */
+    private void roll( int recordSize ) throws IOException
+    {
+        long id = 0L;
+
+        if ( current != null )
+        {
+            current.buffer.force();
+            id = current.id + 1;
+        }
+
+        Segment segment = new Segment( id, getSegmentFile( id ), Math.max( segmentSize, recordSize ) );
+        segments.put( id, segment );
+        current = segment;
+
+        LOG.debug( "Created the replication log segment {}", segment.file );
+    }
+
+
+    /**
+     * Writes the queued records, and flushes them to disk. This is done periodically by the
+     * flusher thread, and can be called to make sure the logged messages are on disk.
+     *
+     * @throws IOException If the records can't be written
+     */
+    public void sync() throws IOException
+    {
+        synchronized ( syncLock )
+        {
+            Segment segment;
+
+            synchronized ( this )
+            {
+                if ( queue.isEmpty() )
+                {
+                    return;
+                }
+
+                Message message;
+
+                while ( ( message = queue.peek() ) != null )
+                {
+                    int recordSize = message.getRecordSize( message.recipients.size() );
+                    write( message );
+                    queue.poll();
+                    queuedBytes -= recordSize;
+                }
+
+                segment = current;
+            }
+
+            // The previous segments have been flushed when the current one was created
+            segment.buffer.force();
+        }
+    }
+
+
+    /**
+     * Reads a message.
+     *
+     * @param key The message key
+     * @return The message, or null if it's not present anymore
+     * @throws IOException If the message can't be read
+     */
+    public ReplicaEventMessage read( String key ) throws IOException
+    {
+        Message message = index.get( key );
+
+        if ( message == null )
+        {
+            return null;
+        }
+
+        // The payload is released once the record is written, after its position is set
+        byte[] payload = message.payload;
+
+        if ( payload != null )
+        {
+            return ( ReplicaEventMessage ) serializer.deserialize( payload );
+        }
+
+        long position = message.position;
+        Segment segment = segments.get( position >>> 32 );
+
+        if ( segment == null )
+        {
+            return null;
+        }
+
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position( ( int ) ( position & 0xFFFFFFFFL ) );
+        int length = buffer.getInt();
+        buffer.get();
+        int keyLength = buffer.getInt();
+        buffer.position( buffer.position() + keyLength );
+        int nbRecipients = buffer.getInt();
+        buffer.position( buffer.position() + 4 * nbRecipients );
+
+        payload = new byte[length - ( HEADER_SIZE - 4 ) - keyLength - 4 * nbRecipients];
+        buffer.get( payload );
+
+        return ( ReplicaEventMessage ) serializer.deserialize( payload );
+    }
+
+
+    /**
+     * Removes a consumer from the recipients of all the messages, when its log is deleted.
+     *
+     * @param replicaId The consumer's replica ID
+     */
+    public synchronized void removeReplica( int replicaId )
+    {
+        for ( Message message : index.values() )
+        {
+            message.recipients.remove( replicaId );
+        }
+
+        Message drop = new Message( DROP_RECORD, "", null );
+        drop.recipients.add( replicaId );
+        enqueue( drop );
+    }
+
+
+    /**
+     * Deletes the oldest segments, as long as they only contain messages older than the
+     * given CSN and than the given time. The current segment is never deleted.
+     *
+     * @param csn The CSN of the oldest message to keep
+     * @param olderThan The time before which the messages can be deleted
+     * @return The number of deleted segments
+     */
+    public int purge( String csn, long olderThan )
+    {
+        List<Segment> purged = new ArrayList<>();
+
+        synchronized ( this )
+        {
+            for ( Segment segment : segments.values() )
+            {
+                if ( segment == current )
+                {
+                    break;
+                }
+
+                if ( ( segment.maxCsn != null )
+                    && ( ( segment.maxCsn.compareTo( csn ) >= 0 ) || ( segment.maxTimestamp >= olderThan ) ) )
+                {
+                    // Only a prefix of the log is deleted
+                    break;
+                }
+
+                segments.remove( segment.id );
+                purged.add( segment );
+            }
+        }
+
+        if ( purged.isEmpty() )
+        {
+            return 0;
+        }
+
+        // Remove the purged messages, unless they are waiting to be written again
+        List<String> purgedKeys = new ArrayList<>();
+
+        for ( Map.Entry<String, Message> entry : index.headMap( csn ).entrySet() )
+        {
+            Message message = entry.getValue();
+
+            if ( ( message.payload == null ) && !segments.containsKey( message.position >>> 32 ) )
+            {
+                purgedKeys.add( entry.getKey() );
+            }
+        }
+
+        index.keySet().removeAll( purgedKeys );
+
+        for ( Segment segment : purged )
+        {
+            segment.close();
+
+            if ( !segment.file.delete() )
+            {
+                LOG.warn( "Failed to delete the replication log segment {}", segment.file );
+            }
+        }
+
+        LOG.debug( "Purged {} segments, {} messages older than {}", purged.size(), purgedKeys.size(), csn );
+
+        return purged.size();
+    }
+
+
+    /**
+     * @return The number of stored messages
+     */
+    public int size()
+    {
+        return index.size();
+    }
+
+
+    /**
+     * @return The number of segments
+     */
+    public int getNbSegments()
+    {
+        return segments.size();
+    }
+
+
+    /**
+     * @return The number of records waiting to be written
+     */
+    public synchronized int getNbQueued()
+    {
+        return queue.size();
+    }
+
+
+    /**
+     * @return The delay between two flushes, in milliseconds
+     */
+    public long getFlushInterval()
+    {
+        return flushInterval;
+    }
+
+
+    /**
+     * Sets the delay between two flushes of the appended messages. A crash loses the
+     * messages logged during this delay.
+     *
+     * @param flushInterval The delay, in milliseconds
+     */
+    public void setFlushInterval( long flushInterval )
+    {
+        this.flushInterval = flushInterval;
+    }
+
+
+    /**
+     * @return The number of queued bytes above which the queue is flushed at once
+     */
+    public int getFlushBatchSize()
+    {
+        return flushBatchSize;
+    }
+
+
+    /**
+     * @param flushBatchSize The number of queued bytes above which the queue is flushed at once
+     */
+    public void setFlushBatchSize( int flushBatchSize )
+    {
+        this.flushBatchSize = flushBatchSize;
+    }
+
+
+    /**
+     * Writes the queued records, stops the flusher thread, then flushes and closes the segments.
+     */
+    public void close()
+    {
+        closed = true;
+
+        if ( flusher != null )
+        {
+            flusher.interrupt();
+
+            try
+            {
+                flusher.join();
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            flusher = null;
+        }
+
+        try
+        {
+            sync();
+        }
+        catch ( IOException ioe )
+        {
+            LOG.error( "Failed to write the replication log", ioe );
+        }
+
+        synchronized ( this )
+        {
+            for ( Segment segment : segments.values() )
+            {
+                segment.buffer.force();
+                segment.close();
+            }
+
+            segments.clear();
+            index.clear();
+            queue.clear();
+            queuedBytes = 0L;
+            current = null;
+        }
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the modified entries are logged as deltas
+     */
+    public boolean isDeltaSync()
+    {
+        return deltaSync;
+    }
+
+
+    /**
+     * Tells if the modified entries should be logged as deltas, containing only the
+     * modifications, instead of full entries.
+     *
+     * @param deltaSync <tt>true</tt> to log the modified entries as deltas
+     */
+    public void setDeltaSync( boolean deltaSync )
+    {
+        this.deltaSync = deltaSync;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "SharedReplicaLog[directory=" + directory + ", segments=" + Arrays.toString( segments.keySet().toArray() )
+            + ", messages=" + index.size() + "]";
+    }
+}
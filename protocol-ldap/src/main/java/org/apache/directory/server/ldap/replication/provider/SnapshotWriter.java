@@ -0,0 +1,354 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.IntermediateResponse;
+import org.apache.directory.api.ldap.model.message.IntermediateResponseImpl;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.controls.ManageDsaIT;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.normalizers.ConcreteNameComponentNormalizer;
+import org.apache.directory.server.core.api.normalization.FilterNormalizingVisitor;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.CompactEntrySerializer;
+import org.apache.directory.server.ldap.LdapSession;
+import org.apache.directory.server.ldap.handlers.request.SearchResultWriter;
+import org.apache.directory.server.ldap.replication.SnapshotUtils;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.apache.directory.server.xdbm.search.Evaluator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Sends the initial content of a replica as a snapshot of the partition. The entries
+ * are read from the master table in a single read transaction, walking the Rdn index
+ * depth first so that the parents are sent before their children : there is no need to
+ * sort the entries, and the interceptor chain is not involved. Each entry is evaluated
+ * against the initial content filter, and the selected entries are sent in frames (see
+ * {@link SnapshotUtils}).
+ * <p>
+ * The entries which are modified while the snapshot is being sent have a CSN greater than
+ * the snapshot CSN : they are excluded by the filter, and sent from the replica log
+ * afterwards.
+ * <p>
+ * The snapshot is only used when the result is the same as the one a search would return :
+ * see {@link #isApplicable(LdapSession, SearchRequest, Partition)}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SnapshotWriter
+{
+    /** The logger for the replication provider */
+    private static final Logger PROVIDER_LOG = LoggerFactory.getLogger( Loggers.PROVIDER_LOG.getName() );
+
+    /** The session the snapshot is sent on */
+    private final LdapSession session;
+
+    /** The sync request */
+    private final SearchRequest request;
+
+    /** The partition we read the entries from */
+    private final AbstractBTreePartition partition;
+
+    /** The writer used to send the frames */
+    private final SearchResultWriter writer;
+
+    /** The serializer used to encode the entries */
+    private final CompactEntrySerializer serializer;
+
+    /** The frame being built */
+    private ByteArrayOutputStream frame;
+
+    /** The stream used to write into the frame */
+    private DataOutputStream frameOut;
+
+    /** The number of entries sent so far */
+    private long count;
+
+    /** A flag set when the client has closed the session or abandoned the request */
+    private boolean aborted;
+
+
+    /**
+     * Creates a new instance of SnapshotWriter.
+     *
+     * @param session The session the snapshot is sent on
+     * @param request The sync request
+     * @param partition The partition containing the request base
+     * @param writer The writer used to send the frames
+     */
+    public SnapshotWriter( LdapSession session, SearchRequest request, AbstractBTreePartition partition,
+        SearchResultWriter writer )
+    {
+        this.session = session;
+        this.request = request;
+        this.partition = partition;
+        this.writer = writer;
+        serializer = new CompactEntrySerializer( partition.getSchemaManager() );
+    }
+
+
+    /**
+     * Tells if the initial content can be sent as a snapshot. This is the case if the
+     * consumer has requested it, if the partition is a BTree partition, and if the request
+     * would return the stored entries, without size or time limit, with no special
+     * handling of aliases and referrals, and without any access control.
+     *
+     * @param session The session the request has been received on
+     * @param request The sync request
+     * @param partition The partition containing the request base
+     * @return <tt>true</tt> if the snapshot can be used
+     */
+    public static boolean isApplicable( LdapSession session, SearchRequest request, Partition partition )
+    {
+        return SnapshotUtils.hasSnapshotControl( request )
+            && ( partition instanceof AbstractBTreePartition )
+            && session.getCoreSession().isAnAdministrator()
+            && request.hasControl( ManageDsaIT.OID )
+            && ( request.getDerefAliases() == AliasDerefMode.NEVER_DEREF_ALIASES )
+            && ( request.getSizeLimit() == 0L )
+            && ( request.getTimeLimit() == 0 )
+            && !request.getTypesOnly()
+            && request.getAttributes().contains( SchemaConstants.ALL_USER_ATTRIBUTES );
+    }
+
+
+    /**
+     * Sends the entries selected by a filter.
+     *
+     * @param filter The initial content filter
+     * @return <tt>false</tt> if the snapshot can't be sent, because the base entry does
+     * not exist or the filter can't be evaluated : a normal search must be done instead
+     * @throws Exception If the entries can't be read or sent
+     */
+    public boolean write( ExprNode filter ) throws Exception
+    {
+        SchemaManager schemaManager = partition.getSchemaManager();
+        ExprNode normalizedFilter = ( ExprNode ) filter.accept( new FilterNormalizingVisitor(
+            new ConcreteNameComponentNormalizer( schemaManager ), schemaManager ) );
+
+        if ( normalizedFilter == null )
+        {
+            return false;
+        }
+
+        Dn baseDn = new Dn( schemaManager, request.getBase() );
+
+        try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
+        {
+            String baseId = partition.getEntryId( partitionTxn, baseDn );
+
+            if ( baseId == null )
+            {
+                return false;
+            }
+
+            Evaluator<? extends ExprNode> evaluator = partition.getSearchEngine().evaluator( partitionTxn,
+                normalizedFilter );
+
+            PROVIDER_LOG.debug( "Sending a snapshot of {} to {}", baseDn, session );
+
+            switch ( request.getScope() )
+            {
+                case OBJECT:
+                    send( partitionTxn, evaluator, baseId, baseDn );
+                    break;
+
+                case ONELEVEL:
+                    walk( partitionTxn, evaluator, baseId, baseDn, false );
+                    break;
+
+                case SUBTREE:
+                    send( partitionTxn, evaluator, baseId, baseDn );
+                    walk( partitionTxn, evaluator, baseId, baseDn, true );
+                    break;
+
+                default:
+                    throw new IllegalArgumentException( "Unexpected scope " + request.getScope() );
+            }
+
+            flushFrame();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        PROVIDER_LOG.debug( "Sent {} entries in the snapshot of {}", count, baseDn );
+
+        return true;
+    }
+
+
+    /**
+     * Walks the children of an entry, using the Rdn index
+     */
+    private void walk( PartitionTxn partitionTxn, Evaluator<? extends ExprNode> evaluator, String parentId,
+        Dn parentDn, boolean recursive ) throws Exception
+    {
+        Cursor<IndexEntry<ParentIdAndRdn, String>> cursor = partition.getRdnIndex().forwardCursor( partitionTxn );
+
+        try
+        {
+            IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<>();
+            startingPos.setKey( new ParentIdAndRdn( parentId, ( Rdn[] ) null ) );
+            cursor.before( startingPos );
+
+            while ( !isAborted() && cursor.next() )
+            {
+                IndexEntry<ParentIdAndRdn, String> child = cursor.get();
+                ParentIdAndRdn parentIdAndRdn = child.getKey();
+
+                if ( !parentId.equals( parentIdAndRdn.getParentId() ) )
+                {
+                    // No more children
+                    break;
+                }
+
+                Dn childDn = parentDn;
+                Rdn[] rdns = parentIdAndRdn.getRdns();
+
+                for ( int i = rdns.length - 1; i >= 0; i-- )
+                {
+                    childDn = childDn.add( rdns[i] );
+                }
+
+                String childId = child.getId();
+                send( partitionTxn, evaluator, childId, childDn );
+
+                if ( recursive && ( parentIdAndRdn.getNbDescendants() > 0 ) )
+                {
+                    walk( partitionTxn, evaluator, childId, childDn, true );
+                }
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    /**
+     * Adds an entry to the current frame if it's selected by the filter, and sends
+     * the frame if it's full
+     */
+    private void send( PartitionTxn partitionTxn, Evaluator<? extends ExprNode> evaluator, String id, Dn dn )
+        throws Exception
+    {
+        Entry entry = partition.fetch( partitionTxn, id, dn );
+
+        if ( ( entry == null ) || !evaluator.evaluate( entry ) )
+        {
+            return;
+        }
+
+        if ( frame == null )
+        {
+            frame = new ByteArrayOutputStream( SnapshotUtils.FRAME_SIZE + 4096 );
+            frameOut = new DataOutputStream( frame );
+            frameOut.writeByte( SnapshotUtils.VERSION );
+        }
+
+        SnapshotUtils.writeEntry( frameOut, serializer, entry );
+        count++;
+
+        if ( frame.size() >= SnapshotUtils.FRAME_SIZE )
+        {
+            flushFrame();
+        }
+    }
+
+
+    /**
+     * Sends the current frame, if any
+     */
+    private void flushFrame() throws Exception
+    {
+        if ( frame == null )
+        {
+            return;
+        }
+
+        frameOut.flush();
+
+        IntermediateResponse response = new IntermediateResponseImpl( request.getMessageId() );
+        response.setResponseName( SnapshotUtils.OID );
+        response.setResponseValue( frame.toByteArray() );
+
+        frame = null;
+        frameOut = null;
+
+        writer.write( response );
+        writer.flush();
+    }
+
+
+    /**
+     * Tells if we should stop sending the snapshot
+     */
+    private boolean isAborted()
+    {
+        if ( !aborted )
+        {
+            if ( session.getIoSession().isClosing() )
+            {
+                PROVIDER_LOG.debug( "Snapshot terminated for message {}, the client has closed the session",
+                    request.getMessageId() );
+                aborted = true;
+            }
+            else if ( request.isAbandoned() )
+            {
+                PROVIDER_LOG.debug( "Snapshot terminated by an AbandonRequest for message {}",
+                    request.getMessageId() );
+                aborted = true;
+            }
+        }
+
+        return aborted;
+    }
+
+
+    /**
+     * @return the number of entries sent so far
+     */
+    public long getCount()
+    {
+        return count;
+    }
+}
@@ -65,6 +65,8 @@ import org.apache.directory.api.ldap.model.filter.GreaterEqNode;
 import org.apache.directory.api.ldap.model.filter.LessEqNode;
 import org.apache.directory.api.ldap.model.filter.OrNode;
 import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.message.LdapResult;
 import org.apache.directory.api.ldap.model.message.ReferralImpl;
 import org.apache.directory.api.ldap.model.message.Response;
@@ -81,6 +83,7 @@ import org.apache.directory.api.ldap.model.message.controls.ManageDsaIT;
 import org.apache.directory.api.ldap.model.message.controls.SortKey;
 import org.apache.directory.api.ldap.model.message.controls.SortRequest;
 import org.apache.directory.api.ldap.model.message.controls.SortRequestImpl;
+import org.apache.directory.api.ldap.model.name.Ava;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.url.LdapUrl;
@@ -96,12 +99,15 @@ import org.apache.directory.server.core.api.interceptor.context.ModifyOperationC
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
 import org.apache.directory.server.ldap.LdapServer;
 import org.apache.directory.server.ldap.LdapSession;
 import org.apache.directory.server.ldap.handlers.SearchAbandonListener;
 import org.apache.directory.server.ldap.handlers.SearchTimeLimitingMonitor;
+import org.apache.directory.server.ldap.handlers.request.SearchResultWriter;
+import org.apache.directory.server.ldap.replication.DeltaSyncUtils;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -144,6 +150,15 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
     private ReplicaEventLogJanitor logJanitor;
 
+    /** The log shared by all the consumers */
+    private SharedReplicaLog sharedLog;
+
+    /** Tells if the modified entries are logged and sent as deltas */
+    private boolean deltaSync = false;
+
+    /** Tells if the initial content can be sent as a snapshot to the consumers requesting it */
+    private boolean snapshotRefresh = true;
+
     private AttributeType replLogMaxIdleAT;
 
     private AttributeType replLogPurgeThresholdCountAT;
@@ -199,12 +214,18 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 throw new IOException( I18n.err( I18n.ERR_112_COULD_NOT_CREATE_DIRECTORY, syncReplData ) );
             }
 
+            // Open the log shared by all the consumers
+            sharedLog = new SharedReplicaLog( syncReplData, dirService.getSchemaManager(),
+                SharedReplicaLog.DEFAULT_SEGMENT_SIZE );
+            sharedLog.setDeltaSync( deltaSync );
+            sharedLog.open();
+
             // Create the replication manager
-            replicaUtil = new ReplConsumerManager( dirService );
+            replicaUtil = new ReplConsumerManager( dirService, sharedLog );
 
             loadReplicaInfo();
 
-            logJanitor = new ReplicaEventLogJanitor( dirService, replicaLogMap );
+            logJanitor = new ReplicaEventLogJanitor( dirService, replicaLogMap, sharedLog );
             logJanitor.start();
 
             registerPersistentSearches();
@@ -274,6 +295,8 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
             }
         }
 
+        sharedLog.close();
+
         // flush the dirty repos
         storeReplicaInfo();
 
@@ -281,6 +304,55 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     }
 
 
+    /**
+     * @return <tt>true</tt> if the modified entries are logged and sent as deltas
+     */
+    public boolean isDeltaSync()
+    {
+        return deltaSync;
+    }
+
+
+    /**
+     * Enables or disables the delta sync. When enabled, a modified entry is logged with
+     * the applied modifications only, and sent this way to the consumers which have
+     * requested it. The other consumers still get the full entry.
+     *
+     * @param deltaSync <tt>true</tt> to log and send the modified entries as deltas
+     */
+    public void setDeltaSync( boolean deltaSync )
+    {
+        this.deltaSync = deltaSync;
+
+        if ( sharedLog != null )
+        {
+            sharedLog.setDeltaSync( deltaSync );
+        }
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the initial content can be sent as a snapshot
+     */
+    public boolean isSnapshotRefresh()
+    {
+        return snapshotRefresh;
+    }
+
+
+    /**
+     * Enables or disables the snapshot based initial refresh. When enabled, the initial
+     * content is read directly from the partition and sent in frames to the consumers
+     * which have requested it, instead of being searched and sent entry by entry.
+     *
+     * @param snapshotRefresh <tt>true</tt> to send the initial content as a snapshot
+     */
+    public void setSnapshotRefresh( boolean snapshotRefresh )
+    {
+        this.snapshotRefresh = snapshotRefresh;
+    }
+
+
     /**
      * Process the incoming search request sent by a remote server when trying to replicate.
      *
@@ -403,7 +475,14 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                         throw new IllegalStateException( I18n.err( I18n.ERR_686 ) );
                 }
 
-                sendSearchResultEntry( session, req, entry, syncStateType );
+                if ( replicaEventMessage.isDelta() )
+                {
+                    sendDelta( session, req, clientMsgLog, replicaEventMessage );
+                }
+                else
+                {
+                    sendSearchResultEntry( session, req, entry, syncStateType );
+                }
 
                 clientMsgLog.setLastSentCsn( lastSentCsn );
 
@@ -420,6 +499,86 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     }
 
 
+    /**
+     * Send a modification logged as a delta. If the consumer can't apply a delta, or if
+     * none of the modified attributes has been requested, we send the current content of
+     * the modified entry instead.
+     */
+    private void sendDelta( LdapSession session, SearchRequest req, ReplicaEventLog clientMsgLog,
+        ReplicaEventMessage replicaEventMessage ) throws Exception
+    {
+        Entry entry = replicaEventMessage.getEntry();
+
+        if ( clientMsgLog.isConsumerDeltaSync() )
+        {
+            List<Modification> modifications = DeltaSyncUtils.filterModifications( dirService.getSchemaManager(),
+                req.getAttributes(), replicaEventMessage.getModifications() );
+
+            if ( !modifications.isEmpty() )
+            {
+                Control deltaControl = DeltaSyncUtils.createResponseControl( dirService.getLdapCodecService(),
+                    entry.getDn(), modifications );
+                sendSearchResultEntry( session, req, entry, SyncStateTypeEnum.MODIFY, deltaControl );
+
+                return;
+            }
+        }
+
+        Entry currentEntry = fetchEntry( session, req, entry.get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+
+        if ( currentEntry == null )
+        {
+            // The entry has been deleted since, the consumer will get the DELETE message
+            PROVIDER_LOG.debug( "The modified entry {} does not exist anymore", entry.getDn() );
+
+            return;
+        }
+
+        if ( !currentEntry.getDn().equals( entry.getDn() ) )
+        {
+            // The entry has been renamed since : we keep the logged Dn and its Rdn values, the
+            // consumer will rename the entry when it gets the MODDN message
+            currentEntry.setDn( entry.getDn() );
+
+            for ( Ava ava : entry.getDn().getRdn() )
+            {
+                currentEntry.add( ava.getType(), ava.getValue() );
+            }
+        }
+
+        sendSearchResultEntry( session, req, currentEntry, SyncStateTypeEnum.MODIFY );
+    }
+
+
+    /**
+     * Read the current content of an entry, knowing its entryUUID
+     */
+    private Entry fetchEntry( LdapSession session, SearchRequest req, String entryUuid ) throws Exception
+    {
+        ExprNode filter = new EqualityNode<>( SchemaConstants.ENTRY_UUID_AT, entryUuid );
+        List<String> attributes = req.getAttributes();
+
+        Cursor<Entry> cursor = session.getCoreSession().search( req.getBase(), SearchScope.SUBTREE, filter,
+            AliasDerefMode.NEVER_DEREF_ALIASES, attributes.toArray( new String[attributes.size()] ) );
+
+        try
+        {
+            cursor.beforeFirst();
+
+            if ( cursor.next() )
+            {
+                return cursor.get();
+            }
+
+            return null;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
     /**
      * process the update of the consumer, starting from the given LastEntryCSN the consumer
      * has sent with the sync request.
@@ -430,6 +589,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         synchronized ( replicaLog )
         {
             boolean refreshNPersist = isRefreshNPersist( req );
+            replicaLog.setConsumerDeltaSync( DeltaSyncUtils.hasDeltaControl( req ) );
 
             // if this method is called with refreshAndPersist
             // means the client was offline after it initiated a persistent synch session
@@ -485,6 +645,9 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     {
         PROVIDER_LOG.debug( "Starting an initial refresh" );
 
+        Partition partition = dirService.getPartitionNexus().getPartition( request.getBase() );
+        boolean snapshot = snapshotRefresh && SnapshotWriter.isApplicable( session, request, partition );
+
         SortRequest ctrl = ( SortRequest ) request.getControl( SortRequest.OID );
 
         if ( ctrl != null )
@@ -494,17 +657,11 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
             request.removeControl( ctrl );
         }
 
-        PROVIDER_LOG
-            .debug( "Adding sort control to sort the entries by entryDn attribute to preserve order of insertion" );
-        SortKey sk = new SortKey( SchemaConstants.ENTRY_DN_AT );
-        // matchingrule for "entryDn"
-        sk.setMatchingRuleId( "2.5.13.1" );
-        sk.setReverseOrder( true );
-
-        ctrl = new SortRequestImpl();
-        ctrl.addSortKey( sk );
-
-        request.addControl( ctrl );
+        // The snapshot is read parents first, it does not need to be sorted
+        if ( !snapshot )
+        {
+            addEntryDnSortControl( request );
+        }
 
         String originalFilter = request.getFilter().toString();
         InetSocketAddress address = ( InetSocketAddress ) session.getIoSession().getRemoteAddress();
@@ -512,7 +669,6 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
         ExprNode modifiedFilter = modifyFilter( session, request );
 
-        Partition partition = dirService.getPartitionNexus().getPartition( request.getBase() );
         String contextCsn;
         
         try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
@@ -524,14 +680,10 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
         // first register a ReplicaEventLog before starting the initial content refresh
         // this is to log all the operations happen on DIT during initial content refresh
-        ReplicaEventLog replicaLog = null;
-        
-        try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
-        {
-            replicaLog = createReplicaEventLog( partitionTxn, hostName, originalFilter );
-        }
+        ReplicaEventLog replicaLog = createReplicaEventLog( hostName, originalFilter );
 
         replicaLog.setRefreshNPersist( refreshNPersist );
+        replicaLog.setConsumerDeltaSync( DeltaSyncUtils.hasDeltaControl( request ) );
         Value contexCsnValue = new Value( dirService.getAtProvider().getEntryCSN(), contextCsn );
 
         // modify the filter to include the context Csn
@@ -569,8 +721,24 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         ExprNode initialContentFilter = new AndNode( modifiedFilter, csnNode );
         request.setFilter( initialContentFilter );
 
-        // Now, do a search to get all the entries
-        SearchResultDone searchDoneResp = doSimpleSearch( session, request, replicaLog );
+        // Now, send a snapshot of the partition, or do a search to get all the entries
+        SearchResultDone searchDoneResp = null;
+
+        if ( snapshot )
+        {
+            searchDoneResp = doSnapshotSearch( session, request, ( AbstractBTreePartition ) partition );
+        }
+
+        if ( searchDoneResp == null )
+        {
+            if ( snapshot )
+            {
+                // The snapshot could not be sent, the search must preserve the order of insertion
+                addEntryDnSortControl( request );
+            }
+
+            searchDoneResp = doSimpleSearch( session, request, replicaLog );
+        }
 
         if ( searchDoneResp.getLdapResult().getResultCode() == ResultCodeEnum.SUCCESS )
         {
@@ -624,6 +792,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
             PROVIDER_LOG.warn( "initial content refresh didn't succeed due to {}", searchDoneResp.getLdapResult()
                 .getResultCode() );
             replicaLog.stop();
+            replicaLog.delete();
             replicaLog = null;
 
             // remove the listener
@@ -640,6 +809,55 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     }
 
 
+    /**
+     * Add a sort control to the request, so that the entries are sent ordered by entryDN, parents first
+     */
+    private void addEntryDnSortControl( SearchRequest request )
+    {
+        PROVIDER_LOG
+            .debug( "Adding sort control to sort the entries by entryDn attribute to preserve order of insertion" );
+        SortKey sk = new SortKey( SchemaConstants.ENTRY_DN_AT );
+        // matchingrule for "entryDn"
+        sk.setMatchingRuleId( "2.5.13.1" );
+        sk.setReverseOrder( true );
+
+        SortRequest ctrl = new SortRequestImpl();
+        ctrl.addSortKey( sk );
+
+        request.addControl( ctrl );
+    }
+
+
+    /**
+     * Send the initial content as a snapshot of the partition.
+     *
+     * @return The SearchResultDone to send, or null if the snapshot can't be sent and a
+     * normal search must be done
+     */
+    private SearchResultDone doSnapshotSearch( LdapSession session, SearchRequest req,
+        AbstractBTreePartition partition ) throws Exception
+    {
+        PROVIDER_LOG.debug( "Snapshot Search {} for {}", req, session );
+
+        SearchResultWriter writer = new SearchResultWriter( session.getIoSession(),
+            ldapServer.getDirectoryService().getLdapCodecService(), ldapServer.getSearchResultBatchSize(),
+            ldapServer.getMaxScheduledWriteBytes() );
+        SnapshotWriter snapshotWriter = new SnapshotWriter( session, req, partition, writer );
+
+        if ( !snapshotWriter.write( req.getFilter() ) )
+        {
+            PROVIDER_LOG.debug( "Cannot send a snapshot for {}, falling back to a search", req );
+
+            return null;
+        }
+
+        SearchResultDone searchDoneResp = ( SearchResultDone ) req.getResultResponse();
+        searchDoneResp.getLdapResult().setResultCode( ResultCodeEnum.SUCCESS );
+
+        return searchDoneResp;
+    }
+
+
     /**
      * Process a search on the provider to get all the modified entries. We then send all
      * of them to the consumer
@@ -759,6 +977,17 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
      */
     private void sendSearchResultEntry( LdapSession session, SearchRequest req, Entry entry,
         SyncStateTypeEnum syncStateType ) throws Exception
+    {
+        sendSearchResultEntry( session, req, entry, syncStateType, null );
+    }
+
+
+    /**
+     * Prepare and send a search result entry response, with the associated
+     * SyncState control and an optional delta sync control.
+     */
+    private void sendSearchResultEntry( LdapSession session, SearchRequest req, Entry entry,
+        SyncStateTypeEnum syncStateType, Control deltaControl ) throws Exception
     {
         Attribute uuid = entry.get( SchemaConstants.ENTRY_UUID_AT );
 
@@ -778,6 +1007,11 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         Response resp = generateResponse( session, req, entry );
         resp.addControl( syncStateControl );
 
+        if ( deltaControl != null )
+        {
+            resp.addControl( deltaControl );
+        }
+
         PROVIDER_LOG.debug( "Sending the entry:\n {}", resp );
         session.getIoSession().write( resp );
     }
@@ -1028,6 +1262,17 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 for ( ReplicaEventLog replica : eventLogs )
                 {
                     PROVIDER_LOG.debug( "initializing the replica log from {}", replica.getId() );
+
+                    try
+                    {
+                        replica.importLegacyJournal( syncReplData );
+                    }
+                    catch ( Exception e )
+                    {
+                        PROVIDER_LOG.error( "Failed to import the replication journal of the replica {}",
+                            replica.getId(), e );
+                    }
+
                     replicaLogMap.put( replica.getId(), replica );
                     eventLogNames.add( replica.getName() );
 
@@ -1046,7 +1291,10 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
             // remove unused logs
             for ( File f : getAllReplJournalNames() )
             {
-                if ( !eventLogNames.contains( f.getName() ) )
+                String name = f.getName();
+                name = name.substring( 0, name.lastIndexOf( '.' ) );
+
+                if ( !eventLogNames.contains( name ) )
                 {
                     f.delete();
                     PROVIDER_LOG.info( "removed unused replication event log {}", f );
@@ -1136,13 +1384,13 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     /**
      * Create a new ReplicaEventLog. Each replica will have a unique ID, created by the provider.
      */
-    private ReplicaEventLog createReplicaEventLog( PartitionTxn partitionTxn, String hostName, String filter ) throws Exception
+    private ReplicaEventLog createReplicaEventLog( String hostName, String filter ) throws Exception
     {
         int replicaId = replicaCount.incrementAndGet();
 
         PROVIDER_LOG.debug( "creating a new event log for the replica with id {}", replicaId );
 
-        ReplicaEventLog replicaLog = new ReplicaEventLog( partitionTxn, dirService, replicaId );
+        ReplicaEventLog replicaLog = new ReplicaEventLog( sharedLog, dirService, replicaId );
         replicaLog.setHostName( hostName );
         replicaLog.setSearchFilter( filter );
 
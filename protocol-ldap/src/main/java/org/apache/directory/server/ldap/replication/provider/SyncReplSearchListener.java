@@ -20,11 +20,14 @@
 package org.apache.directory.server.ldap.replication.provider;
 
 
+import java.util.List;
+
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncState.SyncStateTypeEnum;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncState.SyncStateValue;
 import org.apache.directory.api.ldap.extras.controls.syncrepl_impl.SyncStateValueDecorator;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
 import org.apache.directory.api.ldap.model.message.AbandonListener;
 import org.apache.directory.api.ldap.model.message.AbandonableRequest;
@@ -48,6 +51,7 @@ import org.apache.directory.server.core.api.interceptor.context.RenameOperationC
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
 import org.apache.directory.server.ldap.LdapSession;
+import org.apache.directory.server.ldap.replication.DeltaSyncUtils;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.apache.mina.core.future.WriteFuture;
 import org.slf4j.Logger;
@@ -311,16 +315,36 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
         try
         {
             //System.out.println( "MODIFY Listener : log " + alteredEntry.getDn() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODIFY, alteredEntry ) );
+            ReplicaEventMessage message = consumerMsgLog.createModifyMessage( alteredEntry,
+                modifyContext.getModItems() );
+            consumerMsgLog.log( message );
             
             if ( pushInRealTime )
             {
-
+                DirectoryService directoryService = session.getCoreSession().getDirectoryService();
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
                 resultEntry.setObjectName( modifyContext.getDn() );
-                resultEntry.setEntry( alteredEntry );
-
-                SyncStateValue syncModify = createControl( session.getCoreSession().getDirectoryService(), SyncStateTypeEnum.MODIFY, alteredEntry );
+                List<Modification> modifications = null;
+
+                if ( message.isDelta() && consumerMsgLog.isConsumerDeltaSync() )
+                {
+                    modifications = DeltaSyncUtils.filterModifications( directoryService.getSchemaManager(),
+                        searchRequest.getAttributes(), message.getModifications() );
+                }
+
+                if ( ( modifications != null ) && !modifications.isEmpty() )
+                {
+                    // Only send the modifications of the requested attributes
+                    resultEntry.setEntry( message.getEntry() );
+                    resultEntry.addControl( DeltaSyncUtils.createResponseControl(
+                        directoryService.getLdapCodecService(), modifyContext.getDn(), modifications ) );
+                }
+                else
+                {
+                    resultEntry.setEntry( alteredEntry );
+                }
+
+                SyncStateValue syncModify = createControl( directoryService, SyncStateTypeEnum.MODIFY, alteredEntry );
 
                 sendResult( resultEntry, alteredEntry, EventType.MODIFY, syncModify );
             }
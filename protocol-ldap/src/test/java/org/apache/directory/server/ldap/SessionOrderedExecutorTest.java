@@ -0,0 +1,113 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.apache.directory.api.ldap.model.message.BindRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.core.session.IoEventType;
+import org.apache.mina.core.session.IoSession;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link SessionOrderedExecutor} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SessionOrderedExecutorTest
+{
+    /** The tasks given to the delegate executor, which are run by the test */
+    private final List<Runnable> started = new ArrayList<>();
+
+    /** The names of the requests which have been run */
+    private final List<String> fired = new ArrayList<>();
+
+
+    private IoEvent event( IoSession session, Object message, final String name )
+    {
+        return new IoEvent( IoEventType.MESSAGE_RECEIVED, session, message )
+        {
+            @Override
+            public void fire()
+            {
+                fired.add( name );
+            }
+        };
+    }
+
+
+    @Test
+    public void testExclusiveRequests()
+    {
+        SessionOrderedExecutor executor = new SessionOrderedExecutor( new Executor()
+        {
+            @Override
+            public void execute( Runnable command )
+            {
+                started.add( command );
+            }
+        } );
+
+        IoSession session = new DummySession();
+        IoSession otherSession = new DummySession();
+
+        // The searches are started at once
+        executor.execute( event( session, new SearchRequestImpl(), "search1" ) );
+        executor.execute( event( session, new SearchRequestImpl(), "search2" ) );
+        assertEquals( 2, started.size() );
+
+        // The bind waits for the searches, and the next search waits for the bind
+        executor.execute( event( session, new BindRequestImpl(), "bind" ) );
+        executor.execute( event( session, new SearchRequestImpl(), "search3" ) );
+        assertEquals( 2, started.size() );
+
+        // Another session is not blocked
+        executor.execute( event( otherSession, new SearchRequestImpl(), "other" ) );
+        assertEquals( 3, started.size() );
+
+        started.get( 0 ).run();
+        assertEquals( 3, started.size() );
+
+        started.get( 1 ).run();
+        assertEquals( 4, started.size() );
+
+        started.get( 3 ).run();
+        assertEquals( 5, started.size() );
+
+        started.get( 4 ).run();
+        started.get( 2 ).run();
+
+        assertEquals( 5, started.size() );
+        assertEquals( "search1", fired.get( 0 ) );
+        assertEquals( "search2", fired.get( 1 ) );
+        assertEquals( "bind", fired.get( 2 ) );
+        assertEquals( "search3", fired.get( 3 ) );
+        assertEquals( "other", fired.get( 4 ) );
+    }
+}
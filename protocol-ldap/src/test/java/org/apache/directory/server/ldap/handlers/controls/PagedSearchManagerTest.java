@@ -0,0 +1,466 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.controls;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.MockCoreSession;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.MockOperationManager;
+import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
+import org.apache.directory.server.core.api.filtering.SizedCursor;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.ldap.LdapSession;
+import org.apache.mina.core.session.DummySession;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link PagedSearchManager} class : the contexts are checkpointed when the
+ * open cursors hold too much memory, and resumed after the last returned entry.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PagedSearchManagerTest
+{
+    /** The memory held by each candidate of the test cursors */
+    private static final long CANDIDATE_SIZE = 1024L;
+
+    private static SchemaManager schemaManager;
+
+    /** The entries returned by the searches */
+    private List<Entry> entries;
+
+    /** The cursors returned by the searches */
+    private List<EntryListCursor> cursors;
+
+    private LdapSession session;
+
+    private PagedSearchManager manager;
+
+
+    /**
+     * A cursor over a list of entries, which can be positioned on an entry
+     */
+    private static class EntryListCursor extends AbstractCursor<Entry> implements SizedCursor
+    {
+        private final List<Entry> entries;
+        private int position = -1;
+
+
+        private EntryListCursor( List<Entry> entries )
+        {
+            this.entries = new ArrayList<>( entries );
+        }
+
+
+        private int indexOf( Entry element )
+        {
+            for ( int i = 0; i < entries.size(); i++ )
+            {
+                if ( entries.get( i ).getDn().equals( element.getDn() ) )
+                {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+
+        @Override
+        public boolean available()
+        {
+            return ( position >= 0 ) && ( position < entries.size() );
+        }
+
+
+        @Override
+        public void before( Entry element ) throws LdapException, CursorException
+        {
+            int index = indexOf( element );
+            position = ( index < 0 ) ? entries.size() : index - 1;
+        }
+
+
+        @Override
+        public void after( Entry element ) throws LdapException, CursorException
+        {
+            int index = indexOf( element );
+            position = ( index < 0 ) ? entries.size() : index;
+        }
+
+
+        @Override
+        public void beforeFirst() throws LdapException, CursorException
+        {
+            position = -1;
+        }
+
+
+        @Override
+        public void afterLast() throws LdapException, CursorException
+        {
+            position = entries.size();
+        }
+
+
+        @Override
+        public boolean first() throws LdapException, CursorException
+        {
+            beforeFirst();
+
+            return next();
+        }
+
+
+        @Override
+        public boolean last() throws LdapException, CursorException
+        {
+            afterLast();
+
+            return previous();
+        }
+
+
+        @Override
+        public boolean next() throws LdapException, CursorException
+        {
+            if ( position < entries.size() )
+            {
+                position++;
+            }
+
+            return available();
+        }
+
+
+        @Override
+        public boolean previous() throws LdapException, CursorException
+        {
+            if ( position >= 0 )
+            {
+                position--;
+            }
+
+            return available();
+        }
+
+
+        @Override
+        public Entry get() throws CursorException
+        {
+            if ( !available() )
+            {
+                throw new InvalidCursorPositionException();
+            }
+
+            return entries.get( position );
+        }
+
+
+        @Override
+        public long getEstimatedSize()
+        {
+            return entries.size() * CANDIDATE_SIZE;
+        }
+
+
+        public String toString( String tabs )
+        {
+            return tabs + "EntryListCursor";
+        }
+    }
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+    }
+
+
+    @Before
+    public void init() throws Exception
+    {
+        entries = new ArrayList<>();
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            entries.add( new DefaultEntry( schemaManager, "cn=entry" + i + ",ou=system",
+                "objectClass: top",
+                "objectClass: person",
+                "cn: entry" + i,
+                "sn: entry" + i ) );
+        }
+
+        cursors = new ArrayList<>();
+
+        // The searches return a cursor over the current entries
+        MockDirectoryService directoryService = new MockDirectoryService()
+        {
+            @Override
+            public OperationManager getOperationManager()
+            {
+                return new MockOperationManager( 0 )
+                {
+                    @Override
+                    public EntryFilteringCursor search( SearchOperationContext searchContext ) throws LdapException
+                    {
+                        EntryListCursor cursor = new EntryListCursor( entries );
+                        cursors.add( cursor );
+
+                        return new EntryFilteringCursorImpl( cursor, searchContext, schemaManager );
+                    }
+                };
+            }
+        };
+
+        directoryService.setSchemaManager( schemaManager );
+        LdapPrincipal admin = new LdapPrincipal( schemaManager, new Dn( schemaManager, "uid=admin,ou=system" ),
+            AuthenticationLevel.STRONG );
+
+        session = new LdapSession( new DummySession() );
+        session.setCoreSession( new MockCoreSession( admin, directoryService ) );
+
+        manager = new PagedSearchManager();
+    }
+
+
+    private SearchRequest createRequest( int messageId ) throws Exception
+    {
+        SearchRequest request = new SearchRequestImpl();
+        request.setMessageId( messageId );
+        request.setBase( new Dn( schemaManager, "ou=system" ) );
+        request.setScope( SearchScope.ONELEVEL );
+        request.setFilter( "(objectClass=*)" );
+        request.setDerefAliases( AliasDerefMode.NEVER_DEREF_ALIASES );
+
+        return request;
+    }
+
+
+    /**
+     * Starts a paged search, as the SearchRequestHandler does
+     */
+    private PagedSearchContext startSearch( int messageId ) throws Exception
+    {
+        SearchRequest request = createRequest( messageId );
+        Cursor<Entry> cursor = session.getCoreSession().search( request );
+        cursor.beforeFirst();
+
+        PagedSearchContext context = new PagedSearchContext( request );
+        context.setCursor( cursor );
+        session.addPagedSearchContext( context );
+        manager.register( session, context );
+
+        return context;
+    }
+
+
+    /**
+     * Reads a page, as the SearchRequestHandler does, and returns the DN of its entries
+     */
+    private List<Dn> readPage( PagedSearchContext context, int pageSize ) throws Exception
+    {
+        Cursor<Entry> cursor = manager.acquire( session, context, context.getPreviousSearchRequest() );
+        List<Dn> page = new ArrayList<>();
+
+        try
+        {
+            while ( ( page.size() < pageSize ) && cursor.next() )
+            {
+                page.add( cursor.get().getDn() );
+            }
+
+            if ( !page.isEmpty() )
+            {
+                context.setLastEntryDn( page.get( page.size() - 1 ) );
+                context.incrementCurrentPosition( page.size() );
+            }
+        }
+        finally
+        {
+            manager.release( context );
+        }
+
+        // Make sure the contexts don't have the same last access time
+        Thread.sleep( 5L );
+
+        return page;
+    }
+
+
+    @Test
+    public void testCheckpointAndResume() throws Exception
+    {
+        long contextSize = PagedSearchManager.CONTEXT_SIZE + entries.size() * CANDIDATE_SIZE;
+
+        // Only one open cursor fits in the budget
+        manager.setMaxMemory( contextSize );
+
+        PagedSearchContext context1 = startSearch( 1 );
+        assertEquals( 3, readPage( context1, 3 ).size() );
+        assertEquals( contextSize, manager.getUsedMemory() );
+
+        // The second search checkpoints the least recently used one
+        PagedSearchContext context2 = startSearch( 2 );
+        assertTrue( context1.isCheckpointed() );
+        assertFalse( context2.isCheckpointed() );
+        assertTrue( cursors.get( 0 ).isClosed() );
+        assertEquals( 1L, manager.getCheckpointCount() );
+        assertEquals( 1, manager.getOpenCursorCount() );
+        assertEquals( 2, manager.getContextCount() );
+        assertEquals( contextSize, manager.getUsedMemory() );
+
+        // The first search is resumed after the last returned entry, and the second
+        // one is checkpointed in turn
+        List<Dn> page = readPage( context1, 3 );
+        assertEquals( entries.get( 3 ).getDn(), page.get( 0 ) );
+        assertEquals( entries.get( 5 ).getDn(), page.get( 2 ) );
+        assertEquals( 1L, manager.getResumeCount() );
+        assertFalse( context1.isCheckpointed() );
+        assertTrue( context2.isCheckpointed() );
+        assertEquals( contextSize, manager.getUsedMemory() );
+
+        // A context which has not returned anything yet is resumed from the start
+        page = readPage( context2, 2 );
+        assertEquals( entries.get( 0 ).getDn(), page.get( 0 ) );
+        assertEquals( entries.get( 1 ).getDn(), page.get( 1 ) );
+
+        // Removing the contexts frees the memory
+        session.removePagedSearchContext( context1.getCookieValue() );
+        manager.unregister( context1 );
+        session.removePagedSearchContext( context2.getCookieValue() );
+        manager.unregister( context2 );
+
+        assertEquals( 0, manager.getContextCount() );
+        assertEquals( 0, manager.getOpenCursorCount() );
+        assertEquals( 0L, manager.getUsedMemory() );
+    }
+
+
+    @Test
+    public void testResumeNotExact() throws Exception
+    {
+        long contextSize = PagedSearchManager.CONTEXT_SIZE + entries.size() * CANDIDATE_SIZE;
+        manager.setMaxMemory( contextSize );
+
+        PagedSearchContext context1 = startSearch( 1 );
+        readPage( context1, 3 );
+        startSearch( 2 );
+        assertTrue( context1.isCheckpointed() );
+
+        // The last returned entry has been deleted : we can't know where to resume
+        entries.remove( 2 );
+
+        try
+        {
+            manager.acquire( session, context1, context1.getPreviousSearchRequest() );
+            fail();
+        }
+        catch ( LdapUnwillingToPerformException uwtpe )
+        {
+            // Expected
+        }
+
+        // The context is gone, and the cursor opened to resume it has been closed
+        assertNull( session.getPagedSearchContext( context1.getCookieValue() ) );
+        assertEquals( 1, manager.getContextCount() );
+        assertEquals( 3, cursors.size() );
+        assertTrue( cursors.get( 2 ).isClosed() );
+        assertEquals( contextSize, manager.getUsedMemory() );
+    }
+
+
+    @Test
+    public void testBudget() throws Exception
+    {
+        long contextSize = PagedSearchManager.CONTEXT_SIZE + entries.size() * CANDIDATE_SIZE;
+
+        // Three open cursors fit in the budget
+        manager.setMaxMemory( 3 * contextSize );
+
+        List<PagedSearchContext> contexts = new ArrayList<>();
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            contexts.add( startSearch( i + 1 ) );
+            readPage( contexts.get( i ), 1 );
+        }
+
+        assertEquals( 0L, manager.getCheckpointCount() );
+        assertEquals( 3 * contextSize, manager.getUsedMemory() );
+
+        // The first context is being read : it's not checkpointed, the second one is
+        PagedSearchContext inUse = contexts.get( 0 );
+        Cursor<Entry> cursor = manager.acquire( session, inUse, inUse.getPreviousSearchRequest() );
+        assertSame( inUse.getCursor(), cursor );
+
+        contexts.add( startSearch( 4 ) );
+
+        assertFalse( contexts.get( 0 ).isCheckpointed() );
+        assertTrue( contexts.get( 1 ).isCheckpointed() );
+        assertFalse( contexts.get( 2 ).isCheckpointed() );
+        assertFalse( contexts.get( 3 ).isCheckpointed() );
+        assertEquals( 3, manager.getOpenCursorCount() );
+        assertEquals( 3 * contextSize, manager.getUsedMemory() );
+
+        manager.release( contexts.get( 0 ) );
+
+        // A smaller budget is enforced when the next context is registered
+        manager.setMaxMemory( contextSize );
+        contexts.add( startSearch( 5 ) );
+
+        assertEquals( 1, manager.getOpenCursorCount() );
+        assertEquals( contextSize, manager.getUsedMemory() );
+        assertFalse( contexts.get( 4 ).isCheckpointed() );
+    }
+}
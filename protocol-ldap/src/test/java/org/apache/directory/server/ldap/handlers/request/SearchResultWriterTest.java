@@ -0,0 +1,306 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.request;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.asn1.util.Asn1Buffer;
+import org.apache.directory.api.ldap.codec.api.LdapApiService;
+import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
+import org.apache.directory.api.ldap.codec.api.LdapEncoder;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.message.Response;
+import org.apache.directory.api.ldap.model.message.SearchResultEntry;
+import org.apache.directory.api.ldap.model.message.SearchResultEntryImpl;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.future.DefaultWriteFuture;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.core.session.DummySession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the SearchResultWriter.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SearchResultWriterTest
+{
+    private static final LdapApiService CODEC = LdapApiServiceFactory.getSingleton();
+
+    /** The session the writer writes into */
+    private RecordingSession session;
+
+    /** The number of bytes of an encoded entry */
+    private int entryLength;
+
+    private ExecutorService executor;
+
+
+    /**
+     * A session storing the written messages instead of sending them. The write futures
+     * are completed by the test.
+     */
+    private static class RecordingSession extends DummySession
+    {
+        private final List<Object> written = new CopyOnWriteArrayList<>();
+        private final List<DefaultWriteFuture> futures = new CopyOnWriteArrayList<>();
+
+
+        @Override
+        public WriteFuture write( Object message )
+        {
+            DefaultWriteFuture future = new DefaultWriteFuture( this );
+            futures.add( future );
+            written.add( message );
+
+            return future;
+        }
+    }
+
+
+    @Before
+    public void init() throws Exception
+    {
+        session = new RecordingSession();
+        entryLength = encode( response( 0 ) ).length;
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+
+    @After
+    public void shutdown() throws Exception
+    {
+        for ( DefaultWriteFuture future : session.futures )
+        {
+            future.setWritten();
+        }
+
+        executor.shutdown();
+        executor.awaitTermination( 10, TimeUnit.SECONDS );
+    }
+
+
+    /**
+     * All the responses have the same length
+     */
+    private static Response response( int number ) throws Exception
+    {
+        SearchResultEntry response = new SearchResultEntryImpl( 1 );
+        response.setEntry( new DefaultEntry( "cn=entry" + number + ",dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: entry" + number,
+            "sn: entry" ) );
+
+        return response;
+    }
+
+
+    private static byte[] encode( Response... responses ) throws Exception
+    {
+        IoBuffer expected = IoBuffer.allocate( 1024 );
+        expected.setAutoExpand( true );
+
+        for ( Response response : responses )
+        {
+            expected.put( LdapEncoder.encodeMessageReverse( new Asn1Buffer(), CODEC, response ) );
+        }
+
+        expected.flip();
+
+        return toBytes( expected );
+    }
+
+
+    private static byte[] toBytes( IoBuffer buffer )
+    {
+        ByteBuffer byteBuffer = buffer.buf().duplicate();
+        byte[] bytes = new byte[byteBuffer.remaining()];
+        byteBuffer.get( bytes );
+
+        return bytes;
+    }
+
+
+    private Future<Void> write( final SearchResultWriter writer, final Response response )
+    {
+        return executor.submit( new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                writer.write( response );
+
+                return null;
+            }
+        } );
+    }
+
+
+    /**
+     * Without batching, the responses are written as is
+     */
+    @Test
+    public void testNoBatching() throws Exception
+    {
+        SearchResultWriter writer = new SearchResultWriter( session, CODEC, 0, 0L );
+        Response response = response( 0 );
+
+        writer.write( response );
+        assertEquals( 1, session.written.size() );
+        assertSame( response, session.written.get( 0 ) );
+
+        writer.flush();
+        assertEquals( 1, session.written.size() );
+    }
+
+
+    /**
+     * The responses are written in a single buffer once the batch size is reached
+     */
+    @Test
+    public void testBatching() throws Exception
+    {
+        SearchResultWriter writer = new SearchResultWriter( session, CODEC, 3 * entryLength + 1,
+            SearchResultWriter.DEFAULT_MAX_SCHEDULED_WRITE_BYTES );
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            writer.write( response( i ) );
+        }
+
+        assertEquals( 0, session.written.size() );
+
+        // The fourth response fills the batch
+        writer.write( response( 3 ) );
+        assertEquals( 1, session.written.size() );
+        assertArrayEquals( encode( response( 0 ), response( 1 ), response( 2 ), response( 3 ) ),
+            toBytes( ( IoBuffer ) session.written.get( 0 ) ) );
+
+        // A new batch is started
+        writer.write( response( 4 ) );
+        assertEquals( 1, session.written.size() );
+    }
+
+
+    /**
+     * The pending responses are written when the writer is flushed, which is done when
+     * the search is done or abandoned
+     */
+    @Test
+    public void testFlush() throws Exception
+    {
+        SearchResultWriter writer = new SearchResultWriter( session, CODEC, SearchResultWriter.DEFAULT_BATCH_SIZE,
+            SearchResultWriter.DEFAULT_MAX_SCHEDULED_WRITE_BYTES );
+
+        // Nothing to write
+        writer.flush();
+        assertEquals( 0, session.written.size() );
+
+        writer.write( response( 0 ) );
+        writer.write( response( 1 ) );
+        assertEquals( 0, session.written.size() );
+
+        writer.flush();
+        assertEquals( 1, session.written.size() );
+        assertArrayEquals( encode( response( 0 ), response( 1 ) ), toBytes( ( IoBuffer ) session.written.get( 0 ) ) );
+
+        // The batch has been sent, it's not written twice
+        writer.flush();
+        assertEquals( 1, session.written.size() );
+    }
+
+
+    /**
+     * The buffer of a batch is reused for the next batch once it has been written
+     */
+    @Test
+    public void testBufferReuse() throws Exception
+    {
+        // Each response is written in its own batch
+        SearchResultWriter writer = new SearchResultWriter( session, CODEC, entryLength,
+            SearchResultWriter.DEFAULT_MAX_SCHEDULED_WRITE_BYTES );
+
+        writer.write( response( 0 ) );
+        IoBuffer first = ( IoBuffer ) session.written.get( 0 );
+        assertFalse( first.isDirect() );
+
+        // The first batch has not been written yet : a new buffer is used
+        writer.write( response( 1 ) );
+        IoBuffer second = ( IoBuffer ) session.written.get( 1 );
+        assertNotSame( first, second );
+
+        // Now, the buffer of the second batch can be reused
+        session.futures.get( 1 ).setWritten();
+        writer.write( response( 2 ) );
+        assertEquals( 3, session.written.size() );
+        assertSame( second, session.written.get( 2 ) );
+        assertArrayEquals( encode( response( 2 ) ), toBytes( second ) );
+    }
+
+
+    /**
+     * When too many bytes are scheduled for writing, the writer waits for the previous
+     * batch to be written before sending a new one
+     */
+    @Test
+    public void testBackPressure() throws Exception
+    {
+        // Each response is written in its own batch
+        SearchResultWriter writer = new SearchResultWriter( session, CODEC, 1, 10L * entryLength );
+
+        writer.write( response( 0 ) );
+        assertEquals( 1, session.written.size() );
+
+        // The client does not read its responses : the next batch waits
+        session.increaseScheduledWriteBytes( 20 * entryLength );
+        Future<Void> blocked = write( writer, response( 1 ) );
+        Thread.sleep( 200L );
+        assertFalse( blocked.isDone() );
+        assertEquals( 1, session.written.size() );
+
+        // Once the previous batch is written, the next one is sent
+        session.futures.get( 0 ).setWritten();
+        blocked.get( 10, TimeUnit.SECONDS );
+        assertEquals( 2, session.written.size() );
+
+        // Below the threshold, we don't wait for the previous batch
+        session.increaseScheduledWriteBytes( -20 * entryLength );
+        writer.write( response( 2 ) );
+        assertEquals( 3, session.written.size() );
+    }
+}
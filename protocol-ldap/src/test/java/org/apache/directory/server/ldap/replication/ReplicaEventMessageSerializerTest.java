@@ -0,0 +1,209 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.message.controls.ChangeType;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link ReplicaEventMessageSerializer} class, with full and delta messages.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaEventMessageSerializerTest
+{
+    /** The SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+    /** The tested serializer */
+    private static ReplicaEventMessageSerializer serializer;
+
+
+    /**
+     * Load the SchemaManager
+     */
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = ReplicaEventMessageSerializerTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        serializer = new ReplicaEventMessageSerializer( schemaManager );
+    }
+
+
+    private Entry createEntry() throws Exception
+    {
+        return new DefaultEntry( schemaManager, "cn=test,ou=system",
+            "ObjectClass: top",
+            "ObjectClass: person",
+            "cn: test",
+            "sn: test",
+            "description: a long description",
+            SchemaConstants.ENTRY_UUID_AT, "f1c3dd12-4a5c-4b4c-a3e3-ae6d2a3b0c3f",
+            SchemaConstants.ENTRY_CSN_AT, new CsnFactory( 1 ).newInstance().toString() );
+    }
+
+
+    @Test
+    public void testFullMessage() throws Exception
+    {
+        Entry entry = createEntry();
+        ReplicaEventMessage message = new ReplicaEventMessage( ChangeType.MODIFY, entry );
+
+        ReplicaEventMessage read = ( ReplicaEventMessage ) serializer.deserialize( serializer.serialize( message ) );
+
+        assertEquals( ChangeType.MODIFY, read.getChangeType() );
+        assertFalse( read.isDelta() );
+        assertNull( read.getModifications() );
+        assertEquals( entry, read.getEntry() );
+    }
+
+
+    @Test
+    public void testDeltaMessage() throws Exception
+    {
+        Entry entry = createEntry();
+        List<Modification> modifications = new ArrayList<>();
+        modifications.add( new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.getAttributeType( "description" ), "another description" ) ) );
+        modifications.add( new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.getAttributeType( "sn" ) ) ) );
+
+        Entry deltaEntry = DeltaSyncUtils.createDeltaEntry( schemaManager, entry );
+
+        // Only the Dn, the entryUUID and the entryCSN are kept
+        assertEquals( entry.getDn(), deltaEntry.getDn() );
+        assertEquals( 2, deltaEntry.size() );
+        assertEquals( entry.get( SchemaConstants.ENTRY_CSN_AT ), deltaEntry.get( SchemaConstants.ENTRY_CSN_AT ) );
+
+        ReplicaEventMessage message = new ReplicaEventMessage( deltaEntry, modifications );
+        byte[] serialized = serializer.serialize( message );
+
+        // The delta message is smaller than the full one
+        byte[] fullSerialized = serializer.serialize( new ReplicaEventMessage( ChangeType.MODIFY, entry ) );
+        assertTrue( serialized.length < fullSerialized.length );
+
+        ReplicaEventMessage read = ( ReplicaEventMessage ) serializer.deserialize( serialized );
+
+        assertEquals( ChangeType.MODIFY, read.getChangeType() );
+        assertTrue( read.isDelta() );
+        assertEquals( deltaEntry, read.getEntry() );
+        assertEquals( modifications, read.getModifications() );
+    }
+
+
+    @Test
+    public void testModificationsEncoding() throws Exception
+    {
+        List<Modification> modifications = new ArrayList<>();
+        modifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.getAttributeType( "cn" ), "test", "test2" ) ) );
+        modifications.add( new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.getAttributeType( "description" ) ) ) );
+
+        byte[] encoded = DeltaSyncUtils.encodeModifications( new Dn( schemaManager, "cn=test,ou=system" ),
+            modifications );
+
+        // The modifications are sent as an LDIF change
+        assertTrue( Strings.utf8ToString( encoded ).startsWith( "dn: cn=test,ou=system" ) );
+
+        List<Modification> read = DeltaSyncUtils.decodeModifications( schemaManager, encoded );
+
+        assertEquals( modifications, read );
+        assertEquals( schemaManager.getAttributeType( "cn" ), read.get( 0 ).getAttribute().getAttributeType() );
+    }
+
+
+    @Test
+    public void testFilterModifications() throws Exception
+    {
+        List<Modification> modifications = new ArrayList<>();
+        modifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.getAttributeType( "cn" ), "test" ) ) );
+        modifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.getAttributeType( "description" ), "test" ) ) );
+        modifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.getAttributeType( SchemaConstants.ENTRY_CSN_AT ),
+                new CsnFactory( 1 ).newInstance().toString() ) ) );
+
+        // All the user attributes
+        assertEquals( 2, DeltaSyncUtils.filterModifications( schemaManager, Arrays.asList( "*" ),
+            modifications ).size() );
+
+        // Some selected attributes, plus the operational attributes
+        List<Modification> filtered = DeltaSyncUtils.filterModifications( schemaManager,
+            Arrays.asList( "commonName", "+" ), modifications );
+        assertEquals( 2, filtered.size() );
+        assertEquals( modifications.get( 0 ), filtered.get( 0 ) );
+        assertEquals( modifications.get( 2 ), filtered.get( 1 ) );
+
+        // None of the modified attributes has been requested
+        assertTrue( DeltaSyncUtils.filterModifications( schemaManager, Arrays.asList( "sn" ),
+            modifications ).isEmpty() );
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.IntermediateResponse;
+import org.apache.directory.api.ldap.model.message.IntermediateResponseImpl;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.partition.impl.btree.CompactEntrySerializer;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the snapshot frames encoding, in {@link SnapshotUtils}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SnapshotUtilsTest
+{
+    /** The SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+    /** The entry serializer */
+    private static CompactEntrySerializer serializer;
+
+
+    /**
+     * Load the SchemaManager
+     */
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = SnapshotUtilsTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        serializer = new CompactEntrySerializer( schemaManager );
+    }
+
+
+    private Entry createEntry( String dn, String uuid, String... attributes ) throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager, dn, ( Object[] ) attributes );
+        entry.add( SchemaConstants.ENTRY_UUID_AT, uuid );
+        entry.add( SchemaConstants.ENTRY_CSN_AT, new CsnFactory( 1 ).newInstance().toString() );
+
+        return entry;
+    }
+
+
+    @Test
+    public void testFrame() throws Exception
+    {
+        List<Entry> entries = new ArrayList<>();
+        entries.add( createEntry( "ou=people,ou=system", "f1c3dd12-4a5c-4b4c-a3e3-ae6d2a3b0c3f",
+            "ObjectClass: top",
+            "ObjectClass: organizationalUnit",
+            "ou: people" ) );
+        entries.add( createEntry( "cn=John Doe,ou=people,ou=system", "0b5d4a0e-62a1-4f63-8a4c-5b2f0d3c1e7a",
+            "ObjectClass: top",
+            "ObjectClass: person",
+            "cn: John Doe",
+            "sn: Doe",
+            "description: a description" ) );
+
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+
+        try ( DataOutputStream out = new DataOutputStream( frame ) )
+        {
+            out.writeByte( SnapshotUtils.VERSION );
+
+            for ( Entry entry : entries )
+            {
+                SnapshotUtils.writeEntry( out, serializer, entry );
+            }
+        }
+
+        List<Entry> read = SnapshotUtils.readEntries( schemaManager, serializer, frame.toByteArray() );
+
+        // The entries are read in the order they were written, with their full Dn
+        assertEquals( entries, read );
+        assertEquals( entries.get( 1 ).getDn(), read.get( 1 ).getDn() );
+        assertTrue( read.get( 1 ).getDn().isSchemaAware() );
+    }
+
+
+    @Test
+    public void testEmptyFrame() throws Exception
+    {
+        assertTrue( SnapshotUtils.readEntries( schemaManager, serializer, new byte[]
+            { SnapshotUtils.VERSION } ).isEmpty() );
+        assertTrue( SnapshotUtils.readEntries( schemaManager, serializer, null ).isEmpty() );
+    }
+
+
+    @Test( expected = IOException.class )
+    public void testUnknownVersion() throws Exception
+    {
+        SnapshotUtils.readEntries( schemaManager, serializer, new byte[]
+            { 2 } );
+    }
+
+
+    @Test
+    public void testIsFrame()
+    {
+        IntermediateResponse response = new IntermediateResponseImpl( 1 );
+        assertFalse( SnapshotUtils.isFrame( response ) );
+
+        response.setResponseName( SnapshotUtils.OID );
+        assertTrue( SnapshotUtils.isFrame( response ) );
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.consumer;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Strings;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link ChangeApplier} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ChangeApplierTest
+{
+    /** A committer ignoring the cookies */
+    private static final ChangeApplier.CookieCommitter NO_COMMIT = new ChangeApplier.CookieCommitter()
+    {
+        @Override
+        public void commit( byte[] cookie )
+        {
+        }
+    };
+
+
+    private static void pause( Random random )
+    {
+        try
+        {
+            Thread.sleep( random.nextInt( 2 ) );
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    @Test
+    public void testSameEntryOrder() throws Exception
+    {
+        ChangeApplier applier = new ChangeApplier( "test", 4, 10, NO_COMMIT );
+        final Random random = new Random( 1L );
+        final List<List<Integer>> applied = new ArrayList<>();
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            applied.add( Collections.synchronizedList( new ArrayList<Integer>() ) );
+        }
+
+        try
+        {
+            for ( int i = 0; i < 500; i++ )
+            {
+                final int entry = i % 10;
+                final int change = i;
+
+                // Vary the UUID, only the Dn must be taken into account
+                applier.submit( new Dn( "cn=entry" + entry + ",ou=system" ), "uuid-" + i, null, new ChangeApplier.Task()
+                {
+                    @Override
+                    public void apply()
+                    {
+                        pause( random );
+                        applied.get( entry ).add( change );
+                    }
+                } );
+            }
+
+            applier.drain();
+
+            for ( int entry = 0; entry < 10; entry++ )
+            {
+                List<Integer> changes = applied.get( entry );
+                assertEquals( 50, changes.size() );
+
+                for ( int i = 0; i < changes.size(); i++ )
+                {
+                    assertEquals( Integer.valueOf( entry + i * 10 ), changes.get( i ) );
+                }
+            }
+
+            assertEquals( 0L, applier.getPendingCount() );
+        }
+        finally
+        {
+            applier.stop();
+        }
+    }
+
+
+    @Test
+    public void testChildAfterParent() throws Exception
+    {
+        ChangeApplier applier = new ChangeApplier( "test", 8, 10, NO_COMMIT );
+        final AtomicBoolean parentAdded = new AtomicBoolean( false );
+        final AtomicBoolean childAfterParent = new AtomicBoolean( false );
+
+        try
+        {
+            applier.submit( new Dn( "ou=parent,ou=system" ), "parent", null, new ChangeApplier.Task()
+            {
+                @Override
+                public void apply()
+                {
+                    try
+                    {
+                        Thread.sleep( 50 );
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+
+                    parentAdded.set( true );
+                }
+            } );
+
+            // A UUID which would be dispatched to another worker
+            applier.submit( new Dn( "cn=child,ou=parent,ou=system" ), "child", null, new ChangeApplier.Task()
+            {
+                @Override
+                public void apply()
+                {
+                    childAfterParent.set( parentAdded.get() );
+                }
+            } );
+
+            applier.drain();
+
+            assertTrue( childAfterParent.get() );
+        }
+        finally
+        {
+            applier.stop();
+        }
+    }
+
+
+    @Test
+    public void testCookieCommit() throws Exception
+    {
+        final int nbChanges = 1000;
+        final AtomicReferenceArray<Boolean> done = new AtomicReferenceArray<>( nbChanges );
+        final List<Integer> committed = Collections.synchronizedList( new ArrayList<Integer>() );
+        final AtomicBoolean ordered = new AtomicBoolean( true );
+
+        ChangeApplier applier = new ChangeApplier( "test", 4, 100, new ChangeApplier.CookieCommitter()
+        {
+            @Override
+            public void commit( byte[] cookie )
+            {
+                int position = Integer.parseInt( Strings.utf8ToString( cookie ) );
+
+                // All the previous changes must have been applied
+                for ( int i = 0; i <= position; i++ )
+                {
+                    if ( done.get( i ) == null )
+                    {
+                        ordered.set( false );
+                    }
+                }
+
+                committed.add( position );
+            }
+        } );
+
+        final Random random = new Random( 2L );
+
+        try
+        {
+            for ( int i = 0; i < nbChanges; i++ )
+            {
+                final int change = i;
+
+                applier.submit( new Dn( "cn=entry" + i + ",ou=system" ), "uuid-" + i, Strings.getBytesUtf8( Integer
+                    .toString( i ) ), new ChangeApplier.Task()
+                {
+                    @Override
+                    public void apply()
+                    {
+                        pause( random );
+                        done.set( change, Boolean.TRUE );
+                    }
+                } );
+            }
+
+            applier.drain();
+
+            assertTrue( ordered.get() );
+
+            // Fewer commits than changes, in increasing order, the last one being the last cookie
+            assertTrue( committed.size() < nbChanges );
+
+            for ( int i = 1; i < committed.size(); i++ )
+            {
+                assertTrue( committed.get( i - 1 ) < committed.get( i ) );
+            }
+
+            assertEquals( Integer.valueOf( nbChanges - 1 ), committed.get( committed.size() - 1 ) );
+        }
+        finally
+        {
+            applier.stop();
+        }
+    }
+
+
+    @Test
+    public void testFailedChange() throws Exception
+    {
+        final AtomicReference<String> lastCommitted = new AtomicReference<>();
+        final AtomicInteger nbApplied = new AtomicInteger();
+
+        ChangeApplier applier = new ChangeApplier( "test", 4, 1, new ChangeApplier.CookieCommitter()
+        {
+            @Override
+            public void commit( byte[] cookie )
+            {
+                lastCommitted.set( Strings.utf8ToString( cookie ) );
+            }
+        } );
+
+        ChangeApplier.Task count = new ChangeApplier.Task()
+        {
+            @Override
+            public void apply()
+            {
+                nbApplied.incrementAndGet();
+            }
+        };
+
+        try
+        {
+            // A first change, applied and committed
+            applier.submit( new Dn( "cn=entry0,ou=system" ), "uuid-0", Strings.getBytesUtf8( "0" ), count );
+
+            applier.drain();
+            assertEquals( "0", lastCommitted.get() );
+            assertFalse( applier.isFailed() );
+
+            // A change which fails, followed by some other changes on the same entry
+            applier.submit( new Dn( "cn=entry1,ou=system" ), "uuid-1", Strings.getBytesUtf8( "1" ),
+                new ChangeApplier.Task()
+                {
+                    @Override
+                    public void apply() throws Exception
+                    {
+                        throw new Exception( "BUSY" );
+                    }
+                } );
+
+            for ( int i = 2; i < 20; i++ )
+            {
+                applier.submit( new Dn( "cn=entry1,ou=system" ), "uuid-1",
+                    Strings.getBytesUtf8( Integer.toString( i ) ), count );
+            }
+
+            applier.drain();
+
+            // The cookie has not moved, and the next changes have been skipped
+            assertTrue( applier.isFailed() );
+            assertEquals( "0", lastCommitted.get() );
+            assertEquals( 1, nbApplied.get() );
+            assertEquals( 0L, applier.getPendingCount() );
+
+            // Once reset, the changes received again are applied
+            applier.reset();
+            assertFalse( applier.isFailed() );
+
+            applier.submit( new Dn( "cn=entry1,ou=system" ), "uuid-1", Strings.getBytesUtf8( "1" ), count );
+
+            applier.drain();
+            assertEquals( "1", lastCommitted.get() );
+            assertEquals( 2, nbApplied.get() );
+        }
+        finally
+        {
+            applier.stop();
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.Csn;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.controls.ChangeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link SharedReplicaLog} and {@link ReplicaJournalCursor} classes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SharedReplicaLogTest
+{
+    /** The SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+    /** The CsnFactory */
+    private static CsnFactory csnFactory;
+
+    /** The directory containing the segments */
+    private File logDir;
+
+    /** The tested log */
+    private SharedReplicaLog sharedLog;
+
+
+    /**
+     * Load the SchemaManager
+     */
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = SharedReplicaLogTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        csnFactory = new CsnFactory( 0 );
+    }
+
+
+    @Before
+    public void openLog() throws Exception
+    {
+        logDir = File.createTempFile( getClass().getSimpleName(), "" );
+        logDir.delete();
+        logDir.mkdirs();
+
+        // Small segments, so that we have many of them
+        sharedLog = new SharedReplicaLog( logDir, schemaManager, 4096 );
+        sharedLog.open();
+    }
+
+
+    @After
+    public void closeLog() throws Exception
+    {
+        if ( sharedLog != null )
+        {
+            sharedLog.close();
+        }
+
+        File[] files = logDir.listFiles();
+
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                file.delete();
+            }
+        }
+
+        logDir.delete();
+    }
+
+
+    private ReplicaEventMessage createMessage( Csn csn, int i ) throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager, "ou=test" + i + ",ou=system",
+            "ObjectClass: top",
+            "ObjectClass: organizationalUnit",
+            "ou", "test" + i,
+            SchemaConstants.ENTRY_CSN_AT, csn.toString() );
+
+        return new ReplicaEventMessage( ChangeType.ADD, entry );
+    }
+
+
+    private List<String> readAll( int replicaId, String consumerCsn ) throws Exception
+    {
+        List<String> dns = new ArrayList<>();
+
+        try ( ReplicaJournalCursor cursor = new ReplicaJournalCursor( sharedLog, replicaId, consumerCsn ) )
+        {
+            while ( cursor.next() )
+            {
+                dns.add( cursor.get().getEntry().getDn().getName() );
+            }
+        }
+
+        return dns;
+    }
+
+
+    @Test
+    public void testSharedMessages() throws Exception
+    {
+        List<Csn> csns = new ArrayList<>();
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            Csn csn = csnFactory.newInstance();
+            csns.add( csn );
+            ReplicaEventMessage message = createMessage( csn, i );
+
+            // Every message is sent to the replica 1, one out of two to the replica 2
+            sharedLog.append( 1, message );
+
+            if ( i % 2 == 0 )
+            {
+                sharedLog.append( 2, message );
+            }
+
+            sharedLog.sync();
+        }
+
+        // The messages are stored once
+        assertEquals( 100, sharedLog.size() );
+        assertTrue( sharedLog.getNbSegments() > 1 );
+
+        List<String> dns1 = readAll( 1, null );
+        assertEquals( 100, dns1.size() );
+        assertEquals( "ou=test0,ou=system", dns1.get( 0 ) );
+        assertEquals( "ou=test99,ou=system", dns1.get( 99 ) );
+
+        assertEquals( 50, readAll( 2, null ).size() );
+
+        // Starting from a consumer CSN skips the older messages
+        List<String> dns = readAll( 1, csns.get( 49 ).toString() );
+        assertEquals( 50, dns.size() );
+        assertEquals( "ou=test50,ou=system", dns.get( 0 ) );
+        assertEquals( 50, sharedLog.count( 1, csns.get( 49 ).toString() ) );
+        assertEquals( 25, sharedLog.count( 2, csns.get( 49 ).toString() ) );
+        assertEquals( 100, sharedLog.count( 1, null ) );
+    }
+
+
+    @Test
+    public void testQueuedMessages() throws Exception
+    {
+        sharedLog.setFlushInterval( 10L );
+        Csn csn = csnFactory.newInstance();
+        ReplicaEventMessage message = createMessage( csn, 0 );
+
+        // The message is readable before being written, and only queued once
+        sharedLog.append( 1, message );
+        sharedLog.append( 2, message );
+        assertEquals( 1, readAll( 1, null ).size() );
+        assertEquals( 1, readAll( 2, null ).size() );
+        assertTrue( sharedLog.getNbQueued() <= 1 );
+
+        // The flusher writes it
+        long end = System.currentTimeMillis() + 5000L;
+
+        while ( ( sharedLog.getNbQueued() > 0 ) && ( System.currentTimeMillis() < end ) )
+        {
+            Thread.sleep( 10L );
+        }
+
+        assertEquals( 0, sharedLog.getNbQueued() );
+        assertEquals( 1, readAll( 1, null ).size() );
+
+        // A consumer logging the message once it's written gets it too, after a restart
+        sharedLog.append( 3, message );
+        sharedLog.close();
+
+        sharedLog = new SharedReplicaLog( logDir, schemaManager, 4096 );
+        sharedLog.open();
+
+        assertEquals( 1, sharedLog.size() );
+        assertEquals( 1, readAll( 1, null ).size() );
+        assertEquals( 1, readAll( 2, null ).size() );
+        assertEquals( 1, readAll( 3, null ).size() );
+    }
+
+
+    @Test
+    public void testReopen() throws Exception
+    {
+        for ( int i = 0; i < 50; i++ )
+        {
+            ReplicaEventMessage message = createMessage( csnFactory.newInstance(), i );
+            sharedLog.append( 1, message );
+            sharedLog.append( 2, message );
+        }
+
+        sharedLog.sync();
+        sharedLog.removeReplica( 2 );
+        sharedLog.close();
+
+        sharedLog = new SharedReplicaLog( logDir, schemaManager, 4096 );
+        sharedLog.open();
+
+        assertEquals( 50, sharedLog.size() );
+        assertEquals( 50, readAll( 1, null ).size() );
+        assertEquals( 0, sharedLog.count( 2, null ) );
+        assertTrue( readAll( 2, null ).isEmpty() );
+
+        // And we can append after the last record
+        sharedLog.append( 1, createMessage( csnFactory.newInstance(), 50 ) );
+        assertEquals( 51, readAll( 1, null ).size() );
+    }
+
+
+    @Test
+    public void testPurge() throws Exception
+    {
+        List<Csn> csns = new ArrayList<>();
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            Csn csn = csnFactory.newInstance();
+            csns.add( csn );
+            sharedLog.append( 1, createMessage( csn, i ) );
+        }
+
+        sharedLog.sync();
+        int nbSegments = sharedLog.getNbSegments();
+        long now = System.currentTimeMillis() + 1000L;
+
+        // Nothing is older than the first CSN
+        assertEquals( 0, sharedLog.purge( csns.get( 0 ).toString(), now ) );
+
+        // The messages are too recent
+        assertEquals( 0, sharedLog.purge( csns.get( 60 ).toString(), csns.get( 0 ).getTimestamp() ) );
+
+        int nbPurged = sharedLog.purge( csns.get( 60 ).toString(), now );
+        assertTrue( nbPurged > 0 );
+        assertEquals( nbSegments - nbPurged, sharedLog.getNbSegments() );
+
+        // The messages newer than the purge CSN are still there
+        List<String> dns = readAll( 1, null );
+        assertTrue( dns.contains( "ou=test60,ou=system" ) );
+        assertTrue( dns.contains( "ou=test99,ou=system" ) );
+        assertFalse( dns.contains( "ou=test0,ou=system" ) );
+        assertEquals( dns.size(), sharedLog.size() );
+
+        String firstKey = sharedLog.getKeys( null ).first();
+        assertNull( sharedLog.read( csns.get( 0 ).toString() + "/" + ChangeType.ADD.getValue() ) );
+        assertTrue( sharedLog.read( firstKey ) != null );
+    }
+}
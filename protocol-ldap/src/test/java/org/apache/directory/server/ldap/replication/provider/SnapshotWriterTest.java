@@ -0,0 +1,334 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.IntermediateResponse;
+import org.apache.directory.api.ldap.model.message.Response;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.ManageDsaITImpl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.MockCoreSession;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.partition.impl.btree.CompactEntrySerializer;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmPartition;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.ldap.LdapSession;
+import org.apache.directory.server.ldap.MockPartitionTxn;
+import org.apache.directory.server.ldap.handlers.request.SearchResultWriter;
+import org.apache.directory.server.ldap.replication.SnapshotUtils;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.mina.core.session.DummySession;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link SnapshotWriter} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SnapshotWriterTest
+{
+    /** The SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+    /** The Dn factory */
+    private static DnFactory dnFactory;
+
+    /** The cache service used by the partition */
+    private static CacheService cacheService;
+
+    /** The temporary directory the partition files will be created in */
+    private static Path tempDir;
+
+    /** The partition the snapshot is read from */
+    private JdbmPartition partition;
+
+    /** The administrator session */
+    private LdapSession session;
+
+    /** The responses sent by the writer */
+    private List<Response> responses;
+
+    /** A writer storing the responses instead of sending them */
+    private SearchResultWriter writer;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        tempDir = Files.createTempDirectory( SnapshotWriterTest.class.getSimpleName() );
+
+        File schemaRepository = new File( tempDir.toFile(), "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( tempDir.toFile() );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        StoreUtils.createdExtraAttributes( schemaManager );
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache", String.class, Dn.class ) );
+    }
+
+
+    @Before
+    public void createPartition() throws Exception
+    {
+        partition = new JdbmPartition( schemaManager, dnFactory );
+        partition.setId( "example" );
+        partition.setCacheSize( 10 );
+        partition.setPartitionPath( tempDir.toUri() );
+        partition.setSyncOnWrite( false );
+        partition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        partition.setCacheService( cacheService );
+        partition.initialize();
+
+        StoreUtils.loadExampleData( partition, schemaManager );
+
+        DirectoryService directoryService = new MockDirectoryService();
+        directoryService.setSchemaManager( schemaManager );
+        LdapPrincipal admin = new LdapPrincipal( schemaManager, new Dn( schemaManager, "uid=admin,ou=system" ),
+            AuthenticationLevel.STRONG );
+
+        session = new LdapSession( new DummySession() );
+        session.setCoreSession( new MockCoreSession( admin, directoryService ) );
+
+        responses = new ArrayList<>();
+        writer = new SearchResultWriter( session.getIoSession(), null, 0, 0L )
+        {
+            @Override
+            public void write( Response response )
+            {
+                responses.add( response );
+            }
+
+
+            @Override
+            public void flush()
+            {
+            }
+        };
+    }
+
+
+    @After
+    public void destroyPartition() throws Exception
+    {
+        if ( partition != null )
+        {
+            partition.destroy( new MockPartitionTxn() );
+        }
+
+        for ( File file : tempDir.toFile().listFiles() )
+        {
+            if ( !file.isDirectory() )
+            {
+                file.delete();
+            }
+        }
+
+        partition = null;
+    }
+
+
+    @AfterClass
+    public static void cleanup() throws Exception
+    {
+        FileUtils.deleteDirectory( tempDir.toFile() );
+    }
+
+
+    private SearchRequest createRequest( String base, SearchScope scope ) throws Exception
+    {
+        SearchRequest request = new SearchRequestImpl();
+        request.setMessageId( 1 );
+        request.setBase( new Dn( schemaManager, base ) );
+        request.setScope( scope );
+        request.setFilter( "(objectClass=*)" );
+        request.setDerefAliases( AliasDerefMode.NEVER_DEREF_ALIASES );
+        request.addAttributes( SchemaConstants.ALL_USER_ATTRIBUTES );
+        request.addControl( new ManageDsaITImpl() );
+        request.addControl( SnapshotUtils.createRequestControl() );
+
+        return request;
+    }
+
+
+    /**
+     * Read the entries sent in the frames
+     */
+    private List<Entry> readEntries() throws Exception
+    {
+        CompactEntrySerializer serializer = new CompactEntrySerializer( schemaManager );
+        List<Entry> entries = new ArrayList<>();
+
+        for ( Response response : responses )
+        {
+            assertTrue( SnapshotUtils.isFrame( ( IntermediateResponse ) response ) );
+            entries.addAll( SnapshotUtils.readEntries( schemaManager, serializer,
+                ( ( IntermediateResponse ) response ).getResponseValue() ) );
+        }
+
+        return entries;
+    }
+
+
+    @Test
+    public void testIsApplicable() throws Exception
+    {
+        SearchRequest request = createRequest( "o=Good Times Co.", SearchScope.SUBTREE );
+        assertTrue( SnapshotWriter.isApplicable( session, request, partition ) );
+
+        // Not a BTree partition
+        assertFalse( SnapshotWriter.isApplicable( session, request, null ) );
+
+        // A size limit
+        request.setSizeLimit( 10L );
+        assertFalse( SnapshotWriter.isApplicable( session, request, partition ) );
+
+        // The consumer hasn't requested a snapshot
+        request = createRequest( "o=Good Times Co.", SearchScope.SUBTREE );
+        request.removeControl( request.getControl( SnapshotUtils.OID ) );
+        assertFalse( SnapshotWriter.isApplicable( session, request, partition ) );
+
+        // Aliases are dereferenced
+        request = createRequest( "o=Good Times Co.", SearchScope.SUBTREE );
+        request.setDerefAliases( AliasDerefMode.DEREF_ALWAYS );
+        assertFalse( SnapshotWriter.isApplicable( session, request, partition ) );
+    }
+
+
+    @Test
+    public void testWriteSubtree() throws Exception
+    {
+        SearchRequest request = createRequest( "o=Good Times Co.", SearchScope.SUBTREE );
+        SnapshotWriter snapshotWriter = new SnapshotWriter( session, request, partition, writer );
+
+        assertTrue( snapshotWriter.write( FilterParser.parse( schemaManager, "(objectClass=*)" ) ) );
+
+        List<Entry> entries = readEntries();
+        assertEquals( 11, entries.size() );
+        assertEquals( 11L, snapshotWriter.getCount() );
+
+        // The parents are always sent before their children
+        Set<Dn> sent = new HashSet<>();
+
+        for ( Entry entry : entries )
+        {
+            if ( sent.isEmpty() )
+            {
+                assertEquals( partition.getSuffixDn(), entry.getDn() );
+            }
+            else
+            {
+                assertTrue( sent.contains( entry.getDn().getParent() ) );
+            }
+
+            sent.add( entry.getDn() );
+        }
+    }
+
+
+    @Test
+    public void testWriteOneLevel() throws Exception
+    {
+        SearchRequest request = createRequest( "o=Good Times Co.", SearchScope.ONELEVEL );
+        SnapshotWriter snapshotWriter = new SnapshotWriter( session, request, partition, writer );
+
+        assertTrue( snapshotWriter.write( FilterParser.parse( schemaManager, "(objectClass=*)" ) ) );
+
+        List<Entry> entries = readEntries();
+        assertEquals( 3, entries.size() );
+
+        for ( Entry entry : entries )
+        {
+            assertEquals( partition.getSuffixDn(), entry.getDn().getParent() );
+        }
+    }
+
+
+    @Test
+    public void testWriteFiltered() throws Exception
+    {
+        SearchRequest request = createRequest( "o=Good Times Co.", SearchScope.SUBTREE );
+        SnapshotWriter snapshotWriter = new SnapshotWriter( session, request, partition, writer );
+
+        assertTrue( snapshotWriter.write( FilterParser.parse( schemaManager, "(ou=Sales)" ) ) );
+
+        List<Entry> entries = readEntries();
+        assertEquals( 1, entries.size() );
+        assertEquals( new Dn( schemaManager, "ou=Sales,o=Good Times Co." ), entries.get( 0 ).getDn() );
+    }
+
+
+    @Test
+    public void testWriteMissingBase() throws Exception
+    {
+        // The caller falls back to a search when the snapshot can't be sent
+        SearchRequest request = createRequest( "ou=Unknown,o=Good Times Co.", SearchScope.SUBTREE );
+        SnapshotWriter snapshotWriter = new SnapshotWriter( session, request, partition, writer );
+
+        assertFalse( snapshotWriter.write( FilterParser.parse( schemaManager, "(objectClass=*)" ) ) );
+        assertTrue( responses.isEmpty() );
+        assertEquals( 0L, snapshotWriter.getCount() );
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.protocol.shared.transport;
+
+
+/**
+ * The way the requests received on a TCP transport are executed. There is no configuration
+ * attribute for it : the mode is set on the transport with {@link TcpTransport#setExecutionMode}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public enum RequestExecutionMode
+{
+    /** The requests are executed by a pool of <code>nbThreads</code> platform threads */
+    THREAD_POOL("threadPool"),
+
+    /**
+     * Each request is executed by its own virtual thread, when the JVM supports them.
+     * Otherwise, the thread pool is used.
+     */
+    VIRTUAL_THREADS("virtualThreads");
+
+    /** The mode name */
+    private final String name;
+
+
+    private RequestExecutionMode( String name )
+    {
+        this.name = name;
+    }
+
+
+    /**
+     * @return The mode name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+
+    /**
+     * Gets the mode associated with a name. The default mode is THREAD_POOL.
+     *
+     * @param name The mode name, case insensitive
+     * @return The associated mode, or THREAD_POOL if the name is null or unknown
+     */
+    public static RequestExecutionMode getMode( String name )
+    {
+        for ( RequestExecutionMode mode : values() )
+        {
+            if ( mode.name.equalsIgnoreCase( name ) || mode.name().equalsIgnoreCase( name ) )
+            {
+                return mode;
+            }
+        }
+
+        return THREAD_POOL;
+    }
+}
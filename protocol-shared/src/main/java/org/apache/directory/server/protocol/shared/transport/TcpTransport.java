@@ -49,6 +49,9 @@ public class TcpTransport extends AbstractTransport
     /** The list of enabled ciphers */
     private List<String> cipherSuite;
 
+    /** The way the received requests are executed */
+    private RequestExecutionMode executionMode = RequestExecutionMode.THREAD_POOL;
+
     /** A logger for this class */
     private static final Logger LOG = LoggerFactory.getLogger( TcpTransport.class );
 
@@ -269,6 +272,26 @@ public class TcpTransport extends AbstractTransport
     }
 
 
+    /**
+     * @return The way the received requests are executed
+     */
+    public RequestExecutionMode getExecutionMode()
+    {
+        return executionMode;
+    }
+
+
+    /**
+     * Sets the way the received requests are executed
+     *
+     * @param executionMode The execution mode
+     */
+    public void setExecutionMode( RequestExecutionMode executionMode )
+    {
+        this.executionMode = executionMode;
+    }
+
+
     /**
      * @see Object#toString()
      */
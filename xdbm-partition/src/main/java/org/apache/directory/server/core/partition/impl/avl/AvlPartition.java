@@ -31,6 +31,7 @@ import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionReadTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.EntryLockManager;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
 import org.apache.directory.server.xdbm.impl.avl.AvlMasterTable;
@@ -88,6 +89,17 @@ public class AvlPartition extends AbstractBTreePartition
     }
 
     
+    /**
+     * The AVL trees can't be updated concurrently, so all the writes are serialized
+     * using a single stripe.
+     */
+    @Override
+    protected EntryLockManager createEntryLockManager()
+    {
+        return new EntryLockManager( 1 );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -180,6 +192,7 @@ public class AvlPartition extends AbstractBTreePartition
             LOG.debug( "Supplied index {} is not a AvlIndex. "
                 + "Will create new AvlIndex using copied configuration parameters.", index );
             avlIndex = new AvlIndex( index.getAttributeId(), true );
+            avlIndex.setSubstringIndexed( index.isSubstringIndexed() );
         }
 
         avlIndex.init( schemaManager, schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ) );
@@ -23,14 +23,23 @@ package org.apache.directory.server.core.partition.impl.btree;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -85,17 +94,23 @@ import org.apache.directory.server.core.api.interceptor.context.RenameOperationC
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
 import org.apache.directory.server.core.api.partition.AbstractPartition;
+import org.apache.directory.server.core.api.partition.EntryLockingPartition;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.api.partition.Subordinates;
+import org.apache.directory.server.core.partition.impl.btree.EntryLockManager.EntryLock;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.IndexStatistics;
+import org.apache.directory.server.xdbm.NGramIndex;
 import org.apache.directory.server.xdbm.MasterTable;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.Table;
+import org.apache.directory.server.xdbm.impl.avl.AvlTable;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
@@ -108,7 +123,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-public abstract class AbstractBTreePartition extends AbstractPartition implements Store
+public abstract class AbstractBTreePartition extends AbstractPartition implements Store, EntryLockingPartition
 {
     /** static logger */
     private static final Logger LOG = LoggerFactory.getLogger( AbstractBTreePartition.class );
@@ -128,6 +143,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** The Entry cache size for this partition */
     protected int cacheSize = DEFAULT_CACHE_SIZE;
 
+    /** The number of bytes of the off-heap entry cache. When 0, the entries are cached on the heap */
+    protected long offHeapCacheSize;
+
+    /** The off-heap entry cache, if the partition implementation supports it */
+    protected OffHeapEntryCache offHeapEntryCache;
+
     /** The alias cache */
     protected Cache< String, Dn > aliasCache;
 
@@ -155,6 +176,21 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** a map of attributeType numeric UUID to system userIndices */
     protected Map<String, Index<?, String>> systemIndices = new HashMap<>();
 
+    /** a map of attributeType numeric UUID to user indices statistics, built on demand */
+    private final Map<String, IndexStatistics> indexStatistics = new ConcurrentHashMap<>();
+
+    /**
+     * The attributeType numeric UUID of the user indices which statistics are being built, with
+     * the updates committed while they are built. Guarded by itself.
+     */
+    private final Map<String, List<StatisticsDelta>> pendingStatistics = new HashMap<>();
+
+    /** The thread building the index statistics, so that the searches never wait for them */
+    private ExecutorService statisticsBuilder;
+
+    /** a map of attributeType numeric UUID to user indices n-gram indexes, created at initialization */
+    private final Map<String, NGramIndex> ngramIndexes = new ConcurrentHashMap<>();
+
     /** the relative distinguished name index */
     protected Index<ParentIdAndRdn, String> rdnIdx;
 
@@ -194,6 +230,20 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** Cached value for TOP */
     private Value topOCValue;
 
+    /** The comparator used for the index keys when the attribute has no equality comparator */
+    private static final Comparator<Object> NATURAL_ORDER = new Comparator<Object>()
+    {
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compare( Object key1, Object key2 )
+        {
+            return ( ( Comparable<Object> ) key1 ).compareTo( key2 );
+        }
+    };
+
+    /** Above this number of descendants, the DN cache is cleared instead of walking a moved subtree */
+    private static final int MAX_DN_CACHE_INVALIDATIONS = 1000;
+
     private static final boolean NO_REVERSE = Boolean.FALSE;
     private static final boolean WITH_REVERSE = Boolean.TRUE;
 
@@ -208,6 +258,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     
     /** a semaphore to serialize the writes on context entry while updating contextCSN attribute */
     private Semaphore ctxCsnSemaphore = new Semaphore( 1 );
+
+    /** The striped locks protecting the entries against concurrent updates */
+    private EntryLockManager entryLockManager;
     
     // ------------------------------------------------------------------------
     // C O N S T R U C T O R S
@@ -304,6 +357,58 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * @return The number of bytes of the off-heap entry cache, 0 if the entries are cached on the heap
+     */
+    public long getOffHeapCacheSize()
+    {
+        return offHeapCacheSize;
+    }
+
+
+    /**
+     * Stores the serialized entries out of the heap, in a cache bounded by a number of
+     * bytes instead of a number of entries. When set, this cache replaces the on-heap
+     * entry cache. It must be set before the partition is initialized.
+     * <p>
+     * The cache memory is allocated as direct buffers, which are limited by the
+     * <i>-XX:MaxDirectMemorySize</i> JVM option, and by default by the maximum heap size.
+     * This limit is shared by all the partitions and by the network layer, so it must be
+     * raised above the sum of the off-heap cache sizes : otherwise, an OutOfMemoryError is
+     * thrown when the cache grows beyond it.
+     *
+     * @param offHeapCacheSize The number of bytes of the off-heap entry cache, 0 to disable it
+     */
+    public void setOffHeapCacheSize( long offHeapCacheSize )
+    {
+        checkInitialized( "offHeapCacheSize" );
+        this.offHeapCacheSize = offHeapCacheSize;
+    }
+
+
+    /**
+     * Creates the off-heap entry cache, if its size is set. The entries are cached using the
+     * compact format, which allows the search projections to decode only the attributes they need.
+     * The partitions which support this cache call this method when they are initialized.
+     */
+    protected void initOffHeapEntryCache()
+    {
+        if ( offHeapCacheSize > 0 )
+        {
+            offHeapEntryCache = new OffHeapEntryCache( offHeapCacheSize, new CompactEntrySerializer( schemaManager ) );
+        }
+    }
+
+
+    /**
+     * @return The off-heap entry cache, or null if it's not used. It exposes the cache metrics
+     */
+    public OffHeapEntryCache getOffHeapEntryCache()
+    {
+        return offHeapEntryCache;
+    }
+
+
     /**
      * Tells if the Optimizer is enabled or not
      * @return true if the optimizer is enabled
@@ -483,6 +588,75 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Creates the n-gram indexes of the substring indexed user indices. This method is called
+     * once the user indices have been initialized.
+     *
+     * @throws LdapException If a n-gram table can't be created
+     */
+    protected void setupNGramIndexes() throws LdapException
+    {
+        for ( Index<?, String> userIndex : userIndices.values() )
+        {
+            AttributeType attributeType = userIndex.getAttribute();
+
+            if ( userIndex.isSubstringIndexed() && ( attributeType.getSubstring() != null )
+                && attributeType.getSyntax().isHumanReadable() )
+            {
+                ngramIndexes.put( attributeType.getOid(), new NGramIndex( createNGramTable( attributeType ) ) );
+            }
+        }
+    }
+
+
+    /**
+     * Creates the table storing the &lt;n-gram, key&gt; tuples of a user index. The table
+     * must allow duplicated keys. The default table is kept in memory : the persistent
+     * backends should store it with their indexes.
+     *
+     * @param attributeType The indexed attributeType
+     * @return The n-gram table
+     * @throws LdapException If the table can't be created
+     */
+    @SuppressWarnings("unchecked")
+    protected Table<String, String> createNGramTable( AttributeType attributeType ) throws LdapException
+    {
+        Comparator<String> comparator = ( Comparator<String> ) getKeyComparator( attributeType );
+
+        return new AvlTable<>( attributeType.getOid() + NGramIndex.NGRAM_BTREE, comparator, comparator, true );
+    }
+
+
+    /**
+     * Fills the empty n-gram indexes which user index is not empty, walking the user index
+     * keys. It is the case when a n-gram table has just been created, or when the user
+     * index has been built after the n-gram indexes were set up.
+     *
+     * @throws LdapException If a n-gram index can't be built
+     */
+    protected void buildNGramIndexes() throws LdapException
+    {
+        for ( Map.Entry<String, NGramIndex> entry : ngramIndexes.entrySet() )
+        {
+            Index<?, String> userIndex = userIndices.get( entry.getKey() );
+            NGramIndex ngramIndex = entry.getValue();
+
+            try ( PartitionTxn partitionTxn = beginWriteTransaction() )
+            {
+                if ( ngramIndex.isEmpty( partitionTxn ) && ( userIndex.count( partitionTxn ) > 0L ) )
+                {
+                    LOG.info( "Building the n-gram index for attribute type {}", userIndex.getAttribute() );
+                    ngramIndex.build( partitionTxn, userIndex );
+                }
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+        }
+    }
+
+
     /**
      * Gets the DefaultSearchEngine used by this ContextPartition to search the
      * Database.
@@ -539,10 +713,31 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // don't reset initialized flag
         initialized = false;
 
+        if ( statisticsBuilder != null )
+        {
+            statisticsBuilder.shutdownNow();
+        }
+
         entryDnCache.clear();
         
         MultiException errors = new MultiException( I18n.err( I18n.ERR_577 ) );
 
+        for ( NGramIndex ngramIndex : ngramIndexes.values() )
+        {
+            try
+            {
+                ngramIndex.close( partitionTxn );
+                LOG.debug( "Closed {} for {} partition.", ngramIndex, suffixDn );
+            }
+            catch ( Throwable t )
+            {
+                LOG.error( I18n.err( I18n.ERR_124 ), t );
+                errors.addThrowable( t );
+            }
+        }
+
+        ngramIndexes.clear();
+
         for ( Index<?, String> index : userIndices.values() )
         {
             try
@@ -586,6 +781,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             errors.addThrowable( t );
         }
 
+        if ( offHeapEntryCache != null )
+        {
+            offHeapEntryCache.close();
+        }
+
         if ( errors.size() > 0 )
         {
             throw new LdapOtherException( errors.getMessage(), errors );
@@ -604,12 +804,55 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Creates the striped locks used to protect the entries against concurrent updates.
+     * Backends which indexes can't be updated concurrently should use a single stripe.
+     *
+     * @return The {@link EntryLockManager} to use for this partition
+     */
+    protected EntryLockManager createEntryLockManager()
+    {
+        return new EntryLockManager();
+    }
+
+
+    /**
+     * The {@link EntryLockManager} stripes protect the entries, but the modifications of
+     * distinct entries can only be applied concurrently if the backend isolates their write
+     * transactions. It's not the case of the JDBM and Mavibot partitions, which commit or
+     * roll back all the pending writes of the partition at once, nor of the AVL partition,
+     * which trees can't be read while they are updated : the modifications hold the partition
+     * lock in exclusive mode. The index statistics and n-grams maintenance rely on it too.
+     *
+     * @return <tt>false</tt> by default
+     */
+    @Override
+    public boolean isConcurrentModifySupported()
+    {
+        return false;
+    }
+
+
     /**
      * {@inheritDoc}
      */
     @Override
     protected void doInit() throws LdapException
     {
+        entryLockManager = createEntryLockManager();
+
+        statisticsBuilder = Executors.newSingleThreadExecutor( new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "IndexStatistics-" + getId() );
+                thread.setDaemon( true );
+
+                return thread;
+            }
+        } );
+
         // First, inject the indexed attributes if any
         if ( ( indexedAttributes != null ) && ( !indexedAttributes.isEmpty() ) )
         {
@@ -622,6 +865,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // Now, initialize the configured index
         setupSystemIndices();
         setupUserIndices();
+        setupNGramIndexes();
+        buildNGramIndexes();
 
         if ( cacheService != null )
         {
@@ -746,12 +991,15 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         assert ( partitionTxn != null );
         assert ( partitionTxn instanceof PartitionWriteTxn );
 
+        EntryLock entryLock = null;
+
         try
         {
             setRWLock( addContext );
             Entry entry = ( ( ClonedServerEntry ) addContext.getEntry() ).getClonedEntry();
 
             Dn entryDn = entry.getDn();
+            entryLock = entryLockManager.lockSubtree( entryDn );
 
             // check if the entry already exists
             lockRead();
@@ -899,7 +1147,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     for ( Value value : attribute )
                     {
                         String normalized = value.getNormalized();
-                        userIndex.add( partitionTxn, normalized, id );
+                        addToUserIndex( partitionTxn, userIndex, normalized, id );
                     }
 
                     // Adds only those attributes that are indexed
@@ -945,6 +1193,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             throw new LdapException( e );
         }
+        finally
+        {
+            if ( entryLock != null )
+            {
+                entryLock.unlock();
+            }
+        }
     }
 
 
@@ -966,36 +1221,45 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         Dn dn = deleteContext.getDn();
         String id = null;
 
-        lockRead();
+        EntryLock entryLock = entryLockManager.lockSubtree( dn );
 
         try
         {
-            id = getEntryId( partitionTxn, dn );
+            lockRead();
+    
+            try
+            {
+                id = getEntryId( partitionTxn, dn );
+            }
+            finally
+            {
+                unlockRead();
+            }
+    
+            // don't continue if id is null
+            if ( id == null )
+            {
+                throw new LdapNoSuchObjectException( I18n.err( I18n.ERR_699, dn ) );
+            }
+    
+            long childCount = getChildCount( partitionTxn, id );
+    
+            if ( childCount > 0 )
+            {
+                throw new LdapContextNotEmptyException( I18n.err( I18n.ERR_700, dn ) );
+            }
+    
+            // We now defer the deletion to the implementing class
+            Entry deletedEntry = delete( partitionTxn, id );
+    
+            updateCache( deleteContext );
+            
+            return deletedEntry;
         }
         finally
         {
-            unlockRead();
-        }
-
-        // don't continue if id is null
-        if ( id == null )
-        {
-            throw new LdapNoSuchObjectException( I18n.err( I18n.ERR_699, dn ) );
-        }
-
-        long childCount = getChildCount( partitionTxn, id );
-
-        if ( childCount > 0 )
-        {
-            throw new LdapContextNotEmptyException( I18n.err( I18n.ERR_700, dn ) );
+            entryLock.unlock();
         }
-
-        // We now defer the deletion to the implementing class
-        Entry deletedEntry = delete( partitionTxn, id );
-
-        updateCache( deleteContext );
-        
-        return deletedEntry;
     }
 
 
@@ -1140,7 +1404,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     for ( Value value : attribute )
                     {
                         String normalized =  value.getNormalized();
-                        ( ( Index ) userIndex ).drop( partitionTxn, normalized, id );
+                        dropFromUserIndex( partitionTxn, userIndex, normalized, id );
                     }
 
                     presenceIdx.drop( partitionTxn, attributeOid, id );
@@ -1222,7 +1486,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             
             PartitionSearchResult searchResult = searchEngine.computeResult( partitionTxn, schemaManager, searchContext );
 
-            Cursor<Entry> result = new EntryCursorAdaptor( partitionTxn, this, searchResult );
+            EntryProjection projection = EntryProjection.create( searchContext, schemaManager );
+            Cursor<Entry> result = new EntryCursorAdaptor( partitionTxn, this, searchResult, projection );
 
             return new EntryFilteringCursorImpl( result, searchContext, schemaManager );
         }
@@ -1392,6 +1657,118 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Get back the projected attributes of an entry knowing its UUID. The entry cache
+     * is used, but the projected entries are never added to it.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The Entry UUID we want to get back
+     * @param projection The attributes to read, or null to read the full entry
+     * @return The found Entry, or null if not found
+     * @throws LdapException If the lookup failed for any reason (except a not found entry)
+     */
+    public Entry fetch( PartitionTxn partitionTxn, String id, EntryProjection projection ) throws LdapException
+    {
+        if ( projection == null )
+        {
+            return fetch( partitionTxn, id );
+        }
+
+        try
+        {
+            rwLock.readLock().lock();
+
+            Dn dn = buildEntryDn( partitionTxn, id );
+
+            return fetch( partitionTxn, id, dn, projection );
+        }
+        catch ( Exception e )
+        {
+            throw new LdapOperationErrorException( e.getMessage(), e );
+        }
+        finally
+        {
+            rwLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Get back the projected attributes of an entry knowing its UUID and its DN.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The Entry UUID we want to get back
+     * @param dn The entry DN
+     * @param projection The attributes to read, or null to read the full entry
+     * @return The found Entry, or null if not found
+     * @throws LdapException If the lookup failed for any reason (except a not found entry)
+     */
+    public Entry fetch( PartitionTxn partitionTxn, String id, Dn dn, EntryProjection projection )
+        throws LdapException
+    {
+        if ( projection == null )
+        {
+            return fetch( partitionTxn, id, dn );
+        }
+
+        try
+        {
+            Entry entry = lookupCache( id, projection );
+
+            if ( entry == null )
+            {
+                Entry fullEntry;
+
+                try
+                {
+                    rwLock.readLock().lock();
+                    fullEntry = master.get( partitionTxn, id );
+                }
+                finally
+                {
+                    rwLock.readLock().unlock();
+                }
+
+                if ( fullEntry == null )
+                {
+                    return null;
+                }
+
+                // The master table has decoded the full entry : keep it in the cache
+                fullEntry.setDn( dn );
+                addToCache( id, fullEntry );
+
+                entry = projection.project( fullEntry );
+            }
+
+            entry.setDn( dn );
+
+            // Only the projected attributes are cloned
+            entry = new ClonedServerEntry( entry );
+
+            // Replace the entry's DN with the provided one
+            Attribute entryDnAt = entry.get( entryDnAT );
+            Value dnValue = new Value( entryDnAT, dn.getName(), dn.getNormName() );
+
+            if ( entryDnAt == null )
+            {
+                entry.add( entryDnAT, dnValue );
+            }
+            else
+            {
+                entryDnAt.clear();
+                entryDnAt.add( dnValue );
+            }
+
+            return entry;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapOperationErrorException( e.getMessage(), e );
+        }
+    }
+
+
     //---------------------------------------------------------------------------------------------
     // The Modify operation
     //---------------------------------------------------------------------------------------------
@@ -1429,51 +1806,62 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * {@inheritDoc}
      */
     @Override
-    public final synchronized Entry modify( PartitionTxn partitionTxn, Dn dn, Modification... mods ) throws LdapException
+    public final Entry modify( PartitionTxn partitionTxn, Dn dn, Modification... mods ) throws LdapException
     {
-        String id = getEntryId( partitionTxn, dn );
-        Entry entry = master.get( partitionTxn, id );
+        // Only protect the modified entry : modifications done on unrelated entries
+        // can be processed concurrently
+        EntryLock entryLock = entryLockManager.lockEntry( suffixDn, dn );
 
-        for ( Modification mod : mods )
+        try
         {
-            Attribute attrMods = mod.getAttribute();
-
-            try
-            { 
-                switch ( mod.getOperation() )
-                {
-                    case ADD_ATTRIBUTE:
-                        modifyAdd( partitionTxn, id, entry, attrMods );
-                        break;
-    
-                    case REMOVE_ATTRIBUTE:
-                        modifyRemove( partitionTxn, id, entry, attrMods );
-                        break;
+            String id = getEntryId( partitionTxn, dn );
+            Entry entry = master.get( partitionTxn, id );
     
-                    case REPLACE_ATTRIBUTE:
-                        modifyReplace( partitionTxn, id, entry, attrMods );
-                        break;
+            for ( Modification mod : mods )
+            {
+                Attribute attrMods = mod.getAttribute();
     
-                    default:
-                        throw new LdapException( I18n.err( I18n.ERR_221 ) );
+                try
+                { 
+                    switch ( mod.getOperation() )
+                    {
+                        case ADD_ATTRIBUTE:
+                            modifyAdd( partitionTxn, id, entry, attrMods );
+                            break;
+        
+                        case REMOVE_ATTRIBUTE:
+                            modifyRemove( partitionTxn, id, entry, attrMods );
+                            break;
+        
+                        case REPLACE_ATTRIBUTE:
+                            modifyReplace( partitionTxn, id, entry, attrMods );
+                            break;
+        
+                        default:
+                            throw new LdapException( I18n.err( I18n.ERR_221 ) );
+                    }
+                }
+                catch ( IndexNotFoundException infe )
+                {
+                    throw new LdapOtherException( infe.getMessage(), infe );
                 }
             }
-            catch ( IndexNotFoundException infe )
-            {
-                throw new LdapOtherException( infe.getMessage(), infe );
-            }
-        }
-
-        updateCsnIndex( partitionTxn, entry, id );
-
-        // Remove the EntryDN
-        entry.removeAttributes( entryDnAT );
-
-        setContextCsn( entry.get( entryCsnAT ).getString() );
-        
-        master.put( partitionTxn, id, entry );
-
-        return entry;
+    
+            updateCsnIndex( partitionTxn, entry, id );
+    
+            // Remove the EntryDN
+            entry.removeAttributes( entryDnAT );
+    
+            setContextCsn( entry.get( entryCsnAT ).getString() );
+            
+            master.put( partitionTxn, id, entry );
+    
+            return entry;
+        }
+        finally
+        {
+            entryLock.unlock();
+        }
     }
 
 
@@ -1526,13 +1914,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 for ( Value value : mods )
                 {
                     String normalized = value.getNormalized();
-                    ( ( Index ) userIndex ).add( partitionTxn, normalized, id );
+                    addToUserIndex( partitionTxn, userIndex, normalized, id );
                 }
             }
             else
             {
                 // Special case when we have null values
-                ( ( Index ) userIndex ).add( partitionTxn, null, id );
+                addToUserIndex( partitionTxn, userIndex, null, id );
             }
 
             // If the attr didn't exist for this id add it to presence index
@@ -1652,7 +2040,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 for ( Value value : oldAttribute )
                 {
                     String normalized = value.getNormalized();
-                    ( ( Index<Object, String> ) userIndex ).drop( partitionTxn, normalized, id );
+                    dropFromUserIndex( partitionTxn, userIndex, normalized, id );
                 }
             }
 
@@ -1660,7 +2048,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             for ( Value value : mods )
             {
                 String normalized = value.getNormalized();
-                ( ( Index ) userIndex ).add( partitionTxn, normalized, id );
+                addToUserIndex( partitionTxn, userIndex, normalized, id );
             }
 
             /*
@@ -1810,7 +2198,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
              */
             if ( mods.size() == 0 )
             {
-                ( ( Index ) userIndex ).drop( partitionTxn, id );
+                dropFromUserIndex( partitionTxn, userIndex, attribute, id );
                 nbValues = 0;
             }
             else if ( nbValues > 0 )
@@ -1824,7 +2212,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     }
 
                     String normalized = value.getNormalized();
-                    ( ( Index ) userIndex ).drop( partitionTxn, normalized, id );
+                    dropFromUserIndex( partitionTxn, userIndex, normalized, id );
                 }
             }
 
@@ -1918,8 +2306,17 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             Dn newDn = moveContext.getNewDn();
             Entry modifiedEntry = moveContext.getModifiedEntry();
 
-            move( partitionTxn, oldDn, newSuperior, newDn, modifiedEntry );
-            updateCache( moveContext );
+            EntryLock entryLock = entryLockManager.lockSubtree( oldDn );
+
+            try
+            {
+                move( partitionTxn, oldDn, newSuperior, newDn, modifiedEntry );
+                updateCache( moveContext );
+            }
+            finally
+            {
+                entryLock.unlock();
+            }
         }
         catch ( Exception e )
         {
@@ -1932,7 +2329,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * {@inheritDoc}
      */
     @Override
-    public final synchronized void move( PartitionTxn partitionTxn, Dn oldDn, Dn newSuperiorDn, Dn newDn, Entry modifiedEntry )
+    public final void move( PartitionTxn partitionTxn, Dn oldDn, Dn newSuperiorDn, Dn newDn, Entry modifiedEntry )
         throws LdapException
     {
         // Check that the parent Dn exists
@@ -1984,6 +2381,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         updateRdnIdx( partitionTxn, newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
 
+        // The DN of the moved entry and of its descendants have changed
+        invalidateEntryDnCache( partitionTxn, entryId, movedEntry );
+
         /*
          * Read Alias Index Tuples
          *
@@ -2021,8 +2421,6 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // Remove the EntryDN
         modifiedEntry.removeAttributes( entryDnAT );
 
-        entryDnCache.clear();
-        
         setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
         master.put( partitionTxn, entryId, modifiedEntry );
@@ -2063,8 +2461,17 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             Entry modifiedEntry = moveAndRenameContext.getModifiedEntry();
             Map<String, List<ModDnAva>> modAvas = moveAndRenameContext.getModifiedAvas();
 
-            moveAndRename( partitionTxn, oldDn, newSuperiorDn, newRdn, modAvas, modifiedEntry );
-            updateCache( moveAndRenameContext );
+            EntryLock entryLock = entryLockManager.lockSubtree( oldDn );
+
+            try
+            {
+                moveAndRename( partitionTxn, oldDn, newSuperiorDn, newRdn, modAvas, modifiedEntry );
+                updateCache( moveAndRenameContext );
+            }
+            finally
+            {
+                entryLock.unlock();
+            }
         }
         catch ( LdapException le )
         {
@@ -2159,6 +2566,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         updateRdnIdx( partitionTxn, newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
 
+        // The DN of the moved entry and of its descendants have changed
+        invalidateEntryDnCache( partitionTxn, entryId, movedEntry );
+
         // Process the modified indexes now
         try
         {
@@ -2198,9 +2608,6 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         modifiedEntry.removeAttributes( ApacheSchemaConstants.ENTRY_PARENT_ID_OID );
         modifiedEntry.add( ApacheSchemaConstants.ENTRY_PARENT_ID_OID, newParentId );
         
-        // Doom the DN cache now
-        entryDnCache.clear();
-
         setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
         // save the modified entry at the new place
@@ -2238,7 +2645,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     case ADD :
                     case UPDATE_ADD :
                         // Add Value in the index
-                        ( ( Index ) index ).add( partitionTxn, modDnAva.getAva().getValue().getNormalized(), entryId );
+                        addToUserIndex( partitionTxn, index, modDnAva.getAva().getValue().getNormalized(), entryId );
 
                         /*
                          * If there is no value for id in this index due to our
@@ -2253,7 +2660,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
                     case DELETE :
                     case UPDATE_DELETE :
-                        ( ( Index ) index ).drop( partitionTxn, modDnAva.getAva().getValue().getNormalized(), entryId );
+                        dropFromUserIndex( partitionTxn, index, modDnAva.getAva().getValue().getNormalized(), entryId );
 
                         /*
                          * If there is no value for id in this index due to our
@@ -2295,17 +2702,26 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             Rdn newRdn = renameContext.getNewRdn();
             boolean deleteOldRdn = renameContext.getDeleteOldRdn();
 
-            if ( renameContext.getEntry() != null )
+            EntryLock entryLock = entryLockManager.lockSubtree( oldDn );
+
+            try
             {
-                Entry modifiedEntry = renameContext.getModifiedEntry();
-                rename( partitionTxn, oldDn, newRdn, deleteOldRdn, modifiedEntry );
+                if ( renameContext.getEntry() != null )
+                {
+                    Entry modifiedEntry = renameContext.getModifiedEntry();
+                    rename( partitionTxn, oldDn, newRdn, deleteOldRdn, modifiedEntry );
+                }
+                else
+                {
+                    rename( partitionTxn, oldDn, newRdn, deleteOldRdn, null );
+                }
+    
+                updateCache( renameContext );
             }
-            else
+            finally
             {
-                rename( partitionTxn, oldDn, newRdn, deleteOldRdn, null );
+                entryLock.unlock();
             }
-
-            updateCache( renameContext );
         }
         catch ( Exception e )
         {
@@ -2367,7 +2783,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     Index<?, String> userIndex = getUserIndex( newRdnAttrType );
 
                     String normalized = oldAttributeType.getEquality().getNormalizer().normalize( oldAttribute.get().getValue() );
-                    ( ( Index ) userIndex ).drop( partitionTxn, normalized, id );
+                    dropFromUserIndex( partitionTxn, userIndex, normalized, id );
 
                     /*
                      * If there is no value for id in this index due to our
@@ -2404,7 +2820,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 */
                 
                 String normalized = newRdnAttrType.getEquality().getNormalizer().normalize( ( String ) newNormValue );
-                ( ( Index ) userIndex ).add( partitionTxn, normalized, oldId );
+                addToUserIndex( partitionTxn, userIndex, normalized, oldId );
                 
                 
                 //( ( Index ) index ).add( newNormValue, oldId );
@@ -2467,7 +2883,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                         Index<?, String> userIndex = getUserIndex( oldRdnAttrType );
                         
                         String normalized = oldRdnAttrType.getEquality().getNormalizer().normalize( oldNormValue );
-                        ( ( Index ) userIndex ).drop( partitionTxn, normalized, id );
+                        dropFromUserIndex( partitionTxn, userIndex, normalized, id );
 
                         /*
                          * If there is no value for id in this index due to our
@@ -2498,7 +2914,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     @SuppressWarnings("unchecked")
     @Override
-    public final synchronized void rename( PartitionTxn partitionTxn, Dn dn, Rdn newRdn, boolean deleteOldRdn, Entry entry ) 
+    public final void rename( PartitionTxn partitionTxn, Dn dn, Rdn newRdn, boolean deleteOldRdn, Entry entry ) 
         throws LdapException
     {
         String oldId = getEntryId( partitionTxn, dn );
@@ -2532,7 +2948,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         rdnIdx.add( partitionTxn, parentIdAndRdn, oldId );
 
-        entryDnCache.clear();
+        // The DN of the renamed entry and of its descendants have changed
+        invalidateEntryDnCache( partitionTxn, oldId, parentIdAndRdn );
         
         if ( isSyncOnWrite.get() )
         {
@@ -2605,6 +3022,94 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     // ------------------------------------------------------------------------
     // Index and master table Operations
     // ------------------------------------------------------------------------
+    /**
+     * Removes from the DN cache the entries which DN has changed after a move or a rename :
+     * the entry itself and all its descendants, which are found walking the Rdn index. When
+     * the moved subtree is too big, we simply clear the whole cache.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The moved or renamed entry ID
+     * @param parentIdAndRdn The moved or renamed entry ParentIdAndRdn
+     * @throws LdapException If the Rdn index can't be read
+     */
+    private void invalidateEntryDnCache( PartitionTxn partitionTxn, String id, ParentIdAndRdn parentIdAndRdn )
+        throws LdapException
+    {
+        if ( piarCache != null )
+        {
+            piarCache.remove( id );
+        }
+
+        if ( entryDnCache == null )
+        {
+            return;
+        }
+
+        entryDnCache.remove( id );
+
+        if ( parentIdAndRdn.getNbDescendants() == 0 )
+        {
+            return;
+        }
+
+        if ( parentIdAndRdn.getNbDescendants() > MAX_DN_CACHE_INVALIDATIONS )
+        {
+            entryDnCache.clear();
+
+            return;
+        }
+
+        // Walk the subtree, one level at a time
+        Deque<IndexEntry<ParentIdAndRdn, String>> parents = new ArrayDeque<>();
+        IndexEntry<ParentIdAndRdn, String> root = new IndexEntry<>();
+        root.setKey( parentIdAndRdn );
+        root.setId( id );
+        parents.push( root );
+
+        while ( !parents.isEmpty() )
+        {
+            IndexEntry<ParentIdAndRdn, String> parent = parents.pop();
+            int nbChildren = parent.getKey().getNbChildren();
+            Cursor<IndexEntry<ParentIdAndRdn, String>> cursor = rdnIdx.forwardCursor( partitionTxn );
+
+            try
+            {
+                IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<>();
+                startingPos.setKey( new ParentIdAndRdn( parent.getId(), ( Rdn[] ) null ) );
+                cursor.before( startingPos );
+                int countChildren = 0;
+
+                while ( ( countChildren < nbChildren ) && cursor.next() )
+                {
+                    IndexEntry<ParentIdAndRdn, String> child = cursor.get();
+                    entryDnCache.remove( child.getId() );
+                    countChildren++;
+
+                    if ( child.getKey().getNbChildren() > 0 )
+                    {
+                        parents.push( child );
+                    }
+                }
+            }
+            catch ( CursorException ce )
+            {
+                throw new LdapOtherException( ce.getMessage(), ce );
+            }
+            finally
+            {
+                try
+                {
+                    cursor.close();
+                }
+                catch ( IOException ioe )
+                {
+                    throw new LdapOtherException( ioe.getMessage(), ioe );
+                }
+            }
+        }
+    }
+
+
     /**
      * builds the Dn of the entry identified by the given id
      *
@@ -3100,6 +3605,356 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IndexStatistics getIndexStatistics( PartitionTxn partitionTxn, AttributeType attributeType )
+        throws LdapException
+    {
+        String oid = attributeType.getOid();
+        Index<?, String> userIndex = userIndices.get( oid );
+
+        if ( userIndex == null )
+        {
+            return null;
+        }
+
+        IndexStatistics statistics = indexStatistics.get( oid );
+
+        if ( ( statistics == null ) || statistics.isStale() )
+        {
+            // Don't make the search wait : until they are built, the optimizer uses the
+            // previous statistics, or the index counts if there are none
+            buildIndexStatistics( attributeType, userIndex );
+        }
+
+        return statistics;
+    }
+
+
+    /**
+     * Builds the statistics of a user index in the background, unless they are already
+     * being built. The index is walked once, the statistics are then updated incrementally.
+     */
+    private void buildIndexStatistics( final AttributeType attributeType, final Index<?, String> userIndex )
+    {
+        final String oid = attributeType.getOid();
+
+        synchronized ( pendingStatistics )
+        {
+            if ( pendingStatistics.containsKey( oid ) )
+            {
+                return;
+            }
+
+            // From now on, the committed updates are recorded, to be applied to the new statistics
+            pendingStatistics.put( oid, new ArrayList<StatisticsDelta>() );
+        }
+
+        try
+        {
+            statisticsBuilder.execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    // The indexes can't be read while they are updated
+                    boolean locked = !isConcurrentModifySupported() && ( rwLock != null );
+
+                    if ( locked )
+                    {
+                        rwLock.readLock().lock();
+                    }
+
+                    try ( PartitionTxn partitionTxn = beginReadTransaction() )
+                    {
+                        IndexStatistics statistics = IndexStatistics.build( partitionTxn, userIndex,
+                            getKeyComparator( attributeType ), IndexStatistics.DEFAULT_NB_BUCKETS );
+
+                        synchronized ( pendingStatistics )
+                        {
+                            // Apply the updates committed while the index was read. Some of
+                            // them may already be counted, but it's only an estimate
+                            for ( StatisticsDelta delta : pendingStatistics.get( oid ) )
+                            {
+                                delta.applyTo( statistics );
+                            }
+
+                            indexStatistics.put( oid, statistics );
+                        }
+
+                        LOG.debug( "Built the statistics for index {} : {}", attributeType.getName(), statistics );
+                    }
+                    catch ( LdapException | IOException e )
+                    {
+                        LOG.warn( "Cannot build the statistics for index {} : {}", attributeType.getName(),
+                            e.getMessage() );
+                    }
+                    finally
+                    {
+                        if ( locked )
+                        {
+                            rwLock.readLock().unlock();
+                        }
+
+                        synchronized ( pendingStatistics )
+                        {
+                            pendingStatistics.remove( oid );
+                        }
+                    }
+                }
+            } );
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            // The partition is being destroyed
+            synchronized ( pendingStatistics )
+            {
+                pendingStatistics.remove( oid );
+            }
+        }
+    }
+
+
+    /**
+     * Tells if the updates of an index have to be recorded in its statistics, because they
+     * exist or are being built.
+     */
+    private boolean hasIndexStatistics( String oid )
+    {
+        if ( indexStatistics.containsKey( oid ) )
+        {
+            return true;
+        }
+
+        synchronized ( pendingStatistics )
+        {
+            return pendingStatistics.containsKey( oid );
+        }
+    }
+
+
+    /**
+     * Records an update of an index in its statistics, once the transaction is committed.
+     */
+    private void recordStatisticsDelta( PartitionTxn partitionTxn, final StatisticsDelta delta )
+    {
+        if ( partitionTxn instanceof PartitionWriteTxn )
+        {
+            ( ( PartitionWriteTxn ) partitionTxn ).addCommitAction( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    applyStatisticsDelta( delta );
+                }
+            } );
+        }
+        else
+        {
+            applyStatisticsDelta( delta );
+        }
+    }
+
+
+    /**
+     * Applies a committed update to the statistics of its index, and keeps it if the
+     * statistics are being rebuilt.
+     */
+    private void applyStatisticsDelta( StatisticsDelta delta )
+    {
+        synchronized ( pendingStatistics )
+        {
+            IndexStatistics statistics = indexStatistics.get( delta.oid );
+
+            if ( statistics != null )
+            {
+                delta.applyTo( statistics );
+            }
+
+            List<StatisticsDelta> pendingDeltas = pendingStatistics.get( delta.oid );
+
+            if ( pendingDeltas != null )
+            {
+                pendingDeltas.add( delta );
+            }
+        }
+    }
+
+
+    /**
+     * An update of an index, to be recorded in its statistics.
+     */
+    private static final class StatisticsDelta
+    {
+        /** The index attributeType OID */
+        private final String oid;
+
+        /** The added or removed key */
+        private final Object key;
+
+        /** Tells if a tuple has been added or removed */
+        private final boolean added;
+
+        /** Tells if the key is a new key, or if it was the last tuple with this key */
+        private final boolean keyChanged;
+
+
+        private StatisticsDelta( String oid, Object key, boolean added, boolean keyChanged )
+        {
+            this.oid = oid;
+            this.key = key;
+            this.added = added;
+            this.keyChanged = keyChanged;
+        }
+
+
+        private void applyTo( IndexStatistics statistics )
+        {
+            if ( added )
+            {
+                statistics.add( key, keyChanged );
+            }
+            else
+            {
+                statistics.drop( key, keyChanged );
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NGramIndex getNGramIndex( PartitionTxn partitionTxn, AttributeType attributeType ) throws LdapException
+    {
+        return ngramIndexes.get( attributeType.getOid() );
+    }
+
+
+    /**
+     * Gets the comparator used to order the keys of a user index, which is the equality
+     * matching rule comparator. We default to the keys natural ordering.
+     */
+    private Comparator<?> getKeyComparator( AttributeType attributeType )
+    {
+        MatchingRule mr = attributeType.getEquality();
+
+        if ( ( mr != null ) && ( mr.getLdapComparator() != null ) )
+        {
+            return mr.getLdapComparator();
+        }
+
+        return NATURAL_ORDER;
+    }
+
+
+    /**
+     * Adds a &lt;key, id&gt; tuple in a user index, updating the index statistics and the
+     * n-gram index if they exist.
+     */
+    @SuppressWarnings("unchecked")
+    private void addToUserIndex( PartitionTxn partitionTxn, Index<?, String> userIndex, Object key, String id )
+        throws LdapException
+    {
+        Index<Object, String> index = ( Index<Object, String> ) userIndex;
+        String oid = userIndex.getAttribute().getOid();
+        String statisticsOid = ( ( key != null ) && hasIndexStatistics( oid ) ) ? oid : null;
+        NGramIndex ngramIndex = ( key == null ) ? null : ngramIndexes.get( oid );
+
+        if ( ( statisticsOid == null ) && ( ngramIndex == null ) )
+        {
+            index.add( partitionTxn, key, id );
+        }
+        else
+        {
+            boolean newKey = !index.forward( partitionTxn, key );
+            index.add( partitionTxn, key, id );
+            keyAdded( partitionTxn, statisticsOid, ngramIndex, key, newKey );
+        }
+    }
+
+
+    /**
+     * Removes a &lt;key, id&gt; tuple from a user index, updating the index statistics and
+     * the n-gram index if they exist.
+     */
+    @SuppressWarnings("unchecked")
+    private void dropFromUserIndex( PartitionTxn partitionTxn, Index<?, String> userIndex, Object key, String id )
+        throws LdapException
+    {
+        Index<Object, String> index = ( Index<Object, String> ) userIndex;
+        String oid = userIndex.getAttribute().getOid();
+        String statisticsOid = ( ( key != null ) && hasIndexStatistics( oid ) ) ? oid : null;
+        NGramIndex ngramIndex = ( key == null ) ? null : ngramIndexes.get( oid );
+
+        if ( ( statisticsOid == null ) && ( ngramIndex == null ) )
+        {
+            index.drop( partitionTxn, key, id );
+        }
+        else if ( index.forward( partitionTxn, key, id ) )
+        {
+            index.drop( partitionTxn, key, id );
+            keyDropped( partitionTxn, statisticsOid, ngramIndex, key, !index.forward( partitionTxn, key ) );
+        }
+    }
+
+
+    /**
+     * Updates the index statistics and the n-gram index after a tuple has been added. The
+     * statistics are only updated when the transaction is committed.
+     */
+    private void keyAdded( PartitionTxn partitionTxn, String statisticsOid, NGramIndex ngramIndex, Object key,
+        boolean newKey ) throws LdapException
+    {
+        if ( statisticsOid != null )
+        {
+            recordStatisticsDelta( partitionTxn, new StatisticsDelta( statisticsOid, key, true, newKey ) );
+        }
+
+        if ( ( ngramIndex != null ) && newKey && ( key instanceof String ) )
+        {
+            ngramIndex.add( partitionTxn, ( String ) key );
+        }
+    }
+
+
+    /**
+     * Updates the index statistics and the n-gram index after a tuple has been removed. The
+     * statistics are only updated when the transaction is committed.
+     */
+    private void keyDropped( PartitionTxn partitionTxn, String statisticsOid, NGramIndex ngramIndex, Object key,
+        boolean lastKey ) throws LdapException
+    {
+        if ( statisticsOid != null )
+        {
+            recordStatisticsDelta( partitionTxn, new StatisticsDelta( statisticsOid, key, false, lastKey ) );
+        }
+
+        if ( ( ngramIndex != null ) && lastKey && ( key instanceof String ) )
+        {
+            ngramIndex.drop( partitionTxn, ( String ) key );
+        }
+    }
+
+
+    /**
+     * Removes all the tuples referencing an entry from a user index, updating the index
+     * statistics and the n-gram index if they exist. The keys are the normalized values
+     * of the entry's attribute, so that the index is updated even if it has no reverse table.
+     */
+    private void dropFromUserIndex( PartitionTxn partitionTxn, Index<?, String> userIndex, Attribute attribute,
+        String id ) throws LdapException
+    {
+        for ( Value value : attribute )
+        {
+            dropFromUserIndex( partitionTxn, userIndex, value.getNormalized(), id );
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -3485,13 +4340,53 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
 
     /**
-     * updates the cache based on the type of OperationContext
+     * updates the cache based on the type of OperationContext. The off-heap entry cache is
+     * updated here : partition implementations should override this if they want to use
+     * another cache.
      * 
      * @param opCtx the operation's context
      */
     public void updateCache( OperationContext opCtx )
     {
-        // partition implementations should override this if they want to use cache
+        if ( offHeapEntryCache == null )
+        {
+            return;
+        }
+
+        try
+        {
+            if ( opCtx instanceof ModifyOperationContext )
+            {
+                // replace the entry
+                ModifyOperationContext modCtx = ( ModifyOperationContext ) opCtx;
+                Entry entry = modCtx.getAlteredEntry();
+                String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
+
+                if ( entry instanceof ClonedServerEntry )
+                {
+                    entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+                }
+
+                offHeapEntryCache.replace( id, entry );
+            }
+            else if ( ( opCtx instanceof MoveOperationContext )
+                || ( opCtx instanceof MoveAndRenameOperationContext )
+                || ( opCtx instanceof RenameOperationContext ) )
+            {
+                // clear the cache it is not worth updating all the children
+                offHeapEntryCache.clear();
+            }
+            else if ( opCtx instanceof DeleteOperationContext )
+            {
+                // delete the entry
+                DeleteOperationContext delCtx = ( DeleteOperationContext ) opCtx;
+                offHeapEntryCache.remove( delCtx.getEntry().get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+            }
+        }
+        catch ( LdapException e )
+        {
+            LOG.warn( "Failed to update entry cache", e );
+        }
     }
 
 
@@ -3503,10 +4398,42 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     public Entry lookupCache( String id )
     {
+        if ( offHeapEntryCache != null )
+        {
+            return offHeapEntryCache.get( id );
+        }
+
         return null;
     }
 
 
+    /**
+     * looks up for the projected attributes of the entry with the given ID in the cache.
+     * When the entries are cached off-heap, only the projected attributes are decoded.
+     *
+     * @param id the ID of the entry
+     * @param projection the attributes to read
+     * @return a projected Entry if exists, null otherwise
+     * @throws LdapException If the projected entry can't be created
+     */
+    public Entry lookupCache( String id, EntryProjection projection ) throws LdapException
+    {
+        if ( offHeapEntryCache != null )
+        {
+            return offHeapEntryCache.get( id, projection );
+        }
+
+        Entry entry = lookupCache( id );
+
+        if ( entry == null )
+        {
+            return null;
+        }
+
+        return projection.project( entry );
+    }
+
+
     /**
      * adds the given entry to cache
      *  
@@ -3518,6 +4445,19 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     public void addToCache( String id, Entry entry )
     {
+        if ( offHeapEntryCache == null )
+        {
+            return;
+        }
+
+        if ( entry instanceof ClonedServerEntry )
+        {
+            offHeapEntryCache.put( id, ( ( ClonedServerEntry ) entry ).getOriginalEntry() );
+        }
+        else
+        {
+            offHeapEntryCache.put( id, entry );
+        }
     }
 
 
@@ -3557,7 +4497,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         if ( operationContext.getSession() != null )
         {
-            rwLock = operationContext.getSession().getDirectoryService().getOperationManager().getRWLock();
+            rwLock = operationContext.getSession().getDirectoryService().getOperationManager().getRWLock( this );
         }
         else
         {
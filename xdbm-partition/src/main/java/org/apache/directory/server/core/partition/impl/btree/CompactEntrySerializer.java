@@ -0,0 +1,603 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * A compact binary encoding of the entries stored in the master tables. Like the legacy
+ * Java serialization based format, only the entry's Rdn is stored, not its full Dn.
+ * <p>
+ * The structure used to store the entry is the following (the numbers are stored as
+ * unsigned varints, and the strings as a varint length followed by their UTF-8 bytes) :
+ * <ul>
+ *   <li><b>[0xCE]</b> : a magic byte, which can't start a legacy serialized entry</li>
+ *   <li><b>[version]</b> : the format version, currently 1</li>
+ *   <li><b>[Rdn]</b> : the entry's user provided Rdn, an empty string for the root DSE</li>
+ *   <li><b>[nbAttributes]</b> : the number of attributes</li>
+ *   <li>For each attribute :
+ *     <ul>
+ *       <li><b>[type]</b> : the index + 1 of the attribute type OID in a fixed dictionary of
+ *       common attribute types, or 0 followed by the OID string</li>
+ *       <li><b>[length]</b> : the number of bytes of the attribute, so that it can be skipped
+ *       without being decoded</li>
+ *       <li><b>[upId]</b> : the user provided attribute ID, an empty string if it's the
+ *       attribute type name</li>
+ *       <li><b>[nbValues]</b> : the number of values</li>
+ *       <li>For each value, a kind byte (0 for a String, 1 for a byte[], 2 for a null value)
+ *       followed by the length prefixed user provided value</li>
+ *     </ul>
+ *   </li>
+ * </ul>
+ * The values are normalized again when the entry is read, so that only the attributes
+ * which are needed have to be decoded : see {@link #deserialize(byte[], int, int, Set)}.
+ * <p>
+ * The dictionary is part of the format : attribute types can only be appended to it when
+ * the version is increased.
+ * <br><br>
+ * <b>This class must *not* be used outside of the server.</b>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CompactEntrySerializer implements EntryCodec
+{
+    /** The first byte of a compact serialized entry */
+    public static final byte MAGIC = ( byte ) 0xCE;
+
+    /** The current version of the format */
+    public static final byte VERSION = 1;
+
+    /** The kind of a String value */
+    private static final int STRING_VALUE = 0;
+
+    /** The kind of a byte[] value */
+    private static final int BINARY_VALUE = 1;
+
+    /** The kind of a null value */
+    private static final int NULL_VALUE = 2;
+
+    /** The attribute types stored as a single byte. Never reorder this list ! */
+    private static final String[] DICTIONARY = new String[]
+        {
+            "2.5.4.0", // objectClass
+            "2.5.4.3", // cn
+            "2.5.4.4", // sn
+            "2.5.4.11", // ou
+            "2.5.4.10", // o
+            "0.9.2342.19200300.100.1.25", // dc
+            "0.9.2342.19200300.100.1.1", // uid
+            "0.9.2342.19200300.100.1.3", // mail
+            "2.5.4.13", // description
+            "2.5.4.35", // userPassword
+            "2.5.4.42", // givenName
+            "2.16.840.1.113730.3.1.241", // displayName
+            "2.5.4.20", // telephoneNumber
+            "2.5.4.31", // member
+            "2.5.4.50", // uniqueMember
+            "1.3.6.1.1.16.4", // entryUUID
+            "1.3.6.1.4.1.4203.666.1.7", // entryCSN
+            "2.5.18.1", // createTimestamp
+            "2.5.18.2", // modifyTimestamp
+            "2.5.18.3", // creatorsName
+            "2.5.18.4", // modifiersName
+            "1.3.6.1.4.1.18060.0.4.1.2.51", // entryParentId
+            "0.9.2342.19200300.100.1.60", // jpegPhoto
+            "2.5.4.36", // userCertificate
+            "2.5.4.12", // title
+            "2.5.4.7", // l
+            "2.5.4.9", // street
+            "2.5.4.17", // postalCode
+            "2.5.4.16", // postalAddress
+            "2.5.4.23", // facsimileTelephoneNumber
+            "0.9.2342.19200300.100.1.41", // mobile
+            "2.5.4.43", // initials
+            "2.16.840.1.113730.3.1.3", // employeeNumber
+            "2.5.4.1", // aliasedObjectName
+            "2.5.18.5" // administrativeRole
+        };
+
+    /** The dictionary index of each OID */
+    private static final Map<String, Integer> DICTIONARY_INDEXES = new HashMap<>();
+
+    static
+    {
+        for ( int i = 0; i < DICTIONARY.length; i++ )
+        {
+            DICTIONARY_INDEXES.put( DICTIONARY[i], i );
+        }
+    }
+
+    /** The schemaManager reference */
+    private final SchemaManager schemaManager;
+
+
+    /**
+     * A growable buffer, giving access to its content without copying it
+     */
+    private static final class Buffer extends ByteArrayOutputStream
+    {
+        private Buffer( int size )
+        {
+            super( size );
+        }
+
+
+        private void writeVarInt( int value )
+        {
+            int remaining = value;
+
+            while ( ( remaining & ~0x7F ) != 0 )
+            {
+                write( ( remaining & 0x7F ) | 0x80 );
+                remaining >>>= 7;
+            }
+
+            write( remaining );
+        }
+
+
+        private void writeBytes( byte[] bytes )
+        {
+            writeVarInt( bytes.length );
+            write( bytes, 0, bytes.length );
+        }
+
+
+        private void writeString( String value )
+        {
+            writeBytes( Strings.getBytesUtf8( value ) );
+        }
+
+
+        private void writeBuffer( Buffer buffer )
+        {
+            writeVarInt( buffer.count );
+            write( buffer.buf, 0, buffer.count );
+        }
+    }
+
+
+    /**
+     * A cursor over a serialized entry
+     */
+    private static final class Reader
+    {
+        private final byte[] bytes;
+        private int pos;
+        private final int end;
+
+
+        private Reader( byte[] bytes, int pos, int end )
+        {
+            this.bytes = bytes;
+            this.pos = pos;
+            this.end = end;
+        }
+
+
+        private int readByte() throws IOException
+        {
+            if ( pos >= end )
+            {
+                throw new IOException( "Truncated serialized entry" );
+            }
+
+            return bytes[pos++] & 0xFF;
+        }
+
+
+        private int readVarInt() throws IOException
+        {
+            int value = 0;
+
+            for ( int shift = 0; shift < 32; shift += 7 )
+            {
+                int b = readByte();
+                value |= ( b & 0x7F ) << shift;
+
+                if ( ( b & 0x80 ) == 0 )
+                {
+                    return value;
+                }
+            }
+
+            throw new IOException( "Invalid varint in serialized entry" );
+        }
+
+
+        private int readLength() throws IOException
+        {
+            int length = readVarInt();
+
+            if ( ( length < 0 ) || ( length > end - pos ) )
+            {
+                throw new IOException( "Invalid length in serialized entry : " + length );
+            }
+
+            return length;
+        }
+
+
+        private byte[] readBytes() throws IOException
+        {
+            int length = readLength();
+            byte[] result = new byte[length];
+            System.arraycopy( bytes, pos, result, 0, length );
+            pos += length;
+
+            return result;
+        }
+
+
+        private String readString() throws IOException
+        {
+            int length = readLength();
+            String result = Strings.utf8ToString( bytes, pos, length );
+            pos += length;
+
+            return result;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of CompactEntrySerializer.
+     *
+     * @param schemaManager The reference to the global schemaManager
+     */
+    public CompactEntrySerializer( SchemaManager schemaManager )
+    {
+        this.schemaManager = schemaManager;
+    }
+
+
+    /**
+     * Tells if some bytes contain an entry serialized by this class.
+     *
+     * @param bytes The serialized entry
+     * @param pos The position of the serialized entry in the bytes
+     * @return <tt>true</tt> if the entry has been serialized using the compact format
+     */
+    public static boolean isCompact( byte[] bytes, int pos )
+    {
+        return ( bytes != null ) && ( bytes.length > pos ) && ( bytes[pos] == MAGIC );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serialize( Entry entry ) throws IOException
+    {
+        Buffer buffer = new Buffer( 512 );
+        Buffer attributeBuffer = new Buffer( 256 );
+
+        buffer.write( MAGIC );
+        buffer.write( VERSION );
+
+        // First, the Rdn
+        Dn dn = entry.getDn();
+
+        if ( ( dn == null ) || dn.isEmpty() )
+        {
+            buffer.writeVarInt( 0 );
+        }
+        else
+        {
+            buffer.writeString( dn.getRdn().getName() );
+        }
+
+        // Then the attributes
+        buffer.writeVarInt( entry.size() );
+
+        for ( Attribute attribute : entry )
+        {
+            AttributeType attributeType = attribute.getAttributeType();
+
+            if ( attributeType == null )
+            {
+                throw new IOException( "Cannot serialize the attribute " + attribute.getUpId()
+                    + " : it has no attribute type" );
+            }
+
+            String oid = attributeType.getOid();
+            Integer index = DICTIONARY_INDEXES.get( oid );
+
+            if ( index == null )
+            {
+                buffer.writeVarInt( 0 );
+                buffer.writeString( oid );
+            }
+            else
+            {
+                buffer.writeVarInt( index + 1 );
+            }
+
+            attributeBuffer.reset();
+
+            String upId = attribute.getUpId();
+
+            if ( ( upId == null ) || upId.equals( attributeType.getName() ) )
+            {
+                attributeBuffer.writeVarInt( 0 );
+            }
+            else
+            {
+                attributeBuffer.writeString( upId );
+            }
+
+            attributeBuffer.writeVarInt( attribute.size() );
+
+            for ( Value value : attribute )
+            {
+                if ( value.isNull() )
+                {
+                    attributeBuffer.write( NULL_VALUE );
+                }
+                else if ( value.isHumanReadable() )
+                {
+                    attributeBuffer.write( STRING_VALUE );
+                    attributeBuffer.writeString( value.getString() );
+                }
+                else
+                {
+                    attributeBuffer.write( BINARY_VALUE );
+                    attributeBuffer.writeBytes( value.getBytes() );
+                }
+            }
+
+            buffer.writeBuffer( attributeBuffer );
+        }
+
+        return buffer.toByteArray();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry deserialize( byte[] bytes ) throws IOException
+    {
+        return deserialize( bytes, 0, bytes.length );
+    }
+
+
+    /**
+     * Deserializes an entry stored in a part of a byte array.
+     *
+     * @param bytes The bytes containing the serialized entry
+     * @param pos The position of the serialized entry in the bytes
+     * @param length The length of the serialized entry
+     * @return The deserialized entry
+     * @throws IOException If the entry can't be deserialized
+     */
+    public Entry deserialize( byte[] bytes, int pos, int length ) throws IOException
+    {
+        return deserialize( bytes, pos, length, null, null );
+    }
+
+
+    /**
+     * Deserializes an entry, decoding only some of its attributes. The other attributes
+     * are skipped without being read.
+     *
+     * @param bytes The bytes containing the serialized entry
+     * @param pos The position of the serialized entry in the bytes
+     * @param length The length of the serialized entry
+     * @param attributeOids The OIDs of the attributes to decode, or null to decode all of them
+     * @return The deserialized entry
+     * @throws IOException If the entry can't be deserialized
+     */
+    public Entry deserialize( byte[] bytes, int pos, int length, Set<String> attributeOids ) throws IOException
+    {
+        return deserialize( bytes, pos, length, attributeOids, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry deserialize( byte[] bytes, EntryProjection projection ) throws IOException
+    {
+        return deserialize( bytes, 0, bytes.length, projection );
+    }
+
+
+    /**
+     * Deserializes an entry, decoding only the attributes of a projection. The other
+     * attributes are skipped without being read.
+     *
+     * @param bytes The bytes containing the serialized entry
+     * @param pos The position of the serialized entry in the bytes
+     * @param length The length of the serialized entry
+     * @param projection The attributes to decode, or null to decode all of them
+     * @return The deserialized entry
+     * @throws IOException If the entry can't be deserialized
+     */
+    public Entry deserialize( byte[] bytes, int pos, int length, EntryProjection projection ) throws IOException
+    {
+        return deserialize( bytes, pos, length, null, projection );
+    }
+
+
+    /**
+     * Deserializes an entry, skipping the attributes which are neither in the given OIDs
+     * nor in the given projection, when they are not null.
+     */
+    private Entry deserialize( byte[] bytes, int pos, int length, Set<String> attributeOids,
+        EntryProjection projection ) throws IOException
+    {
+        Reader reader = new Reader( bytes, pos, pos + length );
+
+        if ( ( byte ) reader.readByte() != MAGIC )
+        {
+            throw new IOException( "Not a compact serialized entry" );
+        }
+
+        int version = reader.readByte();
+
+        if ( version != VERSION )
+        {
+            throw new IOException( "Unsupported serialized entry version : " + version );
+        }
+
+        try
+        {
+            Entry entry = new DefaultEntry( schemaManager );
+
+            // Read the Rdn, if any
+            String rdn = reader.readString();
+
+            if ( rdn.isEmpty() )
+            {
+                entry.setDn( Dn.EMPTY_DN );
+            }
+            else
+            {
+                entry.setDn( new Dn( schemaManager, new Rdn( schemaManager, rdn ) ) );
+            }
+
+            // Read the attributes
+            int nbAttributes = reader.readVarInt();
+
+            for ( int i = 0; i < nbAttributes; i++ )
+            {
+                int index = reader.readVarInt();
+                String oid;
+
+                if ( index == 0 )
+                {
+                    oid = reader.readString();
+                }
+                else if ( index <= DICTIONARY.length )
+                {
+                    oid = DICTIONARY[index - 1];
+                }
+                else
+                {
+                    throw new IOException( "Invalid attribute type index in serialized entry : " + index );
+                }
+
+                int attributeLength = reader.readLength();
+
+                if ( ( attributeOids != null ) && !attributeOids.contains( oid ) )
+                {
+                    // Skip the attribute
+                    reader.pos += attributeLength;
+
+                    continue;
+                }
+
+                AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( oid );
+
+                if ( ( projection != null ) && !projection.contains( attributeType ) )
+                {
+                    // Skip the attribute
+                    reader.pos += attributeLength;
+
+                    continue;
+                }
+
+                entry.add( readAttribute( reader, attributeType ) );
+            }
+
+            return entry;
+        }
+        catch ( LdapException le )
+        {
+            throw new IOException( le.getMessage(), le );
+        }
+    }
+
+
+    /**
+     * Reads an attribute's ID and values
+     */
+    private Attribute readAttribute( Reader reader, AttributeType attributeType ) throws IOException, LdapException
+    {
+        String upId = reader.readString();
+        Attribute attribute;
+
+        if ( upId.isEmpty() )
+        {
+            attribute = new DefaultAttribute( attributeType );
+        }
+        else
+        {
+            attribute = new DefaultAttribute( upId, attributeType );
+        }
+
+        int nbValues = reader.readVarInt();
+
+        for ( int j = 0; j < nbValues; j++ )
+        {
+            int kind = reader.readByte();
+
+            switch ( kind )
+            {
+                case STRING_VALUE:
+                    attribute.add( new Value( attributeType, reader.readString() ) );
+                    break;
+
+                case BINARY_VALUE:
+                    attribute.add( new Value( attributeType, reader.readBytes() ) );
+                    break;
+
+                case NULL_VALUE:
+                    if ( attributeType.getSyntax().isHumanReadable() )
+                    {
+                        attribute.add( new Value( attributeType, ( String ) null ) );
+                    }
+                    else
+                    {
+                        attribute.add( new Value( attributeType, ( byte[] ) null ) );
+                    }
+
+                    break;
+
+                default:
+                    throw new IOException( "Invalid value kind in serialized entry : " + kind );
+            }
+        }
+
+        return attribute;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+
+
+/**
+ * Converts an Entry to and from a byte array. Each partition implementation provides
+ * one, based on the serializer it uses to store the entries in its master table.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public interface EntryCodec
+{
+    /**
+     * Serializes an Entry.
+     *
+     * @param entry The entry to serialize
+     * @return The serialized entry
+     * @throws IOException If the entry can't be serialized
+     */
+    byte[] serialize( Entry entry ) throws IOException;
+
+
+    /**
+     * Deserializes an Entry.
+     *
+     * @param bytes The serialized entry
+     * @return The deserialized entry
+     * @throws IOException If the entry can't be deserialized
+     */
+    Entry deserialize( byte[] bytes ) throws IOException;
+
+
+    /**
+     * Deserializes the projected attributes of an Entry. The codec may decode the other
+     * attributes too, if its format does not allow to skip them.
+     *
+     * @param bytes The serialized entry
+     * @param projection The attributes to decode
+     * @return The deserialized entry
+     * @throws IOException If the entry can't be deserialized
+     */
+    Entry deserialize( byte[] bytes, EntryProjection projection ) throws IOException;
+}
@@ -30,6 +30,7 @@ import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.server.core.api.filtering.SizedCursor;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.search.Evaluator;
@@ -43,7 +44,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-public class EntryCursorAdaptor extends AbstractCursor<Entry>
+public class EntryCursorAdaptor extends AbstractCursor<Entry> implements SizedCursor
 {
     /** A dedicated log for cursors */
     private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
@@ -57,8 +58,30 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
     private final Cursor<IndexEntry<String, String>> indexCursor;
     private final Evaluator<? extends ExprNode> evaluator;
 
+    /** The partition */
+    private final AbstractBTreePartition db;
+
+    /** The attributes to read from the entries, null if the full entries must be read */
+    private final EntryProjection projection;
+
 
     public EntryCursorAdaptor( PartitionTxn partitionTxn, AbstractBTreePartition db, PartitionSearchResult searchResult )
+    {
+        this( partitionTxn, db, searchResult, null );
+    }
+
+
+    /**
+     * Creates a new instance of EntryCursorAdaptor, reading only the projected
+     * attributes of the entries.
+     *
+     * @param partitionTxn The transaction to use
+     * @param db The partition
+     * @param searchResult The search result
+     * @param projection The attributes to read, or null to read the full entries
+     */
+    public EntryCursorAdaptor( PartitionTxn partitionTxn, AbstractBTreePartition db, PartitionSearchResult searchResult,
+        EntryProjection projection )
     {
         if ( IS_DEBUG )
         {
@@ -68,6 +91,8 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
         indexCursor = searchResult.getResultSet();
         evaluator = searchResult.getEvaluator();
         this.partitionTxn = partitionTxn;
+        this.db = db;
+        this.projection = projection;
     }
 
 
@@ -76,7 +101,7 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public void after( Entry element ) throws LdapException, CursorException
     {
-        throw new UnsupportedOperationException();
+        indexCursor.after( toIndexEntry( element ) );
     }
 
 
@@ -103,7 +128,34 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public void before( Entry element ) throws LdapException, CursorException
     {
-        throw new UnsupportedOperationException();
+        indexCursor.before( toIndexEntry( element ) );
+    }
+
+
+    /**
+     * Creates an IndexEntry containing the ID of an entry, found using its DN
+     */
+    private IndexEntry<String, String> toIndexEntry( Entry element ) throws LdapException
+    {
+        IndexEntry<String, String> indexEntry = new IndexEntry<>();
+        indexEntry.setId( db.getEntryId( partitionTxn, element.getDn() ) );
+
+        return indexEntry;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getEstimatedSize()
+    {
+        if ( indexCursor instanceof SizedCursor )
+        {
+            return ( ( SizedCursor ) indexCursor ).getEstimatedSize();
+        }
+
+        return 0L;
     }
 
 
@@ -174,6 +226,12 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
 
         try
         {
+            if ( ( projection != null ) && ( indexEntry.getEntry() == null ) )
+            {
+                // Read the projected entry before the evaluators read the full one
+                indexEntry.setEntry( db.fetch( partitionTxn, indexEntry.getId(), projection ) );
+            }
+
             if ( evaluator.evaluate( partitionTxn, indexEntry ) )
             {
                 Entry entry = indexEntry.getEntry();
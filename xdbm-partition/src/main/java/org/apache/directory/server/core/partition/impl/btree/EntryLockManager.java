@@ -0,0 +1,297 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+
+
+/**
+ * A set of striped locks used to protect the entries of a partition against concurrent
+ * updates, without serializing all the writes done on the partition.
+ * <p>
+ * Each entry is mapped to a stripe, based on its normalized Dn. A modification takes
+ * the write lock on the stripe of the modified entry, and the read lock on the stripes
+ * of all its ancestors, up to the partition suffix. Two modifications done on unrelated
+ * entries can then be processed concurrently, unless their Dn share the same stripe.
+ * <p>
+ * Structural operations (add, delete, move, rename and moveAndRename) update the
+ * nbChildren/nbDescendants counters stored in the RDN index for all the ancestors of
+ * the impacted entry, so they are serialized using a partition wide structure lock.
+ * On top of that, they take the write lock on the stripe of the impacted entry, which
+ * blocks any modification of an entry in this subtree, as those modifications hold
+ * a read lock on the stripe of all their ancestors. Modifications done outside of
+ * this subtree are not blocked.
+ * <p>
+ * Stripes are always acquired in ascending order, which prevents any deadlock.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryLockManager
+{
+    /** The default number of stripes */
+    public static final int DEFAULT_NB_STRIPES = 64;
+
+    /** The number of bits in a long */
+    private static final int WORD_SIZE = 64;
+
+    /** The striped locks */
+    private final ReentrantReadWriteLock[] stripes;
+
+    /** The mask used to compute a stripe index from a hash */
+    private final int mask;
+
+    /** The lock serializing the structural operations */
+    private final ReentrantLock structureLock = new ReentrantLock();
+
+
+    /**
+     * Creates a new instance of EntryLockManager, with {@link #DEFAULT_NB_STRIPES} stripes.
+     */
+    public EntryLockManager()
+    {
+        this( DEFAULT_NB_STRIPES );
+    }
+
+
+    /**
+     * Creates a new instance of EntryLockManager.
+     *
+     * @param nbStripes The number of stripes, rounded up to the next power of 2. Using 1
+     * will serialize all the writes done on the partition.
+     */
+    public EntryLockManager( int nbStripes )
+    {
+        if ( nbStripes < 1 )
+        {
+            throw new IllegalArgumentException( "The number of stripes must be positive : " + nbStripes );
+        }
+
+        int size = Integer.highestOneBit( nbStripes );
+
+        if ( size < nbStripes )
+        {
+            size <<= 1;
+        }
+
+        stripes = new ReentrantReadWriteLock[size];
+
+        for ( int i = 0; i < size; i++ )
+        {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+
+        mask = size - 1;
+    }
+
+
+    /**
+     * @return The number of stripes
+     */
+    public int getNbStripes()
+    {
+        return stripes.length;
+    }
+
+
+    /**
+     * Locks an entry before it gets modified. The write lock is taken on the entry's stripe,
+     * and the read lock on the stripes of all its ancestors up to the partition suffix.
+     *
+     * @param suffixDn The partition suffix
+     * @param dn The entry's Dn
+     * @return The acquired lock, which must be released by a call to {@link EntryLock#unlock()}
+     */
+    public EntryLock lockEntry( Dn suffixDn, Dn dn )
+    {
+        long[] readStripes = new long[( stripes.length + WORD_SIZE - 1 ) / WORD_SIZE];
+        long[] writeStripes = new long[readStripes.length];
+
+        int size = dn.size();
+        int start = ( suffixDn == null ) ? 0 : Math.min( suffixDn.size(), size );
+        int hash = 0;
+
+        // Compute the ancestors hashes, starting from the root. The position 0 is the entry's Rdn
+        for ( int i = size - 1; i >= 0; i-- )
+        {
+            hash = hash * 31 + dn.getRdn( i ).getNormName().hashCode();
+
+            if ( size - i < start )
+            {
+                // Above the partition suffix
+                continue;
+            }
+
+            int stripe = stripeFor( hash );
+
+            if ( i == 0 )
+            {
+                writeStripes[stripe / WORD_SIZE] |= 1L << ( stripe % WORD_SIZE );
+            }
+            else
+            {
+                readStripes[stripe / WORD_SIZE] |= 1L << ( stripe % WORD_SIZE );
+            }
+        }
+
+        EntryLock entryLock = new EntryLock( readStripes, writeStripes, false );
+        entryLock.lock();
+
+        return entryLock;
+    }
+
+
+    /**
+     * Locks a subtree before a structural operation (add, delete, move, rename) is applied
+     * on it. The structure lock is taken, then the write lock on the subtree root's stripe.
+     *
+     * @param dn The subtree root
+     * @return The acquired lock, which must be released by a call to {@link EntryLock#unlock()}
+     */
+    public EntryLock lockSubtree( Dn dn )
+    {
+        long[] readStripes = new long[( stripes.length + WORD_SIZE - 1 ) / WORD_SIZE];
+        long[] writeStripes = new long[readStripes.length];
+        int hash = 0;
+
+        for ( int i = dn.size() - 1; i >= 0; i-- )
+        {
+            hash = hash * 31 + dn.getRdn( i ).getNormName().hashCode();
+        }
+
+        int stripe = stripeFor( hash );
+        writeStripes[stripe / WORD_SIZE] |= 1L << ( stripe % WORD_SIZE );
+
+        EntryLock entryLock = new EntryLock( readStripes, writeStripes, true );
+        entryLock.lock();
+
+        return entryLock;
+    }
+
+
+    /**
+     * Spreads the hash bits, as the Rdn hash may not be evenly distributed on the lower bits.
+     */
+    private int stripeFor( int hash )
+    {
+        int h = hash ^ ( hash >>> 16 );
+
+        return ( h * 0x9E3779B9 >>> 16 ) & mask;
+    }
+
+
+    /**
+     * A set of stripes held by a thread. The locks must be released in a finally block.
+     */
+    public final class EntryLock
+    {
+        /** The stripes locked in read mode */
+        private final long[] readStripes;
+
+        /** The stripes locked in write mode */
+        private final long[] writeStripes;
+
+        /** Tells if the structure lock is held */
+        private final boolean structural;
+
+
+        private EntryLock( long[] readStripes, long[] writeStripes, boolean structural )
+        {
+            this.readStripes = readStripes;
+            this.writeStripes = writeStripes;
+            this.structural = structural;
+        }
+
+
+        /**
+         * Acquires the locks, in ascending stripe order. A stripe locked in both modes is
+         * locked in write mode.
+         */
+        private void lock()
+        {
+            if ( structural )
+            {
+                structureLock.lock();
+            }
+
+            int acquired = 0;
+
+            try
+            {
+                for ( ; acquired < stripes.length; acquired++ )
+                {
+                    int word = acquired / WORD_SIZE;
+                    long bit = 1L << ( acquired % WORD_SIZE );
+
+                    if ( ( writeStripes[word] & bit ) != 0 )
+                    {
+                        stripes[acquired].writeLock().lock();
+                    }
+                    else if ( ( readStripes[word] & bit ) != 0 )
+                    {
+                        stripes[acquired].readLock().lock();
+                    }
+                }
+            }
+            catch ( RuntimeException | Error e )
+            {
+                release( acquired - 1 );
+
+                throw e;
+            }
+        }
+
+
+        /**
+         * Releases all the locks, in reverse order.
+         */
+        public void unlock()
+        {
+            release( stripes.length - 1 );
+        }
+
+
+        private void release( int from )
+        {
+            for ( int i = from; i >= 0; i-- )
+            {
+                int word = i / WORD_SIZE;
+                long bit = 1L << ( i % WORD_SIZE );
+
+                if ( ( writeStripes[word] & bit ) != 0 )
+                {
+                    stripes[i].writeLock().unlock();
+                }
+                else if ( ( readStripes[word] & bit ) != 0 )
+                {
+                    stripes[i].readLock().unlock();
+                }
+            }
+
+            if ( structural )
+            {
+                structureLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.BranchNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.ExtensibleNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
+import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
+import org.apache.directory.api.ldap.model.filter.ScopeNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.AttributeTypeOptions;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.UsageEnum;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+
+
+/**
+ * The subset of an entry's attributes a search needs : the requested attributes, the
+ * attributes used in the filter, the objectClass attribute and all the operational
+ * attributes (which are used by the interceptors, like the entryACI, the
+ * collectiveExclusions or the ref attributes). The subtypes of the selected attributes
+ * are selected too.
+ * <p>
+ * The search results are read using this projection, so that the large attributes which
+ * have not been requested are neither decoded nor copied.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryProjection
+{
+    /** The schema manager */
+    private final SchemaManager schemaManager;
+
+    /** The OIDs of the selected user attributes */
+    private final Set<String> attributeOids = new HashSet<>();
+
+
+    /**
+     * Creates a new instance of EntryProjection.
+     *
+     * @param schemaManager The schema manager
+     * @param attributeTypes The selected user attributes
+     */
+    public EntryProjection( SchemaManager schemaManager, Set<AttributeType> attributeTypes )
+    {
+        this.schemaManager = schemaManager;
+
+        for ( AttributeType attributeType : attributeTypes )
+        {
+            attributeOids.add( attributeType.getOid() );
+        }
+
+        attributeOids.add( SchemaConstants.OBJECT_CLASS_AT_OID );
+    }
+
+
+    /**
+     * Creates the projection of a search.
+     *
+     * @param searchContext The search operation context
+     * @param schemaManager The schema manager
+     * @return The projection, or null if the search needs the full entries
+     */
+    public static EntryProjection create( SearchOperationContext searchContext, SchemaManager schemaManager )
+    {
+        if ( searchContext.isFullEntryRequired() || searchContext.isAllUserAttributes() )
+        {
+            return null;
+        }
+
+        Set<AttributeType> attributeTypes = new HashSet<>();
+
+        if ( !collectFilterAttributes( searchContext.getFilter(), attributeTypes ) )
+        {
+            return null;
+        }
+
+        Set<AttributeTypeOptions> returningAttributes = searchContext.getReturningAttributes();
+
+        if ( ( returningAttributes != null ) && !searchContext.isNoAttributes() )
+        {
+            for ( AttributeTypeOptions attributeTypeOptions : returningAttributes )
+            {
+                attributeTypes.add( attributeTypeOptions.getAttributeType() );
+            }
+        }
+
+        return new EntryProjection( schemaManager, attributeTypes );
+    }
+
+
+    /**
+     * Collects the attributes used in a filter.
+     *
+     * @return false if the filter can't be evaluated on a projected entry
+     */
+    private static boolean collectFilterAttributes( ExprNode node, Set<AttributeType> attributeTypes )
+    {
+        if ( node == null )
+        {
+            return false;
+        }
+
+        if ( node instanceof BranchNode )
+        {
+            for ( ExprNode child : ( ( BranchNode ) node ).getChildren() )
+            {
+                if ( !collectFilterAttributes( child, attributeTypes ) )
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        if ( ( node instanceof ScopeNode ) || ( node instanceof ObjectClassNode ) )
+        {
+            // The scope is evaluated using the indexes, the objectClass is always read
+            return true;
+        }
+
+        if ( ( node instanceof LeafNode ) && !( node instanceof ExtensibleNode ) )
+        {
+            AttributeType attributeType = ( ( LeafNode ) node ).getAttributeType();
+
+            if ( attributeType == null )
+            {
+                return false;
+            }
+
+            attributeTypes.add( attributeType );
+
+            return true;
+        }
+
+        // Extensible, undefined or assertion nodes : we don't know what they need
+        return false;
+    }
+
+
+    /**
+     * Tells if an attribute is part of the projection.
+     *
+     * @param attributeType The attribute type
+     * @return <tt>true</tt> if the attribute must be read
+     */
+    public boolean contains( AttributeType attributeType )
+    {
+        if ( attributeType.getUsage() != UsageEnum.USER_APPLICATIONS )
+        {
+            return true;
+        }
+
+        // Check the attribute and its superiors, as requesting an attribute
+        // returns its subtypes
+        AttributeType current = attributeType;
+
+        while ( current != null )
+        {
+            if ( attributeOids.contains( current.getOid() ) )
+            {
+                return true;
+            }
+
+            current = current.getSuperior();
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Creates an entry containing the projected attributes of a given entry. The
+     * attributes are not copied.
+     *
+     * @param entry The entry
+     * @return The projected entry
+     * @throws LdapException If the projected entry can't be created
+     */
+    public Entry project( Entry entry ) throws LdapException
+    {
+        Entry projected = new DefaultEntry( schemaManager, entry.getDn() );
+
+        for ( Attribute attribute : entry )
+        {
+            AttributeType attributeType = attribute.getAttributeType();
+
+            if ( ( attributeType == null ) || contains( attributeType ) )
+            {
+                projected.put( attribute );
+            }
+        }
+
+        return projected;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "EntryProjection" + attributeOids;
+    }
+}
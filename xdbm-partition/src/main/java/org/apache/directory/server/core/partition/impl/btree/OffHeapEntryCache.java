@@ -0,0 +1,721 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An entry cache storing the serialized entries out of the Java heap, in direct
+ * ByteBuffers, and bounded by a number of bytes instead of a number of entries.
+ * Large caches can thus be used without increasing the GC pauses, and the memory
+ * they use does not depend on the entries size.
+ * <p>
+ * The cache is split in segments, each one owning its share of the memory and
+ * protected by its own lock. The memory of a segment is split in fixed size blocks,
+ * allocated lazily by chunks of at most 1 GB. A serialized entry is stored in a chain
+ * of blocks : the last 4 bytes of each block contain the number of the next block.
+ * The free blocks are chained the same way, so the only per entry data kept on the
+ * heap is the entry ID and the number of its first block. When a segment is full, the
+ * least recently used entries are evicted.
+ * <p>
+ * Each lookup deserializes a new instance of the entry : the returned entries can be
+ * modified freely. Note that the direct memory is limited by the
+ * <i>-XX:MaxDirectMemorySize</i> JVM option, which must be set accordingly.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OffHeapEntryCache
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( OffHeapEntryCache.class );
+
+    /** The default block size */
+    public static final int DEFAULT_BLOCK_SIZE = 512;
+
+    /** The default number of segments */
+    public static final int DEFAULT_NB_SEGMENTS = 16;
+
+    /** The maximum size of a chunk of direct memory */
+    private static final int MAX_CHUNK_SIZE = 1 << 30;
+
+    /** The size of a block number */
+    private static final int LINK_SIZE = 4;
+
+    /** The marker for the end of a chain of blocks */
+    private static final int NO_BLOCK = -1;
+
+    /** The codec used to serialize the entries */
+    private final EntryCodec codec;
+
+    /** The segments */
+    private final Segment[] segments;
+
+    /** The maximum number of bytes used by the cache */
+    private final long maxBytes;
+
+    /** The size of a block */
+    private final int blockSize;
+
+    /** The number of lookups which found the entry */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /** The number of lookups which didn't find the entry */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /** The number of stored entries */
+    private final AtomicLong putCount = new AtomicLong();
+
+    /** The number of evicted entries */
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /** The number of entries which were too big to be stored */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+
+    /**
+     * The information kept on the heap for a cached entry
+     */
+    private static final class Record
+    {
+        /** The first block of the serialized entry */
+        private final int firstBlock;
+
+        /** The size of the serialized entry */
+        private final int length;
+
+
+        private Record( int firstBlock, int length )
+        {
+            this.firstBlock = firstBlock;
+            this.length = length;
+        }
+    }
+
+
+    /**
+     * A part of the cache, owning its memory. All the methods must be called while
+     * holding the segment's lock.
+     */
+    private final class Segment
+    {
+        /** The records, in access order */
+        private final LinkedHashMap<String, Record> records = new LinkedHashMap<>( 16, 0.75f, true );
+
+        /** The chunks of direct memory, allocated on demand */
+        private ByteBuffer[] chunks;
+
+        /** The number of blocks per chunk */
+        private final int blocksPerChunk;
+
+        /** The total number of blocks */
+        private final int nbBlocks;
+
+        /** The first block of the free blocks chain */
+        private int freeHead = NO_BLOCK;
+
+        /** The number of blocks in the free chain */
+        private int nbFree;
+
+        /** The first block which has never been used */
+        private int nextBlock;
+
+
+        private Segment( int nbBlocks )
+        {
+            this.nbBlocks = nbBlocks;
+            blocksPerChunk = MAX_CHUNK_SIZE / blockSize;
+            chunks = new ByteBuffer[( nbBlocks + blocksPerChunk - 1 ) / blocksPerChunk];
+        }
+
+
+        /**
+         * Gets the chunk containing a block, allocating it if needed
+         */
+        private ByteBuffer chunkOf( int block )
+        {
+            int chunkNumber = block / blocksPerChunk;
+            ByteBuffer chunk = chunks[chunkNumber];
+
+            if ( chunk == null )
+            {
+                int nbChunkBlocks = Math.min( blocksPerChunk, nbBlocks - chunkNumber * blocksPerChunk );
+
+                // Counted against -XX:MaxDirectMemorySize, which defaults to the max heap size :
+                // if it's lower than the cache size, this throws an OutOfMemoryError
+                chunk = ByteBuffer.allocateDirect( nbChunkBlocks * blockSize );
+                chunks[chunkNumber] = chunk;
+            }
+
+            return chunk;
+        }
+
+
+        private int offsetOf( int block )
+        {
+            return ( block % blocksPerChunk ) * blockSize;
+        }
+
+
+        private int getNext( int block )
+        {
+            return chunkOf( block ).getInt( offsetOf( block ) + blockSize - LINK_SIZE );
+        }
+
+
+        private void setNext( int block, int next )
+        {
+            chunkOf( block ).putInt( offsetOf( block ) + blockSize - LINK_SIZE, next );
+        }
+
+
+        private int getNbAvailableBlocks()
+        {
+            return nbFree + ( nbBlocks - nextBlock );
+        }
+
+
+        private int allocateBlock()
+        {
+            if ( freeHead != NO_BLOCK )
+            {
+                int block = freeHead;
+                freeHead = getNext( block );
+                nbFree--;
+
+                return block;
+            }
+
+            return nextBlock++;
+        }
+
+
+        /**
+         * Puts back the blocks of a record in the free chain
+         */
+        private void release( Record record )
+        {
+            int block = record.firstBlock;
+            int nbRecordBlocks = nbBlocksFor( record.length );
+
+            for ( int i = 0; i < nbRecordBlocks; i++ )
+            {
+                int next = getNext( block );
+                setNext( block, freeHead );
+                freeHead = block;
+                nbFree++;
+                block = next;
+            }
+        }
+
+
+        private byte[] read( Record record )
+        {
+            byte[] bytes = new byte[record.length];
+            int block = record.firstBlock;
+            int pos = 0;
+
+            while ( pos < record.length )
+            {
+                int size = Math.min( blockSize - LINK_SIZE, record.length - pos );
+                ByteBuffer chunk = chunkOf( block );
+                chunk.position( offsetOf( block ) );
+                chunk.get( bytes, pos, size );
+                pos += size;
+                block = getNext( block );
+            }
+
+            return bytes;
+        }
+
+
+        private Record write( byte[] bytes )
+        {
+            int firstBlock = NO_BLOCK;
+            int previous = NO_BLOCK;
+            int pos = 0;
+
+            do
+            {
+                int block = allocateBlock();
+                int size = Math.min( blockSize - LINK_SIZE, bytes.length - pos );
+                ByteBuffer chunk = chunkOf( block );
+                chunk.position( offsetOf( block ) );
+                chunk.put( bytes, pos, size );
+                setNext( block, NO_BLOCK );
+                pos += size;
+
+                if ( previous == NO_BLOCK )
+                {
+                    firstBlock = block;
+                }
+                else
+                {
+                    setNext( previous, block );
+                }
+
+                previous = block;
+            }
+            while ( pos < bytes.length );
+
+            return new Record( firstBlock, bytes.length );
+        }
+
+
+        private byte[] get( String id )
+        {
+            Record record = records.get( id );
+
+            if ( record == null )
+            {
+                return null;
+            }
+
+            return read( record );
+        }
+
+
+        private boolean put( String id, byte[] bytes )
+        {
+            Record previousRecord = records.remove( id );
+
+            if ( previousRecord != null )
+            {
+                release( previousRecord );
+            }
+
+            int needed = nbBlocksFor( bytes.length );
+
+            if ( needed > nbBlocks )
+            {
+                return false;
+            }
+
+            // Evict the least recently used entries until we have enough room
+            Iterator<Record> iterator = records.values().iterator();
+
+            while ( getNbAvailableBlocks() < needed )
+            {
+                release( iterator.next() );
+                iterator.remove();
+                evictionCount.incrementAndGet();
+            }
+
+            records.put( id, write( bytes ) );
+
+            return true;
+        }
+
+
+        private void remove( String id )
+        {
+            Record record = records.remove( id );
+
+            if ( record != null )
+            {
+                release( record );
+            }
+        }
+
+
+        private void clear()
+        {
+            records.clear();
+            freeHead = NO_BLOCK;
+            nbFree = 0;
+            nextBlock = 0;
+        }
+
+
+        private long getUsedBytes()
+        {
+            return ( long ) ( nextBlock - nbFree ) * blockSize;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of OffHeapEntryCache, using the default block size and
+     * number of segments.
+     *
+     * @param maxBytes The maximum number of bytes the cache can use
+     * @param codec The codec used to serialize the entries
+     */
+    public OffHeapEntryCache( long maxBytes, EntryCodec codec )
+    {
+        this( maxBytes, DEFAULT_BLOCK_SIZE, DEFAULT_NB_SEGMENTS, codec );
+    }
+
+
+    /**
+     * Creates a new instance of OffHeapEntryCache.
+     *
+     * @param maxBytes The maximum number of bytes the cache can use
+     * @param blockSize The size of the blocks the entries are stored in
+     * @param nbSegments The number of segments, rounded up to a power of 2
+     * @param codec The codec used to serialize the entries
+     */
+    public OffHeapEntryCache( long maxBytes, int blockSize, int nbSegments, EntryCodec codec )
+    {
+        if ( ( blockSize <= LINK_SIZE ) || ( blockSize > MAX_CHUNK_SIZE ) )
+        {
+            throw new IllegalArgumentException( "Invalid block size : " + blockSize );
+        }
+
+        this.maxBytes = maxBytes;
+        this.blockSize = blockSize;
+        this.codec = codec;
+
+        int segmentCount = Integer.highestOneBit( Math.max( 1, nbSegments ) * 2 - 1 );
+        long blocksPerSegment = Math.min( maxBytes / segmentCount / blockSize, Integer.MAX_VALUE );
+
+        segments = new Segment[segmentCount];
+
+        for ( int i = 0; i < segmentCount; i++ )
+        {
+            segments[i] = new Segment( ( int ) Math.max( 1L, blocksPerSegment ) );
+        }
+    }
+
+
+    private int nbBlocksFor( int length )
+    {
+        return Math.max( 1, ( length + blockSize - LINK_SIZE - 1 ) / ( blockSize - LINK_SIZE ) );
+    }
+
+
+    private Segment segmentFor( String id )
+    {
+        int hash = id.hashCode();
+        hash ^= ( hash >>> 16 );
+
+        return segments[hash & ( segments.length - 1 )];
+    }
+
+
+    /**
+     * Gets an entry from the cache.
+     *
+     * @param id The entry ID
+     * @return A new instance of the cached entry, or null if it's not in the cache
+     */
+    public Entry get( String id )
+    {
+        return get( id, null );
+    }
+
+
+    /**
+     * Gets the projected attributes of an entry from the cache. Only those attributes
+     * are decoded, if the codec allows it.
+     *
+     * @param id The entry ID
+     * @param projection The attributes to decode, or null to decode all of them
+     * @return A new instance of the cached entry, or null if it's not in the cache
+     */
+    public Entry get( String id, EntryProjection projection )
+    {
+        Segment segment = segmentFor( id );
+        byte[] bytes;
+
+        synchronized ( segment )
+        {
+            bytes = segment.get( id );
+        }
+
+        if ( bytes == null )
+        {
+            missCount.incrementAndGet();
+
+            return null;
+        }
+
+        try
+        {
+            Entry entry;
+
+            if ( projection == null )
+            {
+                entry = codec.deserialize( bytes );
+            }
+            else
+            {
+                entry = codec.deserialize( bytes, projection );
+            }
+
+            hitCount.incrementAndGet();
+
+            return entry;
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot deserialize the cached entry {}, removing it", id, ioe );
+            remove( id );
+            missCount.incrementAndGet();
+
+            return null;
+        }
+    }
+
+
+    /**
+     * Stores an entry in the cache, replacing the previous version if any. The least
+     * recently used entries are evicted if there is not enough room. An entry bigger
+     * than a segment is not cached.
+     *
+     * @param id The entry ID
+     * @param entry The entry
+     */
+    public void put( String id, Entry entry )
+    {
+        store( id, entry, false );
+    }
+
+
+    /**
+     * Replaces an entry in the cache, if it's present.
+     *
+     * @param id The entry ID
+     * @param entry The new version of the entry
+     */
+    public void replace( String id, Entry entry )
+    {
+        store( id, entry, true );
+    }
+
+
+    /**
+     * Serializes and stores an entry. The presence check, the serialization and the store
+     * are done while holding the segment lock, so that the concurrent updates of an entry
+     * are applied in the order they get the lock : a removed entry can't be stored back
+     * by a replacement which started before the removal.
+     */
+    private void store( String id, Entry entry, boolean onlyIfPresent )
+    {
+        Segment segment = segmentFor( id );
+        boolean stored;
+
+        synchronized ( segment )
+        {
+            if ( onlyIfPresent && !segment.records.containsKey( id ) )
+            {
+                return;
+            }
+
+            byte[] bytes;
+
+            try
+            {
+                bytes = codec.serialize( entry );
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Cannot serialize the entry {}, it won't be cached", id, ioe );
+                segment.remove( id );
+
+                return;
+            }
+
+            stored = segment.put( id, bytes );
+        }
+
+        if ( stored )
+        {
+            putCount.incrementAndGet();
+        }
+        else
+        {
+            rejectedCount.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * Removes an entry from the cache.
+     *
+     * @param id The entry ID
+     */
+    public void remove( String id )
+    {
+        Segment segment = segmentFor( id );
+
+        synchronized ( segment )
+        {
+            segment.remove( id );
+        }
+    }
+
+
+    /**
+     * Removes all the entries from the cache. The direct memory is kept, to be reused.
+     */
+    public void clear()
+    {
+        for ( Segment segment : segments )
+        {
+            synchronized ( segment )
+            {
+                segment.clear();
+            }
+        }
+    }
+
+
+    /**
+     * Removes all the entries, and releases the direct memory. The cache can still be used
+     * afterward : the memory will be allocated again.
+     */
+    public void close()
+    {
+        for ( Segment segment : segments )
+        {
+            synchronized ( segment )
+            {
+                segment.clear();
+                segment.chunks = new ByteBuffer[segment.chunks.length];
+            }
+        }
+    }
+
+
+    /**
+     * @return The number of cached entries
+     */
+    public int getSize()
+    {
+        int size = 0;
+
+        for ( Segment segment : segments )
+        {
+            synchronized ( segment )
+            {
+                size += segment.records.size();
+            }
+        }
+
+        return size;
+    }
+
+
+    /**
+     * @return The number of bytes used by the cached entries, including the blocks overhead
+     */
+    public long getUsedBytes()
+    {
+        long usedBytes = 0L;
+
+        for ( Segment segment : segments )
+        {
+            synchronized ( segment )
+            {
+                usedBytes += segment.getUsedBytes();
+            }
+        }
+
+        return usedBytes;
+    }
+
+
+    /**
+     * @return The maximum number of bytes the cache can use
+     */
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+
+    /**
+     * @return The number of lookups which found the entry
+     */
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+
+    /**
+     * @return The number of lookups which didn't find the entry
+     */
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+
+    /**
+     * @return The number of entries stored in the cache
+     */
+    public long getPutCount()
+    {
+        return putCount.get();
+    }
+
+
+    /**
+     * @return The number of entries evicted to make room for new ones
+     */
+    public long getEvictionCount()
+    {
+        return evictionCount.get();
+    }
+
+
+    /**
+     * @return The number of entries which were too big to be cached
+     */
+    public long getRejectedCount()
+    {
+        return rejectedCount.get();
+    }
+
+
+    /**
+     * @return The ratio of lookups which found the entry, in [0, 1]
+     */
+    public double getHitRatio()
+    {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+
+        return ( total == 0L ) ? 0d : ( double ) hits / total;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "OffHeapEntryCache[size=" + getSize() + ", usedBytes=" + getUsedBytes() + ", maxBytes=" + maxBytes
+            + ", hits=" + hitCount.get() + ", misses=" + missCount.get() + ", evictions=" + evictionCount.get()
+            + "]";
+    }
+}
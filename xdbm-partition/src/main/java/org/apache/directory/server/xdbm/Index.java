@@ -345,4 +345,22 @@ public interface Index<K, E>
      * @return true if the index has a reverse table
      */
     boolean hasReverse();
+
+
+    /**
+     * Tells if the index keys are also indexed by n-grams, to speed up the substring
+     * filters which have no initial, like (cn=*foo*)
+     * 
+     * @return true if the index keys are indexed by n-grams
+     */
+    boolean isSubstringIndexed();
+
+
+    /**
+     * Sets the flag telling if the index keys are also indexed by n-grams. This is only
+     * used for human readable attributes with a SUBSTR matching rule.
+     * 
+     * @param substringIndexed true if the index keys have to be indexed by n-grams
+     */
+    void setSubstringIndexed( boolean substringIndexed );
 }
@@ -0,0 +1,432 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+
+
+/**
+ * Statistics on the content of an index, used by the optimizer to estimate the number
+ * of candidates a filter will select without walking the index at query time.
+ * <p>
+ * We keep the number of &lt;key, id&gt; tuples, the number of distinct keys, and an
+ * equi-depth histogram of the keys : the index is split in buckets holding roughly the
+ * same number of tuples when the statistics are built, each bucket being delimited by
+ * its lowest key. The statistics are then updated incrementally on each index
+ * addition or removal, and should be rebuilt when they have drifted too much from
+ * the initial distribution (see {@link #isStale()}).
+ * <p>
+ * Within a bucket, we don't know how the keys are distributed, so we assume that a
+ * key falls in the middle of its bucket : the estimation error is at most the size
+ * of one bucket.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatistics
+{
+    /** The default number of buckets */
+    public static final int DEFAULT_NB_BUCKETS = 100;
+
+    /** The comparator used to order the keys */
+    private final Comparator<Object> comparator;
+
+    /** The lowest key of each bucket. Keys lower than the first boundary go into the first bucket */
+    private final Object[] boundaries;
+
+    /** The number of tuples per bucket */
+    private final AtomicLongArray counts;
+
+    /** The number of distinct keys per bucket */
+    private final AtomicLongArray distinctCounts;
+
+    /** The total number of tuples */
+    private final AtomicLong count = new AtomicLong();
+
+    /** The total number of distinct keys */
+    private final AtomicLong distinctCount = new AtomicLong();
+
+    /** The number of tuples when the statistics were built */
+    private final long initialCount;
+
+    /** The number of updates since the statistics were built */
+    private final AtomicLong nbUpdates = new AtomicLong();
+
+
+    private IndexStatistics( Comparator<Object> comparator, Object[] boundaries, long[] counts, long[] distinctCounts )
+    {
+        this.comparator = comparator;
+        this.boundaries = boundaries;
+        this.counts = new AtomicLongArray( counts );
+        this.distinctCounts = new AtomicLongArray( distinctCounts );
+
+        long total = 0L;
+        long distinct = 0L;
+
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            total += counts[i];
+            distinct += distinctCounts[i];
+        }
+
+        count.set( total );
+        distinctCount.set( distinct );
+        initialCount = total;
+    }
+
+
+    /**
+     * Builds the statistics of an index, walking it once in key order.
+     *
+     * @param partitionTxn The transaction to use
+     * @param index The index
+     * @param comparator The comparator used to order the index keys
+     * @param nbBuckets The number of histogram buckets
+     * @return The index statistics
+     * @throws LdapException If the index can't be read
+     */
+    @SuppressWarnings("unchecked")
+    public static IndexStatistics build( PartitionTxn partitionTxn, Index<?, String> index, Comparator<?> comparator,
+        int nbBuckets ) throws LdapException
+    {
+        long total = index.count( partitionTxn );
+        long bucketSize = Math.max( 1L, ( total + nbBuckets - 1 ) / nbBuckets );
+
+        List<Object> boundaries = new ArrayList<>( nbBuckets );
+        List<long[]> buckets = new ArrayList<>( nbBuckets );
+        long[] current = null;
+        Object previousKey = null;
+        Comparator<Object> keyComparator = ( Comparator<Object> ) comparator;
+
+        Cursor<? extends IndexEntry<?, String>> cursor = index.forwardCursor( partitionTxn );
+
+        try
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                Object key = cursor.get().getKey();
+                boolean newKey = ( previousKey == null ) || ( keyComparator.compare( previousKey, key ) != 0 );
+
+                // Start a new bucket when the current one is full, but never split a key
+                if ( ( current == null ) || ( newKey && ( current[0] >= bucketSize ) ) )
+                {
+                    current = new long[2];
+                    boundaries.add( key );
+                    buckets.add( current );
+                }
+
+                current[0]++;
+
+                if ( newKey )
+                {
+                    current[1]++;
+                    previousKey = key;
+                }
+            }
+        }
+        catch ( CursorException ce )
+        {
+            throw new LdapOtherException( ce.getMessage(), ce );
+        }
+        finally
+        {
+            try
+            {
+                cursor.close();
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+        }
+
+        if ( buckets.isEmpty() )
+        {
+            // An empty index : use a single bucket
+            return new IndexStatistics( keyComparator, new Object[0], new long[1], new long[1] );
+        }
+
+        long[] counts = new long[buckets.size()];
+        long[] distinctCounts = new long[buckets.size()];
+
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            counts[i] = buckets.get( i )[0];
+            distinctCounts[i] = buckets.get( i )[1];
+        }
+
+        return new IndexStatistics( keyComparator, boundaries.toArray(), counts, distinctCounts );
+    }
+
+
+    /**
+     * Finds the bucket a key belongs to.
+     */
+    private int bucketOf( Object key )
+    {
+        int low = 0;
+        int high = boundaries.length - 1;
+        int bucket = 0;
+
+        while ( low <= high )
+        {
+            int middle = ( low + high ) >>> 1;
+
+            if ( comparator.compare( boundaries[middle], key ) <= 0 )
+            {
+                bucket = middle;
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle - 1;
+            }
+        }
+
+        return bucket;
+    }
+
+
+    /**
+     * Records the addition of a &lt;key, id&gt; tuple in the index.
+     *
+     * @param key The added key
+     * @param newKey <tt>true</tt> if the key was not present in the index before
+     */
+    public void add( Object key, boolean newKey )
+    {
+        int bucket = bucketOf( key );
+
+        counts.incrementAndGet( bucket );
+        count.incrementAndGet();
+
+        if ( newKey )
+        {
+            distinctCounts.incrementAndGet( bucket );
+            distinctCount.incrementAndGet();
+        }
+
+        nbUpdates.incrementAndGet();
+    }
+
+
+    /**
+     * Records the removal of a &lt;key, id&gt; tuple from the index.
+     *
+     * @param key The removed key
+     * @param lastKey <tt>true</tt> if the key is not present in the index anymore
+     */
+    public void drop( Object key, boolean lastKey )
+    {
+        int bucket = bucketOf( key );
+
+        if ( counts.get( bucket ) > 0 )
+        {
+            counts.decrementAndGet( bucket );
+            count.decrementAndGet();
+        }
+
+        if ( lastKey && ( distinctCounts.get( bucket ) > 0 ) )
+        {
+            distinctCounts.decrementAndGet( bucket );
+            distinctCount.decrementAndGet();
+        }
+
+        nbUpdates.incrementAndGet();
+    }
+
+
+    /**
+     * @return The number of &lt;key, id&gt; tuples in the index
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+
+    /**
+     * @return The number of distinct keys in the index
+     */
+    public long getDistinctKeyCount()
+    {
+        return distinctCount.get();
+    }
+
+
+    /**
+     * @return The number of buckets in the histogram
+     */
+    public int getNbBuckets()
+    {
+        return counts.length();
+    }
+
+
+    /**
+     * Tells if the statistics have drifted too much from the distribution they were
+     * built on, and should be rebuilt. This is the case when the number of updates
+     * exceeds half the initial number of tuples (with a minimum, so that small
+     * indexes are not rebuilt too often).
+     *
+     * @return <tt>true</tt> if the statistics should be rebuilt
+     */
+    public boolean isStale()
+    {
+        return nbUpdates.get() > Math.max( initialCount / 2, 1000L );
+    }
+
+
+    /**
+     * @return The average number of tuples per key
+     */
+    public long estimateEqualityCount()
+    {
+        long distinct = distinctCount.get();
+
+        if ( distinct == 0L )
+        {
+            return count.get();
+        }
+
+        return Math.max( 1L, count.get() / distinct );
+    }
+
+
+    /**
+     * Estimates the number of tuples which key is greater than or equal to the given key.
+     *
+     * @param key The key
+     * @return The estimated number of tuples
+     */
+    public long estimateGreaterOrEqualCount( Object key )
+    {
+        if ( boundaries.length == 0 )
+        {
+            return count.get();
+        }
+
+        int bucket = bucketOf( key );
+        long total = 0L;
+
+        for ( int i = bucket + 1; i < boundaries.length; i++ )
+        {
+            total += counts.get( i );
+        }
+
+        if ( comparator.compare( boundaries[bucket], key ) == 0 )
+        {
+            // The key is the bucket's lowest key : the whole bucket is selected
+            return total + counts.get( bucket );
+        }
+        else if ( ( bucket == 0 ) && ( comparator.compare( key, boundaries[0] ) < 0 ) )
+        {
+            // Below the first key
+            return total + counts.get( 0 );
+        }
+
+        return total + ( counts.get( bucket ) + 1 ) / 2;
+    }
+
+
+    /**
+     * Estimates the number of tuples which key is lower than or equal to the given key.
+     *
+     * @param key The key
+     * @return The estimated number of tuples
+     */
+    public long estimateLessOrEqualCount( Object key )
+    {
+        if ( boundaries.length == 0 )
+        {
+            return count.get();
+        }
+
+        if ( comparator.compare( key, boundaries[0] ) < 0 )
+        {
+            // Below the first key
+            return 0L;
+        }
+
+        int bucket = bucketOf( key );
+        long total = 0L;
+
+        for ( int i = 0; i < bucket; i++ )
+        {
+            total += counts.get( i );
+        }
+
+        return total + ( counts.get( bucket ) + 1 ) / 2;
+    }
+
+
+    /**
+     * Estimates the number of tuples which key is in [from, to[.
+     *
+     * @param from The lowest key, included
+     * @param to The highest key, excluded
+     * @return The estimated number of tuples
+     */
+    public long estimateRangeCount( Object from, Object to )
+    {
+        if ( boundaries.length == 0 )
+        {
+            return count.get();
+        }
+
+        int fromBucket = bucketOf( from );
+        int toBucket = bucketOf( to );
+
+        if ( fromBucket == toBucket )
+        {
+            // The range is within a single bucket : assume the keys are spread evenly
+            long bucketCount = counts.get( fromBucket );
+            long bucketDistinct = Math.max( 1L, distinctCounts.get( fromBucket ) );
+
+            return Math.min( bucketCount, Math.max( bucketCount / bucketDistinct, ( bucketCount + 1 ) / 2 ) );
+        }
+
+        return Math.max( 0L, estimateGreaterOrEqualCount( from ) - estimateGreaterOrEqualCount( to ) );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "IndexStatistics[count=" + count.get() + ", distinct=" + distinctCount.get() + ", buckets="
+            + counts.length() + ", updates=" + nbUpdates.get() + "]";
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
+import org.apache.directory.api.ldap.model.schema.PrepareString;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+
+
+/**
+ * An index of the keys of a user index by their n-grams (trigrams). It is used to find
+ * the candidates of a substring filter with no initial, like (cn=*smith*), without
+ * scanning all the keys of the user index : the keys containing all the n-grams of
+ * the filter fragments are selected, then verified against the filter pattern.
+ * <p>
+ * The n-grams are computed on the normalized keys and fragments, ignoring the spaces, so
+ * that the n-grams of a fragment are always a subset of the n-grams of a matching key,
+ * whatever the way the spaces are handled by the normalizer. The selected keys are a
+ * superset of the matching keys.
+ * <p>
+ * This index references the keys, not the entries : the entry IDs are read from the user
+ * index, for the selected keys only. As an {@link Index} stores entry IDs, the
+ * &lt;n-gram, key&gt; tuples are stored in a {@link Table} of the partition backend, with
+ * duplicated keys. It is built from the user index when the partition is initialized
+ * and the table is empty, then maintained on each key addition or removal.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class NGramIndex
+{
+    /** The size of the n-grams */
+    public static final int GRAM_SIZE = 3;
+
+    /** The suffix appended to the attributeType OID to name the n-gram table */
+    public static final String NGRAM_BTREE = "_ngram";
+
+    /** The keys containing each n-gram */
+    private final Table<String, String> grams;
+
+
+    /**
+     * Creates a new instance of NGramIndex.
+     *
+     * @param grams The table storing the keys of each n-gram. It must accept duplicated keys
+     */
+    public NGramIndex( Table<String, String> grams )
+    {
+        if ( !grams.isDupsEnabled() )
+        {
+            throw new IllegalArgumentException( "The n-gram table " + grams.getName() + " must allow duplicates" );
+        }
+
+        this.grams = grams;
+    }
+
+
+    /**
+     * Fills the n-gram index from a user index, walking all its keys.
+     *
+     * @param partitionTxn The transaction to use
+     * @param index The user index
+     * @throws LdapException If the index can't be read or the n-grams can't be written
+     */
+    public void build( PartitionTxn partitionTxn, Index<?, String> index ) throws LdapException
+    {
+        Cursor<? extends IndexEntry<?, String>> cursor = index.forwardCursor( partitionTxn );
+        Object previousKey = null;
+
+        try
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                Object key = cursor.get().getKey();
+
+                // The keys are ordered, we just skip the duplicated ones
+                if ( ( key instanceof String ) && !key.equals( previousKey ) )
+                {
+                    add( partitionTxn, ( String ) key );
+                    previousKey = key;
+                }
+            }
+        }
+        catch ( CursorException ce )
+        {
+            throw new LdapOtherException( ce.getMessage(), ce );
+        }
+        finally
+        {
+            try
+            {
+                cursor.close();
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+        }
+    }
+
+
+    /**
+     * Computes the n-grams of a value. The value is split on spaces : no n-gram
+     * contains a space.
+     *
+     * @param value The value
+     * @return The value's n-grams
+     */
+    public static Set<String> getGrams( String value )
+    {
+        Set<String> result = new HashSet<>();
+
+        if ( value == null )
+        {
+            return result;
+        }
+
+        int start = 0;
+
+        for ( int i = 0; i <= value.length(); i++ )
+        {
+            if ( ( i == value.length() ) || Character.isWhitespace( value.charAt( i ) ) )
+            {
+                // A word ends here
+                for ( int pos = start; pos + GRAM_SIZE <= i; pos++ )
+                {
+                    result.add( value.substring( pos, pos + GRAM_SIZE ) );
+                }
+
+                start = i + 1;
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Gets the normalized fragments of a substring filter.
+     *
+     * @param node The substring filter
+     * @param normalizer The normalizer to use
+     * @return The normalized initial, any and final fragments
+     * @throws LdapException If a fragment can't be normalized
+     */
+    public static List<String> getFragments( SubstringNode node, Normalizer normalizer ) throws LdapException
+    {
+        List<String> fragments = new ArrayList<>();
+
+        if ( node.getInitial() != null )
+        {
+            fragments.add( normalizer.normalize( node.getInitial(), PrepareString.AssertionType.SUBSTRING_INITIAL ) );
+        }
+
+        if ( node.getAny() != null )
+        {
+            for ( String any : node.getAny() )
+            {
+                fragments.add( normalizer.normalize( any, PrepareString.AssertionType.SUBSTRING_ANY ) );
+            }
+        }
+
+        if ( node.getFinal() != null )
+        {
+            fragments.add( normalizer.normalize( node.getFinal(), PrepareString.AssertionType.SUBSTRING_FINAL ) );
+        }
+
+        return fragments;
+    }
+
+
+    /**
+     * Adds a key in the index.
+     *
+     * @param partitionTxn The transaction to use
+     * @param key The added key
+     * @throws LdapException If the n-grams can't be written
+     */
+    public void add( PartitionTxn partitionTxn, String key ) throws LdapException
+    {
+        for ( String gram : getGrams( key ) )
+        {
+            grams.put( partitionTxn, gram, key );
+        }
+    }
+
+
+    /**
+     * Removes a key from the index.
+     *
+     * @param partitionTxn The transaction to use
+     * @param key The removed key
+     * @throws LdapException If the n-grams can't be written
+     */
+    public void drop( PartitionTxn partitionTxn, String key ) throws LdapException
+    {
+        for ( String gram : getGrams( key ) )
+        {
+            grams.remove( partitionTxn, gram, key );
+        }
+    }
+
+
+    /**
+     * Selects the keys which contain all the n-grams of the given fragments. The fragments
+     * shorter than the n-gram size are ignored.
+     * <p>
+     * The keys of the least frequent n-gram are read, then only those which are also
+     * associated with all the other n-grams are kept.
+     *
+     * @param partitionTxn The transaction to use
+     * @param fragments The substring filter fragments
+     * @return The keys which may match the fragments, or null if the fragments have no n-gram,
+     * in which case this index can't be used
+     * @throws LdapException If the n-grams can't be read
+     */
+    public Set<String> getCandidateKeys( PartitionTxn partitionTxn, List<String> fragments ) throws LdapException
+    {
+        Set<String> filterGrams = new HashSet<>();
+
+        for ( String fragment : fragments )
+        {
+            filterGrams.addAll( getGrams( fragment ) );
+        }
+
+        if ( filterGrams.isEmpty() )
+        {
+            return null;
+        }
+
+        String rarestGram = null;
+        long rarestCount = Long.MAX_VALUE;
+
+        for ( String gram : filterGrams )
+        {
+            long count = grams.count( partitionTxn, gram );
+
+            if ( count == 0L )
+            {
+                // No key contains this n-gram
+                return Collections.emptySet();
+            }
+
+            if ( count < rarestCount )
+            {
+                rarestGram = gram;
+                rarestCount = count;
+            }
+        }
+
+        Set<String> result = new HashSet<>();
+
+        try ( Cursor<String> cursor = grams.valueCursor( partitionTxn, rarestGram ) )
+        {
+            while ( cursor.next() )
+            {
+                result.add( cursor.get() );
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        filterGrams.remove( rarestGram );
+
+        for ( String gram : filterGrams )
+        {
+            Iterator<String> keys = result.iterator();
+
+            while ( keys.hasNext() )
+            {
+                if ( !grams.has( partitionTxn, gram, keys.next() ) )
+                {
+                    keys.remove();
+                }
+            }
+
+            if ( result.isEmpty() )
+            {
+                break;
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * @param partitionTxn The transaction to use
+     * @return <tt>true</tt> if the index does not contain any n-gram
+     * @throws LdapException If the n-grams can't be read
+     */
+    public boolean isEmpty( PartitionTxn partitionTxn ) throws LdapException
+    {
+        return grams.count( partitionTxn ) == 0L;
+    }
+
+
+    /**
+     * Closes the table storing the n-grams.
+     *
+     * @param partitionTxn The transaction to use
+     * @throws LdapException If the table can't be closed
+     */
+    public void close( PartitionTxn partitionTxn ) throws LdapException
+    {
+        grams.close( partitionTxn );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "NGramIndex[" + grams.getName() + "]";
+    }
+}
@@ -295,6 +295,33 @@ public interface Store
     Index<?, String> getSystemIndex( AttributeType attributeType ) throws IndexNotFoundException;
 
 
+    /**
+     * Get the statistics of the user index associated with the given attributeType. They are
+     * built in the background the first time they are requested, or when they are stale, then
+     * maintained when the index is updated. This method never waits for them to be built.
+     * 
+     * @param partitionTxn The transaction to use
+     * @param attributeType The index attributeType we are looking for
+     * @return The index statistics, or <code>null</code> if there is no user index on this attributeType
+     * or if its statistics are not built yet
+     * @throws LdapException If the index can't be accessed
+     */
+    IndexStatistics getIndexStatistics( PartitionTxn partitionTxn, AttributeType attributeType ) throws LdapException;
+
+
+    /**
+     * Get the n-gram index of the user index associated with the given attributeType, if
+     * this user index is substring indexed. It is stored along with the user index, built
+     * when the partition is initialized, and maintained when the user index is updated.
+     * 
+     * @param partitionTxn The transaction to use
+     * @param attributeType The index attributeType we are looking for
+     * @return The n-gram index, or <code>null</code> if the attributeType has no substring indexed user index
+     * @throws LdapException If the n-gram index can't be accessed
+     */
+    NGramIndex getNGramIndex( PartitionTxn partitionTxn, AttributeType attributeType ) throws LdapException;
+
+
     /**
      * Gets the entry's id. Returns <code>null</code> if the Dn doesn't exist in this store.
      * Note that the Dn must be normalized!
@@ -0,0 +1,492 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search;
+
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+
+/**
+ * A compact Set of candidate entry IDs. The entry IDs are entryUUIDs, which are stored
+ * as two primitive longs in an open addressing hash table, instead of a String and
+ * a HashMap node per candidate. A search selecting millions of candidates thus uses
+ * 16 bytes per candidate, and creates no per candidate object while the set is built.
+ * <p>
+ * IDs which are not canonical UUIDs (lower case, 36 chars long) are stored as is in a
+ * secondary HashMap, so that any ID can be added to the set and found in constant time.
+ * <p>
+ * The Strings are recreated when the set is iterated. This class is not thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CandidateSet extends AbstractSet<String>
+{
+    /** The default number of slots */
+    private static final int DEFAULT_CAPACITY = 64;
+
+    /** The maximum initial number of candidates the set is sized for */
+    private static final int MAX_EXPECTED_SIZE = 1 << 24;
+
+    /** The length of a canonical UUID */
+    private static final int UUID_LENGTH = 36;
+
+    /** The UUID stored in each slot, as two longs. (0, 0) marks an empty slot */
+    private long[] slots;
+
+    /** The mask used to compute a slot from a hash */
+    private int mask;
+
+    /** The number of UUIDs stored in the slots */
+    private int nbUuids;
+
+    /** The IDs which can't be stored as UUIDs, with their position in the other IDs list */
+    private Map<String, Integer> others;
+
+    /** The same IDs, in insertion order */
+    private List<String> otherList;
+
+
+    /**
+     * Creates a new instance of CandidateSet.
+     */
+    public CandidateSet()
+    {
+        this( DEFAULT_CAPACITY );
+    }
+
+
+    /**
+     * Creates a new instance of CandidateSet, sized for the given number of candidates.
+     *
+     * @param expectedSize The expected number of candidates
+     */
+    public CandidateSet( int expectedSize )
+    {
+        int size = Math.min( Math.max( DEFAULT_CAPACITY, expectedSize ), MAX_EXPECTED_SIZE );
+        int capacity = Integer.highestOneBit( size * 2 - 1 ) << 1;
+
+        slots = new long[capacity * 2];
+        mask = capacity - 1;
+    }
+
+
+    /**
+     * Tells if an ID is a canonical UUID, which can be stored as two longs and converted
+     * back to the same String.
+     */
+    private static boolean isCanonicalUuid( String id )
+    {
+        if ( id.length() != UUID_LENGTH )
+        {
+            return false;
+        }
+
+        for ( int i = 0; i < UUID_LENGTH; i++ )
+        {
+            char c = id.charAt( i );
+
+            if ( ( i == 8 ) || ( i == 13 ) || ( i == 18 ) || ( i == 23 ) )
+            {
+                if ( c != '-' )
+                {
+                    return false;
+                }
+            }
+            else if ( ( ( c < '0' ) || ( c > '9' ) ) && ( ( c < 'a' ) || ( c > 'f' ) ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Parses the hexadecimal digits of a canonical UUID in [start, end[, skipping the dashes.
+     */
+    private static long parseHex( String id, int start, int end )
+    {
+        long value = 0L;
+
+        for ( int i = start; i < end; i++ )
+        {
+            char c = id.charAt( i );
+
+            if ( c != '-' )
+            {
+                value = ( value << 4 ) | Character.digit( c, 16 );
+            }
+        }
+
+        return value;
+    }
+
+
+    private int slotFor( long msb, long lsb )
+    {
+        long hash = ( msb ^ lsb ) * 0x9E3779B97F4A7C15L;
+
+        return ( int ) ( hash >>> 32 ) & mask;
+    }
+
+
+    /**
+     * Finds the slot containing a UUID, or the empty slot where it should be stored.
+     */
+    private int find( long msb, long lsb )
+    {
+        int slot = slotFor( msb, lsb );
+
+        while ( true )
+        {
+            long slotMsb = slots[slot * 2];
+            long slotLsb = slots[slot * 2 + 1];
+
+            if ( ( ( slotMsb == msb ) && ( slotLsb == lsb ) ) || ( ( slotMsb == 0L ) && ( slotLsb == 0L ) ) )
+            {
+                return slot;
+            }
+
+            slot = ( slot + 1 ) & mask;
+        }
+    }
+
+
+    private static boolean isEmpty( long msb, long lsb )
+    {
+        return ( msb == 0L ) && ( lsb == 0L );
+    }
+
+
+    /**
+     * Doubles the number of slots
+     */
+    private void grow()
+    {
+        long[] oldSlots = slots;
+
+        slots = new long[oldSlots.length * 2];
+        mask = ( slots.length / 2 ) - 1;
+
+        for ( int i = 0; i < oldSlots.length; i += 2 )
+        {
+            if ( !isEmpty( oldSlots[i], oldSlots[i + 1] ) )
+            {
+                int slot = find( oldSlots[i], oldSlots[i + 1] );
+                slots[slot * 2] = oldSlots[i];
+                slots[slot * 2 + 1] = oldSlots[i + 1];
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean add( String id )
+    {
+        if ( ( id == null ) || !isCanonicalUuid( id ) )
+        {
+            return addOther( id );
+        }
+
+        long msb = parseHex( id, 0, 18 );
+        long lsb = parseHex( id, 19, UUID_LENGTH );
+
+        if ( isEmpty( msb, lsb ) )
+        {
+            // The nil UUID is our empty slot marker
+            return addOther( id );
+        }
+
+        int slot = find( msb, lsb );
+
+        if ( !isEmpty( slots[slot * 2], slots[slot * 2 + 1] ) )
+        {
+            // Already present
+            return false;
+        }
+
+        slots[slot * 2] = msb;
+        slots[slot * 2 + 1] = lsb;
+        nbUuids++;
+
+        // Keep the load factor under 0.5
+        if ( nbUuids * 2 > mask )
+        {
+            grow();
+        }
+
+        return true;
+    }
+
+
+    private boolean addOther( String id )
+    {
+        if ( others == null )
+        {
+            others = new HashMap<>();
+            otherList = new ArrayList<>();
+        }
+
+        if ( others.containsKey( id ) )
+        {
+            return false;
+        }
+
+        others.put( id, otherList.size() );
+        otherList.add( id );
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains( Object o )
+    {
+        if ( ( o != null ) && !( o instanceof String ) )
+        {
+            return false;
+        }
+
+        return indexOf( ( String ) o ) >= 0;
+    }
+
+
+    /**
+     * Gets the position of an ID, which can be read using {@link #get(int)}.
+     *
+     * @param id The ID to look for
+     * @return The position of the ID, or -1 if the set does not contain it
+     */
+    public int indexOf( String id )
+    {
+        if ( ( id == null ) || !isCanonicalUuid( id ) )
+        {
+            return indexOfOther( id );
+        }
+
+        long msb = parseHex( id, 0, 18 );
+        long lsb = parseHex( id, 19, UUID_LENGTH );
+
+        if ( isEmpty( msb, lsb ) )
+        {
+            return indexOfOther( id );
+        }
+
+        int slot = find( msb, lsb );
+
+        if ( isEmpty( slots[slot * 2], slots[slot * 2 + 1] ) )
+        {
+            return -1;
+        }
+
+        return slot;
+    }
+
+
+    private int indexOfOther( String id )
+    {
+        if ( others == null )
+        {
+            return -1;
+        }
+
+        Integer position = others.get( id );
+
+        if ( position == null )
+        {
+            return -1;
+        }
+
+        return ( slots.length / 2 ) + position;
+    }
+
+
+    /**
+     * @return An estimate of the memory used by the set, in bytes
+     */
+    public long getEstimatedSize()
+    {
+        // The slots, plus a String and two references for each other ID
+        long size = slots.length * 8L;
+
+        if ( others != null )
+        {
+            size += others.size() * 128L;
+        }
+
+        return size;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size()
+    {
+        return nbUuids + ( ( others == null ) ? 0 : others.size() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear()
+    {
+        slots = new long[DEFAULT_CAPACITY * 2];
+        mask = DEFAULT_CAPACITY - 1;
+        nbUuids = 0;
+        others = null;
+        otherList = null;
+    }
+
+
+    /**
+     * Gets the number of positions that can be read using {@link #get(int)}. The positions
+     * don't all contain an ID.
+     *
+     * @return The number of positions
+     */
+    public int getNbPositions()
+    {
+        return ( slots.length / 2 ) + ( ( others == null ) ? 0 : others.size() );
+    }
+
+
+    /**
+     * Gets the ID stored at a given position. This is used by the cursors which have to
+     * move back and forth in the set, without creating a copy of it. The positions
+     * located after the UUIDs slots are mapped to the other IDs. The set must not be
+     * modified while it is being read.
+     *
+     * @param position The position, in [0, {@link #getNbPositions()}[
+     * @return The ID, or null if there is no ID at this position
+     */
+    public String get( int position )
+    {
+        int nbSlots = slots.length / 2;
+
+        if ( position < nbSlots )
+        {
+            long msb = slots[position * 2];
+            long lsb = slots[position * 2 + 1];
+
+            if ( isEmpty( msb, lsb ) )
+            {
+                return null;
+            }
+
+            return new UUID( msb, lsb ).toString();
+        }
+
+        return otherList.get( position - nbSlots );
+    }
+
+
+    /**
+     * Tells if the position contains an ID. Unlike {@link #get(int)}, no String is created.
+     *
+     * @param position The position, in [0, {@link #getNbPositions()}[
+     * @return <tt>true</tt> if there is an ID at this position
+     */
+    public boolean isUsed( int position )
+    {
+        int nbSlots = slots.length / 2;
+
+        if ( position < nbSlots )
+        {
+            return !isEmpty( slots[position * 2], slots[position * 2 + 1] );
+        }
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<String> iterator()
+    {
+        return new Iterator<String>()
+        {
+            /** The next position to read */
+            private int position = advance( 0 );
+
+
+            private int advance( int from )
+            {
+                int nbPositions = getNbPositions();
+                int pos = from;
+
+                while ( ( pos < nbPositions ) && !isUsed( pos ) )
+                {
+                    pos++;
+                }
+
+                return pos;
+            }
+
+
+            @Override
+            public boolean hasNext()
+            {
+                return position < getNbPositions();
+            }
+
+
+            @Override
+            public String next()
+            {
+                if ( !hasNext() )
+                {
+                    throw new NoSuchElementException();
+                }
+
+                String id = get( position );
+                position = advance( position + 1 );
+
+                return id;
+            }
+
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
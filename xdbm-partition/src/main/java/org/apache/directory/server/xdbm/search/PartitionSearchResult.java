@@ -22,11 +22,13 @@ package org.apache.directory.server.xdbm.search;
 
 import java.util.Set;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.SetCursor;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.search.cursor.CandidateCursor;
 
 
 /**
@@ -42,7 +44,7 @@ import org.apache.directory.server.xdbm.IndexEntry;
 public class PartitionSearchResult
 {
     /** The set of candidate UUIDs selected by the search */
-    private SetCursor<IndexEntry<String, String>> resultSet;
+    private Cursor<IndexEntry<String, String>> resultSet;
 
     /** The set of candidate UUIDs */
     private Set<String> candidateSet;
@@ -71,7 +73,7 @@ public class PartitionSearchResult
     /**
      * @return the resultSet
      */
-    public SetCursor<IndexEntry<String, String>> getResultSet()
+    public Cursor<IndexEntry<String, String>> getResultSet()
     {
         return resultSet;
     }
@@ -86,6 +88,18 @@ public class PartitionSearchResult
     }
 
 
+    /**
+     * Sets the resultSet from a set of candidate UUIDs. The IndexEntries are created one
+     * by one while the resultSet is read.
+     *
+     * @param candidates the candidate UUIDs
+     */
+    public void setResultSet( CandidateSet candidates )
+    {
+        resultSet = new CandidateCursor( candidates );
+    }
+
+
     /**
      * @return the candidateSet
      */
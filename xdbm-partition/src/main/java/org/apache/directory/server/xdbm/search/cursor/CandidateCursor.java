@@ -0,0 +1,310 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.cursor;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.filtering.SizedCursor;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndexCursor;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.search.CandidateSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor over a {@link CandidateSet}, returning an IndexEntry containing the candidate
+ * ID. The IndexEntry is only created when the cursor's current element is read, so that
+ * we don't keep one instance per candidate in memory.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CandidateCursor extends AbstractIndexCursor<String> implements SizedCursor
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The candidates */
+    private final CandidateSet candidates;
+
+    /** The current position, -1 when before the first element */
+    private int position = -1;
+
+
+    /**
+     * Creates a new instance of CandidateCursor
+     *
+     * @param candidates The candidates to iterate on
+     */
+    public CandidateCursor( CandidateSet candidates )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating CandidateCursor {}", this );
+        }
+
+        this.candidates = candidates;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected String getUnsupportedMessage()
+    {
+        return UNSUPPORTED_MSG;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        position = -1;
+        setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        position = candidates.getNbPositions();
+        setAvailable( false );
+    }
+
+
+    /**
+     * Positions the cursor before the element with the same ID. As the candidates are
+     * not sorted, the cursor is positioned after the last element if the ID is not a
+     * candidate.
+     *
+     * @param element The element containing the ID to look for
+     */
+    @Override
+    public void before( IndexEntry<String, String> element ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        int index = candidates.indexOf( element.getId() );
+        position = ( index < 0 ) ? candidates.getNbPositions() : index - 1;
+        setAvailable( false );
+    }
+
+
+    /**
+     * Positions the cursor after the element with the same ID. As the candidates are
+     * not sorted, the cursor is positioned after the last element if the ID is not a
+     * candidate.
+     *
+     * @param element The element containing the ID to look for
+     */
+    @Override
+    public void after( IndexEntry<String, String> element ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        int index = candidates.indexOf( element.getId() );
+        position = ( index < 0 ) ? candidates.getNbPositions() : index;
+        setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getEstimatedSize()
+    {
+        return candidates.getEstimatedSize();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        int nbPositions = candidates.getNbPositions();
+
+        do
+        {
+            position++;
+        }
+        while ( ( position < nbPositions ) && !candidates.isUsed( position ) );
+
+        if ( position >= nbPositions )
+        {
+            position = nbPositions;
+
+            return setAvailable( false );
+        }
+
+        return setAvailable( true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        do
+        {
+            position--;
+        }
+        while ( ( position >= 0 ) && !candidates.isUsed( position ) );
+
+        if ( position < 0 )
+        {
+            position = -1;
+
+            return setAvailable( false );
+        }
+
+        return setAvailable( true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexEntry<String, String> get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( !available() )
+        {
+            throw new InvalidCursorPositionException( I18n.err( I18n.ERR_708 ) );
+        }
+
+        IndexEntry<String, String> indexEntry = new IndexEntry<>();
+        indexEntry.setId( candidates.get( position ) );
+
+        return indexEntry;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing CandidateCursor {}", this );
+        }
+
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing CandidateCursor {}", this );
+        }
+
+        super.close( cause );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString( String tabs )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( tabs ).append( "CandidateCursor (" );
+
+        if ( available() )
+        {
+            sb.append( "available)" );
+        }
+        else
+        {
+            sb.append( "absent)" );
+        }
+
+        sb.append( " : " ).append( candidates.size() ).append( " candidates" );
+
+        return sb.toString();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
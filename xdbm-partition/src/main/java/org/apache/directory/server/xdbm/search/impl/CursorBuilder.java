@@ -56,6 +56,7 @@ import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.NGramIndex;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.SingletonIndexCursor;
 import org.apache.directory.server.xdbm.Store;
@@ -675,6 +676,34 @@ public class CursorBuilder
             {
                 return nbResults;
             }
+
+            if ( fullIndexScan )
+            {
+                // Use the n-gram index if we have one, instead of scanning all the keys. The
+                // optimizer has already looked up the candidate keys, unless it's a NoOpOptimizer
+                NGramIndex ngramIndex = db.getNGramIndex( partitionTxn, attributeType );
+
+                if ( ngramIndex != null )
+                {
+                    Set<String> keys;
+
+                    if ( node.get( DefaultOptimizer.NGRAM_KEYS_ANNOTATION_KEY ) != null )
+                    {
+                        keys = ( Set<String> ) node.get( DefaultOptimizer.NGRAM_KEYS_ANNOTATION_KEY );
+                    }
+                    else
+                    {
+                        keys = ngramIndex.getCandidateKeys( partitionTxn, NGramIndex.getFragments( node, normalizer ) );
+                    }
+
+                    if ( keys != null )
+                    {
+                        cursor.close();
+
+                        return computeSubstringFromKeys( partitionTxn, userIndex, keys, regexp, uuidSet );
+                    }
+                }
+            }
             
             // And loop on it
             while ( cursor.next() )
@@ -720,6 +749,42 @@ public class CursorBuilder
     }
 
 
+    /**
+     * Adds the IDs of the entries having one of the given keys, if the key matches the
+     * substring filter pattern. The keys come from the n-gram index.
+     */
+    private long computeSubstringFromKeys( PartitionTxn partitionTxn, Index<String, String> userIndex,
+        Set<String> keys, Pattern regexp, Set<String> uuidSet ) throws LdapException, CursorException, IOException
+    {
+        int nbResults = 0;
+
+        for ( String key : keys )
+        {
+            if ( !regexp.matcher( key ).matches() )
+            {
+                continue;
+            }
+
+            Cursor<IndexEntry<String, String>> cursor = userIndex.forwardCursor( partitionTxn, key );
+
+            while ( cursor.next() )
+            {
+                boolean added = uuidSet.add( cursor.get().getId() );
+
+                // if the UUID was added increment the result count
+                if ( added )
+                {
+                    nbResults++;
+                }
+            }
+
+            cursor.close();
+        }
+
+        return nbResults;
+    }
+
+
     /**
      * Creates a OrCursor over a disjunction expression branch node.
      *
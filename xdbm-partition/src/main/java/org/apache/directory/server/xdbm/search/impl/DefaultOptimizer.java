@@ -45,12 +45,18 @@ import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.filter.SimpleNode;
 import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
+import org.apache.directory.api.ldap.model.schema.normalizers.NoOpNormalizer;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.IndexStatistics;
+import org.apache.directory.server.xdbm.NGramIndex;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Optimizer;
 
@@ -66,6 +72,12 @@ public class DefaultOptimizer implements Optimizer
     
     /* Package protected*/ static final String COUNT_ANNOTATION = "count"; 
 
+    /** The n-gram index keys of a substring node, computed once and used to build its candidates */
+    /* Package protected*/ static final String NGRAM_KEYS_ANNOTATION_KEY = "ngramKeys";
+
+    /** The maximum number of n-gram index keys we count before extrapolating */
+    private static final int MAX_COUNTED_KEYS = 100;
+
     /** the database this optimizer operates on */
     private final Store db;
     private String contextEntryId;
@@ -276,9 +288,12 @@ public class DefaultOptimizer implements Optimizer
 
 
     /**
-     * Disjunctions (OR) are the union of candidates across all subexpressions 
-     * so we add all the counts of the child nodes. Notice that we annotate the 
-     * child node with a recursive call.
+     * Disjunctions (OR) are the union of candidates across all subexpressions. Assuming
+     * the children are independent, the probability for an entry not to be selected is
+     * the product of the probabilities not to be selected by each child. The estimation
+     * can't be lower than the biggest child count, nor higher than their sum or than the
+     * number of entries in the database. Notice that we annotate the child node with a
+     * recursive call.
      *
      * @param node the OR branch node
      * @return the scan count on the OR node
@@ -288,20 +303,38 @@ public class DefaultOptimizer implements Optimizer
     {
         List<ExprNode> children = node.getChildren();
         long total = 0L;
+        long max = 0L;
+        double notSelected = 1d;
+        long nbEntries = db.count( partitionTxn );
 
         for ( ExprNode child : children )
         {
             annotate( partitionTxn, child );
-            total += ( Long ) child.get( COUNT_ANNOTATION );
+            long count = ( Long ) child.get( COUNT_ANNOTATION );
 
-            if ( total == Long.MAX_VALUE )
+            if ( count == Long.MAX_VALUE )
             {
-                // We can stop here withoit evaluating the following filters
-                break;
+                // We can stop here without evaluating the following filters
+                return Long.MAX_VALUE;
+            }
+
+            total += count;
+            max = Math.max( max, count );
+
+            if ( nbEntries > 0L )
+            {
+                notSelected *= 1d - Math.min( 1d, ( double ) count / nbEntries );
             }
         }
 
-        return total;
+        if ( nbEntries <= 0L )
+        {
+            return total;
+        }
+
+        long estimate = ( long ) Math.ceil( nbEntries * ( 1d - notSelected ) );
+
+        return Math.min( Math.max( estimate, max ), Math.min( total, nbEntries ) );
     }
 
 
@@ -372,7 +405,8 @@ public class DefaultOptimizer implements Optimizer
 
     /**
      * Gets a scan count of the nodes that satisfy the greater or less than test
-     * specified by the node.
+     * specified by the node. For user indices, the count is estimated using the
+     * index statistics histogram.
      *
      * @param node the greater or less than node to get a count for 
      * @param isGreaterThan if true test is for >=, otherwise <=
@@ -385,6 +419,24 @@ public class DefaultOptimizer implements Optimizer
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
             Index<V, String> idx = ( Index<V, String> ) db.getIndex( node.getAttributeType() );
+            IndexStatistics statistics = db.getIndexStatistics( partitionTxn, node.getAttributeType() );
+
+            if ( statistics != null )
+            {
+                String normalizedKey = getNormalizedValue( node );
+                long estimate;
+
+                if ( isGreaterThan )
+                {
+                    estimate = statistics.estimateGreaterOrEqualCount( normalizedKey );
+                }
+                else
+                {
+                    estimate = statistics.estimateLessOrEqualCount( normalizedKey );
+                }
+
+                return boundEstimate( partitionTxn, idx, estimate );
+            }
 
             if ( isGreaterThan )
             {
@@ -402,8 +454,92 @@ public class DefaultOptimizer implements Optimizer
 
 
     /**
-     * Get a scan count based on a Substring node : we will count the entries that are greater
-     * than ABC where the filter is (attr=ABC*). Any other filter won't be evaluated (for instance,
+     * Gets the normalizer used for the substring filters, as done by the CursorBuilder
+     */
+    private Normalizer getSubstringNormalizer( AttributeType attributeType )
+    {
+        MatchingRule rule = attributeType.getSubstring();
+
+        if ( rule == null )
+        {
+            rule = attributeType.getEquality();
+        }
+
+        if ( rule != null )
+        {
+            return rule.getNormalizer();
+        }
+
+        return new NoOpNormalizer( attributeType.getSyntaxOid() );
+    }
+
+
+    /**
+     * Counts the number of entries referencing a set of keys. If there are too many keys,
+     * we extrapolate the count from the first ones.
+     */
+    private long getKeysCount( PartitionTxn partitionTxn, Index<String, String> idx, Set<String> keys )
+        throws LdapException
+    {
+        long count = 0L;
+        int nbKeys = 0;
+
+        for ( String key : keys )
+        {
+            if ( nbKeys == MAX_COUNTED_KEYS )
+            {
+                return count * keys.size() / nbKeys;
+            }
+
+            count += idx.count( partitionTxn, key );
+            nbKeys++;
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Gets the normalized form of a SimpleNode value
+     */
+    private <V> String getNormalizedValue( SimpleNode<V> node ) throws LdapException
+    {
+        if ( node.getValue().isSchemaAware() )
+        {
+            return node.getValue().getNormalized();
+        }
+        else if ( node.getAttributeType().getEquality() != null )
+        {
+            return node.getAttributeType().getEquality().getNormalizer().normalize( node.getValue().getValue() );
+        }
+        else
+        {
+            return node.getValue().getValue();
+        }
+    }
+
+
+    /**
+     * Bounds an estimation to [1, index count]. As a count of zero means there is no
+     * candidate at all, an estimation can only be zero if the index is empty.
+     */
+    private long boundEstimate( PartitionTxn partitionTxn, Index<?, String> idx, long estimate ) throws LdapException
+    {
+        long total = idx.count( partitionTxn );
+
+        if ( total == 0L )
+        {
+            return 0L;
+        }
+
+        return Math.max( 1L, Math.min( estimate, total ) );
+    }
+
+
+    /**
+     * Get a scan count based on a Substring node : we will estimate the number of entries
+     * which value starts with ABC where the filter is (attr=ABC*), using the index statistics
+     * (ie, the number of keys in [ABC, ABD[). Any other filter won't be evaluated (for instance,
      * a filter like (attr=*ABC) will resolve to a full scan atm - we could have created a reverted
      * index for such a case -, and filters like (attr=*ABC*) also esolve to a full scan).
      * 
@@ -421,13 +557,48 @@ public class DefaultOptimizer implements Optimizer
 
             if ( Strings.isEmpty( initial ) )
             {
-                // Not a (attr=ABC*) filter : full index scan
+                // Not a (attr=ABC*) filter : use the n-gram index if any, otherwise it's a full index scan
+                NGramIndex ngramIndex = db.getNGramIndex( partitionTxn, node.getAttributeType() );
+
+                if ( ngramIndex != null )
+                {
+                    Set<String> keys = ngramIndex.getCandidateKeys( partitionTxn, NGramIndex.getFragments( node,
+                        getSubstringNormalizer( node.getAttributeType() ) ) );
+
+                    // Store the keys in the node, the CursorBuilder will use them
+                    node.set( NGRAM_KEYS_ANNOTATION_KEY, keys );
+
+                    if ( keys != null )
+                    {
+                        return getKeysCount( partitionTxn, idx, keys );
+                    }
+                }
+
                 return idx.count( partitionTxn );
             }
-            else
+
+            IndexStatistics statistics = db.getIndexStatistics( partitionTxn, node.getAttributeType() );
+
+            if ( statistics == null )
             {
                 return idx.greaterThanCount( partitionTxn, initial );
             }
+
+            char last = initial.charAt( initial.length() - 1 );
+            long estimate;
+
+            if ( last == Character.MAX_VALUE )
+            {
+                estimate = statistics.estimateGreaterOrEqualCount( initial );
+            }
+            else
+            {
+                // The first key after all the keys starting with the initial
+                String upperBound = initial.substring( 0, initial.length() - 1 ) + ( char ) ( last + 1 );
+                estimate = statistics.estimateRangeCount( initial, upperBound );
+            }
+
+            return boundEstimate( partitionTxn, idx, estimate );
         }
         else
         {
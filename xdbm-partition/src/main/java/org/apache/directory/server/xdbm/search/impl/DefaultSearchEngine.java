@@ -20,6 +20,7 @@
 package org.apache.directory.server.xdbm.search.impl;
 
 
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -44,6 +45,7 @@ import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.search.CandidateSet;
 import org.apache.directory.server.xdbm.search.Evaluator;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
@@ -245,7 +247,9 @@ public class DefaultSearchEngine implements SearchEngine
         optimizer.annotate( partitionTxn, root );
         Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( partitionTxn, root );
 
-        Set<String> uuidSet = new HashSet<>();
+        // The candidates are stored as primitive UUIDs, no IndexEntry is created until
+        // they are read from the result set
+        CandidateSet uuidSet = new CandidateSet();
         searchResult.setAliasDerefMode( aliasDerefMode );
         searchResult.setCandidateSet( uuidSet );
 
@@ -253,43 +257,42 @@ public class DefaultSearchEngine implements SearchEngine
 
         LOG.debug( "Nb results : {} for filter : {}", nbResults, root );
 
-        if ( nbResults < Long.MAX_VALUE )
+        if ( nbResults == Long.MAX_VALUE )
         {
-            for ( String uuid : uuidSet )
-            {
-                IndexEntry<String, String> indexEntry = new IndexEntry<>();
-                indexEntry.setId( uuid );
-                resultSet.add( indexEntry );
-            }
-        }
-        else
-        {
-            // Full scan : use the MasterTable
+            // Full scan : use the MasterTable. The candidates the cursor builder may have
+            // selected before giving up are dropped, they are all part of the scanned entries
+            uuidSet.clear();
+            uuidSet = new CandidateSet( ( int ) Math.min( db.count( partitionTxn ), Integer.MAX_VALUE ) );
+            searchResult.setCandidateSet( uuidSet );
             Cursor<IndexEntry<String, String>> cursor = new IndexCursorAdaptor( partitionTxn, db.getMasterTable().cursor(), true );
 
             try
             {
                 while ( cursor.next() )
                 {
-                    IndexEntry<String, String> indexEntry = cursor.get();
-    
-                    // Here, the indexEntry contains a <UUID, Entry> tuple. Convert it to <UUID, UUID>
-                    IndexEntry<String, String> forwardIndexEntry = new IndexEntry<>();
-                    forwardIndexEntry.setKey( indexEntry.getKey() );
-                    forwardIndexEntry.setId( indexEntry.getKey() );
-                    forwardIndexEntry.setEntry( null );
-    
-                    resultSet.add( forwardIndexEntry );
+                    // Here, the indexEntry contains a <UUID, Entry> tuple : we just keep the UUID
+                    uuidSet.add( cursor.get().getKey() );
                 }
             }
-            catch ( CursorException ce )
+            catch ( CursorException e )
             {
-                throw new LdapOtherException( ce.getMessage(), ce );
+                throw new LdapOtherException( e.getMessage(), e );
+            }
+            finally
+            {
+                try
+                {
+                    cursor.close();
+                }
+                catch ( IOException ioe )
+                {
+                    LOG.warn( "Cannot close the master table cursor", ioe );
+                }
             }
         }
 
         searchResult.setEvaluator( evaluator );
-        searchResult.setResultSet( resultSet );
+        searchResult.setResultSet( uuidSet );
 
         return searchResult;
     }
@@ -0,0 +1,159 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link CompactEntrySerializer} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CompactEntrySerializerTest
+{
+    private static SchemaManager schemaManager;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+    }
+
+
+    private Entry createEntry() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "cn=John Doe+uid=jdoe,ou=people,dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: inetOrgPerson",
+            "CN: John Doe",
+            "sn: Doe",
+            "uid: jdoe",
+            "mail: jdoe@example.com",
+            "description: élève",
+            "postalAddress: 1 Main street $ Springfield",
+            "userPassword", Strings.getBytesUtf8( "secret" ),
+            "jpegPhoto", new byte[]
+                { 0x01, 0x02, 0x03 } );
+
+        // An empty attribute
+        entry.add( new DefaultAttribute( "l", schemaManager.lookupAttributeTypeRegistry( "l" ) ) );
+
+        return entry;
+    }
+
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        CompactEntrySerializer serializer = new CompactEntrySerializer( schemaManager );
+        Entry entry = createEntry();
+
+        byte[] data = serializer.serialize( entry );
+
+        assertTrue( CompactEntrySerializer.isCompact( data, 0 ) );
+
+        Entry result = serializer.deserialize( data );
+
+        // Only the Rdn is stored
+        assertEquals( "cn=John Doe+uid=jdoe", result.getDn().getName() );
+        assertEquals( entry.size(), result.size() );
+
+        for ( Attribute attribute : entry )
+        {
+            Attribute resultAttribute = result.get( attribute.getAttributeType() );
+
+            assertEquals( attribute, resultAttribute );
+            assertEquals( attribute.getUpId(), resultAttribute.getUpId() );
+        }
+    }
+
+
+    @Test
+    public void testEmptyEntry() throws Exception
+    {
+        CompactEntrySerializer serializer = new CompactEntrySerializer( schemaManager );
+        Entry entry = new DefaultEntry( schemaManager );
+
+        assertEquals( entry, serializer.deserialize( serializer.serialize( entry ) ) );
+    }
+
+
+    @Test
+    public void testProjectedDeserialization() throws Exception
+    {
+        CompactEntrySerializer serializer = new CompactEntrySerializer( schemaManager );
+        byte[] data = serializer.serialize( createEntry() );
+
+        String cnOid = schemaManager.getAttributeType( "cn" ).getOid();
+        String mailOid = schemaManager.getAttributeType( "mail" ).getOid();
+
+        Entry result = serializer.deserialize( data, 0, data.length, new HashSet<>( Arrays.asList( cnOid,
+            mailOid ) ) );
+
+        assertEquals( 2, result.size() );
+        assertTrue( result.contains( "cn", "John Doe" ) );
+        assertTrue( result.contains( "mail", "jdoe@example.com" ) );
+        assertNull( result.get( "jpegPhoto" ) );
+        assertFalse( result.containsAttribute( "sn" ) );
+    }
+
+
+    @Test
+    public void testEntryProjection() throws Exception
+    {
+        CompactEntrySerializer serializer = new CompactEntrySerializer( schemaManager );
+        Entry entry = createEntry();
+        entry.add( "entryUUID", "b3c8d53e-e1a1-4b4f-8d5e-2c1cf0e0ba04" );
+        byte[] data = serializer.serialize( entry );
+
+        // Requesting name returns its subtypes, cn and sn
+        Entry result = serializer.deserialize( data, new EntryProjection( schemaManager,
+            Collections.singleton( schemaManager.getAttributeType( "name" ) ) ) );
+
+        assertTrue( result.contains( "cn", "John Doe" ) );
+        assertTrue( result.contains( "sn", "Doe" ) );
+        assertTrue( result.contains( "objectClass", "person" ) );
+        assertTrue( result.containsAttribute( "entryUUID" ) );
+        assertFalse( result.containsAttribute( "mail" ) );
+        assertNull( result.get( "jpegPhoto" ) );
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.partition.impl.btree.EntryLockManager.EntryLock;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link EntryLockManager} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryLockManagerTest
+{
+    private static final Dn SUFFIX = dn( "dc=example,dc=com" );
+
+
+    private static Dn dn( String name )
+    {
+        try
+        {
+            return new Dn( name );
+        }
+        catch ( Exception e )
+        {
+            throw new IllegalArgumentException( e );
+        }
+    }
+
+
+    /**
+     * Starts a thread locking the given entry, and returns a latch released once the lock
+     * has been acquired.
+     */
+    private CountDownLatch lockEntryInThread( final EntryLockManager lockManager, final Dn dn )
+    {
+        final CountDownLatch acquired = new CountDownLatch( 1 );
+
+        Thread thread = new Thread()
+        {
+            public void run()
+            {
+                EntryLock entryLock = lockManager.lockEntry( SUFFIX, dn );
+                acquired.countDown();
+                entryLock.unlock();
+            }
+        };
+
+        thread.setDaemon( true );
+        thread.start();
+
+        return acquired;
+    }
+
+
+    @Test
+    public void testNbStripes()
+    {
+        assertEquals( EntryLockManager.DEFAULT_NB_STRIPES, new EntryLockManager().getNbStripes() );
+        assertEquals( 1, new EntryLockManager( 1 ).getNbStripes() );
+        assertEquals( 8, new EntryLockManager( 5 ).getNbStripes() );
+        assertEquals( 128, new EntryLockManager( 128 ).getNbStripes() );
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidNbStripes()
+    {
+        new EntryLockManager( 0 );
+    }
+
+
+    @Test
+    public void testSubtreeLockBlocksDescendantModification() throws Exception
+    {
+        EntryLockManager lockManager = new EntryLockManager();
+
+        EntryLock subtreeLock = lockManager.lockSubtree( dn( "ou=people,dc=example,dc=com" ) );
+        CountDownLatch acquired = lockEntryInThread( lockManager, dn( "uid=jdoe,ou=people,dc=example,dc=com" ) );
+
+        try
+        {
+            assertFalse( acquired.await( 200, TimeUnit.MILLISECONDS ) );
+        }
+        finally
+        {
+            subtreeLock.unlock();
+        }
+
+        assertTrue( acquired.await( 10, TimeUnit.SECONDS ) );
+    }
+
+
+    @Test
+    public void testSingleStripeSerializesModifications() throws Exception
+    {
+        EntryLockManager lockManager = new EntryLockManager( 1 );
+
+        EntryLock entryLock = lockManager.lockEntry( SUFFIX, dn( "uid=jdoe,ou=people,dc=example,dc=com" ) );
+        CountDownLatch acquired = lockEntryInThread( lockManager, dn( "cn=admins,ou=groups,dc=example,dc=com" ) );
+
+        try
+        {
+            assertFalse( acquired.await( 200, TimeUnit.MILLISECONDS ) );
+        }
+        finally
+        {
+            entryLock.unlock();
+        }
+
+        assertTrue( acquired.await( 10, TimeUnit.SECONDS ) );
+    }
+
+
+    @Test
+    public void testReentrantLocks() throws Exception
+    {
+        EntryLockManager lockManager = new EntryLockManager();
+        Dn people = dn( "ou=people,dc=example,dc=com" );
+
+        // A structural operation may modify entries in the subtree it holds
+        EntryLock subtreeLock = lockManager.lockSubtree( people );
+        EntryLock nestedSubtreeLock = lockManager.lockSubtree( people );
+        EntryLock entryLock = lockManager.lockEntry( SUFFIX, dn( "uid=jdoe,ou=people,dc=example,dc=com" ) );
+
+        entryLock.unlock();
+        nestedSubtreeLock.unlock();
+        subtreeLock.unlock();
+
+        // All the locks must have been released
+        assertTrue( lockEntryInThread( lockManager, people ).await( 10, TimeUnit.SECONDS ) );
+    }
+}
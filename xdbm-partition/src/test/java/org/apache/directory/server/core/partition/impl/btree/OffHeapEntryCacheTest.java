@@ -0,0 +1,264 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link OffHeapEntryCache} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OffHeapEntryCacheTest
+{
+    /** A codec using the entries' externalization */
+    private static final EntryCodec CODEC = new EntryCodec()
+    {
+        @Override
+        public byte[] serialize( Entry entry ) throws IOException
+        {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+            try ( ObjectOutputStream out = new ObjectOutputStream( baos ) )
+            {
+                entry.writeExternal( out );
+            }
+
+            return baos.toByteArray();
+        }
+
+
+        @Override
+        public Entry deserialize( byte[] bytes ) throws IOException
+        {
+            try ( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) ) )
+            {
+                Entry entry = new DefaultEntry();
+                entry.readExternal( in );
+
+                return entry;
+            }
+            catch ( ClassNotFoundException cnfe )
+            {
+                throw new IOException( cnfe );
+            }
+        }
+
+
+        @Override
+        public Entry deserialize( byte[] bytes, EntryProjection projection ) throws IOException
+        {
+            try
+            {
+                return projection.project( deserialize( bytes ) );
+            }
+            catch ( LdapException le )
+            {
+                throw new IOException( le );
+            }
+        }
+    };
+
+
+    private static Entry entry( int i, int descriptionSize ) throws Exception
+    {
+        char[] description = new char[descriptionSize];
+        Arrays.fill( description, 'x' );
+
+        return new DefaultEntry(
+            "cn=entry" + i + ",ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: entry" + i,
+            "sn: entry",
+            "description: " + new String( description ) );
+    }
+
+
+    @Test
+    public void testPutGet() throws Exception
+    {
+        OffHeapEntryCache cache = new OffHeapEntryCache( 1024 * 1024, CODEC );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            cache.put( "id" + i, entry( i, i * 10 ) );
+        }
+
+        assertEquals( 100, cache.getSize() );
+
+        Entry cached = cache.get( "id42" );
+        assertNotNull( cached );
+        assertEquals( entry( 42, 420 ), cached );
+
+        // Each lookup returns a new instance
+        assertNotSame( cached, cache.get( "id42" ) );
+
+        assertNull( cache.get( "unknown" ) );
+        assertEquals( 2, cache.getHitCount() );
+        assertEquals( 1, cache.getMissCount() );
+
+        // Replace and remove
+        cache.replace( "id42", entry( 42, 1000 ) );
+        assertEquals( entry( 42, 1000 ), cache.get( "id42" ) );
+        cache.replace( "unknown", entry( 0, 0 ) );
+        assertNull( cache.get( "unknown" ) );
+
+        cache.remove( "id42" );
+        assertNull( cache.get( "id42" ) );
+        assertEquals( 99, cache.getSize() );
+
+        cache.clear();
+        assertEquals( 0, cache.getSize() );
+        assertEquals( 0L, cache.getUsedBytes() );
+    }
+
+
+    @Test
+    public void testEviction() throws Exception
+    {
+        // 64 KB, with 4 segments
+        OffHeapEntryCache cache = new OffHeapEntryCache( 64 * 1024, 256, 4, CODEC );
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            cache.put( "id" + i, entry( i, 500 ) );
+            assertTrue( cache.getUsedBytes() <= cache.getMaxBytes() );
+        }
+
+        assertTrue( cache.getEvictionCount() > 0 );
+        assertTrue( cache.getSize() < 1000 );
+
+        // The most recent entry is still there
+        assertEquals( entry( 999, 500 ), cache.get( "id999" ) );
+
+        // An entry bigger than a segment is not cached
+        cache.put( "big", entry( 0, 32 * 1024 ) );
+        assertNull( cache.get( "big" ) );
+        assertEquals( 1, cache.getRejectedCount() );
+    }
+
+
+    /**
+     * An entry removed while it's being replaced is not stored back
+     */
+    @Test
+    public void testRemoveDuringReplace() throws Exception
+    {
+        final CountDownLatch serializing = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        // A codec blocking while it serializes the replacement
+        EntryCodec blockingCodec = new EntryCodec()
+        {
+            @Override
+            public byte[] serialize( Entry entry ) throws IOException
+            {
+                if ( entry.contains( "sn", "slow" ) )
+                {
+                    serializing.countDown();
+
+                    try
+                    {
+                        release.await( 10, TimeUnit.SECONDS );
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        throw new IOException( ie );
+                    }
+                }
+
+                return CODEC.serialize( entry );
+            }
+
+
+            @Override
+            public Entry deserialize( byte[] bytes ) throws IOException
+            {
+                return CODEC.deserialize( bytes );
+            }
+
+
+            @Override
+            public Entry deserialize( byte[] bytes, EntryProjection projection ) throws IOException
+            {
+                return CODEC.deserialize( bytes, projection );
+            }
+        };
+
+        final OffHeapEntryCache cache = new OffHeapEntryCache( 1024 * 1024, blockingCodec );
+        cache.put( "id", entry( 0, 10 ) );
+
+        final Entry replacement = entry( 0, 10 );
+        replacement.put( "sn", "slow" );
+
+        Thread replacer = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                cache.replace( "id", replacement );
+            }
+        };
+
+        Thread remover = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                cache.remove( "id" );
+            }
+        };
+
+        replacer.start();
+        assertTrue( serializing.await( 10, TimeUnit.SECONDS ) );
+
+        // The removal waits for the replacement
+        remover.start();
+        Thread.sleep( 100L );
+        release.countDown();
+
+        replacer.join( 10000L );
+        remover.join( 10000L );
+
+        assertNull( cache.get( "id" ) );
+        assertEquals( 0, cache.getSize() );
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.apache.directory.server.xdbm.impl.avl.AvlTable;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link NGramIndex} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class NGramIndexTest
+{
+    private static final Comparator<String> COMPARATOR = new Comparator<String>()
+    {
+        @Override
+        public int compare( String string1, String string2 )
+        {
+            return string1.compareTo( string2 );
+        }
+    };
+
+
+    @Test
+    public void testGetGrams()
+    {
+        assertEquals( new HashSet<>( Arrays.asList( "smi", "mit", "ith" ) ), NGramIndex.getGrams( "smith" ) );
+
+        // No n-gram across the spaces
+        assertEquals( new HashSet<>( Arrays.asList( "joh", "ohn", "smi", "mit", "ith" ) ),
+            NGramIndex.getGrams( " john  smith " ) );
+
+        assertTrue( NGramIndex.getGrams( "ab" ).isEmpty() );
+        assertTrue( NGramIndex.getGrams( null ).isEmpty() );
+    }
+
+
+    @Test
+    public void testCandidateKeys() throws Exception
+    {
+        NGramIndex ngramIndex = new NGramIndex( new AvlTable<>( "test", COMPARATOR, COMPARATOR, true ) );
+        PartitionTxn txn = new PartitionWriteTxn();
+
+        assertTrue( ngramIndex.isEmpty( txn ) );
+
+        ngramIndex.add( txn, "john smith" );
+        ngramIndex.add( txn, "jane smithers" );
+        ngramIndex.add( txn, "bob smoth" );
+
+        assertFalse( ngramIndex.isEmpty( txn ) );
+        assertEquals( new HashSet<>( Arrays.asList( "john smith", "jane smithers" ) ),
+            ngramIndex.getCandidateKeys( txn, Arrays.asList( "smith" ) ) );
+        assertEquals( Collections.singleton( "jane smithers" ),
+            ngramIndex.getCandidateKeys( txn, Arrays.asList( "smith", "ers" ) ) );
+        assertTrue( ngramIndex.getCandidateKeys( txn, Arrays.asList( "doe" ) ).isEmpty() );
+
+        // Too short to be used
+        assertNull( ngramIndex.getCandidateKeys( txn, Arrays.asList( "sm", "h" ) ) );
+
+        ngramIndex.drop( txn, "john smith" );
+
+        assertEquals( Collections.singleton( "jane smithers" ),
+            ngramIndex.getCandidateKeys( txn, Arrays.asList( "smith" ) ) );
+    }
+
+
+    /**
+     * The table must accept several keys for a n-gram
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testTableWithoutDuplicates()
+    {
+        new NGramIndex( new AvlTable<>( "test", COMPARATOR, COMPARATOR, false ) );
+    }
+}
@@ -29,10 +29,13 @@ import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
@@ -63,9 +66,13 @@ import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModDnAva;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.partition.impl.btree.EntryProjection;
 import org.apache.directory.server.core.shared.DefaultDnFactory;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.IndexStatistics;
+import org.apache.directory.server.xdbm.NGramIndex;
 import org.apache.directory.server.xdbm.StoreUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -153,7 +160,9 @@ public class AvlPartitionTest
         partition.setId( "example" );
         partition.setSyncOnWrite( false );
 
-        partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        AvlIndex<String> ouIndex = new AvlIndex<String>( SchemaConstants.OU_AT_OID );
+        ouIndex.setSubstringIndexed( true );
+        partition.addIndex( ouIndex );
         partition.addIndex( new AvlIndex<String>( SchemaConstants.UID_AT_OID ) );
         partition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
 
@@ -442,6 +451,171 @@ public class AvlPartitionTest
     }
 
 
+    /**
+     * Waits for the statistics of an index, which are built in the background
+     */
+    private IndexStatistics waitForStatistics( AttributeType attributeType ) throws Exception
+    {
+        long deadline = System.currentTimeMillis() + 10000L;
+        IndexStatistics statistics = partition.getIndexStatistics( txn, attributeType );
+
+        while ( ( statistics == null ) && ( System.currentTimeMillis() < deadline ) )
+        {
+            Thread.sleep( 10L );
+            statistics = partition.getIndexStatistics( txn, attributeType );
+        }
+
+        return statistics;
+    }
+
+
+    @Test
+    public void testIndexStatistics() throws Exception
+    {
+        assertNull( partition.getIndexStatistics( txn, SN_AT ) );
+
+        // The first request does not wait for the statistics to be built
+        IndexStatistics statistics = waitForStatistics( OU_AT );
+        long count = partition.getUserIndex( OU_AT ).count( txn );
+
+        assertNotNull( statistics );
+        assertEquals( count, statistics.getCount() );
+        assertTrue( statistics.estimateGreaterOrEqualCount( "a" ) <= count );
+        assertEquals( 0L, statistics.estimateLessOrEqualCount( "" ) );
+
+        // The statistics are maintained on updates
+        Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        partition.modify( txn, dn, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, OU_AT,
+            "Statistics" ) );
+
+        assertEquals( count + 1, statistics.getCount() );
+        assertEquals( count + 1, partition.getUserIndex( OU_AT ).count( txn ) );
+
+        partition.modify( txn, dn, new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE, OU_AT,
+            "Statistics" ) );
+
+        assertEquals( count, statistics.getCount() );
+
+        // Within a write transaction, the statistics are updated when it's committed
+        PartitionWriteTxn writeTxn = partition.beginWriteTransaction();
+        partition.modify( writeTxn, dn, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, OU_AT,
+            "Statistics" ) );
+
+        assertEquals( count, statistics.getCount() );
+
+        writeTxn.commit();
+        assertEquals( count + 1, statistics.getCount() );
+    }
+
+
+    @Test
+    public void testNGramIndex() throws Exception
+    {
+        assertNull( partition.getNGramIndex( txn, schemaManager.getAttributeType( "uid" ) ) );
+
+        NGramIndex ngramIndex = partition.getNGramIndex( txn, OU_AT );
+
+        assertNotNull( ngramIndex );
+        assertTrue( ngramIndex.getCandidateKeys( txn, Arrays.asList( "ale" ) ).contains( "sales" ) );
+        assertTrue( ngramIndex.getCandidateKeys( txn, Arrays.asList( "statistics" ) ).isEmpty() );
+
+        // The n-grams are maintained on updates
+        Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        partition.modify( txn, dn, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, OU_AT,
+            "Statistics" ) );
+
+        assertTrue( ngramIndex.getCandidateKeys( txn, Arrays.asList( "statistics" ) ).contains( "statistics" ) );
+
+        partition.modify( txn, dn, new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE, OU_AT,
+            "Statistics" ) );
+
+        assertTrue( ngramIndex.getCandidateKeys( txn, Arrays.asList( "statistics" ) ).isEmpty() );
+    }
+
+
+    /**
+     * The removal of a whole attribute updates the user index and its n-grams, even if
+     * the index has no reverse table
+     */
+    @Test
+    public void testNGramIndexWithoutReverse() throws Exception
+    {
+        AvlPartition avlPartition = new AvlPartition( schemaManager, dnFactory );
+        avlPartition.setId( "noreverse" );
+        avlPartition.setSyncOnWrite( false );
+
+        AvlIndex<String> ouIndex = new AvlIndex<String>( SchemaConstants.OU_AT_OID, false );
+        ouIndex.setSubstringIndexed( true );
+        avlPartition.addIndex( ouIndex );
+        avlPartition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        avlPartition.setCacheService( cacheService );
+        avlPartition.initialize();
+
+        StoreUtils.loadExampleData( avlPartition, schemaManager );
+        PartitionTxn partitionTxn = avlPartition.beginReadTransaction();
+
+        try
+        {
+            NGramIndex ngramIndex = avlPartition.getNGramIndex( partitionTxn, OU_AT );
+            long count = avlPartition.getUserIndex( OU_AT ).count( partitionTxn );
+            Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+            avlPartition.modify( partitionTxn, dn, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+                OU_AT, "Statistics" ) );
+
+            assertTrue( ngramIndex.getCandidateKeys( partitionTxn, Arrays.asList( "statistics" ) )
+                .contains( "statistics" ) );
+
+            // Remove all the values of the attribute
+            avlPartition.modify( partitionTxn, dn, new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE,
+                OU_AT ) );
+
+            // The entry has a single ou value besides the added one
+            assertEquals( count - 1, avlPartition.getUserIndex( OU_AT ).count( partitionTxn ) );
+            assertTrue( ngramIndex.getCandidateKeys( partitionTxn, Arrays.asList( "statistics" ) ).isEmpty() );
+        }
+        finally
+        {
+            avlPartition.destroy( partitionTxn );
+        }
+    }
+
+
+    @Test
+    public void testProjectedFetch() throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        String id = partition.getEntryId( txn, dn );
+
+        Set<AttributeType> attributeTypes = new HashSet<>();
+        attributeTypes.add( schemaManager.getAttributeType( "cn" ) );
+
+        Entry entry = partition.fetch( txn, id, new EntryProjection( schemaManager, attributeTypes ) );
+
+        // The requested attributes, the objectClass and the operational attributes are read
+        assertEquals( dn, entry.getDn() );
+        assertTrue( entry.contains( "cn", "JOhnny WAlkeR" ) );
+        assertTrue( entry.contains( "objectClass", "person" ) );
+        assertTrue( entry.containsAttribute( "entryUUID", "entryDn" ) );
+        assertFalse( entry.containsAttribute( "sn" ) );
+        assertFalse( entry.containsAttribute( "postalCode" ) );
+
+        // The subtypes of a requested attribute are read too
+        attributeTypes.clear();
+        attributeTypes.add( schemaManager.getAttributeType( "name" ) );
+
+        entry = partition.fetch( txn, id, new EntryProjection( schemaManager, attributeTypes ) );
+
+        assertTrue( entry.containsAttribute( "cn", "sn", "ou" ) );
+        assertFalse( entry.containsAttribute( "postalCode" ) );
+
+        // The full entry is not impacted
+        entry = partition.fetch( txn, id );
+
+        assertTrue( entry.contains( "postalCode", "3" ) );
+        assertTrue( entry.containsAttribute( "sn" ) );
+    }
+
+
     @Test
     public void testRename() throws Exception
     {
@@ -495,6 +669,28 @@ public class AvlPartitionTest
     }
 
 
+    @Test
+    public void testRenameUpdatesDescendantDns() throws Exception
+    {
+        Dn childDn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        Dn otherDn = new Dn( schemaManager, "cn=Jack Daniels,ou=Engineering,o=Good Times Co." );
+        String childId = partition.getEntryId( txn, childDn );
+        String otherId = partition.getEntryId( txn, otherDn );
+
+        // Put the DNs in the cache
+        assertEquals( childDn, partition.fetch( txn, childId ).getDn() );
+        assertEquals( otherDn, partition.fetch( txn, otherId ).getDn() );
+
+        partition.rename( txn, new Dn( schemaManager, "ou=Sales,o=Good Times Co." ),
+            new Rdn( schemaManager, "ou=Marketing" ), false, null );
+
+        // The descendants of the renamed entry have a new DN, the other entries are not impacted
+        assertEquals( new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Marketing,o=Good Times Co." ),
+            partition.fetch( txn, childId ).getDn() );
+        assertEquals( otherDn, partition.fetch( txn, otherId ).getDn() );
+    }
+
+
     @Test
     public void testMove() throws Exception
     {
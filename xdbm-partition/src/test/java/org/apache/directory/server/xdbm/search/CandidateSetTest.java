@@ -0,0 +1,226 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.search.cursor.CandidateCursor;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link CandidateSet} and {@link CandidateCursor} classes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CandidateSetTest
+{
+    @Test
+    public void testAddContains()
+    {
+        CandidateSet candidates = new CandidateSet();
+        Set<String> expected = new HashSet<>();
+
+        // Enough UUIDs to make the set grow a few times
+        for ( int i = 0; i < 1000; i++ )
+        {
+            String uuid = UUID.randomUUID().toString();
+            expected.add( uuid );
+
+            assertTrue( candidates.add( uuid ) );
+            assertFalse( candidates.add( uuid ) );
+        }
+
+        // Some IDs which are not canonical UUIDs
+        String[] others = new String[]
+            { "00000000-0000-0000-0000-000000000000", "ABCDEF00-0000-0000-0000-000000000001", "1", null };
+
+        for ( String other : others )
+        {
+            expected.add( other );
+
+            assertTrue( candidates.add( other ) );
+            assertFalse( candidates.add( other ) );
+        }
+
+        assertEquals( expected.size(), candidates.size() );
+
+        for ( String id : expected )
+        {
+            assertTrue( candidates.contains( id ) );
+        }
+
+        assertFalse( candidates.contains( UUID.randomUUID().toString() ) );
+        assertFalse( candidates.contains( "abcdef00-0000-0000-0000-000000000001" ) );
+        assertEquals( expected, new HashSet<>( candidates ) );
+
+        candidates.clear();
+        assertEquals( 0, candidates.size() );
+        assertFalse( candidates.iterator().hasNext() );
+    }
+
+
+    @Test
+    public void testOtherIds()
+    {
+        CandidateSet candidates = new CandidateSet();
+
+        for ( int i = 0; i < 10000; i++ )
+        {
+            assertTrue( candidates.add( Integer.toString( i ) ) );
+        }
+
+        assertEquals( 10000, candidates.size() );
+
+        // The other IDs are found by their position
+        for ( int i = 0; i < 10000; i++ )
+        {
+            String id = Integer.toString( i );
+            int position = candidates.indexOf( id );
+
+            assertTrue( position >= 0 );
+            assertEquals( id, candidates.get( position ) );
+        }
+
+        assertEquals( -1, candidates.indexOf( "10000" ) );
+        assertFalse( candidates.contains( "10000" ) );
+    }
+
+
+    @Test
+    public void testCursor() throws Exception
+    {
+        CandidateSet candidates = new CandidateSet();
+        Set<String> expected = new HashSet<>();
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            String uuid = UUID.randomUUID().toString();
+            expected.add( uuid );
+            candidates.add( uuid );
+        }
+
+        expected.add( "other" );
+        candidates.add( "other" );
+
+        Set<String> read = new HashSet<>();
+
+        try ( CandidateCursor cursor = new CandidateCursor( candidates ) )
+        {
+            assertFalse( cursor.available() );
+
+            while ( cursor.next() )
+            {
+                IndexEntry<String, String> indexEntry = cursor.get();
+                read.add( indexEntry.getId() );
+            }
+
+            assertFalse( cursor.available() );
+            assertEquals( expected, read );
+
+            // And backward
+            read.clear();
+
+            while ( cursor.previous() )
+            {
+                read.add( cursor.get().getId() );
+            }
+
+            assertEquals( expected, read );
+
+            assertTrue( cursor.last() );
+            assertTrue( cursor.first() );
+        }
+    }
+
+
+    @Test
+    public void testCursorBefore() throws Exception
+    {
+        CandidateSet candidates = new CandidateSet();
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            candidates.add( UUID.randomUUID().toString() );
+        }
+
+        candidates.add( "other" );
+
+        try ( CandidateCursor cursor = new CandidateCursor( candidates ) )
+        {
+            // Read the candidates in the cursor order
+            List<String> ordered = new ArrayList<>();
+
+            while ( cursor.next() )
+            {
+                ordered.add( cursor.get().getId() );
+            }
+
+            // Resume the iteration from any candidate
+            for ( int i = 0; i < ordered.size(); i += 10 )
+            {
+                IndexEntry<String, String> element = new IndexEntry<>();
+                element.setId( ordered.get( i ) );
+
+                cursor.before( element );
+                assertFalse( cursor.available() );
+                assertTrue( cursor.next() );
+                assertEquals( ordered.get( i ), cursor.get().getId() );
+
+                cursor.after( element );
+                assertEquals( i < ordered.size() - 1, cursor.next() );
+
+                if ( i < ordered.size() - 1 )
+                {
+                    assertEquals( ordered.get( i + 1 ), cursor.get().getId() );
+                }
+            }
+
+            // An unknown candidate : there is nothing to read
+            IndexEntry<String, String> unknown = new IndexEntry<>();
+            unknown.setId( UUID.randomUUID().toString() );
+            cursor.before( unknown );
+            assertFalse( cursor.next() );
+        }
+    }
+
+
+    @Test
+    public void testEmptyCursor() throws Exception
+    {
+        try ( CandidateCursor cursor = new CandidateCursor( new CandidateSet() ) )
+        {
+            assertFalse( cursor.first() );
+            assertFalse( cursor.last() );
+            assertFalse( cursor.next() );
+            assertFalse( cursor.previous() );
+        }
+    }
+}